@@ -15,4 +15,11 @@ public class Constants {
 
     public static final String MEMCACHE_ANNOUNCEMENTS_KEY = "RECENT_ANNOUNCEMENTS";
     public static final String MEMCACHE_FEATURED_SPEAKER_KEY = "FEATURED_SPEAKERS";
+    public static final String MEMCACHE_SEATS_AVAILABLE_PREFIX = "SEATS_AVAILABLE:";
+    public static final String MEMCACHE_SEAT_CONTENTION_PREFIX = "SEAT_CONTENTION:";
+    public static final String MEMCACHE_QUERY_STATISTICS_PREFIX = "QUERY_STATISTICS:";
+    public static final String MEMCACHE_QUERY_GENERATION_PREFIX = "QUERY_GENERATION:";
+    public static final String MEMCACHE_QUERY_RESULT_PREFIX = "QUERY_RESULT:";
+    public static final String MEMCACHE_ETAG_PREFIX = "ETAG:";
+    public static final String MEMCACHE_RATE_LIMIT_PREFIX = "RATE_LIMIT:";
 }
\ No newline at end of file
@@ -0,0 +1,155 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.service.ETags;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.OnSave;
+import com.googlecode.objectify.annotation.Serialize;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Agenda class stores all the sessions of a conference in one compact entity, sorted by date
+ * and start time, so that the agenda is read with one cached get instead of a query.
+ *
+ * It is a root entity keyed by the conference, like FeaturedSpeaker. The sessions are kept as
+ * a zipped serialized list, and indexed by type when the entity is loaded.
+ *
+ * Its version changes whenever a session is put in it, so it tags the sessions of the
+ * conference as a whole.
+ */
+@Entity
+@Cache
+public class Agenda implements Versioned {
+
+    /**
+     * Orders sessions by date, start time and name, the sessions without a date last.
+     */
+    private static final Comparator<Session> AGENDA_ORDER = new Comparator<Session>() {
+        @Override
+        public int compare(Session a, Session b) {
+            if (a.getDate() == null || b.getDate() == null) {
+                if (a.getDate() != b.getDate()) {
+                    return a.getDate() == null ? 1 : -1;
+                }
+            } else if (!a.getDate().equals(b.getDate())) {
+                return a.getDate().compareTo(b.getDate());
+            }
+            if (a.getStartTime() != b.getStartTime()) {
+                return a.getStartTime() < b.getStartTime() ? -1 : 1;
+            }
+            int byName = String.valueOf(a.getName()).compareTo(String.valueOf(b.getName()));
+            if (byName != 0) {
+                return byName;
+            }
+            return a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1);
+        }
+    };
+
+    /**
+     * The websafe key of the Conference, used as the name of the datastore key.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    @Serialize(zip = true)
+    private ArrayList<Session> sessions = new ArrayList<>(0);
+
+    /**
+     * The sessions by type of session, in agenda order.
+     */
+    @Ignore
+    private Map<String, List<Session>> sessionsByType;
+
+    /**
+     * Changes every time this agenda is saved, like the version of Conference.
+     */
+    private long version;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Agenda() {}
+
+    public Agenda(final String websafeConferenceKey, final Collection<Session> sessions) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.sessions = new ArrayList<>(sessions);
+        Collections.sort(this.sessions, AGENDA_ORDER);
+        indexByType();
+    }
+
+    public static Key<Agenda> createKey(final String websafeConferenceKey) {
+        return Key.create(Agenda.class, websafeConferenceKey);
+    }
+
+    @OnLoad
+    private void indexByType() {
+        sessionsByType = new HashMap<>();
+        for (Session session : sessions) {
+            List<Session> sessionsOfType = sessionsByType.get(session.getTypeOfSession());
+            if (sessionsOfType == null) {
+                sessionsOfType = new ArrayList<>();
+                sessionsByType.put(session.getTypeOfSession(), sessionsOfType);
+            }
+            sessionsOfType.add(session);
+        }
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    @Override
+    public String getEtag() {
+        return ETags.of(version);
+    }
+
+    @OnSave
+    private void touch() {
+        version = Math.max(version + 1, System.currentTimeMillis());
+    }
+
+    public List<Session> getSessions() {
+        return Collections.unmodifiableList(sessions);
+    }
+
+    /**
+     * Returns the sessions of the given type, in agenda order.
+     *
+     * @param typeOfSession type of the session.
+     * @return the sessions of the given type.
+     */
+    public List<Session> getSessionsByType(final String typeOfSession) {
+        List<Session> sessionsOfType = sessionsByType.get(typeOfSession);
+        return sessionsOfType == null
+                ? Collections.<Session>emptyList() : ImmutableList.copyOf(sessionsOfType);
+    }
+
+    /**
+     * Adds the given session, or replaces the one with the same id.
+     *
+     * @param session the Session created or edited.
+     */
+    public void putSession(final Session session) {
+        for (int i = 0; i < sessions.size(); i++) {
+            if (sessions.get(i).getId() == session.getId()) {
+                sessions.remove(i);
+                break;
+            }
+        }
+        int index = Collections.binarySearch(sessions, session, AGENDA_ORDER);
+        sessions.add(index < 0 ? -index - 1 : index, session);
+        indexByType();
+    }
+}
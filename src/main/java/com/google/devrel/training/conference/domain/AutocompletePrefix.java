@@ -0,0 +1,104 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * AutocompletePrefix class stores the suggestions of a field for one prefix typed by a user.
+ *
+ * There is an entity per field and prefix, so a keystroke costs a get by key. It keeps at most
+ * MAX_VALUES values, the first ones in alphabetical order; the others are found with a longer
+ * prefix.
+ */
+@Entity
+@Cache
+public class AutocompletePrefix {
+
+    /**
+     * The maximum number of values kept for a prefix.
+     */
+    public static final int MAX_VALUES = 10;
+
+    /**
+     * The field and the prefix, separated by a colon.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The values as they were first given, ordered by their lower case form.
+     */
+    private List<String> values = new ArrayList<>(0);
+
+    /**
+     * Just making the default constructor private.
+     */
+    private AutocompletePrefix() {}
+
+    public AutocompletePrefix(final String field, final String prefix) {
+        this.id = field + ":" + prefix;
+    }
+
+    public static Key<AutocompletePrefix> createKey(final String field, final String prefix) {
+        return Key.create(AutocompletePrefix.class, field + ":" + prefix);
+    }
+
+    public List<String> getValues() {
+        return ImmutableList.copyOf(values);
+    }
+
+    /**
+     * Adds a value in order, unless a value equal ignoring case is already there, and drops the
+     * last value if there are more than MAX_VALUES.
+     *
+     * @param value the value.
+     * @return true when the values changed.
+     */
+    public boolean add(final String value) {
+        String lowerCase = value.toLowerCase(Locale.ROOT);
+        int index = 0;
+        while (index < values.size()) {
+            int comparison = values.get(index).toLowerCase(Locale.ROOT).compareTo(lowerCase);
+            if (comparison == 0) {
+                return false;
+            }
+            if (comparison > 0) {
+                break;
+            }
+            index++;
+        }
+        if (index >= MAX_VALUES) {
+            return false;
+        }
+        values.add(index, value);
+        if (values.size() > MAX_VALUES) {
+            values.remove(MAX_VALUES);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the value equal to the given one ignoring case. The values that were dropped for
+     * being past MAX_VALUES come back when they are added again.
+     *
+     * @param value the value.
+     * @return true when the values changed.
+     */
+    public boolean remove(final String value) {
+        String lowerCase = value.toLowerCase(Locale.ROOT);
+        for (int index = 0; index < values.size(); index++) {
+            if (values.get(index).toLowerCase(Locale.ROOT).equals(lowerCase)) {
+                values.remove(index);
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -8,23 +8,30 @@ import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.ETags;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
 
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Conference class stores conference information.
  */
 @Entity
 @Cache
-public class Conference {
+public class Conference implements Versioned {
 
     private static final String DEFAULT_CITY = "Default City";
 
@@ -62,6 +69,21 @@ public class Conference {
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     private String organizerUserId;
 
+    /**
+     * The display name of the organizer, copied from the Profile so that serializing a
+     * conference doesn't load the Profile.
+     */
+    private String organizerDisplayName;
+
+    /**
+     * The display name read from the Profile when none was copied, never saved.
+     */
+    @Ignore
+    private String loadedOrganizerDisplayName;
+
+    @Ignore
+    private boolean organizerLoaded;
+
     /**
      * Topics related to this conference.
      */
@@ -103,6 +125,38 @@ public class Conference {
     @Index
     private int seatsAvailable;
 
+    /**
+     * Number of SeatShards holding the seat inventory, 0 when the inventory is not sharded.
+     *
+     * While sharded, seatsAvailable is only a snapshot taken when the shards were last rebuilt.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    @Index(IfNotDefault.class)
+    private int seatShardCount;
+
+    /**
+     * The total of the SeatShards, set by SeatInventory.resolveSeatsAvailable and never saved.
+     */
+    @Ignore
+    private Integer shardedSeatsAvailable;
+
+    /**
+     * When this conference was last saved, for the incremental exports.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    @Index
+    private Date updated;
+
+    /**
+     * Changes every time this conference is saved. It is the time of the save in milliseconds,
+     * or one more than the previous version, so it never goes back even for a conference
+     * deleted and created again. Indexed, as the stamp the clients syncing the conferences
+     * keep their watermark in.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    @Index
+    private long version;
+
     /**
      * Just making the default constructor private.
      */
@@ -147,16 +201,56 @@ public class Conference {
     /**
      * Returns organizer's display name.
      *
+     * Conferences saved before the name was copied onto them load the Profile once, unless
+     * loadOrganizerDisplayNames has read it already.
+     *
      * @return organizer's display name. If there is no Profile, return his/her userId.
      */
     public String getOrganizerDisplayName() {
-        // Profile organizer = ofy().load().key(Key.create(Profile.class, organizerUserId)).now();
-        Profile organizer = ofy().load().key(getProfileKey()).now();
-        if (organizer == null) {
-            return organizerUserId;
-        } else {
-            return organizer.getDisplayName();
+        if (organizerDisplayName != null) {
+            return organizerDisplayName;
+        }
+        if (!organizerLoaded) {
+            loadedOrganizer(ofy().load().key(getProfileKey()).now());
         }
+        return loadedOrganizerDisplayName;
+    }
+
+    private void loadedOrganizer(final Profile organizer) {
+        loadedOrganizerDisplayName = organizer == null ? organizerUserId
+                : organizer.getDisplayName();
+        organizerLoaded = true;
+    }
+
+    /**
+     * Fills in the organizer names missing from the given conferences with one batch get of
+     * their distinct Profiles, instead of a get per conference.
+     *
+     * @param conferences the conferences about to be returned.
+     * @return the same conferences.
+     */
+    public static <T extends Collection<Conference>> T loadOrganizerDisplayNames(
+            final T conferences) {
+        Set<Key<Profile>> profileKeys = new HashSet<>();
+        for (Conference conference : conferences) {
+            if (conference.organizerDisplayName == null && !conference.organizerLoaded) {
+                profileKeys.add(conference.getProfileKey());
+            }
+        }
+        if (profileKeys.isEmpty()) {
+            return conferences;
+        }
+        Map<Key<Profile>, Profile> profiles = ofy().load().keys(profileKeys);
+        for (Conference conference : conferences) {
+            if (conference.organizerDisplayName == null && !conference.organizerLoaded) {
+                conference.loadedOrganizer(profiles.get(conference.getProfileKey()));
+            }
+        }
+        return conferences;
+    }
+
+    public void updateOrganizerDisplayName(final String organizerDisplayName) {
+        this.organizerDisplayName = organizerDisplayName;
     }
 
     /**
@@ -195,8 +289,72 @@ public class Conference {
         return maxAttendees;
     }
 
+    /**
+     * Returns the number of seats currently available.
+     *
+     * @return seatsAvailable, or the total of the SeatShards once resolved if sharded.
+     */
     public int getSeatsAvailable() {
-        return seatsAvailable;
+        return shardedSeatsAvailable == null ? seatsAvailable : shardedSeatsAvailable;
+    }
+
+    /**
+     * Sets the total of the SeatShards of a sharded conference, which its saved seatsAvailable
+     * is only a snapshot of.
+     *
+     * @param shardedSeatsAvailable the number of seats available over all the shards.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public void setShardedSeatsAvailable(final int shardedSeatsAvailable) {
+        this.shardedSeatsAvailable = shardedSeatsAvailable;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getSeatShardCount() {
+        return seatShardCount;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isSeatSharded() {
+        return seatShardCount > 0;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Date getUpdated() {
+        return updated == null ? null : new Date(updated.getTime());
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the ETag of this version, null for a sharded conference, whose seatsAvailable
+     * changes without the conference being saved.
+     *
+     * @return the ETag, null when the conference can't be tagged.
+     */
+    @Override
+    public String getEtag() {
+        return isSeatSharded() ? null : ETags.of(version);
+    }
+
+    @OnSave
+    void touch() {
+        updated = new Date();
+        version = Math.max(version + 1, updated.getTime());
+    }
+
+    /**
+     * Records that the seat inventory has been spread over the given number of shards.
+     *
+     * @param seatShardCount the number of shards.
+     * @param seatsAvailable the total number of seats held by the shards.
+     */
+    public void updateSeatShards(final int seatShardCount, final int seatsAvailable) {
+        this.seatShardCount = seatShardCount;
+        this.seatsAvailable = seatsAvailable;
     }
 
     /**
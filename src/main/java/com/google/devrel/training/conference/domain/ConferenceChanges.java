@@ -0,0 +1,60 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The conferences changed and deleted after a client's watermark, and the watermark to ask
+ * from next.
+ *
+ * A conference may come again in a later page, so the clients apply the changes as upserts and
+ * the deletions as removals, and ignore the deletions of conferences they don't have.
+ */
+public class ConferenceChanges {
+
+    private List<Conference> changed = new ArrayList<>(0);
+
+    private List<String> deleted = new ArrayList<>(0);
+
+    private long watermark;
+
+    private boolean more;
+
+    public ConferenceChanges() {}
+
+    public ConferenceChanges(final List<Conference> changed, final List<String> deleted,
+                             final long watermark, final boolean more) {
+        this.changed = changed;
+        this.deleted = deleted;
+        this.watermark = watermark;
+        this.more = more;
+    }
+
+    /**
+     * Returns the conferences created or changed, in the order of their stamp.
+     */
+    public List<Conference> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Returns the websafe keys of the conferences deleted.
+     */
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Returns the watermark to send with the next request.
+     */
+    public long getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Returns whether more changes are waiting, in which case the client asks again at once.
+     */
+    public boolean isMore() {
+        return more;
+    }
+}
@@ -0,0 +1,171 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ConferenceFacets class stores the number of conferences per city, topic and month, and the
+ * number of conferences with and without seats available.
+ *
+ * The counts are spread over SHARD_COUNT shards, each holding part of them, so that the
+ * creation of conferences and the registrations taking the last seat or giving it back don't
+ * all compete for one entity. A change goes to a random shard, where a count can go below zero,
+ * and reading all the counts is one batch get adding the shards up.
+ */
+@Entity
+@Cache
+public class ConferenceFacets {
+
+    /**
+     * The number of shards.
+     */
+    public static final int SHARD_COUNT = 20;
+
+    /**
+     * The name of the first shard, which was once the only instance.
+     */
+    private static final String ID = "conferenceFacets";
+
+    @Id
+    private String id = ID;
+
+    private Map<String, Integer> cities = new HashMap<>();
+
+    private Map<String, Integer> topics = new HashMap<>();
+
+    /**
+     * Keyed by the month number, as the keys of a map are strings.
+     */
+    private Map<String, Integer> months = new HashMap<>();
+
+    private int withSeatsAvailable;
+
+    private int soldOut;
+
+    public ConferenceFacets() {}
+
+    /**
+     * Creates an empty shard.
+     *
+     * @param shard the index of the shard.
+     */
+    public ConferenceFacets(final int shard) {
+        this.id = shard == 0 ? ID : ID + "-" + shard;
+    }
+
+    public static Key<ConferenceFacets> createKey(final int shard) {
+        return Key.create(ConferenceFacets.class, shard == 0 ? ID : ID + "-" + shard);
+    }
+
+    public Map<String, Integer> getCities() {
+        return ImmutableSortedMap.copyOf(cities);
+    }
+
+    public Map<String, Integer> getTopics() {
+        return ImmutableSortedMap.copyOf(topics);
+    }
+
+    public Map<String, Integer> getMonths() {
+        return ImmutableSortedMap.copyOf(months);
+    }
+
+    public int getWithSeatsAvailable() {
+        return withSeatsAvailable;
+    }
+
+    public int getSoldOut() {
+        return soldOut;
+    }
+
+    /**
+     * Counts a conference, or stops counting it.
+     *
+     * @param conference the Conference.
+     * @param delta 1 to count the conference, -1 to stop counting it.
+     */
+    public void add(final Conference conference, final int delta) {
+        increment(cities, conference.getCity(), delta);
+        List<String> conferenceTopics = conference.getTopics();
+        if (conferenceTopics != null) {
+            for (String topic : conferenceTopics) {
+                increment(topics, topic, delta);
+            }
+        }
+        if (conference.getMonth() > 0) {
+            increment(months, String.valueOf(conference.getMonth()), delta);
+        }
+        updateSeats(conference.getSeatsAvailable() > 0, delta);
+    }
+
+    /**
+     * Moves a conference between the ones with seats available and the sold out ones.
+     *
+     * @param seatsAvailable whether the conference has seats available now.
+     * @param delta 1 to count the conference, -1 to stop counting it.
+     */
+    public void updateSeats(final boolean seatsAvailable, final int delta) {
+        if (seatsAvailable) {
+            withSeatsAvailable += delta;
+        } else {
+            soldOut += delta;
+        }
+    }
+
+    /**
+     * Adds the counts of a shard to these.
+     *
+     * @param shard the shard.
+     */
+    public void addAll(final ConferenceFacets shard) {
+        addAll(cities, shard.cities);
+        addAll(topics, shard.topics);
+        addAll(months, shard.months);
+        withSeatsAvailable += shard.withSeatsAvailable;
+        soldOut += shard.soldOut;
+    }
+
+    /**
+     * Drops the values which are no longer counted, once all the shards are added up.
+     */
+    public void removeEmpty() {
+        for (Map<String, Integer> counts : Arrays.asList(cities, topics, months)) {
+            Iterator<Integer> iterator = counts.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() <= 0) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static void addAll(final Map<String, Integer> counts,
+                               final Map<String, Integer> shardCounts) {
+        for (Map.Entry<String, Integer> entry : shardCounts.entrySet()) {
+            increment(counts, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void increment(final Map<String, Integer> counts, final String value,
+                                  final int delta) {
+        if (value == null) {
+            return;
+        }
+        Integer count = counts.get(value);
+        int updated = (count == null ? 0 : count) + delta;
+        // A shard may count below zero the conferences counted by another one.
+        if (updated != 0) {
+            counts.put(value, updated);
+        } else {
+            counts.remove(value);
+        }
+    }
+}
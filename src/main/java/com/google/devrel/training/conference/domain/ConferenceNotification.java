@@ -0,0 +1,165 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+
+import java.util.Date;
+
+/**
+ * ConferenceNotification class stores the progress of the latest notification of the attendees
+ * of a conference about a change.
+ *
+ * The attendees are planned into shards of a bounded size by chained tasks walking the
+ * registrations of the conference, and each shard is notified by a task of its own, which
+ * records a NotificationShard when it is done. A change while the attendees are still being
+ * notified starts a new generation, and the tasks of the previous one stop.
+ */
+@Entity
+public class ConferenceNotification {
+
+    public static enum Status {
+        PLANNING,
+        SENDING,
+        DONE
+    }
+
+    /**
+     * The websafe key of the conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private String organizerUserId;
+
+    private long generation;
+
+    private Date started;
+
+    /**
+     * The cursor of the registrations to plan from, null at the start.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private String cursor;
+
+    private boolean planned;
+
+    private int shards;
+
+    private int recipients;
+
+    /**
+     * The number of shards notified, counted from the NotificationShards when read.
+     */
+    @Ignore
+    private int shardsDone;
+
+    @Ignore
+    private int recipientsNotified;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferenceNotification() {}
+
+    public ConferenceNotification(final Conference conference) {
+        this.websafeConferenceKey = conference.getWebsafeKey();
+        this.organizerUserId = conference.getOrganizerUserId();
+    }
+
+    public static Key<ConferenceNotification> createKey(final String websafeConferenceKey) {
+        return Key.create(ConferenceNotification.class, websafeConferenceKey);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getOrganizerUserId() {
+        return organizerUserId;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public Date getStarted() {
+        return started == null ? null : new Date(started.getTime());
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean isPlanned() {
+        return planned;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int getRecipients() {
+        return recipients;
+    }
+
+    public int getShardsDone() {
+        return shardsDone;
+    }
+
+    public int getRecipientsNotified() {
+        return recipientsNotified;
+    }
+
+    public Status getStatus() {
+        if (!planned) {
+            return Status.PLANNING;
+        }
+        return shardsDone < shards ? Status.SENDING : Status.DONE;
+    }
+
+    /**
+     * Starts a new generation, for a new change of the conference.
+     */
+    public void restart() {
+        generation++;
+        started = new Date();
+        cursor = null;
+        planned = false;
+        shards = 0;
+        recipients = 0;
+    }
+
+    /**
+     * Records that shards were planned.
+     *
+     * @param cursor the cursor of the registrations to plan from next.
+     * @param shards the number of shards planned.
+     * @param recipients the number of attendees in them.
+     * @param planned whether all the registrations are planned.
+     */
+    public void checkpoint(final String cursor, final int shards, final int recipients,
+                           final boolean planned) {
+        this.cursor = cursor;
+        this.shards += shards;
+        this.recipients += recipients;
+        this.planned = planned;
+    }
+
+    /**
+     * Sets the progress counted from the NotificationShards.
+     *
+     * @param shardsDone the number of shards notified.
+     * @param recipientsNotified the number of attendees in them.
+     */
+    public void setProgress(final int shardsDone, final int recipientsNotified) {
+        this.shardsDone = shardsDone;
+        this.recipientsNotified = recipientsNotified;
+    }
+}
@@ -0,0 +1,57 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.Date;
+
+/**
+ * ConferenceTombstone class records a deleted conference, so that the clients syncing the
+ * conferences learn about the deletion.
+ *
+ * It is stamped like the conferences are, with a version after the last one of the deleted
+ * conference, so that it sorts with the changes it comes after.
+ */
+@Entity
+public class ConferenceTombstone {
+
+    /**
+     * The websafe key of the deleted conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    @Index
+    private long version;
+
+    private Date deleted;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferenceTombstone() {}
+
+    public ConferenceTombstone(final Conference conference) {
+        this.websafeConferenceKey = conference.getWebsafeKey();
+        this.deleted = new Date();
+        this.version = Math.max(conference.getVersion() + 1, deleted.getTime());
+    }
+
+    public static Key<ConferenceTombstone> createKey(final String websafeConferenceKey) {
+        return Key.create(ConferenceTombstone.class, websafeConferenceKey);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Date getDeleted() {
+        return deleted == null ? null : new Date(deleted.getTime());
+    }
+}
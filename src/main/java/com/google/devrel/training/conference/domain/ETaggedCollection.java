@@ -0,0 +1,32 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.response.CollectionResponse;
+
+import java.util.Collection;
+
+/**
+ * A CollectionResponse carrying the ETag of its items, which the client sends back in
+ * If-None-Match to get a NotModifiedException when they haven't changed.
+ */
+public class ETaggedCollection<T> extends CollectionResponse<T> {
+
+    private final String etag;
+
+    public ETaggedCollection(final Collection<T> items, final String nextPageToken,
+                             final String etag) {
+        super(items, nextPageToken);
+        this.etag = etag;
+    }
+
+    public static <T> ETaggedCollection<T> of(final CollectionResponse<T> page,
+                                              final String etag) {
+        return new ETaggedCollection<>(page.getItems(), page.getNextPageToken(), etag);
+    }
+
+    /**
+     * Returns the ETag, null when the items can't be tagged.
+     */
+    public String getEtag() {
+        return etag;
+    }
+}
@@ -0,0 +1,49 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * ExportBlob class stores a piece of a part of an export, as an entity holds at most 1MB.
+ *
+ * The pieces of a part are numbered from 0, and the last one is flagged, so a part whose task
+ * died while writing it is never read as complete.
+ */
+@Entity
+public class ExportBlob {
+
+    /**
+     * The name of the part, a slash and the index of the piece.
+     */
+    @Id
+    private String id;
+
+    private byte[] data;
+
+    private boolean last;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ExportBlob() {}
+
+    public ExportBlob(final String part, final int index, final byte[] data,
+                      final boolean last) {
+        this.id = part + "/" + index;
+        this.data = data;
+        this.last = last;
+    }
+
+    public static Key<ExportBlob> createKey(final String part, final int index) {
+        return Key.create(ExportBlob.class, part + "/" + index);
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+}
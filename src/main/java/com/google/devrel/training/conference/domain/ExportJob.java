@@ -0,0 +1,134 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ExportJob class stores the progress of an export of the conferences, sessions and profiles.
+ *
+ * Each task of the export writes one part of newline-delimited JSON to the ExportStore, and then
+ * records it here together with the kind and the cursor to resume from. A part is only recorded
+ * when it is the next one, so a retried task never adds the same lines twice.
+ */
+@Entity
+public class ExportJob {
+
+    public static enum Status {
+        RUNNING,
+        DONE
+    }
+
+    @Id
+    private Long id;
+
+    /**
+     * Only the entities saved after this are exported, all of them when null.
+     */
+    private Date since;
+
+    private Date started;
+
+    private Status status = Status.RUNNING;
+
+    /**
+     * The index of the kind being exported.
+     */
+    private int kindIndex;
+
+    /**
+     * The websafe cursor to resume the kind from, null to start it.
+     */
+    private String cursor;
+
+    /**
+     * The number of entities exported by kind.
+     */
+    private Map<String, Integer> counts = new HashMap<>();
+
+    /**
+     * The names of the parts written, in order.
+     */
+    private List<String> parts = new ArrayList<>(0);
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ExportJob() {}
+
+    public ExportJob(final Date since) {
+        this.since = since == null ? null : new Date(since.getTime());
+        this.started = new Date();
+    }
+
+    public static Key<ExportJob> createKey(final long id) {
+        return Key.create(ExportJob.class, id);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Date getSince() {
+        return since == null ? null : new Date(since.getTime());
+    }
+
+    public Date getStarted() {
+        return new Date(started.getTime());
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getKindIndex() {
+        return kindIndex;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public Map<String, Integer> getCounts() {
+        return ImmutableMap.copyOf(counts);
+    }
+
+    public int getCount(final String kind) {
+        Integer count = counts.get(kind);
+        return count == null ? 0 : count;
+    }
+
+    public List<String> getParts() {
+        return ImmutableList.copyOf(parts);
+    }
+
+    /**
+     * Records the part written by a task and where the next one starts.
+     *
+     * @param part the name of the part.
+     * @param written the number of entities written to the part by kind.
+     * @param kindIndex the index of the kind to resume from.
+     * @param cursor the websafe cursor to resume the kind from, null to start it.
+     * @param done whether all the kinds have been exported.
+     */
+    public void checkpoint(final String part, final Map<String, Integer> written,
+                           final int kindIndex, final String cursor, final boolean done) {
+        parts.add(part);
+        for (Map.Entry<String, Integer> entry : written.entrySet()) {
+            counts.put(entry.getKey(), getCount(entry.getKey()) + entry.getValue());
+        }
+        this.kindIndex = kindIndex;
+        this.cursor = cursor;
+        if (done) {
+            status = Status.DONE;
+        }
+    }
+}
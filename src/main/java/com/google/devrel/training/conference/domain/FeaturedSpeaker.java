@@ -0,0 +1,70 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FeaturedSpeaker class stores the featured speaker of a conference with the names of their
+ * sessions.
+ *
+ * It is a root entity keyed by the conference, so that recomputing it doesn't write to the
+ * entity group of the conference that registrations compete for.
+ */
+@Entity
+@Cache
+public class FeaturedSpeaker {
+
+    /**
+     * The websafe key of the Conference, used as the name of the datastore key.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    private String speaker;
+
+    private List<String> sessionNames = new ArrayList<>(0);
+
+    /**
+     * Just making the default constructor private.
+     */
+    private FeaturedSpeaker() {}
+
+    public FeaturedSpeaker(final String websafeConferenceKey, final String speaker,
+                           final List<String> sessionNames) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.speaker = speaker;
+        this.sessionNames = new ArrayList<>(sessionNames);
+    }
+
+    public static Key<FeaturedSpeaker> createKey(final String websafeConferenceKey) {
+        return Key.create(FeaturedSpeaker.class, websafeConferenceKey);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public String getSpeaker() {
+        return speaker;
+    }
+
+    public List<String> getSessionNames() {
+        return ImmutableList.copyOf(sessionNames);
+    }
+
+    /**
+     * Returns the announcement text, e.g. "Speaker: Session 1, Session 2".
+     *
+     * @return the announcement text.
+     */
+    public String getMessage() {
+        return speaker + ": " + Joiner.on(", ").skipNulls().join(sessionNames);
+    }
+}
@@ -0,0 +1,115 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.annotation.Serialize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ImportChunk class stores a range of lines of an ImportJob, and the keys allocated for the
+ * entities they create.
+ *
+ * The keys are stored before any entity is saved, so a chunk imported again after a failure
+ * overwrites the same entities instead of creating them twice.
+ */
+@Entity
+public class ImportChunk {
+
+    /**
+     * The index of the chunk plus one, as ids can't be 0.
+     */
+    @Id
+    private long id;
+
+    @Parent
+    private Key<ImportJob> importJobKey;
+
+    /**
+     * The number of the first line of the chunk in the data, from 1.
+     */
+    private int firstLine;
+
+    @Serialize(zip = true)
+    private ArrayList<String> lines;
+
+    private boolean conferenceKeysAllocated;
+
+    private boolean sessionKeysAllocated;
+
+    /**
+     * The keys of the conferences of the chunk, in the order of their lines.
+     */
+    private List<Key<Conference>> conferenceKeys = new ArrayList<>(0);
+
+    /**
+     * The keys of the sessions of the chunk, in the order of their lines.
+     */
+    private List<Key<Session>> sessionKeys = new ArrayList<>(0);
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ImportChunk() {}
+
+    public ImportChunk(final Key<ImportJob> importJobKey, final int index, final int firstLine,
+                       final List<String> lines) {
+        this.id = index + 1;
+        this.importJobKey = importJobKey;
+        this.firstLine = firstLine;
+        this.lines = new ArrayList<>(lines);
+    }
+
+    public static Key<ImportChunk> createKey(final Key<ImportJob> importJobKey, final int index) {
+        return Key.create(importJobKey, ImportChunk.class, index + 1);
+    }
+
+    public int getFirstLine() {
+        return firstLine;
+    }
+
+    public List<String> getLines() {
+        return ImmutableList.copyOf(lines);
+    }
+
+    public boolean isConferenceKeysAllocated() {
+        return conferenceKeysAllocated;
+    }
+
+    public boolean isSessionKeysAllocated() {
+        return sessionKeysAllocated;
+    }
+
+    public List<Key<Conference>> getConferenceKeys() {
+        return ImmutableList.copyOf(conferenceKeys);
+    }
+
+    public List<Key<Session>> getSessionKeys() {
+        return ImmutableList.copyOf(sessionKeys);
+    }
+
+    /**
+     * Stores the keys allocated for the conferences of the chunk.
+     *
+     * @param conferenceKeys the keys, in the order of the lines of the conferences.
+     */
+    public void allocateConferenceKeys(final List<Key<Conference>> conferenceKeys) {
+        this.conferenceKeys = new ArrayList<>(conferenceKeys);
+        this.conferenceKeysAllocated = true;
+    }
+
+    /**
+     * Stores the keys allocated for the sessions of the chunk, once the conferences they refer
+     * to are known.
+     *
+     * @param sessionKeys the keys, in the order of the lines of the sessions.
+     */
+    public void allocateSessionKeys(final List<Key<Session>> sessionKeys) {
+        this.sessionKeys = new ArrayList<>(sessionKeys);
+        this.sessionKeysAllocated = true;
+    }
+}
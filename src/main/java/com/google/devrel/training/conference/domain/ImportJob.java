@@ -0,0 +1,210 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.form.ImportForm.Format;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ImportJob class stores the progress of a bulk import.
+ *
+ * The lines of the import are stored in ImportChunk children, imported one chunk per task, and
+ * the conferences imported for the refs in ImportRef children. The job is the checkpoint:
+ * nextChunk only moves forward in the transaction ending the import of a chunk, so an
+ * interrupted import resumes from the first chunk not imported. The derived data is then
+ * updated one chunk per task the same way, checkpointed by nextFinishChunk.
+ */
+@Entity
+public class ImportJob {
+
+    /**
+     * The maximum number of error messages kept.
+     */
+    public static final int MAX_ERRORS = 100;
+
+    public static enum Status {
+        /**
+         * The chunks are being imported.
+         */
+        RUNNING,
+        /**
+         * The derived data of the imported entities is being updated.
+         */
+        FINISHING,
+        DONE
+    }
+
+    @Id
+    private Long id;
+
+    private String organizerUserId;
+
+    private String organizerDisplayName;
+
+    private String organizerEmail;
+
+    private Format format;
+
+    /**
+     * The columns of a CSV import.
+     */
+    private List<String> header = new ArrayList<>(0);
+
+    private int totalLines;
+
+    private int chunkCount;
+
+    private Status status = Status.RUNNING;
+
+    /**
+     * The index of the first chunk not imported yet.
+     */
+    private int nextChunk;
+
+    /**
+     * The index of the first chunk whose derived data isn't updated yet.
+     */
+    private int nextFinishChunk;
+
+    private int processedLines;
+
+    private int conferencesImported;
+
+    private int sessionsImported;
+
+    private int errorCount;
+
+    /**
+     * The first MAX_ERRORS error messages.
+     */
+    private List<String> errors = new ArrayList<>(0);
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ImportJob() {}
+
+    public ImportJob(final Profile organizer, final Format format, final List<String> header,
+                     final int totalLines, final int chunkCount) {
+        this.organizerUserId = organizer.getUserId();
+        this.organizerDisplayName = organizer.getDisplayName();
+        this.organizerEmail = organizer.getMainEmail();
+        this.format = format;
+        this.header = header == null ? new ArrayList<String>(0) : new ArrayList<>(header);
+        this.totalLines = totalLines;
+        this.chunkCount = chunkCount;
+    }
+
+    public static Key<ImportJob> createKey(final long id) {
+        return Key.create(ImportJob.class, id);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getOrganizerUserId() {
+        return organizerUserId;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getOrganizerDisplayName() {
+        return organizerDisplayName;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getOrganizerEmail() {
+        return organizerEmail;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public List<String> getHeader() {
+        return ImmutableList.copyOf(header);
+    }
+
+    public int getTotalLines() {
+        return totalLines;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getNextChunk() {
+        return nextChunk;
+    }
+
+    public int getNextFinishChunk() {
+        return nextFinishChunk;
+    }
+
+    public int getProcessedLines() {
+        return processedLines;
+    }
+
+    public int getConferencesImported() {
+        return conferencesImported;
+    }
+
+    public int getSessionsImported() {
+        return sessionsImported;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public List<String> getErrors() {
+        return ImmutableList.copyOf(errors);
+    }
+
+    /**
+     * Records the import of the next chunk.
+     *
+     * @param lines the number of lines of the chunk.
+     * @param conferences the number of conferences imported.
+     * @param sessions the number of sessions imported.
+     * @param chunkErrors the error messages of the lines not imported.
+     */
+    public void checkpoint(final int lines, final int conferences, final int sessions,
+                           final List<String> chunkErrors) {
+        nextChunk++;
+        processedLines += lines;
+        conferencesImported += conferences;
+        sessionsImported += sessions;
+        errorCount += chunkErrors.size();
+        for (String error : chunkErrors) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
+            }
+        }
+        if (nextChunk == chunkCount) {
+            status = Status.FINISHING;
+        }
+    }
+
+    /**
+     * Records the update of the derived data of the next chunk.
+     */
+    public void finishCheckpoint() {
+        nextFinishChunk++;
+        if (nextFinishChunk >= chunkCount) {
+            status = Status.DONE;
+        }
+    }
+}
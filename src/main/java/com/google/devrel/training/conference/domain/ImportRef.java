@@ -0,0 +1,49 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * ImportRef class stores the conference imported for a ref of an ImportJob, so that the
+ * sessions of the later chunks can refer to it.
+ *
+ * It is a child of the job, keyed by the ref, so that a chunk looks up the refs of its sessions
+ * by key, and the job itself doesn't grow with the number of conferences imported.
+ */
+@Entity
+public class ImportRef {
+
+    @Id
+    private String ref;
+
+    @Parent
+    private Key<ImportJob> importJobKey;
+
+    private String websafeConferenceKey;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ImportRef() {}
+
+    public ImportRef(final Key<ImportJob> importJobKey, final String ref,
+                     final String websafeConferenceKey) {
+        this.importJobKey = importJobKey;
+        this.ref = ref;
+        this.websafeConferenceKey = websafeConferenceKey;
+    }
+
+    public static Key<ImportRef> createKey(final Key<ImportJob> importJobKey, final String ref) {
+        return Key.create(importJobKey, ImportRef.class, ref);
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+}
@@ -0,0 +1,77 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NearlySoldOut class stores the set of conferences with only a few seats left, which the
+ * announcement is built from.
+ *
+ * There is a single instance. It changes only when a conference crosses the threshold, so it
+ * sees far fewer writes than the conferences themselves.
+ */
+@Entity
+@Cache
+public class NearlySoldOut {
+
+    /**
+     * The name of the single instance.
+     */
+    private static final String ID = "nearlySoldOut";
+
+    /**
+     * Conferences are nearly sold out with fewer seats left than this.
+     */
+    public static final int THRESHOLD = 5;
+
+    @Id
+    private String id = ID;
+
+    /**
+     * Keys of the nearly sold out conferences.
+     */
+    private List<Key<Conference>> conferenceKeys = new ArrayList<>(0);
+
+    public NearlySoldOut() {}
+
+    public static Key<NearlySoldOut> createKey() {
+        return Key.create(NearlySoldOut.class, ID);
+    }
+
+    /**
+     * Returns whether a conference with the given number of seats left is nearly sold out.
+     *
+     * @param seatsAvailable the number of seats available.
+     * @return true when there are between 1 and THRESHOLD - 1 seats left.
+     */
+    public static boolean isNearlySoldOut(final int seatsAvailable) {
+        return seatsAvailable > 0 && seatsAvailable < THRESHOLD;
+    }
+
+    public List<Key<Conference>> getConferenceKeys() {
+        return ImmutableList.copyOf(conferenceKeys);
+    }
+
+    /**
+     * Adds the conference to the set, or removes it.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param nearlySoldOut whether the conference is nearly sold out.
+     * @return true when the set changed.
+     */
+    public boolean update(final Key<Conference> conferenceKey, final boolean nearlySoldOut) {
+        if (nearlySoldOut) {
+            if (conferenceKeys.contains(conferenceKey)) {
+                return false;
+            }
+            return conferenceKeys.add(conferenceKey);
+        }
+        return conferenceKeys.remove(conferenceKey);
+    }
+}
@@ -0,0 +1,55 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.Date;
+
+/**
+ * NotificationShard class records that a shard of the attendees of a conference was notified.
+ *
+ * Each shard has an entity group of its own, so that the shards notified at the same time don't
+ * compete, and the progress of a notification is read by getting its shards by key.
+ */
+@Entity
+public class NotificationShard {
+
+    @Id
+    private String id;
+
+    private int recipients;
+
+    private Date done;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private NotificationShard() {}
+
+    public NotificationShard(final String websafeConferenceKey, final long generation,
+                             final int index, final int recipients) {
+        this.id = createId(websafeConferenceKey, generation, index);
+        this.recipients = recipients;
+        this.done = new Date();
+    }
+
+    private static String createId(final String websafeConferenceKey, final long generation,
+                                   final int index) {
+        return websafeConferenceKey + "-" + generation + "-" + index;
+    }
+
+    public static Key<NotificationShard> createKey(final String websafeConferenceKey,
+                                                   final long generation, final int index) {
+        return Key.create(NotificationShard.class,
+                createId(websafeConferenceKey, generation, index));
+    }
+
+    public int getRecipients() {
+        return recipients;
+    }
+
+    public Date getDone() {
+        return done == null ? null : new Date(done.getTime());
+    }
+}
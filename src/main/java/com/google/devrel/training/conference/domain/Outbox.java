@@ -0,0 +1,118 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Outbox class holds the mails waiting to be sent to a user, so that a burst of them goes out
+ * as a single digest.
+ *
+ * It is a child of the recipient's Profile. A mail is only the name of its kind and the websafe
+ * key of the entity it is about; the message is rendered from the entity when it is sent.
+ */
+@Entity
+public class Outbox {
+
+    private static final long ID = 1;
+
+    @Id
+    private long id = ID;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The kinds of the mails waiting, in the order they were added.
+     */
+    private List<String> kinds = new ArrayList<>(0);
+
+    /**
+     * The websafe keys of the entities the mails waiting are about, in the same order.
+     */
+    private List<String> keys = new ArrayList<>(0);
+
+    /**
+     * When the task sending the mails was enqueued, null when there is none. Indexed for the
+     * cron that enqueues the stale ones again.
+     */
+    @Index
+    private Date scheduled;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Outbox() {}
+
+    public Outbox(final String userId) {
+        this.profileKey = Key.create(Profile.class, userId);
+    }
+
+    public static Key<Outbox> createKey(final String userId) {
+        return Key.create(Key.create(Profile.class, userId), Outbox.class, ID);
+    }
+
+    public String getUserId() {
+        return profileKey.getName();
+    }
+
+    public int size() {
+        return kinds.size();
+    }
+
+    public String getKind(final int index) {
+        return kinds.get(index);
+    }
+
+    public String getKey(final int index) {
+        return keys.get(index);
+    }
+
+    public Date getScheduled() {
+        return scheduled == null ? null : new Date(scheduled.getTime());
+    }
+
+    /**
+     * Adds a mail at the end, unless the same mail is already waiting: the mails are rendered
+     * from the entity when sent, so it would only repeat it.
+     *
+     * @param kind the name of the kind of the mail.
+     * @param websafeKey the websafe key of the entity the mail is about.
+     * @return false when the mail was already waiting.
+     */
+    public boolean add(final String kind, final String websafeKey) {
+        for (int i = 0; i < keys.size(); i++) {
+            if (keys.get(i).equals(websafeKey) && kinds.get(i).equals(kind)) {
+                return false;
+            }
+        }
+        kinds.add(kind);
+        keys.add(websafeKey);
+        return true;
+    }
+
+    /**
+     * Removes the given number of mails from the start, once they are sent.
+     *
+     * @param count the number of mails sent.
+     */
+    public void removeFirst(final int count) {
+        kinds.subList(0, count).clear();
+        keys.subList(0, count).clear();
+    }
+
+    /**
+     * Records that the task sending the mails was enqueued, or that there is none when null.
+     *
+     * @param scheduled when the task was enqueued.
+     */
+    public void setScheduled(final Date scheduled) {
+        this.scheduled = scheduled == null ? null : new Date(scheduled.getTime());
+    }
+}
@@ -1,13 +1,17 @@
 package com.google.devrel.training.conference.domain;
 
+import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
 
-import com.google.common.collect.ImmutableList;
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
 
 
 @Entity
@@ -17,40 +21,40 @@ public class Profile {
 	String mainEmail;
 	TeeShirtSize teeShirtSize;
 	
+	/**
+	 * Registrations and wishlist entries used to be stored in these lists. They are now
+	 * Registration and WishlistEntry children of the Profile, and the lists are only kept
+	 * until MigrateProfileRelationsServlet has moved them.
+	 */
 	private List <String> conferenceKeysToAttend = new ArrayList<>(0);
 	private List <String> sessionKeysInWishlist = new ArrayList<>(0);
 
-	public List<String> getConferenceKeysToAttend() {
-		return ImmutableList.copyOf(conferenceKeysToAttend);
-	}
-	
-	public void addToConferenceKeysToAttend(String conferenceKey) {
-		conferenceKeysToAttend.add(conferenceKey);
-	}
-	
-	public void unregisterFromConference(String conferenceKey) {
-		if (conferenceKeysToAttend.contains(conferenceKey)) {
-			conferenceKeysToAttend.remove(conferenceKey);
-		} else {
-			throw new IllegalArgumentException ("Invalid conferenceKey: " + conferenceKey);
-		}
+	/**
+	 * When this profile was last saved, for the incremental exports.
+	 */
+	@Index
+	private Date updated;
+
+	@ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+	public List<String> getLegacyConferenceKeysToAttend() {
+		return conferenceKeysToAttend == null ? new ArrayList<String>(0) : conferenceKeysToAttend;
 	}
 
-    public List<String> getSessionKeysInWishlist() {
-    	return ImmutableList.copyOf(sessionKeysInWishlist);
-    }
+	@ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+	public List<String> getLegacySessionKeysInWishlist() {
+		return sessionKeysInWishlist == null ? new ArrayList<String>(0) : sessionKeysInWishlist;
+	}
 
-    public void addToSessionKeysInWishlist(String sessionKey) {
-        sessionKeysInWishlist.add(sessionKey);
-    }
+	@ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+	public boolean hasLegacyRelations() {
+		return (conferenceKeysToAttend != null && !conferenceKeysToAttend.isEmpty())
+				|| (sessionKeysInWishlist != null && !sessionKeysInWishlist.isEmpty());
+	}
 
-    public void removeFromSessionKeysInWishlist(String sessionKey) {
-    	if (sessionKeysInWishlist.contains(sessionKey)) {
-    		sessionKeysInWishlist.remove(sessionKey);
-    	} else {
-    		throw new IllegalArgumentException ("Invalid sessionKey : " + sessionKey);
-    	}
-    }
+	public void clearLegacyRelations() {
+		conferenceKeysToAttend = new ArrayList<>(0);
+		sessionKeysInWishlist = new ArrayList<>(0);
+	}
 	
 	@Id String userId;
     
@@ -85,6 +89,16 @@ public class Profile {
 		return userId;
 	}
 
+	@ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+	public Date getUpdated() {
+		return updated == null ? null : new Date(updated.getTime());
+	}
+
+	@OnSave
+	void touch() {
+		updated = new Date();
+	}
+
 	public void update(String displayName, TeeShirtSize teeShirtSize) {
 		if (displayName != null) {
 			this.displayName = displayName;
@@ -0,0 +1,72 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simple wrapper for the execution plan of a query, for debugging.
+ *
+ * The index filters and the order run in the datastore, and the memory filters are applied to
+ * the results before they are returned. The estimates are the number of entities each
+ * candidate inequality would scan, capped at QueryStatistics.SAMPLE_LIMIT.
+ */
+public class QueryPlan {
+
+    private String kind;
+
+    private String drivingField;
+
+    private List<String> indexFilters = new ArrayList<>(0);
+
+    private List<String> memoryFilters = new ArrayList<>(0);
+
+    private List<String> order = new ArrayList<>(0);
+
+    private List<String> estimates = new ArrayList<>(0);
+
+    public QueryPlan() {}
+
+    public QueryPlan(String kind, String drivingField) {
+        this.kind = kind;
+        this.drivingField = drivingField;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the field of the inequality run in the datastore, null when there is none.
+     */
+    public String getDrivingField() {
+        return drivingField;
+    }
+
+    public List<String> getIndexFilters() {
+        return indexFilters;
+    }
+
+    public List<String> getMemoryFilters() {
+        return memoryFilters;
+    }
+
+    public List<String> getOrder() {
+        return order;
+    }
+
+    public List<String> getEstimates() {
+        return estimates;
+    }
+
+    public void addIndexFilter(String filter) {
+        indexFilters.add(filter);
+    }
+
+    public void addMemoryFilter(String filter) {
+        memoryFilters.add(filter);
+    }
+
+    public void addOrder(String field) {
+        order.add(field);
+    }
+}
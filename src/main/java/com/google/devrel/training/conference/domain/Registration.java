@@ -0,0 +1,83 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * Registration class records that a user attends a conference.
+ *
+ * It is a child of the attendee's Profile, named after the conference, so checking a
+ * registration is a single get by key and registering doesn't rewrite the Profile.
+ */
+@Entity
+@Cache
+public class Registration {
+
+    /**
+     * The name for the datastore key, which is the websafe key of the conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    /**
+     * Holds Profile key of the attendee as the parent.
+     */
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The conference key, indexed for finding the attendees of a conference.
+     */
+    @Index
+    private Key<Conference> conferenceKey;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Registration() {}
+
+    public Registration(final String userId, final String websafeConferenceKey) {
+        this.profileKey = Key.create(Profile.class, userId);
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.conferenceKey = Key.create(websafeConferenceKey);
+    }
+
+    /**
+     * Returns the key of the registration of the given user for the given conference.
+     *
+     * @param userId the userId of the attendee.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the key of the registration.
+     */
+    public static Key<Registration> createKey(final String userId,
+                                              final String websafeConferenceKey) {
+        return Key.create(Key.create(Profile.class, userId), Registration.class,
+                websafeConferenceKey);
+    }
+
+    /**
+     * Returns the conference key a registration key points to, without loading it.
+     *
+     * @param registrationKey the key of a registration.
+     * @return the key of the conference.
+     */
+    public static Key<Conference> getConferenceKey(final Key<Registration> registrationKey) {
+        return Key.create(registrationKey.getName());
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+}
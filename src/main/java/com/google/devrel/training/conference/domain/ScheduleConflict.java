@@ -0,0 +1,38 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A group of wishlisted sessions whose times overlap, each with at least one other, from the
+ * start of the first to the end of the last.
+ */
+public class ScheduleConflict {
+
+    private Date start;
+
+    private Date end;
+
+    private List<Session> sessions = new ArrayList<>(0);
+
+    public ScheduleConflict() {}
+
+    public ScheduleConflict(final Date start, final Date end, final List<Session> sessions) {
+        this.start = new Date(start.getTime());
+        this.end = new Date(end.getTime());
+        this.sessions = sessions;
+    }
+
+    public Date getStart() {
+        return new Date(start.getTime());
+    }
+
+    public Date getEnd() {
+        return new Date(end.getTime());
+    }
+
+    public List<Session> getSessions() {
+        return sessions;
+    }
+}
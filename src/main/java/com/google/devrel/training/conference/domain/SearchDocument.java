@@ -0,0 +1,103 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SearchDocument class stores the searchable text of a Conference or a Session.
+ *
+ * The terms list is indexed, so the built-in index of the property is the inverted index of
+ * the search: a query on a term returns the keys of the documents containing it. The weights
+ * of the full tokens are kept unindexed for ranking.
+ */
+@Entity
+@Cache
+public class SearchDocument {
+
+    /**
+     * The websafe key of the indexed entity.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The kind of the indexed entity, "Conference" or "Session".
+     */
+    @Index
+    private String kind;
+
+    /**
+     * The name of the indexed entity, returned with the results.
+     */
+    private String title;
+
+    /**
+     * The prefixes of the tokens, as built by SearchIndex.
+     */
+    @Index
+    private List<String> terms = new ArrayList<>(0);
+
+    /**
+     * The tokens with their number of occurrences, weighted by field.
+     */
+    private Map<String, Integer> tokenWeights = new HashMap<>();
+
+    /**
+     * The number of tokens.
+     */
+    private int length;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SearchDocument() {}
+
+    public SearchDocument(final String websafeKey, final String kind, final String title,
+                          final List<String> terms, final Map<String, Integer> tokenWeights,
+                          final int length) {
+        this.id = websafeKey;
+        this.kind = kind;
+        this.title = title;
+        this.terms = new ArrayList<>(terms);
+        this.tokenWeights = new HashMap<>(tokenWeights);
+        this.length = length;
+    }
+
+    public static Key<SearchDocument> createKey(final String websafeKey) {
+        return Key.create(SearchDocument.class, websafeKey);
+    }
+
+    public String getWebsafeKey() {
+        return id;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public List<String> getTerms() {
+        return ImmutableList.copyOf(terms);
+    }
+
+    public Map<String, Integer> getTokenWeights() {
+        return ImmutableMap.copyOf(tokenWeights);
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
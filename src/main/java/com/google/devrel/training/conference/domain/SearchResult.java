@@ -0,0 +1,41 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * A search hit: the kind and key of a Conference or a Session, its name and its score.
+ */
+public class SearchResult {
+
+    private String kind;
+
+    private String websafeKey;
+
+    private String title;
+
+    private double score;
+
+    public SearchResult() {}
+
+    public SearchResult(final String kind, final String websafeKey, final String title,
+                        final double score) {
+        this.kind = kind;
+        this.websafeKey = websafeKey;
+        this.title = title;
+        this.score = score;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public double getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,103 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
+
+/**
+ * SeatShard class stores a slice of the seat inventory of a hot conference.
+ *
+ * Each shard is a root entity, so that registrations claiming seats from different shards
+ * don't compete for the same entity group. Every save stamps it like a Conference, so that the
+ * clients syncing the conferences learn that the seats of its conference changed.
+ */
+@Entity
+public class SeatShard {
+
+    /**
+     * The name for the datastore key, built from the conference key and the shard index.
+     */
+    @Id
+    private String id;
+
+    /**
+     * Number of seats currently available in this shard.
+     */
+    private int seatsAvailable;
+
+    /**
+     * The time of the last save in milliseconds, or one more than the previous version.
+     * Indexed, for ConferenceSync.
+     */
+    @Index
+    private long version;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SeatShard() {}
+
+    public SeatShard(final String websafeConferenceKey, final int index, final int seatsAvailable) {
+        this.id = createId(websafeConferenceKey, index);
+        this.seatsAvailable = seatsAvailable;
+    }
+
+    private static String createId(final String websafeConferenceKey, final int index) {
+        return websafeConferenceKey + ":" + index;
+    }
+
+    /**
+     * Returns the key of the shard with the given index.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param index The index of the shard, starting from 0.
+     * @return the key of the shard.
+     */
+    public static Key<SeatShard> createKey(final String websafeConferenceKey, final int index) {
+        return Key.create(SeatShard.class, createId(websafeConferenceKey, index));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the index of this shard, starting from 0.
+     */
+    public int getIndex() {
+        return Integer.parseInt(id.substring(id.lastIndexOf(':') + 1));
+    }
+
+    /**
+     * Returns the websafe key of the conference of this shard.
+     */
+    public String getWebsafeConferenceKey() {
+        return id.substring(0, id.lastIndexOf(':'));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @OnSave
+    void touch() {
+        version = Math.max(version + 1, System.currentTimeMillis());
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    public void bookSeats(final int number) {
+        if (seatsAvailable < number) {
+            throw new IllegalArgumentException("There are no seats available.");
+        }
+        seatsAvailable = seatsAvailable - number;
+    }
+
+    public void giveBackSeats(final int number) {
+        seatsAvailable = seatsAvailable + number;
+    }
+}
@@ -12,18 +12,28 @@ import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
 
+import java.io.Serializable;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Named;
 
 /**
  * Session class stores session information.
+ *
+ * It is Serializable so that the Agenda of the conference can keep a copy.
  */
 @Entity
 @Cache
-public class Session {
+public class Session implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private static final String DEFAULT_SPEAKER = "Undefined";
 
@@ -61,6 +71,11 @@ public class Session {
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     private Long conferenceId;
 
+    /**
+     * The name of the conference, copied from the Conference when the session is created.
+     */
+    private String conferenceName;
+
     /**
      * Type of this session.
      */
@@ -90,6 +105,17 @@ public class Session {
     @Index(IfNotDefault.class)
     private int duration;
 
+    /**
+     * When this session was last saved, for the incremental exports.
+     */
+    @Index
+    private Date updated;
+
+    /**
+     * Changes every time this session is saved, like the version of Conference.
+     */
+    private long version;
+
     /**
      * Just making the default constructor private.
      */
@@ -134,11 +160,49 @@ public class Session {
     /**
      * Returns conference name.
      *
+     * Sessions saved before the name was copied onto them load the Conference, unless
+     * loadConferenceNames has filled the name in.
+     *
      * @return conference name. If there is no conference, return conferenceId.
      */
     public String getConferenceName() {
-        Conference conference = ofy().load().key(getConferenceKey()).now();
-        return conference.getName();
+        if (conferenceName == null) {
+            Conference conference = ofy().load().key(getConferenceKey()).now();
+            conferenceName = conference == null ? String.valueOf(conferenceId) : conference.getName();
+        }
+        return conferenceName;
+    }
+
+    public void updateConferenceName(final String conferenceName) {
+        this.conferenceName = conferenceName;
+    }
+
+    /**
+     * Fills in the conference names missing from the given sessions with one batch get of
+     * their distinct conferences, instead of a get per session.
+     *
+     * @param sessions the sessions about to be returned.
+     * @return the same sessions.
+     */
+    public static <T extends Collection<Session>> T loadConferenceNames(final T sessions) {
+        Set<Key<Conference>> conferenceKeys = new HashSet<>();
+        for (Session session : sessions) {
+            if (session.conferenceName == null) {
+                conferenceKeys.add(session.getConferenceKey());
+            }
+        }
+        if (conferenceKeys.isEmpty()) {
+            return sessions;
+        }
+        Map<Key<Conference>, Conference> conferences = ofy().load().keys(conferenceKeys);
+        for (Session session : sessions) {
+            if (session.conferenceName == null) {
+                Conference conference = conferences.get(session.getConferenceKey());
+                session.conferenceName = conference == null
+                        ? String.valueOf(session.conferenceId) : conference.getName();
+            }
+        }
+        return sessions;
     }
 
     /**
@@ -181,6 +245,22 @@ public class Session {
         return duration;
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Date getUpdated() {
+        return updated == null ? null : new Date(updated.getTime());
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public long getVersion() {
+        return version;
+    }
+
+    @OnSave
+    void touch() {
+        updated = new Date();
+        version = Math.max(version + 1, updated.getTime());
+    }
+
     /**
      * Updates the Session with SessionForm.
      * This method is used upon object creation as well as updating existing sessions.
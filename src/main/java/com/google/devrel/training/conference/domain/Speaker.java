@@ -0,0 +1,106 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Speaker class stores the sessions of a speaker across all the conferences.
+ *
+ * The key is the normalized name of the speaker, so that "Larry Page" and " larry  page" are the
+ * same speaker and a lookup is a get by key.
+ */
+@Entity
+@Cache
+public class Speaker {
+
+    /**
+     * The normalized name, used as the name of the datastore key.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The name as it was first given.
+     */
+    private String name;
+
+    /**
+     * Keys of the sessions of the speaker, in the order they were created.
+     */
+    private List<Key<Session>> sessionKeys = new ArrayList<>(0);
+
+    /**
+     * Number of sessions of the speaker by websafe conference key.
+     */
+    private Map<String, Integer> sessionCounts = new HashMap<>();
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Speaker() {}
+
+    public Speaker(final String name) {
+        this.id = normalize(name);
+        this.name = name.trim();
+    }
+
+    /**
+     * Folds case and whitespace of a speaker name.
+     *
+     * @param name the name of the speaker.
+     * @return the normalized name.
+     */
+    public static String normalize(final String name) {
+        return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    public static Key<Speaker> createKey(final String name) {
+        return Key.create(Speaker.class, normalize(name));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Key<Session>> getSessionKeys() {
+        return ImmutableList.copyOf(sessionKeys);
+    }
+
+    /**
+     * Returns the number of sessions of the speaker in the given conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the number of sessions.
+     */
+    public int getSessionCount(final String websafeConferenceKey) {
+        Integer count = sessionCounts.get(websafeConferenceKey);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Adds a session of the speaker, unless it is already there.
+     *
+     * @param session the Session.
+     * @return true when the session was added.
+     */
+    public boolean addSession(final Session session) {
+        Key<Session> sessionKey = Key.create(session.getConferenceKey(), Session.class,
+                session.getId());
+        if (sessionKeys.contains(sessionKey)) {
+            return false;
+        }
+        sessionKeys.add(sessionKey);
+        String websafeConferenceKey = session.getConferenceKey().getString();
+        sessionCounts.put(websafeConferenceKey, getSessionCount(websafeConferenceKey) + 1);
+        return true;
+    }
+}
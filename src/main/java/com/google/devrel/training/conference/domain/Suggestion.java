@@ -0,0 +1,26 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * An autocomplete suggestion: a value of a field starting with the typed prefix.
+ */
+public class Suggestion {
+
+    private String field;
+
+    private String value;
+
+    public Suggestion() {}
+
+    public Suggestion(final String field, final String value) {
+        this.field = field;
+        this.value = value;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
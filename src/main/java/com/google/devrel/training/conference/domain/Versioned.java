@@ -0,0 +1,13 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * An entity whose version changes every time it is saved, so that an ETag built from it tells
+ * whether a client holds the current copy.
+ */
+public interface Versioned {
+
+    /**
+     * Returns the ETag of the saved version, null when the entity can't be tagged.
+     */
+    String getEtag();
+}
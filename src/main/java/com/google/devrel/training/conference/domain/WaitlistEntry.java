@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * WaitlistEntry class records that a user waits for a seat of a sold out conference.
+ *
+ * It is a child of the Conference named after the user, so the seat freed by an unregistration
+ * can go to the head of the waitlist in the same transaction, and the waitlist is read in the
+ * order users joined it by a strongly consistent ancestor query.
+ */
+@Entity
+public class WaitlistEntry {
+
+    /**
+     * The name for the datastore key, which is the userId of the user waiting.
+     */
+    @Id
+    private String userId;
+
+    /**
+     * Holds Conference key as the parent.
+     */
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    @Index
+    private Date joined;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private WaitlistEntry() {}
+
+    public WaitlistEntry(final String userId, final Key<Conference> conferenceKey) {
+        this.userId = userId;
+        this.conferenceKey = conferenceKey;
+        this.joined = new Date();
+    }
+
+    /**
+     * Returns the key of the waitlist entry of the given user for the given conference.
+     *
+     * @param userId the userId of the user.
+     * @param conferenceKey the key of the Conference.
+     * @return the key of the waitlist entry.
+     */
+    public static Key<WaitlistEntry> createKey(final String userId,
+                                               final Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, WaitlistEntry.class, userId);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Date getJoined() {
+        return joined == null ? null : new Date(joined.getTime());
+    }
+}
@@ -0,0 +1,70 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * WishlistEntry class records that a user has added a session to the wishlist.
+ *
+ * Like Registration, it is a child of the user's Profile named after the session.
+ */
+@Entity
+@Cache
+public class WishlistEntry {
+
+    /**
+     * The name for the datastore key, which is the websafe key of the session.
+     */
+    @Id
+    private String websafeSessionKey;
+
+    /**
+     * Holds Profile key of the user as the parent.
+     */
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private WishlistEntry() {}
+
+    public WishlistEntry(final String userId, final String websafeSessionKey) {
+        this.profileKey = Key.create(Profile.class, userId);
+        this.websafeSessionKey = websafeSessionKey;
+    }
+
+    /**
+     * Returns the key of the wishlist entry of the given user for the given session.
+     *
+     * @param userId the userId of the user.
+     * @param websafeSessionKey The String representation of the Session Key.
+     * @return the key of the wishlist entry.
+     */
+    public static Key<WishlistEntry> createKey(final String userId,
+                                               final String websafeSessionKey) {
+        return Key.create(Key.create(Profile.class, userId), WishlistEntry.class,
+                websafeSessionKey);
+    }
+
+    /**
+     * Returns the session key a wishlist entry key points to, without loading it.
+     *
+     * @param wishlistEntryKey the key of a wishlist entry.
+     * @return the key of the session.
+     */
+    public static Key<Session> getSessionKey(final Key<WishlistEntry> wishlistEntryKey) {
+        return Key.create(wishlistEntryKey.getName());
+    }
+
+    public String getWebsafeSessionKey() {
+        return websafeSessionKey;
+    }
+
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+}
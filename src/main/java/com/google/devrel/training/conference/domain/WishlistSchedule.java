@@ -0,0 +1,54 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The overlaps between the sessions of a wishlist, and the best schedule without any.
+ *
+ * The schedule is the set of non-overlapping sessions with the most minutes of sessions, and
+ * the most sessions among those. The sessions without a date can't be placed and are listed
+ * apart.
+ */
+public class WishlistSchedule {
+
+    private List<ScheduleConflict> conflicts = new ArrayList<>(0);
+
+    private List<Session> schedule = new ArrayList<>(0);
+
+    private int scheduledMinutes;
+
+    private List<Session> unscheduled = new ArrayList<>(0);
+
+    public WishlistSchedule() {}
+
+    public WishlistSchedule(final List<ScheduleConflict> conflicts, final List<Session> schedule,
+                            final int scheduledMinutes, final List<Session> unscheduled) {
+        this.conflicts = conflicts;
+        this.schedule = schedule;
+        this.scheduledMinutes = scheduledMinutes;
+        this.unscheduled = unscheduled;
+    }
+
+    public List<ScheduleConflict> getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * Returns the sessions of the best schedule, in the order of their start.
+     */
+    public List<Session> getSchedule() {
+        return schedule;
+    }
+
+    public int getScheduledMinutes() {
+        return scheduledMinutes;
+    }
+
+    /**
+     * Returns the sessions without a date.
+     */
+    public List<Session> getUnscheduled() {
+        return unscheduled;
+    }
+}
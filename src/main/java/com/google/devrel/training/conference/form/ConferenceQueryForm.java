@@ -4,13 +4,23 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
 
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.QueryPlan;
+import com.google.devrel.training.conference.service.Paging;
+import com.google.devrel.training.conference.service.QueryStatistics;
 
 import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -20,6 +30,12 @@ public class ConferenceQueryForm {
 
     private static final Logger LOG = Logger.getLogger(ConferenceQueryForm.class.getName());
 
+    /**
+     * Separates the driving field from the datastore cursor in the token of a page planned by
+     * the estimates.
+     */
+    private static final String PLAN_SEPARATOR = "|";
+
     /**
      * Enum representing a field type.
      */
@@ -75,6 +91,28 @@ public class ConferenceQueryForm {
             return this.queryOperator.contains("<") || this.queryOperator.contains(">") ||
                     this.queryOperator.contains("!");
         }
+
+        /**
+         * Tells a range the datastore can run as one query, unlike !=, which it splits into
+         * several that can't be paged with a cursor.
+         */
+        private boolean isRangeFilter() {
+            return this.queryOperator.contains("<") || this.queryOperator.contains(">");
+        }
+
+        /**
+         * Checks the result of comparing a property to the filter value against this operator.
+         */
+        private boolean matches(int comparison) {
+            switch (this) {
+                case EQ: return comparison == 0;
+                case LT: return comparison < 0;
+                case GT: return comparison > 0;
+                case LTEQ: return comparison <= 0;
+                case GTEQ: return comparison >= 0;
+                default: return comparison != 0;
+            }
+        }
     }
 
     /**
@@ -104,6 +142,12 @@ public class ConferenceQueryForm {
         public String getValue() {
             return value;
         }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s %s", field.getFieldName(), operator.getQueryOperator(),
+                    value);
+        }
     }
 
     /**
@@ -112,27 +156,114 @@ public class ConferenceQueryForm {
     private List<Filter> filters = new ArrayList<>(0);
 
     /**
-     * Holds the first inequalityFilter for checking the feasibility of the whole query.
+     * Holds the inequality field run in the datastore, chosen by plan().
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Field drivingField;
+
+    /**
+     * Whether the driving field was picked by the estimates, and so goes in the page tokens.
      */
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
-    private Filter inequalityFilter;
+    private boolean estimated;
+
+    /**
+     * Whether the cursor names a driving field this query can't have.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private boolean invalidCursor;
+
+    /**
+     * Holds the execution plan, null until the query is planned.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private QueryPlan plan;
+
+    /**
+     * The maximum number of results in a page, 0 for the default page size.
+     */
+    private int limit;
+
+    /**
+     * The websafe cursor of the page to return, null for the first page.
+     */
+    private String cursor;
 
     public ConferenceQueryForm() {}
 
     /**
-     * Checks the feasibility of the whole query.
+     * Plans the query.
+     *
+     * The datastore takes inequality filters on one field only. With inequalities on several
+     * fields, the one with the fewest matching entities according to QueryStatistics runs in
+     * the datastore together with the equality filters, and the others are applied in memory.
+     * A != filter is always applied in memory, since the datastore runs it as several queries.
+     *
+     * The estimates change as conferences are written, so the field they picked goes in the
+     * page tokens, and the later pages are run with the field of the first one. Otherwise their
+     * cursor would resume a query sorted another way.
      */
-    private void checkFilters() {
+    private void plan() {
+        if (plan != null) {
+            return;
+        }
+        Set<Field> inequalityFields = new LinkedHashSet<>();
         for (Filter filter : this.filters) {
-            if (filter.operator.isInequalityFilter()) {
-                // Only one inequality filter is allowed.
-                if (inequalityFilter != null && !inequalityFilter.field.equals(filter.field)) {
-                    throw new IllegalArgumentException(
-                            "Inequality filter is allowed on only one field.");
+            if (filter.operator.isRangeFilter()) {
+                inequalityFields.add(filter.field);
+            }
+        }
+        List<String> estimates = new ArrayList<>();
+        drivingField = null;
+        estimated = inequalityFields.size() > 1;
+        invalidCursor = false;
+        int separator = cursor == null ? -1 : cursor.indexOf(PLAN_SEPARATOR);
+        if (separator >= 0) {
+            String plannedField = cursor.substring(0, separator);
+            for (Field field : inequalityFields) {
+                if (estimated && field.getFieldName().equals(plannedField)) {
+                    drivingField = field;
+                }
+            }
+            invalidCursor = drivingField == null;
+        }
+        if (drivingField == null && inequalityFields.size() == 1) {
+            drivingField = inequalityFields.iterator().next();
+        } else if (drivingField == null && estimated) {
+            int fewest = Integer.MAX_VALUE;
+            for (Field field : inequalityFields) {
+                int estimate = QueryStatistics.estimate(buildQuery(field));
+                estimates.add(field.getFieldName() + ": " + estimate);
+                if (estimate < fewest) {
+                    fewest = estimate;
+                    drivingField = field;
                 }
-                inequalityFilter = filter;
             }
         }
+        plan = new QueryPlan("Conference",
+                drivingField == null ? null : drivingField.getFieldName());
+        for (Filter filter : this.filters) {
+            if (isIndexFilter(filter)) {
+                plan.addIndexFilter(filter.toString());
+            } else {
+                plan.addMemoryFilter(filter.toString());
+            }
+        }
+        if (drivingField != null) {
+            plan.addOrder(drivingField.getFieldName());
+        }
+        plan.addOrder("name");
+        plan.getEstimates().addAll(estimates);
+        LOG.info("Planned " + this.filters + " with " + drivingField);
+    }
+
+    private boolean isIndexFilter(Filter filter) {
+        return isIndexFilter(filter, drivingField);
+    }
+
+    private static boolean isIndexFilter(Filter filter, Field inequalityField) {
+        return !filter.operator.isInequalityFilter()
+                || filter.operator.isRangeFilter() && filter.field == inequalityField;
     }
 
     /**
@@ -151,37 +282,159 @@ public class ConferenceQueryForm {
      * @return this for method chaining.
      */
     public ConferenceQueryForm filter(Filter filter) {
-        if (filter.operator.isInequalityFilter()) {
-            // Only allows inequality filters on a single field.
-            if (inequalityFilter != null && !inequalityFilter.field.equals(filter.field)) {
-                throw new IllegalArgumentException(
-                        "Inequality filter is allowed on only one field.");
-            }
-            inequalityFilter = filter;
-        }
         filters.add(filter);
+        plan = null;
         return this;
     }
 
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
     /**
-     * Returns an Objectify Query object for the specified filters.
+     * Sets the maximum number of results in a page.
+     *
+     * @param limit the page size.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Sets the cursor of the page to return.
+     *
+     * @param cursor the nextPageToken of the previous page.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm cursor(String cursor) {
+        this.cursor = cursor;
+        plan = null;
+        return this;
+    }
+
+    /**
+     * Returns a string identifying the query and the page, the same for all the forms asking
+     * for the same results whatever the order and the spelling of their filters.
+     *
+     * @return the normalized query.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getNormalizedQuery() {
+        List<String> normalizedFilters = new ArrayList<>(filters.size());
+        for (Filter filter : this.filters) {
+            String value = filter.field.fieldType == FieldType.INTEGER
+                    ? String.valueOf(Integer.parseInt(filter.value.trim())) : filter.value;
+            normalizedFilters.add(String.format("%s %s %s", filter.field.getFieldName(),
+                    filter.operator.getQueryOperator(), value));
+        }
+        Collections.sort(normalizedFilters);
+        return Joiner.on(" AND ").join(normalizedFilters) + " LIMIT " + Paging.pageSize(limit)
+                + " CURSOR " + (cursor == null ? "" : cursor);
+    }
+
+    /**
+     * Returns the execution plan of the query.
+     *
+     * @return the QueryPlan.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public QueryPlan getPlan() {
+        plan();
+        return plan;
+    }
+
+    /**
+     * Runs the page of the query the cursor asks for.
+     *
+     * @return the page, with a nextPageToken holding the driving field when the estimates
+     *         picked it.
+     * @throws BadRequestException when the cursor is invalid.
+     */
+    public CollectionResponse<Conference> page() throws BadRequestException {
+        plan();
+        if (invalidCursor) {
+            throw new BadRequestException("Invalid cursor: " + cursor);
+        }
+        String datastoreCursor =
+                cursor == null ? null : cursor.substring(cursor.indexOf(PLAN_SEPARATOR) + 1);
+        CollectionResponse<Conference> page =
+                Paging.page(getQuery(), limit, datastoreCursor, getMemoryFilter());
+        if (!estimated || page.getNextPageToken() == null) {
+            return page;
+        }
+        return CollectionResponse.<Conference>builder()
+                .setItems(page.getItems())
+                .setNextPageToken(
+                        drivingField.getFieldName() + PLAN_SEPARATOR + page.getNextPageToken())
+                .build();
+    }
+
+    /**
+     * Returns an Objectify Query object for the filters run in the datastore.
      *
      * @return an Objectify Query.
      */
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     public Query<Conference> getQuery() {
-        // First check the feasibility of inequality filters.
-        checkFilters();
+        plan();
+        Query<Conference> query = buildQuery(drivingField);
+        LOG.info(query.toString());
+        return query;
+    }
+
+    /**
+     * Returns the filters the datastore can't run as a predicate for the query results.
+     *
+     * @return a Predicate, null when the datastore runs all the filters.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Predicate<Conference> getMemoryFilter() {
+        plan();
+        final List<Filter> memoryFilters = new ArrayList<>();
+        for (Filter filter : this.filters) {
+            if (!isIndexFilter(filter)) {
+                memoryFilters.add(filter);
+            }
+        }
+        if (memoryFilters.isEmpty()) {
+            return null;
+        }
+        return new Predicate<Conference>() {
+            @Override
+            public boolean apply(Conference conference) {
+                for (Filter filter : memoryFilters) {
+                    if (!matches(filter, conference)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a Query with the equality filters and the filters on the given inequality field.
+     */
+    private Query<Conference> buildQuery(Field inequalityField) {
         Query<Conference> query = ofy().load().type(Conference.class);
-        if (inequalityFilter == null) {
+        if (inequalityField == null) {
             // Order by name.
             query = query.order("name");
         } else {
             // If we have any inequality filters, order by the field first.
-            query = query.order(inequalityFilter.field.getFieldName());
+            query = query.order(inequalityField.getFieldName());
             query = query.order("name");
         }
         for (Filter filter : this.filters) {
+            if (!isIndexFilter(filter, inequalityField)) {
+                continue;
+            }
             // Applies filters in order.
             if (filter.field.fieldType == FieldType.STRING) {
                 query = query.filter(String.format("%s %s", filter.field.getFieldName(),
@@ -191,7 +444,33 @@ public class ConferenceQueryForm {
                         filter.operator.getQueryOperator()), Integer.parseInt(filter.value));
             }
         }
-        LOG.info(query.toString());
         return query;
     }
+
+    /**
+     * Evaluates a filter against a Conference the way the datastore would. A filter on topics
+     * matches when any of the topics matches.
+     */
+    private static boolean matches(Filter filter, Conference conference) {
+        switch (filter.field) {
+            case CITY:
+                return conference.getCity() != null
+                        && filter.operator.matches(conference.getCity().compareTo(filter.value));
+            case TOPIC:
+                if (conference.getTopics() != null) {
+                    for (String topic : conference.getTopics()) {
+                        if (filter.operator.matches(topic.compareTo(filter.value))) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            case MONTH:
+                return filter.operator.matches(Integer.compare(conference.getMonth(),
+                        Integer.parseInt(filter.value)));
+            default:
+                return filter.operator.matches(Integer.compare(conference.getMaxAttendees(),
+                        Integer.parseInt(filter.value)));
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package com.google.devrel.training.conference.form;
+
+/**
+ * Pojo representing a bulk import of conferences and sessions sent from the client.
+ *
+ * Each line of the data is a record. A record has a "type", "conference" or "session", and the
+ * fields of a ConferenceForm or a SessionForm, dates being written yyyy-MM-dd. A conference may
+ * have a "ref", which the "conference" field of the sessions refers to; a session may also refer
+ * to an existing conference by its websafe key. With the CSV format, the first line names the
+ * columns, topics are separated by semicolons and values can't span lines.
+ */
+public class ImportForm {
+
+    /**
+     * The format of the data.
+     */
+    private Format format;
+
+    /**
+     * The records, one per line.
+     */
+    private String data;
+
+    private ImportForm() {}
+
+    /**
+     * Public constructor is solely for Unit Test.
+     * @param format the format of the data.
+     * @param data the records, one per line.
+     */
+    public ImportForm(Format format, String data) {
+        this.format = format;
+        this.data = data;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public static enum Format {
+        /**
+         * A JSON object per line.
+         */
+        JSONL,
+        CSV
+    }
+}
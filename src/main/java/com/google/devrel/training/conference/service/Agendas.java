@@ -0,0 +1,106 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Agenda;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Session;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads and maintains the materialized Agenda of each conference.
+ *
+ * Conferences whose sessions were created before agendas existed get theirs built from an
+ * ancestor query the first time it is read, in a transaction saving it only when it is still
+ * missing.
+ */
+public class Agendas {
+
+    private Agendas() {}
+
+    /**
+     * Returns the agenda of the given conference, building it if it doesn't exist yet.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the Agenda, empty and not saved when there is no such conference.
+     */
+    public static Agenda load(final String websafeConferenceKey) {
+        Agenda agenda = ofy().load().key(Agenda.createKey(websafeConferenceKey)).now();
+        if (agenda == null) {
+            agenda = save(websafeConferenceKey, false);
+        }
+        return agenda;
+    }
+
+    /**
+     * Rebuilds the agenda of the given conference from its sessions.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the new Agenda, empty and not saved when there is no such conference.
+     */
+    public static Agenda rebuild(final String websafeConferenceKey) {
+        return save(websafeConferenceKey, true);
+    }
+
+    /**
+     * Builds and saves the agenda in a transaction. The ancestor query puts the entity group
+     * of the conference in the transaction, so a session created meanwhile makes it retry
+     * instead of being overwritten.
+     */
+    private static Agenda save(final String websafeConferenceKey, final boolean replace) {
+        final Key<Agenda> agendaKey = Agenda.createKey(websafeConferenceKey);
+        final boolean[] saved = new boolean[1];
+        Agenda agenda = new TransactionRunner("buildAgenda").run(new Work<Agenda>() {
+            @Override
+            public Agenda run() {
+                Agenda agenda = ofy().load().key(agendaKey).now();
+                if (agenda != null && !replace) {
+                    return agenda;
+                }
+                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                if (ofy().load().key(conferenceKey).now() == null) {
+                    return new Agenda(websafeConferenceKey, Collections.<Session>emptyList());
+                }
+                agenda = build(websafeConferenceKey);
+                ofy().save().entity(agenda).now();
+                saved[0] = true;
+                return agenda;
+            }
+        });
+        if (saved[0]) {
+            ETags.saved(agenda);
+        }
+        return agenda;
+    }
+
+    private static Agenda build(final String websafeConferenceKey) {
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        List<Session> sessions = ofy().load().type(Session.class).ancestor(conferenceKey).list();
+        // The agenda is read without touching the conferences.
+        Session.loadConferenceNames(sessions);
+        return new Agenda(websafeConferenceKey, sessions);
+    }
+
+    /**
+     * Puts a created or edited session in the agenda of its conference. Must be called in the
+     * transaction saving the session, so that the agenda never misses it.
+     *
+     * @param session the Session.
+     * @return the Agenda saved, whose ETag the caller records once the transaction commits.
+     */
+    public static Agenda putSession(final Session session) {
+        String websafeConferenceKey = session.getConferenceKey().getString();
+        Agenda agenda = ofy().load().key(Agenda.createKey(websafeConferenceKey)).now();
+        if (agenda == null) {
+            // The query doesn't see the session saved by this transaction, which is put below.
+            agenda = build(websafeConferenceKey);
+        }
+        agenda.putSession(session);
+        ofy().save().entity(agenda).now();
+        return agenda;
+    }
+}
@@ -0,0 +1,233 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceNotification;
+import com.google.devrel.training.conference.domain.NotificationShard;
+import com.google.devrel.training.conference.domain.Registration;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Notifies the attendees of a conference that it changed, through their Outbox.
+ *
+ * The attendees are found through the registrations, by their indexed conferenceKey. A planner
+ * task walks them with a cursor, SHARD_SIZE at a time, and enqueues a task per shard carrying
+ * the userIds of its attendees, up to SHARDS_PER_PLAN shards before chaining the next planner
+ * task. The shard tasks are named after their shard, so a planner task running again doesn't
+ * enqueue them twice, and they run in parallel, at the rate of the default queue. A shard task
+ * running again finds its NotificationShard and stops, and one failing half-way adds the mails
+ * again to Outboxes which already hold them, where they are sent once.
+ */
+public class AttendeeNotifications {
+
+    /**
+     * The most attendees notified by a task.
+     */
+    static final int SHARD_SIZE = 500;
+
+    /**
+     * The most shards planned by a task.
+     */
+    static final int SHARDS_PER_PLAN = 20;
+
+    /**
+     * The most attendees whose Outbox is written in a transaction, within the limit of entity
+     * groups of a cross-group transaction.
+     */
+    private static final int OUTBOXES_PER_TRANSACTION = 5;
+
+    private static final String TASK_URL = "/tasks/notify_attendees";
+
+    private AttendeeNotifications() {}
+
+    private static Queue queue() {
+        return QueueFactory.getDefaultQueue();
+    }
+
+    private static TaskOptions planTask(final ConferenceNotification notification) {
+        return TaskOptions.Builder.withUrl(TASK_URL)
+                .param("websafeConferenceKey", notification.getWebsafeConferenceKey())
+                .param("generation", String.valueOf(notification.getGeneration()))
+                .param("shard", String.valueOf(notification.getShards()));
+    }
+
+    /**
+     * Starts notifying the attendees of a changed conference. Must be called in the transaction
+     * saving the change.
+     *
+     * @param conference the Conference.
+     */
+    public static void start(final Conference conference) {
+        ConferenceNotification notification = ofy().load()
+                .key(ConferenceNotification.createKey(conference.getWebsafeKey())).now();
+        if (notification == null) {
+            notification = new ConferenceNotification(conference);
+        }
+        notification.restart();
+        ofy().save().entity(notification).now();
+        queue().add(ofy().getTransaction(), planTask(notification));
+    }
+
+    /**
+     * Returns the latest notification of the attendees of a conference, with its progress.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the ConferenceNotification, null when the attendees were never notified.
+     */
+    public static ConferenceNotification load(final String websafeConferenceKey) {
+        ConferenceNotification notification = ofy().load()
+                .key(ConferenceNotification.createKey(websafeConferenceKey)).now();
+        if (notification == null) {
+            return null;
+        }
+        List<Key<NotificationShard>> keys = new ArrayList<>(notification.getShards());
+        for (int i = 0; i < notification.getShards(); i++) {
+            keys.add(NotificationShard.createKey(websafeConferenceKey,
+                    notification.getGeneration(), i));
+        }
+        int recipients = 0;
+        Map<Key<NotificationShard>, NotificationShard> shards = ofy().load().keys(keys);
+        for (NotificationShard shard : shards.values()) {
+            recipients += shard.getRecipients();
+        }
+        notification.setProgress(shards.size(), recipients);
+        return notification;
+    }
+
+    /**
+     * Plans the next shards of a notification, unless they were planned already.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param generation the generation of the notification.
+     * @param firstShard the index of the first shard to plan.
+     */
+    public static void plan(final String websafeConferenceKey, final long generation,
+                            final int firstShard) {
+        plan(websafeConferenceKey, generation, firstShard, SHARD_SIZE, SHARDS_PER_PLAN);
+    }
+
+    static void plan(final String websafeConferenceKey, final long generation,
+                     final int firstShard, final int shardSize, final int shardsPerPlan) {
+        final Key<ConferenceNotification> notificationKey =
+                ConferenceNotification.createKey(websafeConferenceKey);
+        ConferenceNotification notification = ofy().load().key(notificationKey).now();
+        if (notification == null || notification.getGeneration() != generation
+                || notification.isPlanned() || notification.getShards() != firstShard) {
+            return;
+        }
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        String cursor = notification.getCursor();
+        List<TaskOptions> tasks = new ArrayList<>();
+        int recipients = 0;
+        boolean planned = false;
+        while (!planned && tasks.size() < shardsPerPlan) {
+            Query<Registration> query = ofy().load().type(Registration.class)
+                    .filter("conferenceKey", conferenceKey).limit(shardSize);
+            if (cursor != null) {
+                query = query.startAt(Cursor.fromWebSafeString(cursor));
+            }
+            QueryResultIterator<Key<Registration>> iterator = query.keys().iterator();
+            int shard = firstShard + tasks.size();
+            TaskOptions task = TaskOptions.Builder.withUrl(TASK_URL)
+                    .taskName("notify-" + websafeConferenceKey + "-" + generation + "-" + shard)
+                    .param("websafeConferenceKey", websafeConferenceKey)
+                    .param("generation", String.valueOf(generation))
+                    .param("shard", String.valueOf(shard));
+            int count = 0;
+            while (iterator.hasNext()) {
+                // The attendee is the parent of the registration.
+                task.param("userId", iterator.next().getParent().getName());
+                count++;
+            }
+            if (count > 0) {
+                tasks.add(task);
+                recipients += count;
+            }
+            if (count < shardSize) {
+                planned = true;
+            } else {
+                cursor = iterator.getCursor().toWebSafeString();
+            }
+        }
+        if (!tasks.isEmpty()) {
+            try {
+                queue().add(tasks);
+            } catch (TaskAlreadyExistsException e) {
+                // A previous run of this task enqueued some of them, and the others were added.
+            }
+        }
+
+        final String nextCursor = cursor;
+        final int shards = tasks.size();
+        final int planRecipients = recipients;
+        final boolean done = planned;
+        new TransactionRunner("planNotification").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                ConferenceNotification notification = ofy().load().key(notificationKey).now();
+                if (notification.getGeneration() != generation
+                        || notification.getShards() != firstShard) {
+                    return;
+                }
+                notification.checkpoint(nextCursor, shards, planRecipients, done);
+                ofy().save().entity(notification).now();
+                if (!done) {
+                    queue().add(ofy().getTransaction(), planTask(notification));
+                }
+            }
+        });
+        Metrics.increment("notifications.shardsPlanned", shards);
+    }
+
+    /**
+     * Notifies the attendees of a shard, unless they were notified already or a later change
+     * started a new notification.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param generation the generation of the notification.
+     * @param shard the index of the shard.
+     * @param userIds the userIds of the attendees of the shard.
+     */
+    public static void notifyShard(final String websafeConferenceKey, final long generation,
+                                   final int shard, final List<String> userIds) {
+        Key<NotificationShard> shardKey =
+                NotificationShard.createKey(websafeConferenceKey, generation, shard);
+        if (ofy().load().key(shardKey).now() != null) {
+            return;
+        }
+        ConferenceNotification notification = ofy().load()
+                .key(ConferenceNotification.createKey(websafeConferenceKey)).now();
+        if (notification == null || notification.getGeneration() != generation) {
+            return;
+        }
+        for (int i = 0; i < userIds.size(); i += OUTBOXES_PER_TRANSACTION) {
+            final List<String> batch =
+                    userIds.subList(i, Math.min(i + OUTBOXES_PER_TRANSACTION, userIds.size()));
+            new TransactionRunner("notifyAttendees").run(new VoidWork() {
+                @Override
+                public void vrun() {
+                    for (String userId : batch) {
+                        Mailer.enqueue(userId, MailKind.CONFERENCE_CHANGED,
+                                websafeConferenceKey);
+                    }
+                }
+            });
+        }
+        ofy().save().entity(new NotificationShard(websafeConferenceKey, generation, shard,
+                userIds.size())).now();
+        Metrics.increment("notifications.sent", userIds.size());
+    }
+}
@@ -0,0 +1,305 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.devrel.training.conference.domain.AutocompletePrefix;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.Speaker;
+import com.google.devrel.training.conference.domain.Suggestion;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintains and reads the AutocompletePrefix entities of the conference names, cities and
+ * topics and of the speakers.
+ *
+ * A value is suggested for the prefixes of the value and of each of its words, up to
+ * MAX_PREFIX_LENGTH characters, so "san f" and "fran" both suggest "San Francisco". The
+ * entities are updated by a task after a conference or a session is created. When a conference
+ * is renamed, moved, retopiced or deleted, the same task removes the values it lost that no
+ * other conference has anymore.
+ */
+public class Autocomplete {
+
+    public static final String NAME = "name";
+
+    public static final String CITY = "city";
+
+    public static final String TOPIC = "topic";
+
+    public static final String SPEAKER = "speaker";
+
+    /**
+     * The fields suggested when the client doesn't ask for one, in order.
+     */
+    public static final List<String> FIELDS = ImmutableList.of(NAME, SPEAKER, CITY, TOPIC);
+
+    /**
+     * The Conference properties holding the values of the conference fields.
+     */
+    private static final Map<String, String> CONFERENCE_PROPERTIES =
+            ImmutableMap.of(NAME, "name", CITY, "city", TOPIC, "topics");
+
+    /**
+     * Prefixes longer than this aren't stored; longer ones are checked on the values.
+     */
+    static final int MAX_PREFIX_LENGTH = 12;
+
+    /**
+     * The maximum number of entity groups of a cross-group transaction.
+     */
+    private static final int MAX_ENTITY_GROUPS = 5;
+
+    private Autocomplete() {}
+
+    /**
+     * Returns the prefixes a value is suggested for.
+     *
+     * @param value the value.
+     * @return the normalized prefixes of the value and of its words.
+     */
+    static Set<String> prefixes(final String value) {
+        String normalized = Speaker.normalize(value);
+        Set<String> prefixes = new LinkedHashSet<>();
+        for (int start : wordStarts(normalized)) {
+            int end = Math.min(normalized.length(), start + MAX_PREFIX_LENGTH);
+            for (int i = start + 1; i <= end; i++) {
+                prefixes.add(normalized.substring(start, i));
+            }
+        }
+        return prefixes;
+    }
+
+    private static List<Integer> wordStarts(final String normalized) {
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < normalized.length(); i++) {
+            if (Character.isLetterOrDigit(normalized.charAt(i))
+                    && (i == 0 || !Character.isLetterOrDigit(normalized.charAt(i - 1)))) {
+                starts.add(i);
+            }
+        }
+        return starts;
+    }
+
+    private static boolean matches(final String value, final String prefix) {
+        String normalized = Speaker.normalize(value);
+        if (normalized.startsWith(prefix)) {
+            return true;
+        }
+        for (int start : wordStarts(normalized)) {
+            if (normalized.startsWith(prefix, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the name, the city and the topics of the given conference.
+     *
+     * @param conference the Conference.
+     */
+    public static void put(final Conference conference) {
+        putAll(Collections.singletonList(conference), Collections.<Session>emptyList());
+    }
+
+    /**
+     * Adds the speaker of the given session.
+     *
+     * @param session the Session.
+     */
+    public static void put(final Session session) {
+        putAll(Collections.<Conference>emptyList(), Collections.singletonList(session));
+    }
+
+    /**
+     * Adds the values of the given conferences and sessions, updating each prefix once.
+     *
+     * @param conferences the Conferences.
+     * @param sessions the Sessions.
+     */
+    public static void putAll(final Collection<Conference> conferences,
+                              final Collection<Session> sessions) {
+        Multimap<String, String> values = LinkedHashMultimap.create();
+        for (Conference conference : conferences) {
+            values.putAll(valuesOf(conference));
+        }
+        for (Session session : sessions) {
+            if (Speakers.isIndexed(session.getSpeaker())) {
+                values.put(SPEAKER, session.getSpeaker().trim());
+            }
+        }
+        update(values, true);
+    }
+
+    /**
+     * Returns the name, the city and the topics of the given conference, by field.
+     *
+     * @param conference the Conference.
+     * @return the values.
+     */
+    public static Multimap<String, String> valuesOf(final Conference conference) {
+        Multimap<String, String> values = LinkedHashMultimap.create();
+        values.put(NAME, conference.getName());
+        values.put(CITY, conference.getCity());
+        if (conference.getTopics() != null) {
+            values.putAll(TOPIC, conference.getTopics());
+        }
+        return values;
+    }
+
+    /**
+     * Returns the task updating the prefixes after the given conference or session was saved
+     * or deleted.
+     *
+     * @param websafeKey the key of the Conference or the Session.
+     * @param removed the values of a conference that it doesn't have anymore, by field.
+     * @return the task for UpdateAutocompleteServlet.
+     */
+    public static TaskOptions task(final String websafeKey,
+                                   final Multimap<String, String> removed) {
+        TaskOptions task = TaskOptions.Builder.withUrl("/tasks/update_autocomplete")
+                .param("websafeKey", websafeKey);
+        for (Map.Entry<String, String> entry : removed.entries()) {
+            if (entry.getValue() != null) {
+                task.param("removed", entry.getKey() + ":" + entry.getValue());
+            }
+        }
+        return task;
+    }
+
+    /**
+     * Removes the given conference values from the entities of their prefixes, except the ones
+     * another conference still has.
+     *
+     * The check is an eventually consistent query. It may still see a conference as it was,
+     * which only keeps a stale value, or miss a conference just saved, whose own task adds the
+     * value back.
+     *
+     * @param values the values of a conference that it doesn't have anymore, by field.
+     */
+    public static void removeUnused(final Multimap<String, String> values) {
+        Multimap<String, String> unused = LinkedHashMultimap.create();
+        for (Map.Entry<String, String> entry : values.entries()) {
+            String property = CONFERENCE_PROPERTIES.get(entry.getKey());
+            if (property != null && entry.getValue() != null
+                    && ofy().load().type(Conference.class).filter(property, entry.getValue())
+                    .keys().first().now() == null) {
+                unused.put(entry.getKey(), entry.getValue());
+            }
+        }
+        update(unused, false);
+    }
+
+    /**
+     * Adds the values to, or removes them from, the entities of their prefixes, in transactions
+     * of at most MAX_ENTITY_GROUPS entities. Adding or removing a value twice changes nothing,
+     * so a task can be retried.
+     */
+    private static void update(final Multimap<String, String> values, final boolean add) {
+        final Map<Key<AutocompletePrefix>, List<String>> changes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : values.entries()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            for (String prefix : prefixes(entry.getValue())) {
+                Key<AutocompletePrefix> key = AutocompletePrefix.createKey(entry.getKey(), prefix);
+                List<String> keyValues = changes.get(key);
+                if (keyValues == null) {
+                    keyValues = new ArrayList<>();
+                    changes.put(key, keyValues);
+                }
+                keyValues.add(entry.getValue());
+            }
+        }
+        for (final List<Key<AutocompletePrefix>> keys
+                : Iterables.partition(changes.keySet(), MAX_ENTITY_GROUPS)) {
+            new TransactionRunner("updateAutocomplete").run(new VoidWork() {
+                @Override
+                public void vrun() {
+                    Map<Key<AutocompletePrefix>, AutocompletePrefix> loaded =
+                            ofy().load().keys(keys);
+                    List<AutocompletePrefix> changed = new ArrayList<>();
+                    for (Key<AutocompletePrefix> key : keys) {
+                        AutocompletePrefix entity = loaded.get(key);
+                        if (entity == null && !add) {
+                            continue;
+                        }
+                        if (entity == null) {
+                            String[] id = key.getName().split(":", 2);
+                            entity = new AutocompletePrefix(id[0], id[1]);
+                        }
+                        boolean entityChanged = false;
+                        for (String value : changes.get(key)) {
+                            entityChanged |= add ? entity.add(value) : entity.remove(value);
+                        }
+                        if (entityChanged) {
+                            changed.add(entity);
+                        }
+                    }
+                    ofy().save().entities(changed).now();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the values starting with the given prefix, or with a word starting with it.
+     *
+     * @param prefix the prefix typed by the user.
+     * @param field one of the FIELDS, null for all of them.
+     * @param limit the maximum number of suggestions, at most AutocompletePrefix.MAX_VALUES.
+     * @return the suggestions, by field then in alphabetical order.
+     */
+    public static List<Suggestion> suggest(final String prefix, final String field,
+                                           final Integer limit) {
+        String normalized = prefix == null ? "" : Speaker.normalize(prefix);
+        int max = limit == null || limit <= 0 || limit > AutocompletePrefix.MAX_VALUES
+                ? AutocompletePrefix.MAX_VALUES : limit;
+        List<Suggestion> suggestions = new ArrayList<>(max);
+        if (normalized.isEmpty()) {
+            return suggestions;
+        }
+        String stored = normalized.length() > MAX_PREFIX_LENGTH
+                ? normalized.substring(0, MAX_PREFIX_LENGTH) : normalized;
+        Collection<String> fields = field == null ? FIELDS : ImmutableList.of(field);
+        List<Key<AutocompletePrefix>> keys = new ArrayList<>(fields.size());
+        for (String each : fields) {
+            keys.add(AutocompletePrefix.createKey(each, stored));
+        }
+        // A single batch get, served by memcache for the prefixes read recently.
+        Map<Key<AutocompletePrefix>, AutocompletePrefix> entities = ofy().load().keys(keys);
+        for (Key<AutocompletePrefix> key : keys) {
+            AutocompletePrefix entity = entities.get(key);
+            if (entity == null) {
+                continue;
+            }
+            String entityField = key.getName().split(":", 2)[0];
+            for (String value : entity.getValues()) {
+                if (suggestions.size() == max) {
+                    return suggestions;
+                }
+                if (stored.equals(normalized) || matches(value, normalized)) {
+                    suggestions.add(new Suggestion(entityField, value));
+                }
+            }
+        }
+        return suggestions;
+    }
+}
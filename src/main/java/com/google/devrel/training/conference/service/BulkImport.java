@@ -0,0 +1,435 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.domain.Agenda;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ImportChunk;
+import com.google.devrel.training.conference.domain.ImportJob;
+import com.google.devrel.training.conference.domain.ImportJob.Status;
+import com.google.devrel.training.conference.domain.ImportRef;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.form.ImportForm;
+import com.google.devrel.training.conference.form.ImportForm.Format;
+import com.google.devrel.training.conference.service.ImportRecords.Record;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Imports conferences and sessions in bulk.
+ *
+ * The data is stored in ImportChunks, and a task imports one chunk at a time: it allocates the
+ * keys of the chunk in ranges, saves the entities and their SearchDocuments in batches, and
+ * then, in one transaction, counts the conferences in the facets and moves the checkpoint of
+ * the ImportJob to the next chunk. The rest of the derived data (speakers, autocomplete,
+ * agendas, featured speakers, the nearly sold out set and the confirmation email) is updated by
+ * a single pass once all the chunks are imported, instead of once per entity.
+ */
+public class BulkImport {
+
+    /**
+     * The number of lines imported by a task.
+     */
+    static final int CHUNK_LINES = 500;
+
+    /**
+     * The number of entities saved by a batch put.
+     */
+    private static final int SAVE_BATCH = 100;
+
+    private static final String TASK_URL = "/tasks/import";
+
+    private BulkImport() {}
+
+    /**
+     * Stores the data of an import and starts it.
+     *
+     * @param organizer the Profile of the user importing, saved.
+     * @param importForm the format and the data.
+     * @return the ImportJob.
+     * @throws IllegalArgumentException when the data is empty or the CSV header is malformed.
+     */
+    public static ImportJob start(final Profile organizer, final ImportForm importForm) {
+        return start(organizer, importForm, CHUNK_LINES);
+    }
+
+    static ImportJob start(final Profile organizer, final ImportForm importForm,
+                           final int chunkSize) {
+        if (importForm.getFormat() == null || importForm.getData() == null
+                || importForm.getData().trim().isEmpty()) {
+            throw new IllegalArgumentException("The format and the data are required");
+        }
+        List<String> lines = Arrays.asList(importForm.getData().split("\r?\n"));
+        List<String> header = null;
+        int firstLine = 1;
+        if (importForm.getFormat() == Format.CSV) {
+            header = ImportRecords.splitCsv(lines.get(0));
+            lines = lines.subList(1, lines.size());
+            firstLine = 2;
+        }
+        List<List<String>> chunkLines = Lists.partition(lines, chunkSize);
+        ImportJob job = new ImportJob(organizer, importForm.getFormat(), header, lines.size(),
+                chunkLines.size());
+        ofy().save().entity(job).now();
+        Key<ImportJob> jobKey = Key.create(job);
+        List<ImportChunk> chunks = new ArrayList<>(chunkLines.size());
+        for (int i = 0; i < chunkLines.size(); i++) {
+            chunks.add(new ImportChunk(jobKey, i, firstLine + i * chunkSize, chunkLines.get(i)));
+        }
+        saveInBatches(chunks);
+        resume(job);
+        return job;
+    }
+
+    /**
+     * Enqueues the task for the next step of an import, for instance after its tasks gave up.
+     * Running a step twice is harmless.
+     *
+     * @param job the ImportJob.
+     */
+    public static void resume(final ImportJob job) {
+        if (job.getStatus() != Status.DONE) {
+            QueueFactory.getDefaultQueue().add(nextTask(job));
+        }
+    }
+
+    private static TaskOptions nextTask(final ImportJob job) {
+        TaskOptions task = TaskOptions.Builder.withUrl(TASK_URL)
+                .param("importId", String.valueOf(job.getId()));
+        return job.getStatus() == Status.RUNNING
+                ? task.param("chunk", String.valueOf(job.getNextChunk()))
+                : task.param("finishChunk", String.valueOf(job.getNextFinishChunk()));
+    }
+
+    private static <T> void saveInBatches(final List<T> entities) {
+        // The batches are sent together and waited for at the end.
+        List<Result<?>> results = new ArrayList<>();
+        for (List<T> batch : Lists.partition(entities, SAVE_BATCH)) {
+            results.add(ofy().save().entities(batch));
+        }
+        for (Result<?> result : results) {
+            result.now();
+        }
+    }
+
+    /**
+     * Imports a chunk, unless it was imported already.
+     *
+     * @param importId the id of the ImportJob.
+     * @param index the index of the chunk.
+     */
+    public static void importChunk(final long importId, final int index) {
+        final Key<ImportJob> jobKey = ImportJob.createKey(importId);
+        ImportJob job = ofy().load().key(jobKey).now();
+        if (job == null || job.getStatus() != Status.RUNNING || job.getNextChunk() != index) {
+            return;
+        }
+        final Key<ImportChunk> chunkKey = ImportChunk.createKey(jobKey, index);
+        ImportChunk chunk = ofy().load().key(chunkKey).now();
+
+        final List<String> errors = new ArrayList<>();
+        List<Record> conferenceRecords = new ArrayList<>();
+        List<Record> sessionRecords = new ArrayList<>();
+        List<String> lines = chunk.getLines();
+        for (int i = 0; i < lines.size(); i++) {
+            int line = chunk.getFirstLine() + i;
+            if (lines.get(i).trim().isEmpty()) {
+                continue;
+            }
+            try {
+                Record record = job.getFormat() == Format.CSV
+                        ? ImportRecords.parseCsv(line, job.getHeader(), lines.get(i))
+                        : ImportRecords.parseJson(line, lines.get(i));
+                (record.isConference() ? conferenceRecords : sessionRecords).add(record);
+            } catch (IllegalArgumentException e) {
+                errors.add("Line " + line + ": " + e.getMessage());
+            }
+        }
+
+        // The keys of the conferences are allocated first, since the sessions may refer to them.
+        if (!chunk.isConferenceKeysAllocated()) {
+            chunk = allocateConferenceKeys(chunkKey, job, conferenceRecords.size());
+        }
+        List<Conference> conferences = new ArrayList<>(conferenceRecords.size());
+        final Map<String, String> refs = new HashMap<>();
+        Iterator<Key<Conference>> conferenceKeys = chunk.getConferenceKeys().iterator();
+        for (Record record : conferenceRecords) {
+            Conference conference = new Conference(conferenceKeys.next().getId(),
+                    job.getOrganizerUserId(), record.conferenceForm);
+            conference.updateOrganizerDisplayName(job.getOrganizerDisplayName());
+            conferences.add(conference);
+            if (record.ref != null) {
+                refs.put(record.ref, conference.getWebsafeKey());
+            }
+        }
+
+        Map<String, String> knownRefs = loadRefs(jobKey, refs, sessionRecords);
+        Map<Key<Conference>, Conference> parents = resolveParents(conferences, knownRefs,
+                sessionRecords, errors);
+        List<Key<Conference>> sessionParents = new ArrayList<>(sessionRecords.size());
+        for (Record record : sessionRecords) {
+            sessionParents.add(parentKey(knownRefs, record));
+        }
+        if (!chunk.isSessionKeysAllocated()) {
+            chunk = allocateSessionKeys(chunkKey, sessionParents);
+        }
+        List<Session> sessions = new ArrayList<>(sessionRecords.size());
+        Iterator<Key<Session>> sessionKeys = chunk.getSessionKeys().iterator();
+        for (Record record : sessionRecords) {
+            Key<Session> sessionKey = sessionKeys.next();
+            Session session = new Session(sessionKey.getId(),
+                    sessionKey.getParent().getString(), record.sessionForm);
+            session.updateConferenceName(parents.get(session.getConferenceKey()).getName());
+            sessions.add(session);
+        }
+
+        List<Object> entities = new ArrayList<>();
+        entities.addAll(conferences);
+        entities.addAll(sessions);
+        for (Conference conference : conferences) {
+            entities.add(SearchIndex.document(conference));
+        }
+        for (Session session : sessions) {
+            entities.add(SearchIndex.document(session));
+        }
+        saveInBatches(entities);
+        Metrics.increment("import.entities", conferences.size() + sessions.size());
+
+        final List<ImportRef> importRefs = new ArrayList<>(refs.size());
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            if (!ref.getKey().isEmpty()) {
+                importRefs.add(new ImportRef(jobKey, ref.getKey(), ref.getValue()));
+            }
+        }
+        final List<Conference> importedConferences = conferences;
+        final int importedSessions = sessions.size();
+        final int lineCount = lines.size();
+        new TransactionRunner("importCheckpoint").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                ImportJob job = ofy().load().key(jobKey).now();
+                if (job.getNextChunk() != index) {
+                    return;
+                }
+                FacetCounters.putAll(importedConferences);
+                job.checkpoint(lineCount, importedConferences.size(), importedSessions, errors);
+                ofy().save().entity(job).now();
+                ofy().save().entities(importRefs).now();
+                QueueFactory.getDefaultQueue().add(ofy().getTransaction(), nextTask(job));
+            }
+        });
+    }
+
+    /**
+     * Allocates the keys of the conferences of a chunk in one range, and stores them in a
+     * transaction on the chunk, so that concurrent runs use the same keys.
+     */
+    private static ImportChunk allocateConferenceKeys(final Key<ImportChunk> chunkKey,
+                                                      final ImportJob job, final int count) {
+        final List<Key<Conference>> conferenceKeys = new ArrayList<>(count);
+        if (count > 0) {
+            for (Key<Conference> key : factory().allocateIds(
+                    Key.create(Profile.class, job.getOrganizerUserId()), Conference.class,
+                    count)) {
+                conferenceKeys.add(key);
+            }
+        }
+        return new TransactionRunner("allocateImportKeys").run(new Work<ImportChunk>() {
+            @Override
+            public ImportChunk run() {
+                ImportChunk chunk = ofy().load().key(chunkKey).now();
+                // When another run got there first, its keys are used and these are wasted.
+                if (!chunk.isConferenceKeysAllocated()) {
+                    chunk.allocateConferenceKeys(conferenceKeys);
+                    ofy().save().entity(chunk).now();
+                }
+                return chunk;
+            }
+        });
+    }
+
+    /**
+     * Allocates the keys of the sessions of a chunk in one range per conference, as they are
+     * its children, and stores them like allocateConferenceKeys.
+     */
+    private static ImportChunk allocateSessionKeys(final Key<ImportChunk> chunkKey,
+                                                   final List<Key<Conference>> parents) {
+        Map<Key<Conference>, Integer> counts = new LinkedHashMap<>();
+        for (Key<Conference> parent : parents) {
+            Integer count = counts.get(parent);
+            counts.put(parent, count == null ? 1 : count + 1);
+        }
+        Map<Key<Conference>, Iterator<Key<Session>>> ranges = new HashMap<>();
+        for (Map.Entry<Key<Conference>, Integer> entry : counts.entrySet()) {
+            ranges.put(entry.getKey(), factory().allocateIds(entry.getKey(), Session.class,
+                    entry.getValue()).iterator());
+        }
+        final List<Key<Session>> sessionKeys = new ArrayList<>(parents.size());
+        for (Key<Conference> parent : parents) {
+            sessionKeys.add(ranges.get(parent).next());
+        }
+        return new TransactionRunner("allocateImportKeys").run(new Work<ImportChunk>() {
+            @Override
+            public ImportChunk run() {
+                ImportChunk chunk = ofy().load().key(chunkKey).now();
+                if (!chunk.isSessionKeysAllocated()) {
+                    chunk.allocateSessionKeys(sessionKeys);
+                    ofy().save().entity(chunk).now();
+                }
+                return chunk;
+            }
+        });
+    }
+
+    /**
+     * Returns the refs of the chunk, together with the refs of the earlier chunks its sessions
+     * refer to, looked up by key.
+     */
+    private static Map<String, String> loadRefs(final Key<ImportJob> jobKey,
+            final Map<String, String> refs, final List<Record> sessionRecords) {
+        Map<String, String> knownRefs = new HashMap<>(refs);
+        Set<Key<ImportRef>> refKeys = new LinkedHashSet<>();
+        for (Record record : sessionRecords) {
+            if (record.conference != null && !record.conference.isEmpty()
+                    && !refs.containsKey(record.conference)) {
+                refKeys.add(ImportRef.createKey(jobKey, record.conference));
+            }
+        }
+        for (ImportRef ref : ofy().load().keys(refKeys).values()) {
+            knownRefs.put(ref.getRef(), ref.getWebsafeConferenceKey());
+        }
+        return knownRefs;
+    }
+
+    /**
+     * Loads the conferences the sessions belong to, and drops the sessions of conferences that
+     * don't exist.
+     */
+    private static Map<Key<Conference>, Conference> resolveParents(
+            final List<Conference> conferences, final Map<String, String> refs,
+            final List<Record> sessionRecords, final List<String> errors) {
+        Map<Key<Conference>, Conference> parents = new HashMap<>();
+        for (Conference conference : conferences) {
+            parents.put(Key.create(conference), conference);
+        }
+        Set<Key<Conference>> existing = new LinkedHashSet<>();
+        for (Iterator<Record> iterator = sessionRecords.iterator(); iterator.hasNext(); ) {
+            Record record = iterator.next();
+            Key<Conference> parent = parentKey(refs, record);
+            if (parent == null) {
+                errors.add("Line " + record.line + ": Unknown conference " + record.conference);
+                iterator.remove();
+            } else if (!parents.containsKey(parent)) {
+                existing.add(parent);
+            }
+        }
+        parents.putAll(ofy().load().keys(existing));
+        for (Iterator<Record> iterator = sessionRecords.iterator(); iterator.hasNext(); ) {
+            Record record = iterator.next();
+            if (!parents.containsKey(parentKey(refs, record))) {
+                errors.add("Line " + record.line + ": No conference " + record.conference);
+                iterator.remove();
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Returns the key of the conference of a session, referred to by the ref of a conference of
+     * the import or by its websafe key, null when it isn't either.
+     */
+    private static Key<Conference> parentKey(final Map<String, String> refs,
+                                             final Record record) {
+        String websafeKey = refs.get(record.conference);
+        if (websafeKey == null) {
+            websafeKey = record.conference;
+        }
+        try {
+            Key<Conference> key = Key.create(websafeKey);
+            return key.getKind().equals("Conference") ? key : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Updates the derived data of the entities imported by a chunk, unless it was updated
+     * already, then enqueues the next chunk. After the last chunk, marks the import done and
+     * sends one email to the organizer. Running it twice is harmless.
+     *
+     * @param importId the id of the ImportJob.
+     * @param index the index of the chunk.
+     */
+    public static void finish(final long importId, final int index) {
+        final Key<ImportJob> jobKey = ImportJob.createKey(importId);
+        ImportJob job = ofy().load().key(jobKey).now();
+        if (job == null || job.getStatus() != Status.FINISHING
+                || job.getNextFinishChunk() != index) {
+            return;
+        }
+        ImportChunk chunk = ofy().load().key(ImportChunk.createKey(jobKey, index)).now();
+        List<Conference> conferences = new ArrayList<>(
+                ofy().load().keys(chunk.getConferenceKeys()).values());
+        List<Session> sessions = new ArrayList<>(
+                ofy().load().keys(chunk.getSessionKeys()).values());
+        Speakers.putSessions(sessions);
+        Autocomplete.putAll(conferences, sessions);
+        List<Key<Conference>> nearlySoldOut = new ArrayList<>();
+        for (Conference conference : conferences) {
+            if (NearlySoldOut.isNearlySoldOut(conference.getSeatsAvailable())) {
+                nearlySoldOut.add(Key.create(conference));
+            }
+        }
+        Set<Key<Conference>> withSessions = new LinkedHashSet<>();
+        for (Session session : sessions) {
+            withSessions.add(session.getConferenceKey());
+        }
+        // Agendas are rebuilt from the sessions the next time they are read.
+        List<Key<Agenda>> agendaKeys = new ArrayList<>(withSessions.size());
+        for (Key<Conference> conferenceKey : withSessions) {
+            agendaKeys.add(Agenda.createKey(conferenceKey.getString()));
+            FeaturedSpeakers.schedule(conferenceKey.getString());
+        }
+        ofy().delete().keys(agendaKeys).now();
+        ETags.forget(agendaKeys);
+        NearlySoldOutTracker.update(nearlySoldOut, Collections.<Key<Conference>>emptyList());
+        QueryCache.invalidate("Conference");
+
+        new TransactionRunner("finishImport").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                ImportJob job = ofy().load().key(jobKey).now();
+                if (job.getStatus() != Status.FINISHING || job.getNextFinishChunk() != index) {
+                    return;
+                }
+                job.finishCheckpoint();
+                ofy().save().entity(job).now();
+                if (job.getStatus() == Status.DONE) {
+                    Mailer.enqueue(job.getOrganizerUserId(), MailKind.IMPORT_FINISHED,
+                            jobKey.getString());
+                } else {
+                    QueueFactory.getDefaultQueue().add(ofy().getTransaction(), nextTask(job));
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,58 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the mails in memory instead of sending them, to run the mail pipeline locally, for
+ * instance to measure its throughput, and in the tests.
+ */
+public class CapturingMailTransport implements MailTransport {
+
+    /**
+     * A captured mail.
+     */
+    public static class Mail {
+        private final String to;
+
+        private final String subject;
+
+        private final String body;
+
+        Mail(final String to, final String subject, final String body) {
+            this.to = to;
+            this.subject = subject;
+            this.body = body;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+    private final List<Mail> mails = new ArrayList<>();
+
+    @Override
+    public synchronized void send(final String to, final String subject, final String body) {
+        mails.add(new Mail(to, subject, body));
+    }
+
+    /**
+     * Returns the mails captured so far and forgets them.
+     *
+     * @return the mails, in the order they were sent.
+     */
+    public synchronized List<Mail> drain() {
+        List<Mail> drained = new ArrayList<>(mails);
+        mails.clear();
+        return drained;
+    }
+}
@@ -0,0 +1,218 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ExportJob;
+import com.google.devrel.training.conference.domain.ExportJob.Status;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Exports the conferences, sessions and profiles as newline-delimited JSON, for analytics.
+ *
+ * The kinds are walked in chained tasks. A task reads up to CHUNKS_PER_TASK chunks of
+ * CHUNK_SIZE entities with a cursor, writes them to a new part of the ExportStore as it goes
+ * and clears the Objectify session after each chunk, so its memory stays bounded whatever the
+ * size of the kinds. The ExportJob lists the parts, which concatenated in order make the
+ * export.
+ *
+ * An incremental export only includes the entities saved after a given time, using the indexed
+ * updated property.
+ */
+public class CatalogExport {
+
+    /**
+     * The kinds exported, in order.
+     */
+    static final List<Class<?>> KINDS =
+            ImmutableList.<Class<?>>of(Conference.class, Session.class, Profile.class);
+
+    /**
+     * The number of entities read by a query.
+     */
+    static final int CHUNK_SIZE = 200;
+
+    /**
+     * The number of chunks written by a task.
+     */
+    static final int CHUNKS_PER_TASK = 10;
+
+    private static final String TASK_URL = "/tasks/export";
+
+    private static volatile ExportStore store = new DatastoreExportStore();
+
+    private CatalogExport() {}
+
+    public static ExportStore getStore() {
+        return store;
+    }
+
+    /**
+     * Replaces the store of the parts.
+     *
+     * @param exportStore the ExportStore.
+     */
+    public static void setStore(final ExportStore exportStore) {
+        store = exportStore;
+    }
+
+    /**
+     * Starts an export.
+     *
+     * @param since only the entities saved after this are exported, all of them when null.
+     * @return the ExportJob.
+     */
+    public static ExportJob start(final Date since) {
+        ExportJob job = new ExportJob(since);
+        ofy().save().entity(job).now();
+        resume(job);
+        return job;
+    }
+
+    /**
+     * Enqueues the task for the next part of an export, for instance after its tasks gave up.
+     * Running a part twice is harmless.
+     *
+     * @param job the ExportJob.
+     */
+    public static void resume(final ExportJob job) {
+        if (job.getStatus() != Status.DONE) {
+            QueueFactory.getDefaultQueue().add(nextTask(job));
+        }
+    }
+
+    private static TaskOptions nextTask(final ExportJob job) {
+        return TaskOptions.Builder.withUrl(TASK_URL)
+                .param("exportId", String.valueOf(job.getId()))
+                .param("part", String.valueOf(job.getParts().size()));
+    }
+
+    /**
+     * Writes a part of an export, unless it was written already.
+     *
+     * @param exportId the id of the ExportJob.
+     * @param part the index of the part.
+     * @throws IOException when the part can't be written.
+     */
+    public static void exportPart(final long exportId, final int part) throws IOException {
+        exportPart(exportId, part, CHUNK_SIZE, CHUNKS_PER_TASK);
+    }
+
+    static void exportPart(final long exportId, final int part, final int chunkSize,
+                           final int chunksPerTask) throws IOException {
+        final Key<ExportJob> jobKey = ExportJob.createKey(exportId);
+        ExportJob job = ofy().load().key(jobKey).now();
+        if (job == null || job.getStatus() != Status.RUNNING || job.getParts().size() != part) {
+            return;
+        }
+        // Each run of a part writes under its own name, so a retry never overwrites it.
+        final String name = "export-" + exportId + "-" + part + "-" + UUID.randomUUID();
+        Writer writer = new OutputStreamWriter(store.create(name), "UTF-8");
+
+        final Map<String, Integer> written = new LinkedHashMap<>();
+        int kindIndex = job.getKindIndex();
+        String cursor = job.getCursor();
+        int total = 0;
+        for (int chunk = 0; chunk < chunksPerTask && kindIndex < KINDS.size(); chunk++) {
+            Class<?> kind = KINDS.get(kindIndex);
+            Query<?> query = ofy().load().type(kind).hybrid(false).limit(chunkSize);
+            if (job.getSince() != null) {
+                query = query.filter("updated >", job.getSince());
+            }
+            if (cursor != null) {
+                query = query.startAt(Cursor.fromWebSafeString(cursor));
+            }
+            QueryResultIterator<?> iterator = query.iterator();
+            int count = 0;
+            while (iterator.hasNext()) {
+                writer.write(line(iterator.next()));
+                writer.write('\n');
+                count++;
+            }
+            writer.flush();
+            Integer before = written.get(kind.getSimpleName());
+            written.put(kind.getSimpleName(), before == null ? count : before + count);
+            total += count;
+            if (count < chunkSize) {
+                kindIndex++;
+                cursor = null;
+            } else {
+                cursor = iterator.getCursor().toWebSafeString();
+            }
+            // The entities of the chunk are written, and no longer needed.
+            ofy().clear();
+        }
+        writer.close();
+        Metrics.increment("export.entities", total);
+
+        final int nextKindIndex = kindIndex;
+        final String nextCursor = cursor;
+        boolean recorded = new TransactionRunner("exportCheckpoint").run(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                ExportJob job = ofy().load().key(jobKey).now();
+                if (job.getParts().size() != part) {
+                    return false;
+                }
+                boolean done = nextKindIndex == KINDS.size();
+                job.checkpoint(name, written, nextKindIndex, nextCursor, done);
+                ofy().save().entity(job).now();
+                if (!done) {
+                    QueueFactory.getDefaultQueue().add(ofy().getTransaction(), nextTask(job));
+                }
+                return true;
+            }
+        });
+        if (!recorded) {
+            // Another run of the same part got there first.
+            store.delete(name);
+        }
+    }
+
+    private static String line(final Object entity) {
+        if (entity instanceof Conference) {
+            Conference conference = (Conference) entity;
+            SeatInventory.resolveSeatsAvailable(conference);
+            return ExportRecords.conference(conference);
+        } else if (entity instanceof Session) {
+            return ExportRecords.session((Session) entity);
+        }
+        return ExportRecords.profile((Profile) entity);
+    }
+
+    /**
+     * Copies the parts of an export to a stream, one after the other.
+     *
+     * @param job the ExportJob.
+     * @param out the stream, which is not closed.
+     * @throws IOException when a part can't be read or the stream written.
+     */
+    public static void copyTo(final ExportJob job, final OutputStream out) throws IOException {
+        for (String name : job.getParts()) {
+            try (InputStream in = store.open(name)) {
+                ByteStreams.copy(in, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Session;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies the name of a renamed conference onto the copies of it: the conferenceName of its
+ * sessions and of the sessions in its agenda. The SearchDocuments of the sessions don't hold
+ * the name, so they are left alone.
+ *
+ * The task is enqueued by the transaction renaming the conference. It walks the sessions with
+ * a cursor and rewrites a batch of them per transaction, in the entity group of the
+ * conference. The name is read from the Conference in each transaction, so after several
+ * renames the last one wins. The agenda is rebuilt once all the sessions are rewritten.
+ */
+public class ConferenceRenames {
+
+    /**
+     * The number of sessions read by a task before it chains the next one.
+     */
+    static final int BATCH_SIZE = 100;
+
+    private static final String TASK_URL = "/tasks/rename_conference";
+
+    private ConferenceRenames() {}
+
+    /**
+     * Enqueues the rewrite of the copies of the name of a conference. Must be called in the
+     * transaction renaming it.
+     *
+     * @param conference the Conference.
+     */
+    public static void schedule(final Conference conference) {
+        QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                TaskOptions.Builder.withUrl(TASK_URL)
+                        .param("websafeConferenceKey", conference.getWebsafeKey()));
+    }
+
+    /**
+     * Rewrites a batch of the sessions of a conference, then chains a task for the next batch
+     * or rebuilds the agenda after the last one.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param cursor the websafe cursor of the batch, null for the first one.
+     */
+    public static void update(final String websafeConferenceKey, final String cursor) {
+        update(websafeConferenceKey, cursor, BATCH_SIZE);
+    }
+
+    static void update(final String websafeConferenceKey, final String cursor,
+                       final int batchSize) {
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Query<Session> query = ofy().load().type(Session.class).ancestor(conferenceKey)
+                .limit(batchSize);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<Session>> iterator = query.keys().iterator();
+        final List<Key<Session>> sessionKeys = new ArrayList<>(batchSize);
+        while (iterator.hasNext()) {
+            sessionKeys.add(iterator.next());
+        }
+
+        // The sessions are children of the conference, so one transaction covers the batch
+        // without overwriting a concurrent edit of a session.
+        new TransactionRunner("renameConference").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference == null) {
+                    return;
+                }
+                List<Session> renamed = new ArrayList<>(sessionKeys.size());
+                for (Session session : ofy().load().keys(sessionKeys).values()) {
+                    if (!conference.getName().equals(session.getConferenceName())) {
+                        session.updateConferenceName(conference.getName());
+                        renamed.add(session);
+                    }
+                }
+                ofy().save().entities(renamed).now();
+            }
+        });
+        Metrics.increment("conferenceRename.sessions", sessionKeys.size());
+
+        if (sessionKeys.size() == batchSize) {
+            QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(TASK_URL)
+                    .param("websafeConferenceKey", websafeConferenceKey)
+                    .param("cursor", iterator.getCursor().toWebSafeString()));
+        } else {
+            // The agenda copies the sessions; saving it changes its ETag.
+            Agendas.rebuild(websafeConferenceKey);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceChanges;
+import com.google.devrel.training.conference.domain.ConferenceTombstone;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the conferences changed and deleted after a client's watermark, so that a client
+ * keeping a copy of the conferences only fetches what changed since its last sync.
+ *
+ * Every save of a conference stamps it with a new version, indexed, and a deletion leaves a
+ * ConferenceTombstone stamped after it. The seats of a conference with a sharded inventory
+ * change without the conference being saved, so its SeatShards are stamped the same way, and a
+ * change of a shard stands for a change of its conference. A page merges the three in the
+ * order of their stamp, and its watermark is the stamp of its last change, with all the
+ * changes sharing that stamp included so that none is skipped.
+ *
+ * A conference is stamped before its transaction commits and the index catches up shortly
+ * after, so a change stamped just before a query may only show up after it. The watermark
+ * therefore never goes past LAG_MILLIS ago, and the changes of that window are sent again on
+ * the next sync.
+ */
+public class ConferenceSync {
+
+    /**
+     * How long after its stamp a change is sure to be seen by the queries.
+     */
+    static final long LAG_MILLIS = 30 * 1000L;
+
+    private ConferenceSync() {}
+
+    /**
+     * Returns the changes after the given watermark.
+     *
+     * @param since the watermark of the client, null for a full sync, which skips the deletions.
+     * @param limit the number of changes the client asked for, may be null.
+     * @return the ConferenceChanges.
+     */
+    public static ConferenceChanges since(final Long since, final Integer limit) {
+        return since(since, limit, System.currentTimeMillis());
+    }
+
+    static ConferenceChanges since(final Long since, final Integer limit, final long now) {
+        long from = since == null ? 0 : since;
+        int pageSize = Paging.pageSize(limit);
+        List<Conference> conferences = ofy().load().type(Conference.class)
+                .filter("version >", from).order("version").limit(pageSize).list();
+        // A full sync sends every conference, with its current seats, anyway.
+        List<ConferenceTombstone> tombstones = since == null
+                ? Collections.<ConferenceTombstone>emptyList()
+                : ofy().load().type(ConferenceTombstone.class)
+                        .filter("version >", from).order("version").limit(pageSize).list();
+        List<SeatShard> shards = since == null
+                ? Collections.<SeatShard>emptyList()
+                : ofy().load().type(SeatShard.class)
+                        .filter("version >", from).order("version").limit(pageSize).list();
+
+        List<Conference> changed = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        Set<String> seatsChanged = new LinkedHashSet<>();
+        int c = 0;
+        int t = 0;
+        int s = 0;
+        long last = from;
+        for (int count = 0; count < pageSize; count++) {
+            long conferenceVersion = c < conferences.size()
+                    ? conferences.get(c).getVersion() : Long.MAX_VALUE;
+            long tombstoneVersion = t < tombstones.size()
+                    ? tombstones.get(t).getVersion() : Long.MAX_VALUE;
+            long shardVersion = s < shards.size() ? shards.get(s).getVersion() : Long.MAX_VALUE;
+            if (c == conferences.size() && t == tombstones.size() && s == shards.size()) {
+                break;
+            } else if (conferenceVersion <= tombstoneVersion && conferenceVersion <= shardVersion) {
+                Conference conference = conferences.get(c++);
+                changed.add(conference);
+                last = conference.getVersion();
+            } else if (tombstoneVersion <= shardVersion) {
+                ConferenceTombstone tombstone = tombstones.get(t++);
+                deleted.add(tombstone.getWebsafeConferenceKey());
+                last = tombstone.getVersion();
+            } else {
+                SeatShard shard = shards.get(s++);
+                seatsChanged.add(shard.getWebsafeConferenceKey());
+                last = shard.getVersion();
+            }
+        }
+        boolean truncated = c < conferences.size() || t < tombstones.size()
+                || s < shards.size() || conferences.size() == pageSize
+                || tombstones.size() == pageSize || shards.size() == pageSize;
+        long watermark = Math.max(from, Math.min(last, now - LAG_MILLIS));
+        boolean more = truncated && watermark == last;
+
+        Set<String> seen = new HashSet<>(deleted);
+        for (Conference conference : changed) {
+            seen.add(conference.getWebsafeKey());
+        }
+        if (more) {
+            // The changes sharing the last stamp, which the limit may have cut.
+            for (Conference conference : ofy().load().type(Conference.class)
+                    .filter("version", last)) {
+                if (seen.add(conference.getWebsafeKey())) {
+                    changed.add(conference);
+                }
+            }
+            if (since != null) {
+                for (ConferenceTombstone tombstone : ofy().load()
+                        .type(ConferenceTombstone.class).filter("version", last)) {
+                    if (seen.add(tombstone.getWebsafeConferenceKey())) {
+                        deleted.add(tombstone.getWebsafeConferenceKey());
+                    }
+                }
+                for (SeatShard shard : ofy().load().type(SeatShard.class)
+                        .filter("version", last)) {
+                    seatsChanged.add(shard.getWebsafeConferenceKey());
+                }
+            }
+        }
+        List<Key<Conference>> seatsChangedKeys = new ArrayList<>(seatsChanged.size());
+        for (String websafeConferenceKey : seatsChanged) {
+            if (seen.add(websafeConferenceKey)) {
+                seatsChangedKeys.add(Key.<Conference>create(websafeConferenceKey));
+            }
+        }
+        // The conferences deleted since are skipped; their tombstone comes in a later page.
+        changed.addAll(ofy().load().keys(seatsChangedKeys).values());
+        SeatInventory.resolveSeatsAvailable(changed);
+        Conference.loadOrganizerDisplayNames(changed);
+        Metrics.increment("conferenceSync.changes", changed.size() + deleted.size());
+        return new ConferenceChanges(changed, deleted, watermark, more);
+    }
+}
@@ -0,0 +1,146 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.ExportBlob;
+import com.googlecode.objectify.Key;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Stores each part of an export in ExportBlob entities of up to PIECE_BYTES, saved as they are
+ * filled so a part of any size is written with bounded memory.
+ */
+public class DatastoreExportStore implements ExportStore {
+
+    /**
+     * The number of bytes of a piece, below the 1MB limit of an entity.
+     */
+    static final int PIECE_BYTES = 900 * 1024;
+
+    private final int pieceBytes;
+
+    public DatastoreExportStore() {
+        this(PIECE_BYTES);
+    }
+
+    DatastoreExportStore(final int pieceBytes) {
+        this.pieceBytes = pieceBytes;
+    }
+
+    @Override
+    public OutputStream create(final String name) {
+        return new OutputStream() {
+            private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+            private int index;
+
+            private boolean closed;
+
+            @Override
+            public void write(final int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                if (closed) {
+                    throw new IOException("The part " + name + " is closed");
+                }
+                int written = 0;
+                while (written < len) {
+                    int count = Math.min(len - written, pieceBytes - buffer.size());
+                    buffer.write(b, off + written, count);
+                    written += count;
+                    if (buffer.size() == pieceBytes) {
+                        save(false);
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    // The last piece is saved even when empty, as it marks the part complete.
+                    save(true);
+                    closed = true;
+                }
+            }
+
+            private void save(final boolean last) {
+                ofy().save().entity(new ExportBlob(name, index++, buffer.toByteArray(), last))
+                        .now();
+                buffer.reset();
+            }
+        };
+    }
+
+    @Override
+    public InputStream open(final String name) throws IOException {
+        final ExportBlob first = load(name, 0);
+        if (first == null) {
+            throw new IOException("The part " + name + " doesn't exist");
+        }
+        // The next pieces are loaded as the previous ones are read.
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private ExportBlob previous;
+
+            private int index;
+
+            @Override
+            public boolean hasMoreElements() {
+                return previous == null || !previous.isLast();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                previous = index == 0 ? first : load(name, index);
+                index++;
+                if (previous == null) {
+                    return new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            throw new IOException("The part " + name + " is incomplete");
+                        }
+                    };
+                }
+                return new ByteArrayInputStream(previous.getData());
+            }
+        });
+    }
+
+    private static ExportBlob load(final String name, final int index) {
+        ExportBlob blob = ofy().load().key(ExportBlob.createKey(name, index)).now();
+        // The pieces already read are no longer needed.
+        ofy().clear();
+        return blob;
+    }
+
+    @Override
+    public void delete(final String name) {
+        List<Key<ExportBlob>> keys = new ArrayList<>();
+        for (int i = 0; ; i++) {
+            ExportBlob blob = load(name, i);
+            if (blob == null) {
+                break;
+            }
+            keys.add(ExportBlob.createKey(name, i));
+            if (blob.isLast()) {
+                break;
+            }
+        }
+        ofy().delete().keys(keys).now();
+    }
+}
@@ -0,0 +1,194 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Versioned;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Keeps the ETags of the Versioned entities in memcache, so that a conditional read is answered
+ * without loading the entity.
+ *
+ * The callers record the new ETag once the transaction saving an entity has committed, and a
+ * read missing it loads the entity and adds it only if no save got there first. Two saves of
+ * the same entity recorded out of order could leave the older ETag, until the next save or the
+ * expiration.
+ */
+public class ETags {
+
+    private static final int EXPIRATION_SECONDS = 3600;
+
+    /**
+     * Stands for the entities without an ETag, since memcache doesn't tell a null from a miss.
+     */
+    private static final String NONE = "";
+
+    private ETags() {}
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+
+    private static String cacheKey(final Key<?> key) {
+        return Constants.MEMCACHE_ETAG_PREFIX + key.getString();
+    }
+
+    /**
+     * Returns the ETag of the given version of an entity.
+     *
+     * @param version the version.
+     * @return the quoted version.
+     */
+    public static String of(final long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Returns an ETag standing for all the given parts, for a response built from several
+     * entities or depending on the parameters of the request.
+     *
+     * @param parts the ETags of the entities and the parameters.
+     * @return the quoted hash of the parts.
+     */
+    public static String combine(final Object... parts) {
+        return "\"" + Hashing.sha1().hashString(Joiner.on('\n').useForNull("").join(parts),
+                Charsets.UTF_8).toString().substring(0, 20) + "\"";
+    }
+
+    /**
+     * Records the ETags of saved entities. Must be called after the transaction saving them
+     * commits, since a save rolled back would leave a version that no client can have.
+     *
+     * @param entities the entities saved.
+     */
+    public static void saved(final Versioned... entities) {
+        saved(Arrays.asList(entities));
+    }
+
+    /**
+     * Records the ETags of saved entities. Must be called after the transaction saving them
+     * commits.
+     *
+     * @param entities the entities saved.
+     */
+    public static void saved(final Collection<? extends Versioned> entities) {
+        Map<String, Object> etags = new HashMap<>();
+        for (Versioned entity : entities) {
+            String etag = entity.getEtag();
+            etags.put(cacheKey(Key.create(entity)), etag == null ? NONE : etag);
+        }
+        // Not asynchronous, so that the ETags of two saves in a row can't land out of order.
+        memcache().putAll(etags, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+    }
+
+    /**
+     * Forgets the ETags of the given entities, which must be called when they are deleted.
+     *
+     * @param keys the keys of the entities.
+     */
+    public static void forget(final Collection<? extends Key<?>> keys) {
+        List<String> cacheKeys = new ArrayList<>(keys.size());
+        for (Key<?> key : keys) {
+            cacheKeys.add(cacheKey(key));
+        }
+        memcache().deleteAll(cacheKeys);
+    }
+
+    /**
+     * Returns the current ETag of an entity.
+     *
+     * @param key the key of the entity.
+     * @return the ETag, null when the entity doesn't exist or can't be tagged.
+     */
+    public static <T extends Versioned> String current(final Key<T> key) {
+        return current(Collections.singletonList(key)).get(key);
+    }
+
+    /**
+     * Returns the current ETags of the given entities, loading only the ones missing from
+     * memcache.
+     *
+     * @param keys the keys of the entities.
+     * @return the ETags by key, null for the entities that don't exist or can't be tagged.
+     */
+    public static <T extends Versioned> Map<Key<T>, String> current(
+            final Collection<Key<T>> keys) {
+        Map<String, Key<T>> keysByCacheKey = new LinkedHashMap<>();
+        for (Key<T> key : keys) {
+            keysByCacheKey.put(cacheKey(key), key);
+        }
+        Map<String, Object> cached = memcache().getAll(keysByCacheKey.keySet());
+        Map<Key<T>, String> etags = new HashMap<>();
+        List<Key<T>> missing = new ArrayList<>();
+        for (Map.Entry<String, Key<T>> entry : keysByCacheKey.entrySet()) {
+            Object etag = cached.get(entry.getKey());
+            if (etag == null) {
+                missing.add(entry.getValue());
+            } else {
+                etags.put(entry.getValue(), NONE.equals(etag) ? null : (String) etag);
+            }
+        }
+        Metrics.increment("etags.hits", etags.size());
+        if (missing.isEmpty()) {
+            return etags;
+        }
+        Metrics.increment("etags.misses", missing.size());
+        Map<Key<T>, T> entities = ofy().load().keys(missing);
+        Map<String, Object> loaded = new HashMap<>();
+        for (Key<T> key : missing) {
+            T entity = entities.get(key);
+            String etag = entity == null ? null : entity.getEtag();
+            etags.put(key, etag);
+            loaded.put(cacheKey(key), etag == null ? NONE : etag);
+        }
+        // A save since the entities were loaded wins.
+        memcache().putAll(loaded, Expiration.byDeltaSeconds(EXPIRATION_SECONDS),
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        return etags;
+    }
+
+    /**
+     * Returns whether the If-None-Match header of the request matches the given ETag.
+     *
+     * @param request the request, null when there is none.
+     * @param etag the current ETag, null when there is none.
+     * @return true when the client already has the current version.
+     */
+    public static boolean matches(final HttpServletRequest request, final String etag) {
+        if (request == null || etag == null) {
+            return false;
+        }
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,160 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.googlecode.objectify.Key;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Writes the exported entities as lines of JSON, one flat object per entity with its kind and
+ * websafe key. Dates are written in ISO 8601 in UTC.
+ */
+class ExportRecords {
+
+    private ExportRecords() {}
+
+    /**
+     * A JSON object written field by field.
+     */
+    private static class Line {
+        private final StringBuilder builder = new StringBuilder("{");
+
+        private final SimpleDateFormat dateFormat;
+
+        Line(final String kind, final Key<?> key) {
+            dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            name("kind");
+            string(kind);
+            field("key", key.getString());
+        }
+
+        private void name(final String name) {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            string(name);
+            builder.append(':');
+        }
+
+        private void string(final String value) {
+            if (value == null) {
+                builder.append("null");
+                return;
+            }
+            builder.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        builder.append("\\\"");
+                        break;
+                    case '\\':
+                        builder.append("\\\\");
+                        break;
+                    case '\n':
+                        builder.append("\\n");
+                        break;
+                    case '\r':
+                        builder.append("\\r");
+                        break;
+                    case '\t':
+                        builder.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            builder.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            builder.append(c);
+                        }
+                }
+            }
+            builder.append('"');
+        }
+
+        Line field(final String name, final String value) {
+            name(name);
+            string(value);
+            return this;
+        }
+
+        Line field(final String name, final long value) {
+            name(name);
+            builder.append(value);
+            return this;
+        }
+
+        Line field(final String name, final Date value) {
+            return field(name, value == null ? null : dateFormat.format(value));
+        }
+
+        Line field(final String name, final List<String> values) {
+            name(name);
+            if (values == null) {
+                builder.append("null");
+                return this;
+            }
+            builder.append('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                string(values.get(i));
+            }
+            builder.append(']');
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString() + "}";
+        }
+    }
+
+    static String conference(final Conference conference) {
+        return new Line("Conference", Key.create(conference))
+                .field("name", conference.getName())
+                .field("description", conference.getDescription())
+                .field("organizerUserId", conference.getOrganizerUserId())
+                .field("organizerDisplayName", conference.getOrganizerDisplayName())
+                .field("topics", conference.getTopics())
+                .field("city", conference.getCity())
+                .field("startDate", conference.getStartDate())
+                .field("endDate", conference.getEndDate())
+                .field("maxAttendees", conference.getMaxAttendees())
+                .field("seatsAvailable", conference.getSeatsAvailable())
+                .field("updated", conference.getUpdated())
+                .toString();
+    }
+
+    static String session(final Session session) {
+        return new Line("Session", Key.create(session))
+                .field("conferenceKey", session.getConferenceKey().getString())
+                .field("conferenceName", session.getConferenceName())
+                .field("name", session.getName())
+                .field("highlights", session.getHighlights())
+                .field("speaker", session.getSpeaker())
+                .field("typeOfSession", session.getTypeOfSession())
+                .field("date", session.getDate())
+                .field("startTime", session.getStartTime())
+                .field("duration", session.getDuration())
+                .field("updated", session.getUpdated())
+                .toString();
+    }
+
+    static String profile(final Profile profile) {
+        return new Line("Profile", Key.create(profile))
+                .field("userId", profile.getUserId())
+                .field("displayName", profile.getDisplayName())
+                .field("mainEmail", profile.getMainEmail())
+                .field("teeShirtSize", profile.getTeeShirtSize() == null
+                        ? null : profile.getTeeShirtSize().name())
+                .field("updated", profile.getUpdated())
+                .toString();
+    }
+}
@@ -0,0 +1,38 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stores the parts of the exports. The CatalogExport uses the DatastoreExportStore unless it
+ * is replaced, for instance in the tests.
+ */
+public interface ExportStore {
+
+    /**
+     * Creates a part. It can only be read once the stream is closed.
+     *
+     * @param name the name of the part, not used by any other part.
+     * @return the stream to write the part to.
+     * @throws IOException when the part can't be created.
+     */
+    OutputStream create(String name) throws IOException;
+
+    /**
+     * Reads a part.
+     *
+     * @param name the name of the part.
+     * @return the stream to read the part from.
+     * @throws IOException when the part doesn't exist or wasn't closed.
+     */
+    InputStream open(String name) throws IOException;
+
+    /**
+     * Deletes a part, complete or not.
+     *
+     * @param name the name of the part.
+     * @throws IOException when the part can't be deleted.
+     */
+    void delete(String name) throws IOException;
+}
@@ -0,0 +1,137 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Keeps the ConferenceFacets up to date.
+ *
+ * Created conferences are counted in the transaction creating them, and deleted ones in the
+ * transaction deleting them. Registrations report the seats before and after their change, and
+ * only the ones selling out a conference or opening it again touch the counts, in a
+ * transaction of their own. Each change goes to a random shard, so these transactions rarely
+ * meet on the same entity. The counts can be rebuilt from the conferences by
+ * /tasks/rebuild_conference_facets.
+ */
+public class FacetCounters {
+
+    private static final Random RANDOM = new Random();
+
+    private FacetCounters() {}
+
+    /**
+     * Returns the current counts, added up from the shards.
+     *
+     * @return the ConferenceFacets, empty when no conference was counted yet.
+     */
+    public static ConferenceFacets load() {
+        List<Key<ConferenceFacets>> keys = new ArrayList<>(ConferenceFacets.SHARD_COUNT);
+        for (int i = 0; i < ConferenceFacets.SHARD_COUNT; i++) {
+            keys.add(ConferenceFacets.createKey(i));
+        }
+        ConferenceFacets facets = new ConferenceFacets();
+        for (ConferenceFacets shard : ofy().load().keys(keys).values()) {
+            facets.addAll(shard);
+        }
+        facets.removeEmpty();
+        return facets;
+    }
+
+    /**
+     * Loads a random shard, to be changed and saved in the current transaction.
+     */
+    private static ConferenceFacets loadShard() {
+        int shard = RANDOM.nextInt(ConferenceFacets.SHARD_COUNT);
+        ConferenceFacets facets = ofy().load().key(ConferenceFacets.createKey(shard)).now();
+        return facets == null ? new ConferenceFacets(shard) : facets;
+    }
+
+    /**
+     * Counts a created conference. Must be called in the transaction saving it.
+     *
+     * @param conference the Conference.
+     */
+    public static void put(final Conference conference) {
+        putAll(Collections.singletonList(conference));
+    }
+
+    /**
+     * Counts created conferences. Must be called in the transaction saving them, or one making
+     * sure that they are counted once.
+     *
+     * @param conferences the Conferences.
+     */
+    public static void putAll(final Collection<Conference> conferences) {
+        ConferenceFacets facets = loadShard();
+        for (Conference conference : conferences) {
+            facets.add(conference, 1);
+        }
+        ofy().save().entity(facets).now();
+    }
+
+    /**
+     * Stops counting a deleted conference. Must be called in the transaction deleting it.
+     *
+     * @param conference the Conference, as it was before being deleted.
+     */
+    public static void remove(final Conference conference) {
+        ConferenceFacets facets = loadShard();
+        facets.add(conference, -1);
+        ofy().save().entity(facets).now();
+    }
+
+    /**
+     * Updates the counts when a change of seats sold out a conference or opened it again.
+     *
+     * @param seatsBefore the number of seats available before the change.
+     * @param seatsAfter the number of seats available after the change.
+     */
+    public static void onSeatsChanged(final int seatsBefore, final int seatsAfter) {
+        final boolean seatsAvailable = seatsAfter > 0;
+        if (seatsAvailable == seatsBefore > 0) {
+            return;
+        }
+        new TransactionRunner("updateConferenceFacets").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                ConferenceFacets facets = loadShard();
+                facets.updateSeats(!seatsAvailable, -1);
+                facets.updateSeats(seatsAvailable, 1);
+                ofy().save().entity(facets).now();
+            }
+        });
+    }
+
+    /**
+     * Recounts all the conferences. Changes counted while it runs may be lost, so it is meant
+     * for the backfill and for occasional repairs.
+     *
+     * @return the new ConferenceFacets.
+     */
+    public static ConferenceFacets rebuild() {
+        List<ConferenceFacets> shards = new ArrayList<>(ConferenceFacets.SHARD_COUNT);
+        for (int i = 0; i < ConferenceFacets.SHARD_COUNT; i++) {
+            shards.add(new ConferenceFacets(i));
+        }
+        // The first shard holds all the counts, and the others start again from zero.
+        ConferenceFacets facets = shards.get(0);
+        for (Conference conference : ofy().load().type(Conference.class).chunk(500)) {
+            SeatInventory.resolveSeatsAvailable(conference);
+            facets.add(conference, 1);
+        }
+        ofy().save().entities(shards).now();
+        // The conferences read are no longer needed.
+        ofy().clear();
+        return facets;
+    }
+}
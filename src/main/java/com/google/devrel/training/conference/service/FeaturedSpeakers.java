@@ -0,0 +1,99 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.FeaturedSpeaker;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.Speaker;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Computes the featured speaker of each conference off the request path.
+ *
+ * Creating a session schedules a recompute of its conference. Recomputes are coalesced per
+ * conference and time window through named tasks, so a burst of session creates costs one
+ * recompute.
+ */
+public class FeaturedSpeakers {
+
+    /**
+     * Length of the window session creates are coalesced over.
+     */
+    static final long COALESCE_WINDOW_MILLIS = 10000;
+
+    private FeaturedSpeakers() {}
+
+    /**
+     * Schedules the recompute of the featured speaker of the given conference at the end of
+     * the current window, unless it is already scheduled. Doesn't wait for the task queue.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     */
+    public static void schedule(final String websafeConferenceKey) {
+        long window = System.currentTimeMillis() / COALESCE_WINDOW_MILLIS;
+        // The name rejects the other tasks of the window; the failure of the future is ignored.
+        QueueFactory.getDefaultQueue().addAsync(
+                TaskOptions.Builder.withUrl("/tasks/set_featured_speaker")
+                        .taskName("featured-speaker-" + websafeConferenceKey + "-" + window)
+                        .etaMillis((window + 1) * COALESCE_WINDOW_MILLIS)
+                        .param("websafeConferenceKey", websafeConferenceKey));
+    }
+
+    /**
+     * Recomputes the featured speaker of the given conference: the speaker with the most
+     * sessions, at least two, ties going to the first name in alphabetical order.
+     *
+     * The sessions are grouped by the normalized name of their speaker, like the Speaker index
+     * counts them when createSession schedules the recompute, and the featured speaker goes by
+     * the name of its Speaker.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the FeaturedSpeaker, null when no speaker has two sessions.
+     */
+    public static FeaturedSpeaker recompute(final String websafeConferenceKey) {
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Map<String, List<String>> sessionNamesBySpeaker = new TreeMap<>();
+        for (Session session : ofy().load().type(Session.class).ancestor(conferenceKey)) {
+            if (!Speakers.isIndexed(session.getSpeaker())) {
+                continue;
+            }
+            String speaker = Speaker.normalize(session.getSpeaker());
+            List<String> sessionNames = sessionNamesBySpeaker.get(speaker);
+            if (sessionNames == null) {
+                sessionNames = new ArrayList<>();
+                sessionNamesBySpeaker.put(speaker, sessionNames);
+            }
+            sessionNames.add(session.getName());
+        }
+        String featured = null;
+        for (Map.Entry<String, List<String>> entry : sessionNamesBySpeaker.entrySet()) {
+            if (entry.getValue().size() > 1 && (featured == null
+                    || entry.getValue().size() > sessionNamesBySpeaker.get(featured).size())) {
+                featured = entry.getKey();
+            }
+        }
+        if (featured == null) {
+            ofy().delete().key(FeaturedSpeaker.createKey(websafeConferenceKey)).now();
+            return null;
+        }
+        Speaker speaker = ofy().load().key(Key.create(Speaker.class, featured)).now();
+        FeaturedSpeaker featuredSpeaker = new FeaturedSpeaker(websafeConferenceKey,
+                speaker == null ? featured : speaker.getName(),
+                sessionNamesBySpeaker.get(featured));
+        ofy().save().entity(featuredSpeaker).now();
+        // The latest featured speaker of any conference, for the pages without a conference.
+        MemcacheServiceFactory.getMemcacheService().put(
+                Constants.MEMCACHE_FEATURED_SPEAKER_KEY, featuredSpeaker.getMessage());
+        return featuredSpeaker;
+    }
+}
@@ -0,0 +1,338 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Splitter;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.SessionForm;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the lines of a bulk import into forms.
+ *
+ * A JSON line must be an object of strings, numbers, booleans, nulls and arrays of those; that
+ * is all a record needs, so there is no general JSON parser here. A CSV line is split on commas,
+ * with the usual double quotes.
+ */
+class ImportRecords {
+
+    private ImportRecords() {}
+
+    /**
+     * A parsed line: a conference or a session.
+     */
+    static class Record {
+        final int line;
+
+        final String ref;
+
+        final ConferenceForm conferenceForm;
+
+        final String conference;
+
+        final SessionForm sessionForm;
+
+        private Record(int line, String ref, ConferenceForm conferenceForm, String conference,
+                       SessionForm sessionForm) {
+            this.line = line;
+            this.ref = ref;
+            this.conferenceForm = conferenceForm;
+            this.conference = conference;
+            this.sessionForm = sessionForm;
+        }
+
+        boolean isConference() {
+            return conferenceForm != null;
+        }
+    }
+
+    /**
+     * Parses a line of a JSON lines import.
+     *
+     * @param line the number of the line.
+     * @param text the line.
+     * @return the Record.
+     * @throws IllegalArgumentException when the line isn't a valid record.
+     */
+    static Record parseJson(final int line, final String text) {
+        return toRecord(line, new JsonObjectParser(text).parse());
+    }
+
+    /**
+     * Parses a line of a CSV import.
+     *
+     * @param line the number of the line.
+     * @param header the names of the columns.
+     * @param text the line.
+     * @return the Record.
+     * @throws IllegalArgumentException when the line isn't a valid record.
+     */
+    static Record parseCsv(final int line, final List<String> header, final String text) {
+        List<String> values = splitCsv(text);
+        if (values.size() > header.size()) {
+            throw new IllegalArgumentException("More values than columns");
+        }
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (int i = 0; i < values.size(); i++) {
+            if (!values.get(i).isEmpty()) {
+                fields.put(header.get(i).trim(), values.get(i));
+            }
+        }
+        return toRecord(line, fields);
+    }
+
+    /**
+     * Splits a CSV line into its values.
+     *
+     * @param text the line.
+     * @return the values, unquoted.
+     * @throws IllegalArgumentException when a quote isn't closed.
+     */
+    static List<String> splitCsv(final String text) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unclosed quote");
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private static Record toRecord(final int line, final Map<String, Object> fields) {
+        String type = string(fields, "type");
+        if ("conference".equals(type)) {
+            return new Record(line, string(fields, "ref"), new ConferenceForm(
+                    required(fields, "name"), string(fields, "description"),
+                    topics(fields), string(fields, "city"), date(fields, "startDate"),
+                    date(fields, "endDate"), integer(fields, "maxAttendees")), null, null);
+        }
+        if ("session".equals(type)) {
+            return new Record(line, null, null, required(fields, "conference"), new SessionForm(
+                    required(fields, "name"), string(fields, "highlights"),
+                    string(fields, "speaker"), string(fields, "typeOfSession"),
+                    integer(fields, "startTime"), date(fields, "date"),
+                    integer(fields, "duration")));
+        }
+        throw new IllegalArgumentException("Unknown type: " + type);
+    }
+
+    private static String string(final Map<String, Object> fields, final String name) {
+        Object value = fields.get(name);
+        if (value instanceof List) {
+            throw new IllegalArgumentException(name + " must not be a list");
+        }
+        return value == null ? null : value.toString();
+    }
+
+    private static String required(final Map<String, Object> fields, final String name) {
+        String value = string(fields, name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException(name + " is required");
+        }
+        return value;
+    }
+
+    private static int integer(final Map<String, Object> fields, final String name) {
+        String value = string(fields, name);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer: " + value);
+        }
+    }
+
+    private static Date date(final Map<String, Object> fields, final String name) {
+        String value = string(fields, name);
+        if (value == null) {
+            return null;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        dateFormat.setLenient(false);
+        try {
+            return dateFormat.parse(value.trim());
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(name + " must be a yyyy-MM-dd date: " + value);
+        }
+    }
+
+    private static List<String> topics(final Map<String, Object> fields) {
+        Object value = fields.get("topics");
+        if (value == null) {
+            return null;
+        }
+        List<String> topics = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object topic : (List<?>) value) {
+                if (topic != null) {
+                    topics.add(topic.toString());
+                }
+            }
+        } else {
+            for (String topic : Splitter.on(';').trimResults().omitEmptyStrings()
+                    .split(value.toString())) {
+                topics.add(topic);
+            }
+        }
+        return topics;
+    }
+
+    /**
+     * Parses a flat JSON object.
+     */
+    private static class JsonObjectParser {
+        private final String text;
+
+        private int position;
+
+        JsonObjectParser(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> parse() {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            expect('{');
+            if (!consume('}')) {
+                do {
+                    String name = parseString();
+                    expect(':');
+                    fields.put(name, parseValue(true));
+                } while (consume(','));
+                expect('}');
+            }
+            skipWhitespace();
+            if (position != text.length()) {
+                throw error("Unexpected characters after the object");
+            }
+            return fields;
+        }
+
+        private Object parseValue(boolean allowArray) {
+            skipWhitespace();
+            if (position >= text.length()) {
+                throw error("Missing value");
+            }
+            char c = text.charAt(position);
+            if (c == '"') {
+                return parseString();
+            }
+            if (c == '[' && allowArray) {
+                position++;
+                List<Object> values = new ArrayList<>();
+                if (!consume(']')) {
+                    do {
+                        values.add(parseValue(false));
+                    } while (consume(','));
+                    expect(']');
+                }
+                return values;
+            }
+            int start = position;
+            while (position < text.length() && "{}[],: \t\"".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            if (literal.equals("null")) {
+                return null;
+            }
+            if (literal.equals("true") || literal.equals("false")
+                    || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+                return literal;
+            }
+            throw error("Unexpected value: " + literal);
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw error("Invalid escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(
+                                    text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid escape");
+                        }
+                        position += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+            throw error("Unclosed string");
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private boolean consume(char c) {
+            skipWhitespace();
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (position + 1));
+        }
+    }
+}
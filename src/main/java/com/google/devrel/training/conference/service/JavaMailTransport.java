@@ -0,0 +1,47 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.utils.SystemProperty;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Properties;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Sends the mails through the App Engine Mail API. The mail session and the sender address are
+ * built once and shared by all the mails.
+ */
+public class JavaMailTransport implements MailTransport {
+
+    private final Session session = Session.getDefaultInstance(new Properties(), null);
+
+    private volatile InternetAddress from;
+
+    private InternetAddress from() throws UnsupportedEncodingException {
+        if (from == null) {
+            from = new InternetAddress(String.format("noreply@%s.appspotmail.com",
+                    SystemProperty.applicationId.get()), "Conference Central");
+        }
+        return from;
+    }
+
+    @Override
+    public void send(final String to, final String subject, final String body)
+            throws MessagingException {
+        Message message = new MimeMessage(session);
+        try {
+            message.setFrom(from());
+            message.addRecipient(Message.RecipientType.TO, new InternetAddress(to, ""));
+        } catch (UnsupportedEncodingException e) {
+            throw new MessagingException("Unsupported encoding", e);
+        }
+        message.setSubject(subject);
+        message.setText(body);
+        Transport.send(message);
+    }
+}
@@ -0,0 +1,163 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.AsyncMemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Ticker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * A small per-instance cache in front of memcache, for a few hot keys read on every page load.
+ *
+ * Reads only touch a ConcurrentHashMap. An entry is served for ttlMillis after it was loaded;
+ * once it is past three quarters of that, the first reader starts an asynchronous memcache get
+ * and a later reader installs its result, so a key read steadily never blocks on memcache.
+ * Missing values are cached too.
+ *
+ * Hits, misses and refreshes are counted in Metrics under "localCache.{name}.hits" and so on.
+ */
+public class LocalCache {
+
+    private static final Logger LOG = Logger.getLogger(LocalCache.class.getName());
+
+    private static final Object ABSENT = new Object();
+
+    private final String name;
+
+    private final int maxEntries;
+
+    private final long ttlNanos;
+
+    private final long refreshNanos;
+
+    private final Ticker ticker;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * A value with the time it was loaded and the refresh in flight, if any.
+     */
+    private static class Entry {
+        private final Object value;
+
+        private final long loadedAt;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private volatile Future<Object> refresh;
+
+        Entry(Object value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    public LocalCache(final String name, final int maxEntries, final long ttlMillis) {
+        this(name, maxEntries, ttlMillis, Ticker.systemTicker());
+    }
+
+    LocalCache(final String name, final int maxEntries, final long ttlMillis,
+               final Ticker ticker) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.refreshNanos = ttlNanos * 3 / 4;
+        this.ticker = ticker;
+    }
+
+    private static AsyncMemcacheService memcache() {
+        return MemcacheServiceFactory.getAsyncMemcacheService();
+    }
+
+    private String metric(final String counter) {
+        return "localCache." + name + "." + counter;
+    }
+
+    /**
+     * Returns the memcache value of the given key, from this instance when it is fresh enough.
+     *
+     * @param key the memcache key.
+     * @return the value, null when memcache has none.
+     */
+    public Object get(final String key) {
+        long now = ticker.read();
+        Entry entry = entries.get(key);
+        if (entry != null && now - entry.loadedAt < ttlNanos) {
+            Metrics.increment(metric("hits"));
+            if (now - entry.loadedAt >= refreshNanos) {
+                refresh(key, entry, now);
+            }
+            Entry current = entries.get(key);
+            return unwrap(current == null ? entry : current);
+        }
+        Metrics.increment(metric("misses"));
+        Object value;
+        try {
+            value = memcache().get(key).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return entry == null ? null : unwrap(entry);
+        } catch (ExecutionException e) {
+            LOG.warning("Failed to load " + key + ": " + e.getCause());
+            return entry == null ? null : unwrap(entry);
+        }
+        install(key, value, now);
+        return value;
+    }
+
+    /**
+     * Starts the asynchronous refresh of the entry, or installs its result when it is done.
+     */
+    private void refresh(final String key, final Entry entry, final long now) {
+        if (entry.refreshing.compareAndSet(false, true)) {
+            // Only the reader winning the race starts the refresh.
+            entry.refresh = memcache().get(key);
+            Metrics.increment(metric("refreshes"));
+            return;
+        }
+        Future<Object> refresh = entry.refresh;
+        if (refresh != null && refresh.isDone()) {
+            try {
+                install(key, refresh.get(), now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // Keep serving the entry until it expires, and try again.
+                entry.refresh = null;
+                entry.refreshing.set(false);
+            }
+        }
+    }
+
+    private void install(final String key, final Object value, final long now) {
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            evictOldest();
+        }
+        entries.put(key, new Entry(value == null ? ABSENT : value, now));
+    }
+
+    private void evictOldest() {
+        String oldest = null;
+        long oldestLoadedAt = Long.MAX_VALUE;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().loadedAt < oldestLoadedAt) {
+                oldest = entry.getKey();
+                oldestLoadedAt = entry.getValue().loadedAt;
+            }
+        }
+        if (oldest != null) {
+            entries.remove(oldest);
+        }
+    }
+
+    private static Object unwrap(final Entry entry) {
+        return entry == null || entry.value == ABSENT ? null : entry.value;
+    }
+}
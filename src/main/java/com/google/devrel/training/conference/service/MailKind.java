@@ -0,0 +1,109 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ImportJob;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The kinds of mails, each with its templates, compiled once, and the values it reads from the
+ * entity the mail is about.
+ */
+public enum MailKind {
+
+    CONFERENCE_CREATED("You created a new Conference!",
+            "Hi, you have created the following conference.\n"
+            + "Name: {name}\n"
+            + "City: {city}\n"
+            + "Topics: {topics}\n"
+            + "StartDate: {startDate}\n"
+            + "EndDate: {endDate}\n"
+            + "Max Attendees: {maxAttendees}\n") {
+        @Override
+        void fill(final Object entity, final Map<String, Object> values) {
+            Conference conference = (Conference) entity;
+            values.put("name", conference.getName());
+            values.put("city", conference.getCity());
+            if (conference.getTopics() != null) {
+                values.put("topics", Joiner.on(", ").join(conference.getTopics()));
+            }
+            values.put("startDate", conference.getStartDate());
+            values.put("endDate", conference.getEndDate());
+            values.put("maxAttendees", conference.getMaxAttendees());
+        }
+    },
+
+    CONFERENCE_CHANGED("A conference you attend has changed",
+            "Hi, the following conference you are registered for has changed.\n"
+            + "Name: {name}\n"
+            + "City: {city}\n"
+            + "StartDate: {startDate}\n"
+            + "EndDate: {endDate}\n") {
+        @Override
+        void fill(final Object entity, final Map<String, Object> values) {
+            Conference conference = (Conference) entity;
+            values.put("name", conference.getName());
+            values.put("city", conference.getCity());
+            values.put("startDate", conference.getStartDate());
+            values.put("endDate", conference.getEndDate());
+        }
+    },
+
+    WAITLIST_PROMOTED("You got a seat!",
+            "Hi, a seat freed up and you are now registered for the following conference.\n"
+            + "Name: {name}\n"
+            + "City: {city}\n"
+            + "StartDate: {startDate}\n"
+            + "EndDate: {endDate}\n") {
+        @Override
+        void fill(final Object entity, final Map<String, Object> values) {
+            CONFERENCE_CHANGED.fill(entity, values);
+        }
+    },
+
+    IMPORT_FINISHED("Your import is finished",
+            "Imported {conferences} conferences and {sessions} sessions from {lines} lines, "
+            + "with {errors} errors.\n") {
+        @Override
+        void fill(final Object entity, final Map<String, Object> values) {
+            ImportJob job = (ImportJob) entity;
+            values.put("conferences", job.getConferencesImported());
+            values.put("sessions", job.getSessionsImported());
+            values.put("lines", job.getProcessedLines());
+            values.put("errors", job.getErrorCount());
+        }
+    };
+
+    private final MailTemplate subject;
+
+    private final MailTemplate body;
+
+    private MailKind(final String subject, final String body) {
+        this.subject = MailTemplate.compile(subject);
+        this.body = MailTemplate.compile(body);
+    }
+
+    /**
+     * Puts the values of the templates, read from the entity the mail is about.
+     */
+    abstract void fill(Object entity, Map<String, Object> values);
+
+    /**
+     * Returns the values of the templates for the given entity.
+     */
+    Map<String, Object> values(final Object entity) {
+        Map<String, Object> values = new HashMap<>();
+        fill(entity, values);
+        return values;
+    }
+
+    String subject(final Map<String, Object> values) {
+        return subject.render(values);
+    }
+
+    String body(final Map<String, Object> values) {
+        return body.render(values);
+    }
+}
@@ -0,0 +1,67 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A text with {field} placeholders, parsed once into its literal parts and fields so that
+ * rendering it is only appending them.
+ */
+public class MailTemplate {
+
+    /**
+     * The literal parts, one more than the fields, the field i coming after the literal i.
+     */
+    private final String[] literals;
+
+    private final String[] fields;
+
+    private MailTemplate(final List<String> literals, final List<String> fields) {
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.fields = fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Parses a template.
+     *
+     * @param text the text, with the names of the fields between braces.
+     * @return the MailTemplate.
+     * @throws IllegalArgumentException when a brace is not closed.
+     */
+    public static MailTemplate compile(final String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+        int start = 0;
+        int open;
+        while ((open = text.indexOf('{', start)) >= 0) {
+            int close = text.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed field at " + open + " in: " + text);
+            }
+            literals.add(text.substring(start, open));
+            fields.add(text.substring(open + 1, close));
+            start = close + 1;
+        }
+        literals.add(text.substring(start));
+        return new MailTemplate(literals, fields);
+    }
+
+    /**
+     * Renders the template with the given values, the missing ones as empty.
+     *
+     * @param values the values by field.
+     * @return the text.
+     */
+    public String render(final Map<String, ?> values) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            builder.append(literals[i]);
+            Object value = values.get(fields[i]);
+            if (value != null) {
+                builder.append(value);
+            }
+        }
+        return builder.append(literals[fields.length]).toString();
+    }
+}
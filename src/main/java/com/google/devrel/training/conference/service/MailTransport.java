@@ -0,0 +1,21 @@
+package com.google.devrel.training.conference.service;
+
+import javax.mail.MessagingException;
+
+/**
+ * Sends the rendered mails. The Mailer uses the JavaMailTransport, or the
+ * CapturingMailTransport when the system property conference.mail.transport is "capture".
+ */
+public interface MailTransport {
+
+    /**
+     * Sends a plain text mail.
+     *
+     * @param to the address of the recipient.
+     * @param subject the subject.
+     * @param body the body.
+     * @throws MessagingException when the mail can't be sent; an AddressException when it
+     *     never will be.
+     */
+    void send(String to, String subject, String body) throws MessagingException;
+}
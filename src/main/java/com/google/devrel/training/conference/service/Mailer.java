@@ -0,0 +1,238 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.devrel.training.conference.domain.Outbox;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.AddressException;
+
+/**
+ * Sends the mails to the users, through the Outbox of each recipient.
+ *
+ * A mail is added to the Outbox in the transaction of the change it is about, and the first
+ * mail of a burst enqueues a task on the mail queue, delayed by COALESCE_MILLIS, which sends
+ * all the mails waiting by then as a single digest. The task only carries the userId, and the
+ * mails are rendered from the current entities when they are sent. The mail queue, in
+ * queue.xml, limits the rate of the sends and backs off when they fail.
+ */
+public class Mailer {
+
+    private static final Logger LOG = Logger.getLogger(Mailer.class.getName());
+
+    /**
+     * The queue of the tasks, defined in queue.xml.
+     */
+    public static final String QUEUE_NAME = "mail";
+
+    private static final String TASK_URL = "/tasks/send_mail";
+
+    /**
+     * How long the first mail of a burst waits for the next ones.
+     */
+    static final long COALESCE_MILLIS = 60 * 1000L;
+
+    /**
+     * The most mails in a digest, the next ones going in the next digest.
+     */
+    static final int MAX_DIGEST_SIZE = 50;
+
+    /**
+     * The task-age-limit of the mail queue in queue.xml, after which a failing task is dropped.
+     * Must be kept in step with it.
+     */
+    static final long TASK_AGE_LIMIT_MILLIS = 60 * 60 * 1000L;
+
+    /**
+     * How long after it was enqueued a task is known to be gone: it first runs after
+     * COALESCE_MILLIS, and is retried until the age limit of the mail queue. Past it, the next
+     * mail or the cron enqueues a new one.
+     */
+    static final long STALE_MILLIS = COALESCE_MILLIS + TASK_AGE_LIMIT_MILLIS;
+
+    private static final MailTemplate DIGEST_SUBJECT =
+            MailTemplate.compile("You have {count} updates from Conference Central");
+
+    private static final String DIGEST_SEPARATOR = "\n--\n\n";
+
+    private static volatile MailTransport transport =
+            "capture".equals(System.getProperty("conference.mail.transport"))
+                    ? new CapturingMailTransport() : new JavaMailTransport();
+
+    private Mailer() {}
+
+    public static MailTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Replaces the transport, for instance by a CapturingMailTransport.
+     *
+     * @param mailTransport the MailTransport.
+     */
+    public static void setTransport(final MailTransport mailTransport) {
+        transport = mailTransport;
+    }
+
+    private static Queue queue() {
+        return QueueFactory.getQueue(QUEUE_NAME);
+    }
+
+    private static TaskOptions task(final String userId) {
+        return TaskOptions.Builder.withUrl(TASK_URL).param("userId", userId);
+    }
+
+    /**
+     * Adds a mail to the Outbox of a user. Must be called in a transaction, which may already
+     * hold the Profile of the user.
+     *
+     * @param userId the userId of the recipient.
+     * @param kind the kind of the mail.
+     * @param websafeKey the websafe key of the entity the mail is about.
+     */
+    public static void enqueue(final String userId, final MailKind kind,
+                               final String websafeKey) {
+        Outbox outbox = ofy().load().key(Outbox.createKey(userId)).now();
+        if (outbox == null) {
+            outbox = new Outbox(userId);
+        }
+        if (!outbox.add(kind.name(), websafeKey)) {
+            Metrics.increment("mail.coalesced");
+            return;
+        }
+        Date now = new Date();
+        Date scheduled = outbox.getScheduled();
+        if (scheduled == null || now.getTime() - scheduled.getTime() > STALE_MILLIS) {
+            outbox.setScheduled(now);
+            queue().add(ofy().getTransaction(), task(userId).countdownMillis(COALESCE_MILLIS));
+        }
+        ofy().save().entity(outbox).now();
+        Metrics.increment("mail.enqueued");
+    }
+
+    /**
+     * Enqueues a new task for each Outbox whose task is stale, which the mail queue dropped
+     * after it failed for too long. Run by the cron, so that those mails are still sent when no
+     * new mail comes for the user.
+     *
+     * @return the number of the tasks enqueued.
+     */
+    public static int rescheduleStale() {
+        final Date cutoff = new Date(System.currentTimeMillis() - STALE_MILLIS);
+        int count = 0;
+        for (final Key<Outbox> key : ofy().load().type(Outbox.class)
+                .filter("scheduled <", cutoff).keys()) {
+            // The query is eventually consistent, so the Outbox is checked again.
+            boolean rescheduled = new TransactionRunner("rescheduleStaleMail").run(
+                    new Work<Boolean>() {
+                        @Override
+                        public Boolean run() {
+                            Outbox outbox = ofy().load().key(key).now();
+                            if (outbox == null || outbox.size() == 0
+                                    || outbox.getScheduled() == null
+                                    || !outbox.getScheduled().before(cutoff)) {
+                                return false;
+                            }
+                            outbox.setScheduled(new Date());
+                            ofy().save().entity(outbox).now();
+                            queue().add(ofy().getTransaction(), task(outbox.getUserId()));
+                            return true;
+                        }
+                    });
+            if (rescheduled) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            LOG.warning("Enqueued the stale mails of " + count + " users again");
+            Metrics.increment("mail.rescheduled", count);
+        }
+        return count;
+    }
+
+    /**
+     * Sends the mails waiting in the Outbox of a user as a digest, and enqueues the task for
+     * the next digest if more are waiting.
+     *
+     * A mail about an entity deleted since is skipped, and the mails to a user without a valid
+     * address are dropped.
+     *
+     * @param userId the userId of the recipient.
+     * @throws MessagingException when the digest couldn't be sent and should be retried.
+     */
+    public static void deliver(final String userId) throws MessagingException {
+        Outbox outbox = ofy().load().key(Outbox.createKey(userId)).now();
+        if (outbox == null) {
+            return;
+        }
+        final int count = Math.min(outbox.size(), MAX_DIGEST_SIZE);
+        List<Key<Object>> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(Key.<Object>create(outbox.getKey(i)));
+        }
+        Map<Key<Object>, Object> entities = ofy().load().keys(keys);
+        List<String> subjects = new ArrayList<>(count);
+        List<String> bodies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Object entity = entities.get(keys.get(i));
+            if (entity != null) {
+                MailKind kind = MailKind.valueOf(outbox.getKind(i));
+                Map<String, Object> values = kind.values(entity);
+                subjects.add(kind.subject(values));
+                bodies.add(kind.body(values));
+            }
+        }
+
+        Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+        if (!bodies.isEmpty()) {
+            String subject = bodies.size() == 1 ? subjects.get(0)
+                    : DIGEST_SUBJECT.render(ImmutableMap.of("count", bodies.size()));
+            try {
+                if (profile == null || profile.getMainEmail() == null) {
+                    throw new AddressException("No address");
+                }
+                transport.send(profile.getMainEmail(), subject,
+                        Joiner.on(DIGEST_SEPARATOR).join(bodies));
+                Metrics.increment("mail.sent");
+                Metrics.increment("mail.digested", bodies.size());
+            } catch (AddressException e) {
+                LOG.warning("Dropping " + count + " mails to " + userId + ": " + e.getMessage());
+                Metrics.increment("mail.dropped", count);
+            }
+        }
+
+        new TransactionRunner("removeSentMails").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                Outbox outbox = ofy().load().key(Outbox.createKey(userId)).now();
+                if (outbox == null) {
+                    return;
+                }
+                // A task enqueued again for a stale one may have sent them first.
+                outbox.removeFirst(Math.min(count, outbox.size()));
+                if (outbox.size() == 0) {
+                    ofy().delete().entity(outbox).now();
+                } else {
+                    outbox.setScheduled(new Date());
+                    ofy().save().entity(outbox).now();
+                    queue().add(ofy().getTransaction(), task(userId));
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,76 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process counters of this instance, exposed through the MetricsServlet.
+ *
+ * Counters live in memory so that recording them costs no RPC. Each instance reports its own
+ * numbers since it started.
+ */
+public class Metrics {
+
+    private static final ConcurrentMap<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    private static AtomicLong counter(final String name) {
+        AtomicLong counter = COUNTERS.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = COUNTERS.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Adds one to the counter with the given name.
+     *
+     * @param name the name of the counter.
+     */
+    public static void increment(final String name) {
+        counter(name).incrementAndGet();
+    }
+
+    /**
+     * Adds the given delta to the counter with the given name.
+     *
+     * @param name the name of the counter.
+     * @param delta the amount to add.
+     */
+    public static void increment(final String name, final long delta) {
+        counter(name).addAndGet(delta);
+    }
+
+    /**
+     * Returns the current value of the counter with the given name.
+     *
+     * @param name the name of the counter.
+     * @return the current value, 0 if the counter was never incremented.
+     */
+    public static long get(final String name) {
+        AtomicLong counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Returns a copy of all the counters, sorted by name.
+     *
+     * @return a copy of all the counters.
+     */
+    public static SortedMap<String, Long> snapshot() {
+        SortedMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : COUNTERS.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,150 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the NearlySoldOut set and the announcement built from it up to date.
+ *
+ * Registrations report the seats before and after their change, and only the ones crossing
+ * the threshold touch the set. The announcement in memcache is rebuilt from the set each time
+ * it changes, and by the periodic reconciliation.
+ */
+public class NearlySoldOutTracker {
+
+    private NearlySoldOutTracker() {}
+
+    /**
+     * Updates the set when a change of seats moved the conference across the threshold.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param seatsBefore the number of seats available before the change.
+     * @param seatsAfter the number of seats available after the change.
+     */
+    public static void onSeatsChanged(final Key<Conference> conferenceKey, final int seatsBefore,
+                                      final int seatsAfter) {
+        boolean nearlySoldOut = NearlySoldOut.isNearlySoldOut(seatsAfter);
+        if (nearlySoldOut != NearlySoldOut.isNearlySoldOut(seatsBefore)) {
+            update(conferenceKey, nearlySoldOut);
+        }
+    }
+
+    /**
+     * Adds the conference to the set or removes it, and rebuilds the announcement if the set
+     * changed.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param nearlySoldOut whether the conference is nearly sold out.
+     */
+    public static void update(final Key<Conference> conferenceKey, final boolean nearlySoldOut) {
+        List<Key<Conference>> conferenceKeys = Collections.singletonList(conferenceKey);
+        List<Key<Conference>> none = Collections.emptyList();
+        if (nearlySoldOut) {
+            update(conferenceKeys, none);
+        } else {
+            update(none, conferenceKeys);
+        }
+    }
+
+    /**
+     * Adds and removes conferences to and from the set in one transaction, and rebuilds the
+     * announcement if the set changed.
+     *
+     * @param added the keys of the Conferences now nearly sold out.
+     * @param removed the keys of the Conferences no longer nearly sold out.
+     */
+    public static void update(final Collection<Key<Conference>> added,
+                              final Collection<Key<Conference>> removed) {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        NearlySoldOut set = new TransactionRunner("updateNearlySoldOut").run(
+                new Work<NearlySoldOut>() {
+            @Override
+            public NearlySoldOut run() {
+                NearlySoldOut set = ofy().load().key(NearlySoldOut.createKey()).now();
+                if (set == null) {
+                    set = new NearlySoldOut();
+                }
+                boolean changed = false;
+                for (Key<Conference> conferenceKey : added) {
+                    changed |= set.update(conferenceKey, true);
+                }
+                for (Key<Conference> conferenceKey : removed) {
+                    changed |= set.update(conferenceKey, false);
+                }
+                if (!changed) {
+                    return null;
+                }
+                ofy().save().entity(set).now();
+                return set;
+            }
+        });
+        if (set != null) {
+            rebuildAnnouncement(set);
+        }
+    }
+
+    /**
+     * Removes the conferences that are no longer nearly sold out from the set, and rebuilds
+     * the announcement. This is the first step of the periodic reconciliation.
+     */
+    public static void removeStale() {
+        NearlySoldOut set = ofy().load().key(NearlySoldOut.createKey()).now();
+        if (set == null) {
+            rebuildAnnouncement(new NearlySoldOut());
+            return;
+        }
+        Map<Key<Conference>, Conference> conferences =
+                ofy().load().keys(set.getConferenceKeys());
+        SeatInventory.resolveSeatsAvailable(conferences.values());
+        List<Key<Conference>> removed = new ArrayList<>();
+        for (Key<Conference> conferenceKey : set.getConferenceKeys()) {
+            Conference conference = conferences.get(conferenceKey);
+            if (conference == null
+                    || !NearlySoldOut.isNearlySoldOut(conference.getSeatsAvailable())) {
+                removed.add(conferenceKey);
+            }
+        }
+        if (removed.isEmpty()) {
+            // The announcement may have been evicted from memcache meanwhile.
+            rebuildAnnouncement(set);
+        } else {
+            update(Collections.<Key<Conference>>emptyList(), removed);
+        }
+    }
+
+    private static void rebuildAnnouncement(final NearlySoldOut set) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Map<Key<Conference>, Conference> conferences =
+                ofy().load().keys(set.getConferenceKeys());
+        List<String> conferenceNames = new ArrayList<>(conferences.size());
+        for (Key<Conference> conferenceKey : set.getConferenceKeys()) {
+            Conference conference = conferences.get(conferenceKey);
+            if (conference != null) {
+                conferenceNames.add(conference.getName());
+            }
+        }
+        if (conferenceNames.isEmpty()) {
+            memcacheService.delete(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+            return;
+        }
+        String announcementText = "Last chance to attend! The following conferences are "
+                + "nearly sold out: " + Joiner.on(", ").skipNulls().join(conferenceNames);
+        memcacheService.put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, announcementText);
+    }
+}
@@ -1,8 +1,28 @@
 package com.google.devrel.training.conference.service;
 
+import com.google.devrel.training.conference.domain.Agenda;
+import com.google.devrel.training.conference.domain.AutocompletePrefix;
+import com.google.devrel.training.conference.domain.ExportBlob;
+import com.google.devrel.training.conference.domain.ExportJob;
+import com.google.devrel.training.conference.domain.FeaturedSpeaker;
+import com.google.devrel.training.conference.domain.ImportChunk;
+import com.google.devrel.training.conference.domain.ImportRef;
+import com.google.devrel.training.conference.domain.ImportJob;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
+import com.google.devrel.training.conference.domain.NotificationShard;
+import com.google.devrel.training.conference.domain.Outbox;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.ConferenceNotification;
+import com.google.devrel.training.conference.domain.ConferenceTombstone;
+import com.google.devrel.training.conference.domain.SearchDocument;
+import com.google.devrel.training.conference.domain.SeatShard;
 import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.Speaker;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.google.devrel.training.conference.domain.WishlistEntry;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
@@ -18,6 +38,26 @@ public class OfyService {
         factory().register(Profile.class);
         factory().register(Conference.class);
         factory().register(Session.class);
+        factory().register(SeatShard.class);
+        factory().register(Registration.class);
+        factory().register(WishlistEntry.class);
+        factory().register(WaitlistEntry.class);
+        factory().register(NearlySoldOut.class);
+        factory().register(FeaturedSpeaker.class);
+        factory().register(Agenda.class);
+        factory().register(Speaker.class);
+        factory().register(SearchDocument.class);
+        factory().register(AutocompletePrefix.class);
+        factory().register(ConferenceFacets.class);
+        factory().register(ImportJob.class);
+        factory().register(ImportChunk.class);
+        factory().register(ImportRef.class);
+        factory().register(ExportJob.class);
+        factory().register(ExportBlob.class);
+        factory().register(ConferenceTombstone.class);
+        factory().register(Outbox.class);
+        factory().register(ConferenceNotification.class);
+        factory().register(NotificationShard.class);
     }
 
     /**
@@ -0,0 +1,223 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.base.Predicate;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs queries one page at a time, resuming from a websafe datastore cursor.
+ *
+ * A page is a CollectionResponse whose nextPageToken is the cursor of the next page, or null
+ * when there are no more results. The cursor comes from the client, so a malformed one, or one
+ * of another query, is a BadRequestException rather than a server error.
+ *
+ * The datastore runs some queries as several, like the ones with a != filter, and those have
+ * no cursor. Their pages go on by offset instead, with a token starting with OFFSET_PREFIX.
+ * The query forms apply != in memory, so no endpoint sends such a query today, and the offset
+ * tokens are only a fallback for a caller that does.
+ */
+public class Paging {
+
+    /**
+     * The page size used when the client doesn't ask for one.
+     */
+    public static final int DEFAULT_LIMIT = 100;
+
+    /**
+     * The largest page size a client can ask for.
+     */
+    public static final int MAX_LIMIT = 1000;
+
+    /**
+     * How many entities a filtered page may scan per result it asks for.
+     */
+    private static final int SCAN_FACTOR = 10;
+
+    private static final String OFFSET_PREFIX = "offset:";
+
+    private Paging() {}
+
+    /**
+     * Returns the page size to use for the limit the client asked for.
+     *
+     * @param limit the limit from the client, may be null.
+     * @return the page size, between 1 and MAX_LIMIT.
+     */
+    public static int pageSize(final Integer limit) {
+        if (limit == null || limit <= 0) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * Runs one page of the given query.
+     *
+     * @param query the query, without limit and start cursor.
+     * @param limit the page size the client asked for, may be null.
+     * @param cursor the websafe cursor of the page, null for the first page.
+     * @return the page.
+     * @throws BadRequestException when the cursor is malformed or of another query.
+     */
+    public static <T> CollectionResponse<T> page(Query<T> query, final Integer limit,
+                                                 final String cursor)
+            throws BadRequestException {
+        int pageSize = pageSize(limit);
+        // Cursors of the keys-only queries behind Objectify's hybrid mode don't resume sorted
+        // queries, so the page is fetched by a plain query.
+        query = startAt(query.hybrid(false).limit(pageSize), cursor);
+        QueryResultIterator<T> iterator = query.iterator();
+        List<T> items = new ArrayList<>(pageSize);
+        try {
+            while (iterator.hasNext()) {
+                items.add(iterator.next());
+            }
+        } catch (IllegalArgumentException e) {
+            throw invalidCursor(cursor, e);
+        }
+        String nextPageToken = items.size() == pageSize
+                ? nextPageToken(iterator, cursor, items.size()) : null;
+        return CollectionResponse.<T>builder()
+                .setItems(items)
+                .setNextPageToken(nextPageToken)
+                .build();
+    }
+
+    /**
+     * Runs one page of the given query, keeping only the entities matching the predicate.
+     *
+     * To bound the latency of a page, at most SCAN_FACTOR entities per requested result are
+     * read. When the budget runs out the page may be short or even empty, but it still has a
+     * nextPageToken for the client to go on with.
+     *
+     * @param query the query, without limit and start cursor.
+     * @param limit the page size the client asked for, may be null.
+     * @param cursor the websafe cursor of the page, null for the first page.
+     * @param predicate the predicate applied in memory, null to keep all the entities.
+     * @return the page.
+     * @throws BadRequestException when the cursor is malformed or of another query.
+     */
+    public static <T> CollectionResponse<T> page(Query<T> query, final Integer limit,
+                                                 final String cursor,
+                                                 final Predicate<? super T> predicate)
+            throws BadRequestException {
+        if (predicate == null) {
+            return page(query, limit, cursor);
+        }
+        int pageSize = pageSize(limit);
+        int scanLimit = pageSize * SCAN_FACTOR;
+        query = startAt(query.hybrid(false).limit(scanLimit).chunk(pageSize), cursor);
+        QueryResultIterator<T> iterator = query.iterator();
+        List<T> items = new ArrayList<>();
+        int scanned = 0;
+        try {
+            while (items.size() < pageSize && iterator.hasNext()) {
+                T item = iterator.next();
+                scanned++;
+                if (predicate.apply(item)) {
+                    items.add(item);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw invalidCursor(cursor, e);
+        }
+        Metrics.increment("paging.scanned", scanned);
+        Metrics.increment("paging.filteredOut", scanned - items.size());
+        // The cursor points right after the last entity read, matching or not.
+        String nextPageToken = items.size() == pageSize || scanned == scanLimit
+                ? nextPageToken(iterator, cursor, scanned) : null;
+        return CollectionResponse.<T>builder()
+                .setItems(items)
+                .setNextPageToken(nextPageToken)
+                .build();
+    }
+
+    /**
+     * Returns one page of a list already in memory. The cursor is the offset of the page.
+     *
+     * @param items all the items, in order.
+     * @param limit the page size the client asked for, may be null.
+     * @param cursor the nextPageToken of the previous page, null for the first page.
+     * @return the page.
+     * @throws BadRequestException when the cursor is malformed.
+     */
+    public static <T> CollectionResponse<T> page(final List<T> items, final Integer limit,
+                                                 final String cursor)
+            throws BadRequestException {
+        int pageSize = pageSize(limit);
+        int offset;
+        try {
+            offset = cursor == null || cursor.isEmpty() ? 0 : Integer.parseInt(cursor);
+        } catch (NumberFormatException e) {
+            throw invalidCursor(cursor, e);
+        }
+        if (offset < 0) {
+            throw new BadRequestException("Invalid cursor: " + cursor);
+        }
+        int end = Math.min(offset + pageSize, items.size());
+        List<T> page = offset < end
+                ? new ArrayList<>(items.subList(offset, end)) : new ArrayList<T>(0);
+        return CollectionResponse.<T>builder()
+                .setItems(page)
+                .setNextPageToken(end < items.size() ? String.valueOf(end) : null)
+                .build();
+    }
+
+    private static <T> Query<T> startAt(final Query<T> query, final String cursor)
+            throws BadRequestException {
+        if (cursor == null || cursor.isEmpty()) {
+            return query;
+        }
+        if (cursor.startsWith(OFFSET_PREFIX)) {
+            return query.offset(offset(cursor));
+        }
+        try {
+            return query.startAt(Cursor.fromWebSafeString(cursor));
+        } catch (IllegalArgumentException e) {
+            throw invalidCursor(cursor, e);
+        }
+    }
+
+    private static int offset(final String cursor) throws BadRequestException {
+        int offset;
+        try {
+            offset = Integer.parseInt(cursor.substring(OFFSET_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            throw invalidCursor(cursor, e);
+        }
+        if (offset < 0) {
+            throw new BadRequestException("Invalid cursor: " + cursor);
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the token of the page after the given number of entities read, an offset when
+     * the query has no cursor.
+     */
+    private static String nextPageToken(final QueryResultIterator<?> iterator,
+                                        final String cursor, final int read)
+            throws BadRequestException {
+        Cursor next = iterator.getCursor();
+        if (next != null) {
+            return next.toWebSafeString();
+        }
+        int offset = cursor != null && cursor.startsWith(OFFSET_PREFIX) ? offset(cursor) : 0;
+        return OFFSET_PREFIX + (offset + read);
+    }
+
+    private static BadRequestException invalidCursor(final String cursor,
+                                                     final RuntimeException cause) {
+        if (cursor == null || cursor.isEmpty()) {
+            // Not the client's fault.
+            throw cause;
+        }
+        return new BadRequestException("Invalid cursor: " + cursor, cause);
+    }
+}
@@ -0,0 +1,61 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.WishlistEntry;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the registrations and wishlist entries stored in the lists of a Profile into
+ * Registration and WishlistEntry children.
+ *
+ * MigrateProfileRelationsServlet moves all the profiles in the background. Until it is done,
+ * the endpoints changing the relations of a user move the Profile first, in their own
+ * transaction, and the endpoints reading them also read the lists.
+ */
+public class ProfileRelations {
+
+    private ProfileRelations() {}
+
+    /**
+     * Moves the lists of a profile into children, unless they were moved already. Must be
+     * called in a transaction, which holds the entity group of the Profile.
+     *
+     * @param userId the userId of the Profile.
+     * @return true when relations were moved.
+     */
+    public static boolean migrate(final String userId) {
+        Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+        if (profile == null || !profile.hasLegacyRelations()) {
+            return false;
+        }
+        List<Object> children = new ArrayList<>();
+        for (String websafeConferenceKey : profile.getLegacyConferenceKeysToAttend()) {
+            children.add(new Registration(userId, websafeConferenceKey));
+        }
+        for (String websafeSessionKey : profile.getLegacySessionKeysInWishlist()) {
+            children.add(new WishlistEntry(userId, websafeSessionKey));
+        }
+        profile.clearLegacyRelations();
+        children.add(profile);
+        ofy().save().entities(children).now();
+        Metrics.increment("profileRelations.migrated");
+        return true;
+    }
+
+    /**
+     * Returns the Profile of a user when it still holds relations in its lists.
+     *
+     * @param userId the userId of the Profile.
+     * @return the Profile, null when there is none or its lists were moved.
+     */
+    public static Profile loadLegacy(final String userId) {
+        Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+        return profile != null && profile.hasLegacyRelations() ? profile : null;
+    }
+}
@@ -0,0 +1,137 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.devrel.training.conference.Constants;
+import com.googlecode.objectify.Key;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches pages of query results in memcache as lists of keys.
+ *
+ * Entries are keyed by the kind, its current generation and a hash of the normalized query.
+ * Any write that may change the results of a query on a kind bumps the generation of the kind,
+ * which orphans all its entries at once; they expire on their own. Seat changes don't: no
+ * query filters on the seats, and a hit reloads the entities, so seatsAvailable is fresh.
+ *
+ * A hit costs one memcache get for the generation, one for the keys and a batch get of the
+ * entities, which Objectify serves from memcache for cached kinds.
+ */
+public class QueryCache {
+
+    private static final int EXPIRATION_SECONDS = 600;
+
+    private QueryCache() {}
+
+    /**
+     * Runs a query for a page on a miss.
+     */
+    public interface PageQuery<T> {
+
+        /**
+         * Runs the query.
+         *
+         * @return the page.
+         * @throws BadRequestException when the cursor of the page is invalid.
+         */
+        CollectionResponse<T> run() throws BadRequestException;
+    }
+
+    /**
+     * A page of results as stored in memcache.
+     */
+    private static class CachedPage implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<Key<?>> keys;
+
+        private final String nextPageToken;
+
+        CachedPage(ArrayList<Key<?>> keys, String nextPageToken) {
+            this.keys = keys;
+            this.nextPageToken = nextPageToken;
+        }
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+
+    private static String generationKey(final String kind) {
+        return Constants.MEMCACHE_QUERY_GENERATION_PREFIX + kind;
+    }
+
+    /**
+     * Returns the current generation of the given kind.
+     */
+    private static long generation(final String kind) {
+        // Starts from the clock, so that an evicted counter never comes back to an old value.
+        Long generation = memcache().increment(generationKey(kind), 0, System.currentTimeMillis());
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * Invalidates all the cached queries on the given kind.
+     *
+     * @param kind the kind of the entities that changed.
+     */
+    public static void invalidate(final String kind) {
+        memcache().increment(generationKey(kind), 1, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns a page of the given query from the cache, running it on a miss.
+     *
+     * @param kind the kind the query runs on.
+     * @param normalizedQuery a string identifying the query and the page, which must be the same
+     *     for all the equivalent queries.
+     * @param query runs the query on a miss.
+     * @return the page.
+     * @throws BadRequestException when the cursor of the page is invalid.
+     */
+    public static <T> CollectionResponse<T> page(final String kind, final String normalizedQuery,
+                                                 final PageQuery<T> query)
+            throws BadRequestException {
+        String key = Constants.MEMCACHE_QUERY_RESULT_PREFIX + kind + ":" + generation(kind)
+                + ":" + Hashing.sha1().hashString(normalizedQuery, Charsets.UTF_8);
+        CachedPage cached = (CachedPage) memcache().get(key);
+        if (cached != null) {
+            Metrics.increment("queryCache." + kind + ".hits");
+            @SuppressWarnings("unchecked")
+            List<Key<T>> keys = (List<Key<T>>) (List<?>) cached.keys;
+            Map<Key<T>, T> entities = ofy().load().keys(keys);
+            List<T> items = new ArrayList<>(keys.size());
+            for (Key<T> entityKey : keys) {
+                // Skips the entities deleted since.
+                T entity = entities.get(entityKey);
+                if (entity != null) {
+                    items.add(entity);
+                }
+            }
+            return CollectionResponse.<T>builder()
+                    .setItems(items)
+                    .setNextPageToken(cached.nextPageToken)
+                    .build();
+        }
+        Metrics.increment("queryCache." + kind + ".misses");
+        CollectionResponse<T> page = query.run();
+        ArrayList<Key<?>> keys = new ArrayList<>(page.getItems().size());
+        for (T entity : page.getItems()) {
+            keys.add(Key.create(entity));
+        }
+        memcache().put(key, new CachedPage(keys, page.getNextPageToken()),
+                Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+        return page;
+    }
+}
@@ -0,0 +1,46 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.devrel.training.conference.Constants;
+import com.googlecode.objectify.cmd.Query;
+
+/**
+ * Cheap cardinality estimates for the query planner of the query forms.
+ *
+ * An estimate is a keys-only count of the query capped at SAMPLE_LIMIT, cached in memcache for
+ * a few minutes, so planning a popular query costs a memcache get.
+ */
+public class QueryStatistics {
+
+    /**
+     * The largest count an estimate goes up to.
+     */
+    public static final int SAMPLE_LIMIT = 1000;
+
+    private static final int EXPIRATION_SECONDS = 600;
+
+    private QueryStatistics() {}
+
+    /**
+     * Returns the number of entities the given query would return, up to SAMPLE_LIMIT.
+     *
+     * @param query the query to estimate, without limit and start cursor.
+     * @return the estimate.
+     */
+    public static int estimate(final Query<?> query) {
+        MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+        String key = Constants.MEMCACHE_QUERY_STATISTICS_PREFIX
+                + Hashing.sha1().hashString(query.toString(), Charsets.UTF_8);
+        Integer cached = (Integer) memcache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        int count = query.limit(SAMPLE_LIMIT).count();
+        memcache.put(key, count, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+        return count;
+    }
+}
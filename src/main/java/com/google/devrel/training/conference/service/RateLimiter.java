@@ -0,0 +1,208 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Ticker;
+import com.google.devrel.training.conference.Constants;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Admits at most capacity requests per window for each id, such as a user or a conference, so
+ * that bursts are turned away before they compete for the same entity groups.
+ *
+ * Each id has a token bucket shared by the instances in memcache: a counter per window,
+ * incremented atomically, whose key changes with the window, so that the bucket is full again
+ * at the start of the next one. The counter expires a window after it was created. In front
+ * of it, each instance keeps a local bucket refilled continuously at the same rate, and
+ * remembers the ids memcache turned away until the end of the window, so a burst hitting one
+ * instance is rejected without an RPC. When memcache fails, the request is admitted.
+ *
+ * Admissions and rejections are counted in Metrics under "rateLimit.{name}.admitted",
+ * "rateLimit.{name}.rejected" and "rateLimit.{name}.rejectedLocally", and the tokens given back
+ * under "rateLimit.{name}.released".
+ */
+public class RateLimiter {
+
+    private static final Logger LOG = Logger.getLogger(RateLimiter.class.getName());
+
+    /**
+     * Reads the wall clock, so that the instances agree on the windows.
+     */
+    private static final Ticker WALL_CLOCK = new Ticker() {
+        @Override
+        public long read() {
+            return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        }
+    };
+
+    private final String name;
+
+    private final long capacity;
+
+    private final long windowNanos;
+
+    private final int maxEntries;
+
+    private final Ticker ticker;
+
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * The local bucket of an id, with the last window memcache turned it away in.
+     */
+    private static class Bucket {
+        private double tokens;
+
+        private long refilledAt;
+
+        private long rejectedWindow = -1;
+
+        Bucket(double tokens, long refilledAt) {
+            this.tokens = tokens;
+            this.refilledAt = refilledAt;
+        }
+    }
+
+    public RateLimiter(final String name, final int capacity, final long windowMillis,
+                       final int maxEntries) {
+        this(name, capacity, windowMillis, maxEntries, WALL_CLOCK);
+    }
+
+    RateLimiter(final String name, final int capacity, final long windowMillis,
+                final int maxEntries, final Ticker ticker) {
+        this.name = name;
+        this.capacity = capacity;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxEntries = maxEntries;
+        this.ticker = ticker;
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+
+    private String metric(final String counter) {
+        return "rateLimit." + name + "." + counter;
+    }
+
+    /**
+     * Takes a token from the bucket of the given id.
+     *
+     * @param id the id, for instance a userId.
+     * @return 0 when the request is admitted, otherwise the milliseconds until it may be
+     *     admitted.
+     */
+    public long acquire(final String id) {
+        long now = ticker.read();
+        long window = now / windowNanos;
+        long localWait = takeLocalToken(id, now, window);
+        if (localWait > 0) {
+            Metrics.increment(metric("rejectedLocally"));
+            return localWait;
+        }
+        Long count;
+        try {
+            count = increment(counterKey(id, window));
+        } catch (RuntimeException e) {
+            LOG.warning("Failed to count " + id + " against " + name + ": " + e);
+            count = null;
+        }
+        if (count != null && count > capacity) {
+            Bucket bucket = buckets.get(id);
+            if (bucket != null) {
+                synchronized (bucket) {
+                    bucket.rejectedWindow = window;
+                }
+            }
+            Metrics.increment(metric("rejected"));
+            return toMillis((window + 1) * windowNanos - now);
+        }
+        Metrics.increment(metric("admitted"));
+        return 0;
+    }
+
+    /**
+     * Gives back the token a request took from the bucket of the given id, when the request was
+     * turned away by another limit after all.
+     *
+     * @param id the id the token was taken for.
+     */
+    public void release(final String id) {
+        long window = ticker.read() / windowNanos;
+        Bucket bucket = buckets.get(id);
+        if (bucket != null) {
+            synchronized (bucket) {
+                bucket.tokens = Math.min(capacity, bucket.tokens + 1);
+            }
+        }
+        try {
+            // Only decrements an existing counter, which doesn't go below 0.
+            memcache().increment(counterKey(id, window), -1);
+        } catch (RuntimeException e) {
+            LOG.warning("Failed to give back a token of " + id + " to " + name + ": " + e);
+        }
+        Metrics.increment(metric("released"));
+    }
+
+    private String counterKey(final String id, final long window) {
+        return Constants.MEMCACHE_RATE_LIMIT_PREFIX + name + ":" + id + ":" + window;
+    }
+
+    /**
+     * Increments the counter of a window, creating it with an expiration when it is missing, so
+     * that the counters of the past windows don't wait for memcache to evict them.
+     */
+    private Long increment(final String key) {
+        Long count = memcache().increment(key, 1);
+        if (count == null) {
+            // Whoever creates it first sets the expiration, the others only increment it.
+            memcache().put(key, 0L,
+                    Expiration.byDeltaMillis((int) TimeUnit.NANOSECONDS.toMillis(windowNanos)),
+                    MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+            count = memcache().increment(key, 1);
+        }
+        return count;
+    }
+
+    /**
+     * Takes a token from the local bucket of the given id.
+     *
+     * @return 0 when a token was taken, otherwise the milliseconds until one is available.
+     */
+    private long takeLocalToken(final String id, final long now, final long window) {
+        Bucket bucket = buckets.get(id);
+        if (bucket == null) {
+            if (buckets.size() >= maxEntries) {
+                // Forgetting the buckets only leaves memcache to turn bursts away.
+                buckets.clear();
+            }
+            Bucket newBucket = new Bucket(capacity, now);
+            bucket = buckets.putIfAbsent(id, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        synchronized (bucket) {
+            if (bucket.rejectedWindow == window) {
+                return toMillis((window + 1) * windowNanos - now);
+            }
+            bucket.tokens = Math.min(capacity,
+                    bucket.tokens + (double) (now - bucket.refilledAt) * capacity / windowNanos);
+            bucket.refilledAt = now;
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return 0;
+            }
+            return toMillis((long) ((1 - bucket.tokens) * windowNanos / capacity));
+        }
+    }
+
+    private static long toMillis(final long nanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+}
@@ -0,0 +1,305 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SearchDocument;
+import com.google.devrel.training.conference.domain.SearchResult;
+import com.google.devrel.training.conference.domain.Session;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Full-text search over conferences and sessions.
+ *
+ * Every Conference and Session has a SearchDocument, saved in the transaction writing the
+ * entity. Its indexed terms are the prefixes of its tokens, from MIN_PREFIX_LENGTH up to
+ * MAX_PREFIX_LENGTH characters, so a query term matches the tokens it starts. A search is an
+ * equality filter on the terms per query term, which the datastore answers by merging the
+ * built-in index of the property, so documents must contain all the terms. The candidates are
+ * ranked in memory and paged by offset.
+ *
+ * A document has at most MAX_TERMS terms, so a long description can't go over the limit of
+ * index entries of an entity and fail the write of the entity. The tokens are indexed by
+ * decreasing weight, so the names and keywords always are.
+ */
+public class SearchIndex {
+
+    /**
+     * Prefixes shorter than this aren't indexed, except for tokens that short.
+     */
+    static final int MIN_PREFIX_LENGTH = 2;
+
+    /**
+     * Prefixes longer than this aren't indexed; longer query terms are checked in memory.
+     */
+    static final int MAX_PREFIX_LENGTH = 8;
+
+    /**
+     * The most terms indexed per document. Each one writes an ascending and a descending index
+     * entry, well below the 20000 allowed per entity.
+     */
+    static final int MAX_TERMS = 5000;
+
+    /**
+     * At most this many matching documents are ranked.
+     */
+    static final int MAX_CANDIDATES = 500;
+
+    /**
+     * A term that only starts tokens counts this much of a full match.
+     */
+    private static final double PREFIX_MATCH_WEIGHT = 0.5;
+
+    private static final int TITLE_WEIGHT = 3;
+
+    private static final int KEYWORD_WEIGHT = 2;
+
+    private static final int TEXT_WEIGHT = 1;
+
+    private static final String UNDEFINED = "Undefined";
+
+    private SearchIndex() {}
+
+    /**
+     * Splits the given text into lower case tokens of letters and digits.
+     *
+     * @param text the text, may be null.
+     * @return the tokens, in order.
+     */
+    public static List<String> tokenize(final String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Accumulates the tokens of the fields of an entity.
+     */
+    private static class Builder {
+        private final Map<String, Integer> tokenWeights = new HashMap<>();
+
+        private int length;
+
+        Builder add(final String text, final int weight) {
+            for (String token : tokenize(text)) {
+                Integer current = tokenWeights.get(token);
+                tokenWeights.put(token, (current == null ? 0 : current) + weight);
+                length++;
+            }
+            return this;
+        }
+
+        SearchDocument build(final String websafeKey, final String kind, final String title) {
+            List<String> tokens = new ArrayList<>(tokenWeights.keySet());
+            // The heaviest tokens first, ties in alphabetical order so the cut is stable.
+            Collections.sort(tokens, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    int byWeight = tokenWeights.get(b).compareTo(tokenWeights.get(a));
+                    return byWeight != 0 ? byWeight : a.compareTo(b);
+                }
+            });
+            Set<String> terms = new LinkedHashSet<>();
+            Map<String, Integer> indexedWeights = new HashMap<>();
+            for (String token : tokens) {
+                List<String> prefixes = prefixes(token);
+                int added = 0;
+                for (String prefix : prefixes) {
+                    if (!terms.contains(prefix)) {
+                        added++;
+                    }
+                }
+                if (terms.size() + added > MAX_TERMS) {
+                    // A token is indexed with all its prefixes or not at all.
+                    continue;
+                }
+                terms.addAll(prefixes);
+                indexedWeights.put(token, tokenWeights.get(token));
+            }
+            if (indexedWeights.size() < tokenWeights.size()) {
+                Metrics.increment("search.tokensDropped",
+                        tokenWeights.size() - indexedWeights.size());
+            }
+            return new SearchDocument(websafeKey, kind, title, new ArrayList<>(terms),
+                    indexedWeights, length);
+        }
+
+        private static List<String> prefixes(final String token) {
+            List<String> prefixes = new ArrayList<>(MAX_PREFIX_LENGTH);
+            if (token.length() < MIN_PREFIX_LENGTH) {
+                prefixes.add(token);
+            }
+            for (int i = MIN_PREFIX_LENGTH; i <= Math.min(token.length(), MAX_PREFIX_LENGTH); i++) {
+                prefixes.add(token.substring(0, i));
+            }
+            return prefixes;
+        }
+    }
+
+    /**
+     * Builds the SearchDocument of the given conference.
+     *
+     * @param conference the Conference.
+     * @return the SearchDocument, not saved.
+     */
+    public static SearchDocument document(final Conference conference) {
+        Builder builder = new Builder()
+                .add(conference.getName(), TITLE_WEIGHT)
+                .add(conference.getCity(), KEYWORD_WEIGHT)
+                .add(conference.getDescription(), TEXT_WEIGHT);
+        if (conference.getTopics() != null) {
+            for (String topic : conference.getTopics()) {
+                builder.add(topic, KEYWORD_WEIGHT);
+            }
+        }
+        return builder.build(conference.getWebsafeKey(), "Conference", conference.getName());
+    }
+
+    /**
+     * Builds the SearchDocument of the given session.
+     *
+     * @param session the Session.
+     * @return the SearchDocument, not saved.
+     */
+    public static SearchDocument document(final Session session) {
+        Builder builder = new Builder()
+                .add(session.getName(), TITLE_WEIGHT)
+                .add(session.getHighlights(), TEXT_WEIGHT);
+        if (!UNDEFINED.equals(session.getSpeaker())) {
+            builder.add(session.getSpeaker(), KEYWORD_WEIGHT);
+        }
+        if (!UNDEFINED.equals(session.getTypeOfSession())) {
+            builder.add(session.getTypeOfSession(), KEYWORD_WEIGHT);
+        }
+        return builder.build(session.getWebsafeKey(), "Session", session.getName());
+    }
+
+    /**
+     * Indexes a created or edited conference. Should be called in the transaction saving it.
+     *
+     * @param conference the Conference.
+     */
+    public static void put(final Conference conference) {
+        ofy().save().entity(document(conference)).now();
+    }
+
+    /**
+     * Removes a deleted conference from the index. Should be called in the transaction
+     * deleting it.
+     *
+     * @param conference the Conference.
+     */
+    public static void remove(final Conference conference) {
+        ofy().delete().key(SearchDocument.createKey(conference.getWebsafeKey())).now();
+    }
+
+    /**
+     * Indexes a created or edited session. Should be called in the transaction saving it.
+     *
+     * @param session the Session.
+     */
+    public static void put(final Session session) {
+        ofy().save().entity(document(session)).now();
+    }
+
+    /**
+     * Returns a page of the documents containing all the terms of the given text, best first.
+     *
+     * @param text the text searched for.
+     * @param kind "Conference" or "Session" to search only one kind, null to search both.
+     * @param limit the page size the client asked for, may be null.
+     * @param cursor the nextPageToken of the previous page, null for the first page.
+     * @return the page.
+     * @throws BadRequestException when the cursor is malformed.
+     */
+    public static CollectionResponse<SearchResult> search(final String text, final String kind,
+                                                          final Integer limit,
+                                                          final String cursor)
+            throws BadRequestException {
+        Set<String> queryTerms = new LinkedHashSet<>(tokenize(text));
+        if (queryTerms.isEmpty()) {
+            return Paging.page(Collections.<SearchResult>emptyList(), limit, cursor);
+        }
+        Query<SearchDocument> query = ofy().load().type(SearchDocument.class);
+        for (String queryTerm : queryTerms) {
+            query = query.filter("terms", queryTerm.length() > MAX_PREFIX_LENGTH
+                    ? queryTerm.substring(0, MAX_PREFIX_LENGTH) : queryTerm);
+        }
+        if (kind != null) {
+            query = query.filter("kind", kind);
+        }
+        List<Key<SearchDocument>> keys = query.limit(MAX_CANDIDATES).keys().list();
+        Collection<SearchDocument> documents = ofy().load().keys(keys).values();
+
+        List<SearchResult> results = new ArrayList<>(documents.size());
+        for (SearchDocument document : documents) {
+            double score = score(document, queryTerms);
+            if (score > 0) {
+                results.add(new SearchResult(document.getKind(), document.getWebsafeKey(),
+                        document.getTitle(), score));
+            }
+        }
+        Collections.sort(results, BEST_FIRST);
+        Metrics.increment("search.queries");
+        Metrics.increment("search.candidates", keys.size());
+        return Paging.page(results, limit, cursor);
+    }
+
+    /**
+     * Scores a document: for each term, the weight of the token it is, or a fraction of the
+     * weights of the tokens it starts, over the square root of the length of the document.
+     * Returns 0 when a term matches nothing, which happens for the terms longer than the
+     * indexed prefixes.
+     */
+    private static double score(final SearchDocument document, final Set<String> queryTerms) {
+        Map<String, Integer> tokenWeights = document.getTokenWeights();
+        double score = 0;
+        for (String queryTerm : queryTerms) {
+            Integer exact = tokenWeights.get(queryTerm);
+            double termScore = exact == null ? 0 : exact;
+            for (Map.Entry<String, Integer> entry : tokenWeights.entrySet()) {
+                if (entry.getKey().length() > queryTerm.length()
+                        && entry.getKey().startsWith(queryTerm)) {
+                    termScore += PREFIX_MATCH_WEIGHT * entry.getValue();
+                }
+            }
+            if (termScore == 0) {
+                return 0;
+            }
+            score += termScore;
+        }
+        return score / Math.sqrt(Math.max(1, document.getLength()));
+    }
+
+    /**
+     * Orders results by decreasing score, then by key so that pages are stable.
+     */
+    private static final Comparator<SearchResult> BEST_FIRST = new Comparator<SearchResult>() {
+        @Override
+        public int compare(SearchResult a, SearchResult b) {
+            int byScore = Double.compare(b.getScore(), a.getScore());
+            return byScore != 0 ? byScore : a.getWebsafeKey().compareTo(b.getWebsafeKey());
+        }
+    };
+}
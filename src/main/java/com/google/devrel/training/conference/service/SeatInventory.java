@@ -0,0 +1,369 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Sharded seat inventory for conferences that get more registrations than a single entity
+ * group can take.
+ *
+ * Registrations claim seats from a random SeatShard instead of the Conference entity, and
+ * the number of seats available is an aggregate over the shards cached in memcache.
+ *
+ * A cross-group transaction holds at most 5 entity groups, and a registration already holds
+ * the Conference and the Profile of the user. So the shards are only read outside of the
+ * transactions, and a transaction holds at most one of them, or two while resharding.
+ */
+public class SeatInventory {
+
+    private static final Logger LOG = Logger.getLogger(SeatInventory.class.getName());
+
+    /**
+     * Number of shards a conference gets the first time it is sharded automatically.
+     */
+    public static final int INITIAL_SHARD_COUNT = 4;
+
+    /**
+     * Upper bound of shards, keeping the batch read of all of them small.
+     */
+    public static final int MAX_SHARD_COUNT = 16;
+
+    /**
+     * Number of transaction retries per minute on a conference that triggers more shards.
+     */
+    private static final long CONTENTION_THRESHOLD = 5;
+
+    private static final int AGGREGATE_EXPIRATION_SECONDS = 60;
+
+    private static final Random RANDOM = new Random();
+
+    private SeatInventory() {}
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+
+    private static String aggregateKey(final String websafeConferenceKey) {
+        return Constants.MEMCACHE_SEATS_AVAILABLE_PREFIX + websafeConferenceKey;
+    }
+
+    private static List<Key<SeatShard>> shardKeys(final String websafeConferenceKey,
+                                                  final int shardCount) {
+        List<Key<SeatShard>> keys = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            keys.add(SeatShard.createKey(websafeConferenceKey, i));
+        }
+        return keys;
+    }
+
+    /**
+     * Loads the shards outside of any transaction, which would otherwise hold all of them.
+     */
+    private static Map<Key<SeatShard>, SeatShard> loadShards(final String websafeConferenceKey,
+                                                             final int shardCount) {
+        return ofy().transactionless().load().keys(shardKeys(websafeConferenceKey, shardCount));
+    }
+
+    /**
+     * Returns the number of seats available over all the shards of the given conference.
+     * The sum is a running total in memcache, kept up to date by each booking, so most calls
+     * don't touch the datastore.
+     *
+     * @param conference a sharded Conference.
+     * @return the number of seats available.
+     */
+    public static int getSeatsAvailable(final Conference conference) {
+        String websafeConferenceKey = conference.getWebsafeKey();
+        Object cached = memcache().get(aggregateKey(websafeConferenceKey));
+        if (cached != null) {
+            return ((Long) cached).intValue();
+        }
+        long seatsAvailable = countSeatsAvailable(conference);
+        memcache().put(aggregateKey(websafeConferenceKey), seatsAvailable,
+                Expiration.byDeltaSeconds(AGGREGATE_EXPIRATION_SECONDS),
+                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        return (int) seatsAvailable;
+    }
+
+    /**
+     * Returns the number of seats available over all the shards of the given conference, summed
+     * from the shards themselves rather than taken from the running total in memcache.
+     *
+     * @param conference a sharded Conference.
+     * @return the number of seats available.
+     */
+    public static int countSeatsAvailable(final Conference conference) {
+        int seatsAvailable = 0;
+        for (SeatShard shard : loadShards(conference.getWebsafeKey(),
+                conference.getSeatShardCount()).values()) {
+            seatsAvailable += shard.getSeatsAvailable();
+        }
+        return seatsAvailable;
+    }
+
+    /**
+     * Sets the number of seats available over all the shards on the given conference, whose
+     * seatsAvailable is otherwise the snapshot saved with it. Does nothing when not sharded.
+     *
+     * @param conference the Conference.
+     */
+    public static void resolveSeatsAvailable(final Conference conference) {
+        if (conference.isSeatSharded()) {
+            conference.setShardedSeatsAvailable(getSeatsAvailable(conference));
+        }
+    }
+
+    /**
+     * Sets the number of seats available over all the shards on the sharded ones of the given
+     * conferences.
+     *
+     * @param conferences the Conferences.
+     */
+    public static void resolveSeatsAvailable(final Iterable<Conference> conferences) {
+        for (Conference conference : conferences) {
+            resolveSeatsAvailable(conference);
+        }
+    }
+
+    /**
+     * Books one seat from a shard of the given conference. Must be called in a transaction,
+     * which only holds the shard the seat is booked from.
+     *
+     * The shards are read outside of the transaction, and a random one with seats left is
+     * claimed. The running total isn't trusted here, since a total rebuilt while a seat was given
+     * back can miss it, and is dropped when the shards disagree with it.
+     *
+     * @param conference a sharded Conference.
+     * @return true when a seat was booked, false when all the shards are empty.
+     * @throws ConcurrentModificationException when another booking emptied the shard
+     *     meanwhile, so that the transaction is retried.
+     */
+    public static boolean bookSeat(final Conference conference) {
+        String websafeConferenceKey = conference.getWebsafeKey();
+        List<Integer> candidates = new ArrayList<>();
+        for (SeatShard shard : loadShards(websafeConferenceKey,
+                conference.getSeatShardCount()).values()) {
+            if (shard.getSeatsAvailable() > 0) {
+                candidates.add(shard.getIndex());
+            }
+        }
+        Long cached = (Long) memcache().get(aggregateKey(websafeConferenceKey));
+        if (cached != null && (cached > 0) == candidates.isEmpty()) {
+            // The running total was off, the next read rebuilds it from the shards.
+            memcache().delete(aggregateKey(websafeConferenceKey));
+        }
+        if (candidates.isEmpty()) {
+            return false;
+        }
+        int index = candidates.get(RANDOM.nextInt(candidates.size()));
+        SeatShard shard = ofy().load().key(SeatShard.createKey(websafeConferenceKey, index))
+                .now();
+        if (shard == null || shard.getSeatsAvailable() <= 0) {
+            throw new ConcurrentModificationException("Seat shard " + index + " of "
+                    + websafeConferenceKey + " ran out meanwhile");
+        }
+        shard.bookSeats(1);
+        ofy().save().entity(shard).now();
+        return true;
+    }
+
+    /**
+     * Gives one seat back to a random shard of the given conference. Must be called in a
+     * transaction.
+     *
+     * @param conference a sharded Conference.
+     */
+    public static void giveBackSeat(final Conference conference) {
+        int index = RANDOM.nextInt(conference.getSeatShardCount());
+        Key<SeatShard> key = SeatShard.createKey(conference.getWebsafeKey(), index);
+        SeatShard shard = ofy().load().key(key).now();
+        if (shard == null) {
+            shard = new SeatShard(conference.getWebsafeKey(), index, 0);
+        }
+        shard.giveBackSeats(1);
+        ofy().save().entity(shard).now();
+    }
+
+    /**
+     * Applies a committed change to the cached aggregate, if there is one.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param delta the change in the number of seats available.
+     */
+    public static void adjustCachedSeatsAvailable(final String websafeConferenceKey,
+                                                  final long delta) {
+        memcache().increment(aggregateKey(websafeConferenceKey), delta);
+    }
+
+    /**
+     * Records transaction retries caused by registrations to the given conference, and
+     * schedules more shards once the retries within a minute cross the threshold.
+     *
+     * @param conference the Conference the registrations went to.
+     * @param retries the number of retries observed.
+     */
+    public static void recordContention(final Conference conference, final int retries) {
+        if (retries <= 0 || conference.getSeatShardCount() >= MAX_SHARD_COUNT) {
+            return;
+        }
+        String websafeConferenceKey = conference.getWebsafeKey();
+        String contentionKey = Constants.MEMCACHE_SEAT_CONTENTION_PREFIX + websafeConferenceKey
+                + ":" + System.currentTimeMillis() / 60000;
+        Long count = memcache().increment(contentionKey, retries, 0L);
+        if (count != null && count >= CONTENTION_THRESHOLD) {
+            int shardCount = conference.isSeatSharded()
+                    ? Math.min(conference.getSeatShardCount() * 2, MAX_SHARD_COUNT)
+                    : INITIAL_SHARD_COUNT;
+            scheduleReshard(websafeConferenceKey, shardCount);
+        }
+    }
+
+    private static void scheduleReshard(final String websafeConferenceKey, final int shardCount) {
+        Queue queue = QueueFactory.getDefaultQueue();
+        try {
+            // The task name makes sure a conference is resharded to a given size only once.
+            queue.add(TaskOptions.Builder.withUrl("/tasks/reshard_seats")
+                    .taskName("reshard-" + websafeConferenceKey + "-" + shardCount)
+                    .param("websafeConferenceKey", websafeConferenceKey)
+                    .param("seatShardCount", String.valueOf(shardCount)));
+            LOG.info("Scheduled " + shardCount + " seat shards for " + websafeConferenceKey);
+        } catch (TaskAlreadyExistsException e) {
+            // Somebody else noticed the contention first.
+        }
+    }
+
+    /**
+     * Spreads the seat inventory of the given conference over the given number of shards.
+     * Does nothing when the conference already has as many shards.
+     *
+     * The new shards are created empty, then the conference switches over to them, moving its
+     * seats to the first shard when it wasn't sharded, and last each new shard takes its part
+     * of the seats of an old one. No transaction holds more than two shards.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param shardCount the number of shards, at most MAX_SHARD_COUNT.
+     */
+    public static void reshard(final String websafeConferenceKey, final int shardCount) {
+        if (shardCount <= 0 || shardCount > MAX_SHARD_COUNT) {
+            throw new IllegalArgumentException("The number of shards must be between 1 and "
+                    + MAX_SHARD_COUNT);
+        }
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null || conference.getSeatShardCount() >= shardCount) {
+            return;
+        }
+        final int oldCount = conference.getSeatShardCount();
+        for (int i = oldCount; i < shardCount; i++) {
+            createEmptyShard(websafeConferenceKey, i);
+        }
+        // A snapshot of the total, like Conference keeps it.
+        long total = 0;
+        for (SeatShard shard : loadShards(websafeConferenceKey, oldCount).values()) {
+            total += shard.getSeatsAvailable();
+        }
+        final int snapshot = (int) total;
+        Conference switched = new TransactionRunner("reshardSeats").run(new Work<Conference>() {
+            @Override
+            public Conference run() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference == null || conference.getSeatShardCount() != oldCount) {
+                    return null;
+                }
+                if (conference.isSeatSharded()) {
+                    conference.updateSeatShards(shardCount, snapshot);
+                } else {
+                    int seatsAvailable = conference.getSeatsAvailable();
+                    SeatShard first = ofy().load()
+                            .key(SeatShard.createKey(websafeConferenceKey, 0)).now();
+                    first.giveBackSeats(seatsAvailable);
+                    conference.updateSeatShards(shardCount, seatsAvailable);
+                    ofy().save().entity(first).now();
+                }
+                ofy().save().entity(conference).now();
+                return conference;
+            }
+        });
+        if (switched == null) {
+            return;
+        }
+        // A sharded conference has no ETag.
+        ETags.saved(switched);
+        // Each old shard gives an equal part of its seats to the new shards it feeds.
+        int sources = Math.max(oldCount, 1);
+        for (int i = sources; i < shardCount; i++) {
+            int parts = (shardCount - 1 - i) / sources + 2;
+            moveSeats(websafeConferenceKey, i % sources, i, parts);
+        }
+        // Stamped after its shards, so that a full sync past it doesn't list it again for them.
+        new TransactionRunner("reshardSeats").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference != null) {
+                    ofy().save().entity(conference).now();
+                }
+            }
+        });
+        memcache().delete(aggregateKey(websafeConferenceKey));
+        QueryCache.invalidate("Conference");
+    }
+
+    /**
+     * Creates a shard without seats, unless a retried reshard created it already.
+     */
+    private static void createEmptyShard(final String websafeConferenceKey, final int index) {
+        new TransactionRunner("reshardSeats").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                Key<SeatShard> key = SeatShard.createKey(websafeConferenceKey, index);
+                if (ofy().load().key(key).now() == null) {
+                    ofy().save().entity(new SeatShard(websafeConferenceKey, index, 0)).now();
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves the given part of the seats of a shard to another one, in a transaction holding
+     * the two of them.
+     */
+    private static void moveSeats(final String websafeConferenceKey, final int from,
+                                  final int to, final int parts) {
+        new TransactionRunner("reshardSeats").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                SeatShard source = ofy().load()
+                        .key(SeatShard.createKey(websafeConferenceKey, from)).now();
+                SeatShard target = ofy().load()
+                        .key(SeatShard.createKey(websafeConferenceKey, to)).now();
+                int seats = source == null ? 0 : source.getSeatsAvailable() / parts;
+                if (seats > 0 && target != null) {
+                    source.bookSeats(seats);
+                    target.giveBackSeats(seats);
+                    ofy().save().entities(source, target).now();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,100 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.Speaker;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains the Speaker index.
+ */
+public class Speakers {
+
+    /**
+     * The speaker of the sessions without one, which isn't indexed.
+     */
+    public static final String UNDEFINED_SPEAKER = "Undefined";
+
+    private Speakers() {}
+
+    /**
+     * Returns whether sessions of the given speaker are indexed by a Speaker.
+     *
+     * @param speaker the name of the speaker.
+     * @return false for the sessions without a speaker.
+     */
+    public static boolean isIndexed(final String speaker) {
+        return speaker != null && !speaker.trim().isEmpty()
+                && !Speaker.normalize(speaker).equals(Speaker.normalize(UNDEFINED_SPEAKER));
+    }
+
+    /**
+     * Adds a created session to the Speaker of its speaker. Must be called in the transaction
+     * saving the session.
+     *
+     * @param session the Session.
+     * @return the number of sessions of the speaker in the conference of the session, 0 for
+     *     the sessions without a speaker.
+     */
+    public static int putSession(final Session session) {
+        if (!isIndexed(session.getSpeaker())) {
+            return 0;
+        }
+        Speaker speaker = ofy().load().key(Speaker.createKey(session.getSpeaker())).now();
+        if (speaker == null) {
+            speaker = new Speaker(session.getSpeaker());
+        }
+        if (speaker.addSession(session)) {
+            ofy().save().entity(speaker).now();
+        }
+        return speaker.getSessionCount(session.getConferenceKey().getString());
+    }
+
+    /**
+     * Adds created sessions to the Speakers of their speakers, with a transaction per speaker.
+     * Adding a session twice changes nothing.
+     *
+     * @param sessions the Sessions.
+     */
+    public static void putSessions(final Collection<Session> sessions) {
+        Map<String, List<Session>> sessionsBySpeaker = new LinkedHashMap<>();
+        for (Session session : sessions) {
+            if (!isIndexed(session.getSpeaker())) {
+                continue;
+            }
+            String id = Speaker.normalize(session.getSpeaker());
+            List<Session> speakerSessions = sessionsBySpeaker.get(id);
+            if (speakerSessions == null) {
+                speakerSessions = new ArrayList<>();
+                sessionsBySpeaker.put(id, speakerSessions);
+            }
+            speakerSessions.add(session);
+        }
+        for (final List<Session> speakerSessions : sessionsBySpeaker.values()) {
+            new TransactionRunner("updateSpeaker").run(new VoidWork() {
+                @Override
+                public void vrun() {
+                    String name = speakerSessions.get(0).getSpeaker();
+                    Speaker speaker = ofy().load().key(Speaker.createKey(name)).now();
+                    if (speaker == null) {
+                        speaker = new Speaker(name);
+                    }
+                    boolean changed = false;
+                    for (Session session : speakerSessions) {
+                        changed |= speaker.addSession(session);
+                    }
+                    if (changed) {
+                        ofy().save().entity(speaker).now();
+                    }
+                }
+            });
+        }
+    }
+}
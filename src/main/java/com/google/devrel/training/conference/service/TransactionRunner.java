@@ -0,0 +1,126 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.googlecode.objectify.Work;
+
+import java.util.ConcurrentModificationException;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Runs Objectify transactions, retrying on contention with jittered exponential backoff.
+ *
+ * Objectify's own transact() retries optimistic concurrency failures immediately and forever.
+ * Here a failed commit is retried only while the deadline budget allows it, and anything else
+ * thrown by the Work is a business failure that is never retried.
+ *
+ * A DatastoreTimeoutException isn't retried either: it may come after the commit was applied,
+ * and running the Work again would then answer for a write that already happened, such as a
+ * registration seen as already there.
+ *
+ * Attempts, retries, aborts and timeouts are counted per endpoint in Metrics, under
+ * "transaction.{endpoint}.attempts" and so on.
+ */
+public class TransactionRunner {
+
+    private static final Logger LOG = Logger.getLogger(TransactionRunner.class.getName());
+
+    /**
+     * The default time budget of a transaction including all its retries.
+     */
+    public static final long DEFAULT_DEADLINE_MILLIS = 5000;
+
+    private static final long INITIAL_BACKOFF_MILLIS = 20;
+
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private static final Random RANDOM = new Random();
+
+    private final String endpoint;
+
+    private final long deadlineMillis;
+
+    private int attempts;
+
+    public TransactionRunner(final String endpoint) {
+        this(endpoint, DEFAULT_DEADLINE_MILLIS);
+    }
+
+    public TransactionRunner(final String endpoint, final long deadlineMillis) {
+        this.endpoint = endpoint;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Returns how many times the Work ran in the last call to run().
+     *
+     * @return the number of attempts.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Returns how many times the last call to run() had to retry because of contention.
+     *
+     * @return the number of retries.
+     */
+    public int getRetries() {
+        return Math.max(attempts - 1, 0);
+    }
+
+    private String metric(final String name) {
+        return "transaction." + endpoint + "." + name;
+    }
+
+    /**
+     * Runs the Work in a new transaction.
+     *
+     * @param work the Work to run, which must be safe to run more than once.
+     * @return the result of the Work.
+     * @throws ConcurrentModificationException when the deadline passed before the transaction
+     *     could commit.
+     * @throws DatastoreTimeoutException when the transaction timed out, and may have committed.
+     */
+    public <R> R run(final Work<R> work) {
+        long deadline = System.currentTimeMillis() + deadlineMillis;
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        attempts = 0;
+        while (true) {
+            attempts++;
+            Metrics.increment(metric("attempts"));
+            try {
+                // Objectify counts retries here, so 0 makes it try exactly once.
+                return ofy().transactNew(0, work);
+            } catch (ConcurrentModificationException e) {
+                // Full jitter, so that the competing requests don't retry in lockstep.
+                long sleep = (long) (RANDOM.nextDouble() * backoff);
+                if (System.currentTimeMillis() + sleep >= deadline) {
+                    Metrics.increment(metric("aborts"));
+                    LOG.warning(String.format("Giving up %s after %d attempts: %s",
+                            endpoint, attempts, e));
+                    throw e;
+                }
+                Metrics.increment(metric("retries"));
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    Metrics.increment(metric("aborts"));
+                    throw e;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            } catch (DatastoreTimeoutException e) {
+                Metrics.increment(metric("timeouts"));
+                LOG.warning(String.format("%s timed out after %d attempts: %s",
+                        endpoint, attempts, e));
+                throw e;
+            } catch (RuntimeException e) {
+                Metrics.increment(metric("failures"));
+                throw e;
+            }
+        }
+    }
+}
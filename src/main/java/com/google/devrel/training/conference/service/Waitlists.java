@@ -0,0 +1,212 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.List;
+
+/**
+ * Keeps the waitlists of the sold out conferences, and gives the seats freed later to the users
+ * waiting, in the order they joined.
+ *
+ * The entries are children of the Conference, so a non-sharded conference promotes the head of
+ * its waitlist in the transaction giving a seat back. When many seats free up at once, as when
+ * maxAttendees is raised, or when the seats are sharded, a task promotes the users in batches
+ * of PROMOTIONS_PER_TRANSACTION, one transaction per batch. A promoted user is registered and
+ * told by mail.
+ */
+public class Waitlists {
+
+    /**
+     * The most users promoted by a transaction, which holds the Conference and the Profile of
+     * each of them, within the limit of entity groups of a cross-group transaction.
+     */
+    static final int PROMOTIONS_PER_TRANSACTION = 4;
+
+    /**
+     * The most transactions run by a task before it chains the next one.
+     */
+    static final int TRANSACTIONS_PER_TASK = 25;
+
+    /**
+     * The most times a task comes back later when users are still waiting but none of them
+     * could be promoted, in case a seat freed meanwhile was missed.
+     */
+    static final int MAX_RETRIES = 3;
+
+    private static final long RETRY_DELAY_MILLIS = 30 * 1000;
+
+    private static final String TASK_URL = "/tasks/promote_waitlist";
+
+    private Waitlists() {}
+
+    private static TaskOptions task(final String websafeConferenceKey) {
+        return TaskOptions.Builder.withUrl(TASK_URL)
+                .param("websafeConferenceKey", websafeConferenceKey);
+    }
+
+    private static TaskOptions retryTask(final String websafeConferenceKey, final int retry) {
+        return task(websafeConferenceKey).param("retry", String.valueOf(retry))
+                .countdownMillis(RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * Adds a user to the waitlist of a conference. Must be called in a transaction.
+     *
+     * @param conference the Conference.
+     * @param userId the userId of the user.
+     * @return false when the user was already waiting.
+     */
+    public static boolean join(final Conference conference, final String userId) {
+        Key<WaitlistEntry> key = WaitlistEntry.createKey(userId, Key.create(conference));
+        if (ofy().load().key(key).now() != null) {
+            return false;
+        }
+        ofy().save().entity(new WaitlistEntry(userId, Key.create(conference))).now();
+        Metrics.increment("waitlist.joined");
+        return true;
+    }
+
+    /**
+     * Removes a user from the waitlist of a conference. Must be called in a transaction.
+     *
+     * @param conference the Conference.
+     * @param userId the userId of the user.
+     * @return false when the user wasn't waiting.
+     */
+    public static boolean leave(final Conference conference, final String userId) {
+        Key<WaitlistEntry> key = WaitlistEntry.createKey(userId, Key.create(conference));
+        if (ofy().load().key(key).now() == null) {
+            return false;
+        }
+        ofy().delete().key(key).now();
+        return true;
+    }
+
+    /**
+     * Returns whether users are waiting for a seat of a conference.
+     *
+     * @param conference the Conference.
+     * @return true when its waitlist isn't empty.
+     */
+    public static boolean hasWaiting(final Conference conference) {
+        return ofy().load().type(WaitlistEntry.class).ancestor(conference).keys().first()
+                .now() != null;
+    }
+
+    /**
+     * Gives the seats available to the users at the head of the waitlist. Must be called in a
+     * transaction, which saves the Conference when it isn't sharded.
+     *
+     * @param conference the Conference.
+     * @param max the most users promoted, each adding the entity group of its Profile to the
+     *     transaction.
+     * @return the number of seats booked for the users promoted.
+     */
+    public static int promote(final Conference conference, final int max) {
+        int limit = conference.isSeatSharded() ? max
+                : Math.min(max, conference.getSeatsAvailable());
+        if (limit <= 0) {
+            return 0;
+        }
+        List<WaitlistEntry> entries = ofy().load().type(WaitlistEntry.class)
+                .ancestor(conference).order("joined").limit(limit).list();
+        int promoted = 0;
+        for (WaitlistEntry entry : entries) {
+            String userId = entry.getUserId();
+            Key<Registration> registrationKey =
+                    Registration.createKey(userId, conference.getWebsafeKey());
+            if (ofy().load().key(registrationKey).now() == null) {
+                if (conference.isSeatSharded()) {
+                    if (!SeatInventory.bookSeat(conference)) {
+                        break;
+                    }
+                } else {
+                    conference.bookSeats(1);
+                }
+                ofy().save().entity(new Registration(userId, conference.getWebsafeKey()))
+                        .now();
+                Mailer.enqueue(userId, MailKind.WAITLIST_PROMOTED, conference.getWebsafeKey());
+                promoted++;
+            }
+            ofy().delete().entity(entry).now();
+        }
+        Metrics.increment("waitlist.promoted", promoted);
+        return promoted;
+    }
+
+    /**
+     * Enqueues the task promoting the users waiting for the seats of a conference. Must be
+     * called in a transaction freeing seats.
+     *
+     * @param conference the Conference.
+     */
+    public static void schedule(final Conference conference) {
+        QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                task(conference.getWebsafeKey()));
+    }
+
+    /**
+     * Promotes the users waiting while a conference has seats available, a batch per
+     * transaction, and keeps the bookkeeping of the seats up to date after each of them.
+     *
+     * When users are still waiting but none could be promoted, the task comes back later, up to
+     * MAX_RETRIES times.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param retry how many times the task came back so far.
+     */
+    public static void promoteAll(final String websafeConferenceKey, final int retry) {
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        for (int i = 0; i < TRANSACTIONS_PER_TASK; i++) {
+            final int[] promoted = new int[1];
+            Conference conference = new TransactionRunner("promoteWaitlist")
+                    .run(new Work<Conference>() {
+                @Override
+                public Conference run() {
+                    Conference conference = ofy().load().key(conferenceKey).now();
+                    if (conference == null) {
+                        return null;
+                    }
+                    // A booking from the shards adds one of them to the transaction, so one
+                    // user at a time.
+                    promoted[0] = promote(conference, conference.isSeatSharded()
+                            ? 1 : PROMOTIONS_PER_TRANSACTION);
+                    if (promoted[0] > 0 && !conference.isSeatSharded()) {
+                        ofy().save().entity(conference).now();
+                    }
+                    return conference;
+                }
+            });
+            if (conference == null) {
+                return;
+            }
+            if (promoted[0] == 0) {
+                if (retry < MAX_RETRIES && hasWaiting(conference)) {
+                    QueueFactory.getDefaultQueue().add(retryTask(websafeConferenceKey, retry + 1));
+                }
+                return;
+            }
+            if (conference.isSeatSharded()) {
+                SeatInventory.adjustCachedSeatsAvailable(websafeConferenceKey, -promoted[0]);
+                SeatInventory.resolveSeatsAvailable(conference);
+            } else {
+                ETags.saved(conference);
+            }
+            // Like a registration, this leaves the cached conference queries valid.
+            int seatsAvailable = conference.getSeatsAvailable();
+            NearlySoldOutTracker.onSeatsChanged(conferenceKey, seatsAvailable + promoted[0],
+                    seatsAvailable);
+            FacetCounters.onSeatsChanged(seatsAvailable + promoted[0], seatsAvailable);
+        }
+        // Many users are waiting, and maybe as many seats.
+        QueueFactory.getDefaultQueue().add(task(websafeConferenceKey));
+    }
+}
@@ -0,0 +1,188 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.ScheduleConflict;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.WishlistSchedule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Finds the overlaps between the sessions of a wishlist and builds the best schedule out of
+ * them.
+ *
+ * A session runs from its date, which includes its start time, for its duration. Both the
+ * conflicts and the schedule are computed from the sessions sorted once, in O(n log n): the
+ * conflicts by sweeping them in the order of their start, and the schedule by weighted interval
+ * scheduling over them in the order of their end.
+ */
+public class WishlistSchedules {
+
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+
+    private WishlistSchedules() {}
+
+    /**
+     * A session with its start and end in milliseconds.
+     */
+    private static class Interval {
+        private final Session session;
+
+        private final long start;
+
+        private final long end;
+
+        Interval(Session session) {
+            this.session = session;
+            this.start = session.getDate().getTime();
+            this.end = start + session.getDuration() * MINUTE_MILLIS;
+        }
+    }
+
+    private static final Comparator<Interval> BY_START = new Comparator<Interval>() {
+        @Override
+        public int compare(Interval a, Interval b) {
+            int result = Long.compare(a.start, b.start);
+            return result != 0 ? result : Long.compare(a.end, b.end);
+        }
+    };
+
+    private static final Comparator<Interval> BY_END = new Comparator<Interval>() {
+        @Override
+        public int compare(Interval a, Interval b) {
+            int result = Long.compare(a.end, b.end);
+            return result != 0 ? result : Long.compare(a.start, b.start);
+        }
+    };
+
+    /**
+     * Returns the conflicts between the given sessions and the best schedule of them.
+     *
+     * @param sessions the sessions of the wishlist.
+     * @return the WishlistSchedule.
+     */
+    public static WishlistSchedule build(final Collection<Session> sessions) {
+        List<Interval> intervals = new ArrayList<>(sessions.size());
+        List<Session> unscheduled = new ArrayList<>();
+        for (Session session : sessions) {
+            if (session.getDate() == null) {
+                unscheduled.add(session);
+            } else {
+                intervals.add(new Interval(session));
+            }
+        }
+        List<ScheduleConflict> conflicts = conflicts(intervals);
+        List<Interval> schedule = schedule(intervals);
+        List<Session> scheduled = new ArrayList<>(schedule.size());
+        int minutes = 0;
+        for (Interval interval : schedule) {
+            scheduled.add(interval.session);
+            minutes += interval.session.getDuration();
+        }
+        return new WishlistSchedule(conflicts, scheduled, minutes, unscheduled);
+    }
+
+    /**
+     * Groups the sessions overlapping each other. In the order of their start, a session
+     * overlaps the group before it when it starts before the latest end in the group.
+     */
+    private static List<ScheduleConflict> conflicts(final List<Interval> intervals) {
+        List<Interval> sorted = new ArrayList<>(intervals);
+        Collections.sort(sorted, BY_START);
+        List<ScheduleConflict> conflicts = new ArrayList<>();
+        List<Interval> group = new ArrayList<>();
+        long groupEnd = Long.MIN_VALUE;
+        for (Interval interval : sorted) {
+            if (!group.isEmpty() && interval.start >= groupEnd) {
+                addConflict(conflicts, group, groupEnd);
+                group = new ArrayList<>();
+            }
+            group.add(interval);
+            groupEnd = group.size() == 1 ? interval.end : Math.max(groupEnd, interval.end);
+        }
+        addConflict(conflicts, group, groupEnd);
+        return conflicts;
+    }
+
+    private static void addConflict(final List<ScheduleConflict> conflicts,
+                                    final List<Interval> group, final long groupEnd) {
+        if (group.size() < 2) {
+            return;
+        }
+        List<Session> sessions = new ArrayList<>(group.size());
+        for (Interval interval : group) {
+            sessions.add(interval.session);
+        }
+        conflicts.add(new ScheduleConflict(new Date(group.get(0).start), new Date(groupEnd),
+                sessions));
+    }
+
+    /**
+     * Picks the non-overlapping sessions with the most minutes, then the most sessions.
+     *
+     * With the sessions sorted by end, best[j] is the best schedule of the first j sessions: it
+     * either skips session j - 1, or takes it after the best schedule of the sessions ending
+     * before it starts, found by binary search.
+     */
+    private static List<Interval> schedule(final List<Interval> intervals) {
+        List<Interval> sorted = new ArrayList<>(intervals);
+        Collections.sort(sorted, BY_END);
+        int n = sorted.size();
+        long[] ends = new long[n];
+        for (int i = 0; i < n; i++) {
+            ends[i] = sorted.get(i).end;
+        }
+        long[] minutes = new long[n + 1];
+        int[] counts = new int[n + 1];
+        int[] previous = new int[n + 1];
+        boolean[] taken = new boolean[n + 1];
+        for (int j = 1; j <= n; j++) {
+            Interval interval = sorted.get(j - 1);
+            int p = countEndingBy(ends, j - 1, interval.start);
+            long takeMinutes = minutes[p] + interval.session.getDuration();
+            int takeCount = counts[p] + 1;
+            if (takeMinutes > minutes[j - 1]
+                    || (takeMinutes == minutes[j - 1] && takeCount > counts[j - 1])) {
+                minutes[j] = takeMinutes;
+                counts[j] = takeCount;
+                previous[j] = p;
+                taken[j] = true;
+            } else {
+                minutes[j] = minutes[j - 1];
+                counts[j] = counts[j - 1];
+            }
+        }
+        List<Interval> schedule = new ArrayList<>(counts[n]);
+        for (int j = n; j > 0; ) {
+            if (taken[j]) {
+                schedule.add(sorted.get(j - 1));
+                j = previous[j];
+            } else {
+                j--;
+            }
+        }
+        Collections.reverse(schedule);
+        return schedule;
+    }
+
+    /**
+     * Returns the number of the first limit ends which are at most the given time.
+     */
+    private static int countEndingBy(final long[] ends, final int limit, final long time) {
+        int low = 0;
+        int high = limit;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ends[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,84 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SearchDocument;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.service.Autocomplete;
+import com.google.devrel.training.conference.service.SearchIndex;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for building the SearchDocuments and the autocomplete prefixes of the conferences and
+ * sessions created before them.
+ *
+ * Each run indexes one batch of conferences, then of sessions, and chains a task for the next
+ * batch, so the job can be started by visiting /tasks/build_search_index as an admin.
+ */
+@SuppressWarnings("serial")
+public class BuildSearchIndexServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(BuildSearchIndexServlet.class.getName());
+
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        boolean sessions = "Session".equals(request.getParameter("kind"));
+        Query<?> query = ofy().load().type(sessions ? Session.class : Conference.class)
+                .limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<?> iterator = query.iterator();
+        List<SearchDocument> documents = new ArrayList<>(BATCH_SIZE);
+        while (iterator.hasNext()) {
+            Object entity = iterator.next();
+            if (sessions) {
+                documents.add(SearchIndex.document((Session) entity));
+                Autocomplete.put((Session) entity);
+            } else {
+                documents.add(SearchIndex.document((Conference) entity));
+                Autocomplete.put((Conference) entity);
+            }
+        }
+        ofy().save().entities(documents).now();
+        LOG.info("Indexed " + documents.size() + (sessions ? " sessions" : " conferences"));
+        TaskOptions next = null;
+        if (documents.size() == BATCH_SIZE) {
+            next = TaskOptions.Builder.withUrl("/tasks/build_search_index")
+                    .param("kind", sessions ? "Session" : "Conference")
+                    .param("cursor", iterator.getCursor().toWebSafeString());
+        } else if (!sessions) {
+            next = TaskOptions.Builder.withUrl("/tasks/build_search_index")
+                    .param("kind", "Session");
+        }
+        if (next != null) {
+            QueueFactory.getDefaultQueue().add(next);
+        }
+        response.setStatus(204);
+    }
+}
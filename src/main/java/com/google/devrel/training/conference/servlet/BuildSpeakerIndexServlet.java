@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.service.Speakers;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for adding the sessions created before the Speaker index to the Speakers of their
+ * speakers, since a speaker with a Speaker is only looked up through it.
+ *
+ * Each run indexes one batch of sessions and chains a task for the next batch, so the job can
+ * be started by visiting /tasks/build_speaker_index as an admin. Indexing a session twice
+ * changes nothing.
+ */
+@SuppressWarnings("serial")
+public class BuildSpeakerIndexServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(BuildSpeakerIndexServlet.class.getName());
+
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Query<Session> query = ofy().load().type(Session.class).limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Session> iterator = query.iterator();
+        List<Session> sessions = new ArrayList<>(BATCH_SIZE);
+        while (iterator.hasNext()) {
+            sessions.add(iterator.next());
+        }
+        Speakers.putSessions(sessions);
+        LOG.info("Indexed the speakers of " + sessions.size() + " sessions");
+        if (sessions.size() == BATCH_SIZE) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/build_speaker_index")
+                            .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,81 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.ExportJob;
+import com.google.devrel.training.conference.domain.ExportJob.Status;
+import com.google.devrel.training.conference.service.CatalogExport;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for starting exports and downloading them.
+ *
+ * A POST starts an export, of the entities saved after the since parameter when it is given as
+ * yyyy-MM-dd'T'HH:mm:ss.SSS'Z', and prints its id. A GET with the exportId parameter returns
+ * the newline-delimited JSON once the export is done, and its progress with a 202 before.
+ */
+@SuppressWarnings("serial")
+public class ExportAdminServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Date since = null;
+        String sinceParameter = request.getParameter("since");
+        if (sinceParameter != null && !sinceParameter.isEmpty()) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            dateFormat.setLenient(false);
+            try {
+                since = dateFormat.parse(sinceParameter);
+            } catch (ParseException e) {
+                response.sendError(400, "Invalid since: " + sinceParameter);
+                return;
+            }
+        }
+        ExportJob job = CatalogExport.start(since);
+        response.setContentType("text/plain");
+        response.getWriter().println(job.getId());
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        ExportJob job = null;
+        try {
+            job = ofy().load().key(
+                    ExportJob.createKey(Long.parseLong(request.getParameter("exportId")))).now();
+        } catch (NumberFormatException e) {
+            // Handled below.
+        }
+        if (job == null) {
+            response.sendError(404, "No export " + request.getParameter("exportId"));
+            return;
+        }
+        if (job.getStatus() != Status.DONE) {
+            response.setStatus(202);
+            response.setContentType("text/plain");
+            PrintWriter writer = response.getWriter();
+            writer.println("parts " + job.getParts().size());
+            for (Map.Entry<String, Integer> entry : job.getCounts().entrySet()) {
+                writer.println(entry.getKey() + " " + entry.getValue());
+            }
+            return;
+        }
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        CatalogExport.copyTo(job, response.getOutputStream());
+    }
+}
@@ -0,0 +1,25 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.CatalogExport;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for writing a part of an export.
+ */
+@SuppressWarnings("serial")
+public class ExportServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        CatalogExport.exportPart(Long.parseLong(request.getParameter("exportId")),
+                Integer.parseInt(request.getParameter("part")));
+        response.setStatus(204);
+    }
+}
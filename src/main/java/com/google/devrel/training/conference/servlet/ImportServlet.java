@@ -0,0 +1,33 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.BulkImport;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for running a step of a bulk import: importing a chunk, or the final pass when
+ * there is no chunk parameter.
+ */
+@SuppressWarnings("serial")
+public class ImportServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        long importId = Long.parseLong(request.getParameter("importId"));
+        String chunk = request.getParameter("chunk");
+        String finishChunk = request.getParameter("finishChunk");
+        if (chunk != null) {
+            BulkImport.importChunk(importId, Integer.parseInt(chunk));
+        } else {
+            // The tasks enqueued before the finish was chunked have no index, and start at 0.
+            BulkImport.finish(importId, finishChunk == null ? 0 : Integer.parseInt(finishChunk));
+        }
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,29 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for dumping the counters of the serving instance as plain text.
+ */
+@SuppressWarnings("serial")
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain");
+        PrintWriter writer = response.getWriter();
+        for (Map.Entry<String, Long> entry : Metrics.snapshot().entrySet()) {
+            writer.println(entry.getKey() + " " + entry.getValue());
+        }
+    }
+}
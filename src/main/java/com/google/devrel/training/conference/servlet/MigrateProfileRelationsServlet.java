@@ -0,0 +1,83 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.service.ProfileRelations;
+import com.google.devrel.training.conference.service.TransactionRunner;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for moving the registrations and wishlists stored in Profile lists into
+ * Registration and WishlistEntry children.
+ *
+ * Each run converts one batch of profiles and chains a task for the next batch, so the job can
+ * be started by visiting /tasks/migrate_profile_relations as an admin.
+ */
+@SuppressWarnings("serial")
+public class MigrateProfileRelationsServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(
+            MigrateProfileRelationsServlet.class.getName());
+
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Query<Profile> query = ofy().load().type(Profile.class).limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Profile> iterator = query.iterator();
+        int count = 0;
+        int migrated = 0;
+        while (iterator.hasNext()) {
+            Profile profile = iterator.next();
+            count++;
+            if (profile.hasLegacyRelations()) {
+                migrate(profile.getUserId());
+                migrated++;
+            }
+        }
+        LOG.info("Migrated " + migrated + " of " + count + " profiles");
+        if (count == BATCH_SIZE) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/migrate_profile_relations")
+                            .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+        response.setStatus(204);
+    }
+
+    /**
+     * Moves the lists of a single profile into children, in one transaction on its entity group.
+     */
+    private static void migrate(final String userId) {
+        new TransactionRunner("migrateProfileRelations").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                ProfileRelations.migrate(userId);
+            }
+        });
+    }
+}
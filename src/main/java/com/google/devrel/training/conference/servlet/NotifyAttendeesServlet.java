@@ -0,0 +1,36 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.AttendeeNotifications;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for notifying the attendees of a changed conference, run by the tasks of
+ * AttendeeNotifications: the tasks carrying userIds notify a shard, and the others plan the
+ * next shards.
+ */
+@SuppressWarnings("serial")
+public class NotifyAttendeesServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String websafeConferenceKey = request.getParameter("websafeConferenceKey");
+        long generation = Long.parseLong(request.getParameter("generation"));
+        int shard = Integer.parseInt(request.getParameter("shard"));
+        String[] userIds = request.getParameterValues("userId");
+        if (userIds == null) {
+            AttendeeNotifications.plan(websafeConferenceKey, generation, shard);
+        } else {
+            AttendeeNotifications.notifyShard(websafeConferenceKey, generation, shard,
+                    Arrays.asList(userIds));
+        }
+        response.setStatus(204);
+    }
+}
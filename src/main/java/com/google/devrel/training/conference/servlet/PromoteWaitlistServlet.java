@@ -0,0 +1,26 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Waitlists;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for giving the seats freed in a conference to the users on its waitlist.
+ */
+@SuppressWarnings("serial")
+public class PromoteWaitlistServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String retry = request.getParameter("retry");
+        Waitlists.promoteAll(request.getParameter("websafeConferenceKey"),
+                retry == null ? 0 : Integer.parseInt(retry));
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,38 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.service.FacetCounters;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for recounting the ConferenceFacets from all the conferences, which can be started
+ * by visiting /tasks/rebuild_conference_facets as an admin.
+ */
+@SuppressWarnings("serial")
+public class RebuildConferenceFacetsServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(
+            RebuildConferenceFacetsServlet.class.getName());
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        ConferenceFacets facets = FacetCounters.rebuild();
+        LOG.info("Counted " + (facets.getWithSeatsAvailable() + facets.getSoldOut())
+                + " conferences");
+        response.setStatus(204);
+    }
+}
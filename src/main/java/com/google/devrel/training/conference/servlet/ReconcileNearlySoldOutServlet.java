@@ -0,0 +1,85 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
+import com.google.devrel.training.conference.service.NearlySoldOutTracker;
+import com.google.devrel.training.conference.service.SeatInventory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for adding the nearly sold out conferences missing from the NearlySoldOut set,
+ * one batch per task.
+ *
+ * The unsharded conferences are found by their seatsAvailable property. The sharded ones keep
+ * their seats in SeatShards, so they are scanned afterwards and their seats summed up.
+ */
+@SuppressWarnings("serial")
+public class ReconcileNearlySoldOutServlet extends HttpServlet {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        boolean sharded = Boolean.parseBoolean(request.getParameter("sharded"));
+        Query<Conference> query = ofy().load().type(Conference.class).hybrid(false);
+        if (sharded) {
+            query = query.filter("seatShardCount >", 0);
+        } else {
+            query = query.filter("seatsAvailable >", 0)
+                    .filter("seatsAvailable <", NearlySoldOut.THRESHOLD);
+        }
+        query = query.limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Conference> iterator = query.iterator();
+        List<Key<Conference>> nearlySoldOut = new ArrayList<>();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Conference conference = iterator.next();
+            count++;
+            // The seatsAvailable property of a sharded conference is out of date, so it only
+            // counts in the pass over the sharded ones, with the total of its shards.
+            if (conference.isSeatSharded() != sharded) {
+                continue;
+            }
+            SeatInventory.resolveSeatsAvailable(conference);
+            if (NearlySoldOut.isNearlySoldOut(conference.getSeatsAvailable())) {
+                nearlySoldOut.add(Key.create(conference));
+            }
+        }
+        NearlySoldOutTracker.update(nearlySoldOut,
+                Collections.<Key<Conference>>emptyList());
+
+        if (count == BATCH_SIZE) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/reconcile_nearly_sold_out")
+                            .param("sharded", String.valueOf(sharded))
+                            .param("cursor", iterator.getCursor().toWebSafeString()));
+        } else if (!sharded) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/reconcile_nearly_sold_out")
+                            .param("sharded", "true"));
+        }
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,26 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ConferenceRenames;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for copying the new name of a conference onto its sessions and its agenda, one
+ * batch of sessions per task.
+ */
+@SuppressWarnings("serial")
+public class RenameConferenceServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        ConferenceRenames.update(request.getParameter("websafeConferenceKey"),
+                request.getParameter("cursor"));
+        response.setStatus(204);
+    }
+}
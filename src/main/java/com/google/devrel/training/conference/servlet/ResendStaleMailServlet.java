@@ -0,0 +1,25 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Mailer;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for enqueuing again the mails whose task the mail queue dropped after it failed for
+ * longer than its age limit, run by the cron.
+ */
+@SuppressWarnings("serial")
+public class ResendStaleMailServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Mailer.rescheduleStale();
+        response.setStatus(204);
+    }
+}
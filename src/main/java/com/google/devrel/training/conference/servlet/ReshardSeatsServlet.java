@@ -0,0 +1,26 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.SeatInventory;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for spreading the seat inventory of a contended conference over more shards.
+ */
+@SuppressWarnings("serial")
+public class ReshardSeatsServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String websafeConferenceKey = request.getParameter("websafeConferenceKey");
+        int seatShardCount = Integer.parseInt(request.getParameter("seatShardCount"));
+        SeatInventory.reshard(websafeConferenceKey, seatShardCount);
+        response.setStatus(204);
+    }
+}
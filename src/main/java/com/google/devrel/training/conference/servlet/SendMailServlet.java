@@ -0,0 +1,38 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Mailer;
+import com.google.devrel.training.conference.service.Metrics;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.mail.MessagingException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for sending the mails waiting in the Outbox of a user, run by the tasks of the mail
+ * queue. A failed send answers 503, so that the queue retries it with backoff.
+ */
+@SuppressWarnings("serial")
+public class SendMailServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(SendMailServlet.class.getName());
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String userId = request.getParameter("userId");
+        try {
+            Mailer.deliver(userId);
+        } catch (MessagingException e) {
+            LOG.warning("Failed to send the mails to " + userId + ": " + e.getMessage());
+            Metrics.increment("mail.failed");
+            response.setStatus(503);
+            return;
+        }
+        response.setStatus(204);
+    }
+}
@@ -1,16 +1,10 @@
 package com.google.devrel.training.conference.servlet;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
-import com.google.common.base.Joiner;
-import com.google.devrel.training.conference.Constants;
-import com.google.devrel.training.conference.domain.Conference;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.service.NearlySoldOutTracker;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -18,9 +12,12 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
- * A servlet for putting announcements in memcache.
- * The announcement announces conferences that are nearly sold out
- * (defined as having 1 - 5 seats left)
+ * A servlet for reconciling the announcement of nearly sold out conferences
+ * (defined as having 1 - 4 seats left).
+ *
+ * Registrations keep the NearlySoldOut set up to date as they happen, so this only repairs
+ * drift: it drops the conferences that left the set and starts the
+ * ReconcileNearlySoldOutServlet tasks that scan for the ones missing from it.
  */
 @SuppressWarnings("serial")
 public class SetAnnouncementServlet extends HttpServlet {
@@ -28,36 +25,9 @@ public class SetAnnouncementServlet extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
-
-        // Query for conferences with less than 5 seats left
-        Iterable<Conference> iterable = ofy().load().type(Conference.class)
-                .filter("seatsAvailable <", 5)
-                .filter("seatsAvailable >", 0);
-
-        // Iterate over the conferences with less than 5 seats less
-        // and get the name of each one
-        List<String> conferenceNames = new ArrayList<>(0);
-        for (Conference conference : iterable) {
-            conferenceNames.add(conference.getName());
-        }
-        if (conferenceNames.size() > 0) {
-
-            // Build a String that announces the nearly sold-out conferences
-            StringBuilder announcementStringBuilder = new StringBuilder(
-                    "Last chance to attend! The following conferences are nearly sold out: ");
-            Joiner joiner = Joiner.on(", ").skipNulls();
-            announcementStringBuilder.append(joiner.join(conferenceNames));
-
-            // Get the Memcache Service
-            MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-
-            // Put the announcement String in memcache,
-            // keyed by Constants.MEMCACHE_ANNOUNCEMENTS_KEY
-            String announcementKey = Constants.MEMCACHE_ANNOUNCEMENTS_KEY;
-            String announcementText = announcementStringBuilder.toString();
-
-            memcacheService.put(announcementKey, announcementText);
-        }
+        NearlySoldOutTracker.removeStale();
+        QueueFactory.getDefaultQueue().add(
+                TaskOptions.Builder.withUrl("/tasks/reconcile_nearly_sold_out"));
 
         // Set the response status to 204 which means
         // the request was successful but there's no data to send back
@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.FeaturedSpeakers;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for recomputing the featured speaker of a conference after sessions were created.
+ */
+@SuppressWarnings("serial")
+public class SetFeaturedSpeakerServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        FeaturedSpeakers.recompute(request.getParameter("websafeConferenceKey"));
+        response.setStatus(204);
+    }
+}
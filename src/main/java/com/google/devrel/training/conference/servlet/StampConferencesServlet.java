@@ -0,0 +1,81 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.ETags;
+import com.google.devrel.training.conference.service.TransactionRunner;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for saving again the conferences saved before their version was indexed, so that
+ * the clients syncing the conferences get them.
+ *
+ * Each run saves one batch of conferences, each in a transaction of its own so that no
+ * registration is lost, and chains a task for the next batch, so the job can be started by
+ * visiting /tasks/stamp_conferences as an admin.
+ */
+@SuppressWarnings("serial")
+public class StampConferencesServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(StampConferencesServlet.class.getName());
+
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Query<Conference> query = ofy().load().type(Conference.class).limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<Conference>> iterator = query.keys().iterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            final Key<Conference> conferenceKey = iterator.next();
+            Conference conference = new TransactionRunner("stampConference").run(
+                    new Work<Conference>() {
+                @Override
+                public Conference run() {
+                    Conference conference = ofy().load().key(conferenceKey).now();
+                    if (conference != null) {
+                        ofy().save().entity(conference).now();
+                    }
+                    return conference;
+                }
+            });
+            if (conference != null) {
+                ETags.saved(conference);
+            }
+            count++;
+        }
+        LOG.info("Stamped " + count + " conferences");
+        if (count == BATCH_SIZE) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/stamp_conferences")
+                            .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+        response.setStatus(204);
+    }
+}
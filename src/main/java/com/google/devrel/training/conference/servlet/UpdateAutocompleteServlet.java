@@ -0,0 +1,49 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.service.Autocomplete;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for adding the values of a created Conference or Session to the autocomplete
+ * prefixes, after removing the "removed" values a Conference lost when it was updated or
+ * deleted. A deleted Conference only has its values removed.
+ */
+@SuppressWarnings("serial")
+public class UpdateAutocompleteServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String[] removed = request.getParameterValues("removed");
+        if (removed != null) {
+            Multimap<String, String> values = LinkedHashMultimap.create();
+            for (String fieldAndValue : removed) {
+                String[] parts = fieldAndValue.split(":", 2);
+                values.put(parts[0], parts[1]);
+            }
+            // First, so that a value the conference only changed the case of is added back.
+            Autocomplete.removeUnused(values);
+        }
+        Key<Object> key = Key.create(request.getParameter("websafeKey"));
+        Object entity = ofy().load().key(key).now();
+        if (entity instanceof Conference) {
+            Autocomplete.put((Conference) entity);
+        } else if (entity instanceof Session) {
+            Autocomplete.put((Session) entity);
+        }
+        response.setStatus(204);
+    }
+}
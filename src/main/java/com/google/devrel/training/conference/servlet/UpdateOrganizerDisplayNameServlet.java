@@ -0,0 +1,85 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.service.ETags;
+import com.google.devrel.training.conference.service.QueryCache;
+import com.google.devrel.training.conference.service.TransactionRunner;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for copying the display name of an organizer onto his/her conferences.
+ *
+ * Each run updates one batch of conferences and chains a task for the next batch.
+ */
+@SuppressWarnings("serial")
+public class UpdateOrganizerDisplayNameServlet extends HttpServlet {
+
+    private static final int BATCH_SIZE = 50;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        final String userId = request.getParameter("userId");
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        Query<Conference> query = ofy().load().type(Conference.class).ancestor(profileKey)
+                .limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<Conference>> iterator = query.keys().iterator();
+        final List<Key<Conference>> conferenceKeys = new ArrayList<>(BATCH_SIZE);
+        while (iterator.hasNext()) {
+            conferenceKeys.add(iterator.next());
+        }
+
+        // The conferences share the organizer's entity group, so one transaction covers the
+        // batch without overwriting concurrent seat changes.
+        List<Conference> updated = new TransactionRunner("updateOrganizerDisplayName").run(
+                new Work<List<Conference>>() {
+            @Override
+            public List<Conference> run() {
+                Profile profile = ofy().load().key(profileKey).now();
+                if (profile == null) {
+                    return Collections.emptyList();
+                }
+                List<Conference> conferences = new ArrayList<>(
+                        ofy().load().keys(conferenceKeys).values());
+                for (Conference conference : conferences) {
+                    conference.updateOrganizerDisplayName(profile.getDisplayName());
+                }
+                ofy().save().entities(conferences).now();
+                return conferences;
+            }
+        });
+        ETags.saved(updated);
+        QueryCache.invalidate("Conference");
+
+        if (conferenceKeys.size() == BATCH_SIZE) {
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/update_organizer_display_name")
+                            .param("userId", userId)
+                            .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+        response.setStatus(204);
+    }
+}
@@ -3,37 +3,92 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static com.google.devrel.training.conference.service.OfyService.factory;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
 
 import javax.inject.Named;
+import javax.servlet.http.HttpServletRequest;
 
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.api.server.spi.response.UnauthorizedException;
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.users.User;
-import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.collect.Multimap;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Announcement;
+import com.google.devrel.training.conference.domain.Agenda;
+import com.google.devrel.training.conference.domain.ConferenceChanges;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.ConferenceNotification;
+import com.google.devrel.training.conference.domain.ConferenceTombstone;
+import com.google.devrel.training.conference.domain.FeaturedSpeaker;
+import com.google.devrel.training.conference.domain.ImportJob;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.QueryPlan;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.SearchResult;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.google.devrel.training.conference.domain.WishlistEntry;
+import com.google.devrel.training.conference.domain.WishlistSchedule;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ETaggedCollection;
 import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.Speaker;
+import com.google.devrel.training.conference.domain.Suggestion;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ImportForm;
 import com.google.devrel.training.conference.form.SessionForm;
 import com.google.devrel.training.conference.form.SessionQueryForm;
+import com.google.devrel.training.conference.service.Agendas;
+import com.google.devrel.training.conference.service.AttendeeNotifications;
+import com.google.devrel.training.conference.service.Autocomplete;
+import com.google.devrel.training.conference.service.BulkImport;
+import com.google.devrel.training.conference.service.ConferenceRenames;
+import com.google.devrel.training.conference.service.ConferenceSync;
+import com.google.devrel.training.conference.service.ETags;
+import com.google.devrel.training.conference.service.FacetCounters;
+import com.google.devrel.training.conference.service.FeaturedSpeakers;
+import com.google.devrel.training.conference.service.LocalCache;
+import com.google.devrel.training.conference.service.MailKind;
+import com.google.devrel.training.conference.service.Mailer;
+import com.google.devrel.training.conference.service.Metrics;
+import com.google.devrel.training.conference.service.NearlySoldOutTracker;
+import com.google.devrel.training.conference.service.Paging;
+import com.google.devrel.training.conference.service.ProfileRelations;
+import com.google.devrel.training.conference.service.QueryCache;
+import com.google.devrel.training.conference.service.RateLimiter;
+import com.google.devrel.training.conference.service.SearchIndex;
+import com.google.devrel.training.conference.service.SeatInventory;
+import com.google.devrel.training.conference.service.Speakers;
+import com.google.devrel.training.conference.service.TransactionRunner;
+import com.google.devrel.training.conference.service.Waitlists;
+import com.google.devrel.training.conference.service.WishlistSchedules;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
@@ -51,6 +106,30 @@ import com.googlecode.objectify.cmd.Query;
      description = "API for the Conference Central Backend application.")
 public class ConferenceApi {
 
+    /**
+     * Holds the announcements read on every page load, for a few seconds.
+     */
+    private static final LocalCache ANNOUNCEMENTS = new LocalCache("announcements", 16, 5000);
+
+    /**
+     * Whether the writes are rate limited. The system property conference.rateLimits set to
+     * off disables the limits, for instance in the tests, which write in quick succession.
+     */
+    private static volatile boolean rateLimited =
+            !"off".equals(System.getProperty("conference.rateLimits"));
+
+    /**
+     * Admits 10 writes per user every 10 seconds.
+     */
+    private static final RateLimiter USER_WRITES =
+            new RateLimiter("userWrites", 10, 10000, 10000);
+
+    /**
+     * Admits 50 writes per conference every second, from all of its users.
+     */
+    private static final RateLimiter CONFERENCE_WRITES =
+            new RateLimiter("conferenceWrites", 50, 1000, 1000);
+
     /*
      * Get the display name from the user's email. For example, if the email is
      * lemoncake@example.com, then the display name becomes "lemoncake."
@@ -70,13 +149,17 @@ public class ConferenceApi {
      * @return Profile object just created.
      * @throws UnauthorizedException
      *             when the User object is null.
+     * @throws TooManyRequestsException
+     *             when the user sent too many writes.
      */
 
     @ApiMethod(name = "saveProfile", path = "profile", httpMethod = HttpMethod.POST)
-    public Profile saveProfile(final User user, ProfileForm profileForm) throws UnauthorizedException {
+    public Profile saveProfile(final User user, ProfileForm profileForm)
+            throws UnauthorizedException, TooManyRequestsException {
         if (user == null) {
         	throw new UnauthorizedException("Authorization required");
         }
+        admit(user, null);
 
         TeeShirtSize teeShirtSize = profileForm.getTeeShirtSize();
 
@@ -86,6 +169,7 @@ public class ConferenceApi {
         String userId = user.getUserId();
 
         Profile profile = getProfile(user); 
+        String oldDisplayName = profile == null ? null : profile.getDisplayName();
         
         if (profile == null) {
         	if (displayName == null) {
@@ -100,6 +184,13 @@ public class ConferenceApi {
          
         ofy().save().entity(profile).now();
 
+        if (oldDisplayName != null && !oldDisplayName.equals(profile.getDisplayName())) {
+            // Copy the new name onto the user's conferences in the background.
+            QueueFactory.getDefaultQueue().add(
+                    TaskOptions.Builder.withUrl("/tasks/update_organizer_display_name")
+                            .param("userId", userId));
+        }
+
         return profile;
     }
 
@@ -143,6 +234,76 @@ public class ConferenceApi {
         return profile;
     }
 
+    /**
+     * Saves a default Profile for the user when there is none yet, so that registrations and
+     * wishlist entries always belong to a Profile. Must be called in a transaction.
+     *
+     * @param user the User whose Profile is checked.
+     */
+    private static void saveProfileIfAbsent(User user) {
+        Key<Profile> profileKey = Key.create(Profile.class, user.getUserId());
+        if (ofy().load().key(profileKey).now() == null) {
+            ofy().save().entity(getProfileFromUser(user)).now();
+        }
+    }
+
+    /**
+     * Runs the Work in a transaction, turning a contention failure that outlived the retries
+     * into a 503, so that the client knows it is safe to try again. A timeout is a 503 too, but
+     * the write may have been applied, so the client should check before trying again.
+     *
+     * @param runner the TransactionRunner of the calling endpoint.
+     * @param work the Work to run.
+     * @return the result of the Work.
+     * @throws ServiceUnavailableException when the transaction can't commit in time.
+     */
+    private static <R> R transact(TransactionRunner runner, Work<R> work)
+            throws ServiceUnavailableException {
+        try {
+            return runner.run(work);
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("Too many concurrent updates, please retry");
+        } catch (DatastoreTimeoutException e) {
+            throw new ServiceUnavailableException(
+                    "The update timed out and may have been applied, please check and retry");
+        }
+    }
+
+    /**
+     * Turns the rate limits on or off, for instance in a test checking them.
+     *
+     * @param enabled whether the writes are rate limited.
+     */
+    static void setRateLimited(final boolean enabled) {
+        rateLimited = enabled;
+    }
+
+    /**
+     * Turns a write away before it starts a transaction, when its user or conference sent too
+     * many of them.
+     *
+     * @param user the user who invokes the write.
+     * @param websafeConferenceKey the key of the Conference written to, null when there is none.
+     * @throws TooManyRequestsException when the write is over a limit.
+     */
+    private static void admit(final User user, final String websafeConferenceKey)
+            throws TooManyRequestsException {
+        if (!rateLimited) {
+            return;
+        }
+        long wait = USER_WRITES.acquire(user.getUserId());
+        if (wait == 0 && websafeConferenceKey != null) {
+            wait = CONFERENCE_WRITES.acquire(websafeConferenceKey);
+            if (wait > 0) {
+                // The write didn't happen, so it doesn't count against the user.
+                USER_WRITES.release(user.getUserId());
+            }
+        }
+        if (wait > 0) {
+            throw new TooManyRequestsException(wait);
+        }
+    }
+
     /**
      * Creates a new Conference object and stores it to the datastore.
      *
@@ -150,13 +311,16 @@ public class ConferenceApi {
      * @param conferenceForm A ConferenceForm object representing user's inputs.
      * @return A newly created Conference Object.
      * @throws UnauthorizedException when the user is not signed in.
+     * @throws ServiceUnavailableException when the transaction can't commit in time.
+     * @throws TooManyRequestsException when the user sent too many writes.
      */
     @ApiMethod(name = "createConference", path = "conference", httpMethod = HttpMethod.POST)
     public Conference createConference(final User user, final ConferenceForm conferenceForm)
-        throws UnauthorizedException {
+        throws UnauthorizedException, ServiceUnavailableException, TooManyRequestsException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        admit(user, null);
 
         final String userId = user.getUserId();
         Key<Profile> profileKey = Key.create(Profile.class, userId);
@@ -165,50 +329,331 @@ public class ConferenceApi {
         final Queue queue = QueueFactory.getDefaultQueue();
         
         // Start a transaction.
-        Conference conference = ofy().transact(new Work<Conference>() {
+        Conference conference = transact(new TransactionRunner("createConference"),
+                new Work<Conference>() {
         	@Override
         	public Conference run() {
                 Profile profile = getProfileFromUser(user);
                 Conference conference = new Conference(conferenceId, userId, conferenceForm);
+                conference.updateOrganizerDisplayName(profile.getDisplayName());
                 ofy().save().entities(profile, conference).now();
+                SearchIndex.put(conference);
+                FacetCounters.put(conference);
                 
-                queue.add(ofy().getTransaction(), 
-                		TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
-                		.param("email", profile.getMainEmail())
-                		.param("conferenceInfo", conference.toString()));
+                Mailer.enqueue(userId, MailKind.CONFERENCE_CREATED, conference.getWebsafeKey());
+                queue.add(ofy().getTransaction(),
+                        TaskOptions.Builder.withUrl("/tasks/update_autocomplete")
+                        .param("websafeKey", conference.getWebsafeKey()));
 
                 return conference;
         	}
         });
+        QueryCache.invalidate("Conference");
+        if (NearlySoldOut.isNearlySoldOut(conference.getSeatsAvailable())) {
+            NearlySoldOutTracker.update(Key.create(conference), true);
+        }
         return conference;
     }
     
+    /**
+     * Updates the specified Conference with the ConferenceForm.
+     *
+     * When its city or dates change, its attendees are notified by mail, in the background.
+     * When maxAttendees is raised, the users on its waitlist get the new seats, in the
+     * background.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param conferenceForm A ConferenceForm object representing user's inputs.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the updated Conference.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws BadRequestException when maxAttendees is below the seats already allocated, or
+     *     changes for a conference with a sharded seat inventory.
+     * @throws ServiceUnavailableException when the transaction can't commit in time.
+     * @throws TooManyRequestsException when the user or the Conference sent too many writes.
+     */
+    @ApiMethod(
+            name = "updateConference",
+            path = "conference/{websafeConferenceKey}",
+            httpMethod = HttpMethod.PUT
+    )
+    public Conference updateConference(final User user, final ConferenceForm conferenceForm,
+            @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            BadRequestException, ServiceUnavailableException, TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        admit(user, websafeConferenceKey);
+        Conference existing = loadConference(websafeConferenceKey);
+        if (!user.getUserId().equals(existing.getOrganizerUserId())) {
+            throw new ForbiddenException("Only the organizer can update the conference");
+        }
+        if (existing.isSeatSharded()
+                && conferenceForm.getMaxAttendees() != existing.getMaxAttendees()) {
+            throw new BadRequestException(
+                    "maxAttendees can't change while the seat inventory is sharded");
+        }
+
+        final Key<Conference> conferenceKey = Key.create(existing);
+        final Queue queue = QueueFactory.getDefaultQueue();
+        final int[] seatsBefore = new int[1];
+        Conference conference;
+        try {
+            conference = transact(new TransactionRunner("updateConference"),
+                    new Work<Conference>() {
+                @Override
+                public Conference run() {
+                    Conference conference = ofy().load().key(conferenceKey).now();
+                    if (conference == null) {
+                        return null;
+                    }
+                    String name = conference.getName();
+                    String city = conference.getCity();
+                    Multimap<String, String> suggested = Autocomplete.valuesOf(conference);
+                    Date startDate = conference.getStartDate();
+                    Date endDate = conference.getEndDate();
+                    SeatInventory.resolveSeatsAvailable(conference);
+                    seatsBefore[0] = conference.getSeatsAvailable();
+
+                    FacetCounters.remove(conference);
+                    conference.updateWithConferenceForm(conferenceForm);
+                    ofy().save().entity(conference).now();
+                    SearchIndex.put(conference);
+                    FacetCounters.put(conference);
+                    // The values the conference lost, which may be gone from the suggestions.
+                    for (Map.Entry<String, String> value
+                            : Autocomplete.valuesOf(conference).entries()) {
+                        suggested.remove(value.getKey(), value.getValue());
+                    }
+                    queue.add(ofy().getTransaction(),
+                            Autocomplete.task(conference.getWebsafeKey(), suggested));
+                    if (conference.getSeatsAvailable() > seatsBefore[0]
+                            && Waitlists.hasWaiting(conference)) {
+                        Waitlists.schedule(conference);
+                    }
+                    if (!Objects.equal(name, conference.getName())) {
+                        ConferenceRenames.schedule(conference);
+                    }
+                    if (!Objects.equal(city, conference.getCity())
+                            || !Objects.equal(startDate, conference.getStartDate())
+                            || !Objects.equal(endDate, conference.getEndDate())) {
+                        AttendeeNotifications.start(conference);
+                    }
+                    return conference;
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        ETags.saved(conference);
+        QueryCache.invalidate("Conference");
+        NearlySoldOutTracker.onSeatsChanged(conferenceKey, seatsBefore[0],
+                conference.getSeatsAvailable());
+        return conference;
+    }
+
+    /**
+     * Returns the progress of the latest notification of the attendees of the specified
+     * Conference about a change.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the ConferenceNotification.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when the user's conference has no notification.
+     */
+    @ApiMethod(
+            name = "getConferenceNotification",
+            path = "conference/{websafeConferenceKey}/notification",
+            httpMethod = HttpMethod.GET
+    )
+    public ConferenceNotification getConferenceNotification(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        ConferenceNotification notification = AttendeeNotifications.load(websafeConferenceKey);
+        if (notification == null
+                || !notification.getOrganizerUserId().equals(user.getUserId())) {
+            throw new NotFoundException(
+                    "No notification found for conference: " + websafeConferenceKey);
+        }
+        return notification;
+    }
+
+    /**
+     * Returns the number of conferences per city, topic and month, and with seats available or
+     * sold out, for browsing the conferences by facets.
+     *
+     * @return the ConferenceFacets.
+     */
+    @ApiMethod(
+            name = "getConferenceFacets",
+            path = "conferenceFacets",
+            httpMethod = HttpMethod.GET
+    )
+    public ConferenceFacets getConferenceFacets() {
+        return FacetCounters.load();
+    }
+
+    /**
+     * Returns the conferences created, changed or deleted after the given watermark, for the
+     * clients keeping a copy of the conferences. A client starts without a watermark, then
+     * sends the watermark of the last response, and asks again at once while there are more.
+     *
+     * @param since the watermark of the last response, null for a full sync.
+     * @param limit the number of changes to return, 100 by default.
+     * @return the ConferenceChanges.
+     */
+    @ApiMethod(
+            name = "getConferenceChanges",
+            path = "conferenceChanges",
+            httpMethod = HttpMethod.GET
+    )
+    public ConferenceChanges getConferenceChanges(@Nullable @Named("since") final Long since,
+            @Nullable @Named("limit") final Integer limit) {
+        return ConferenceSync.since(since, limit);
+    }
+
+    /**
+     * Starts a bulk import of conferences organized by the user and of their sessions.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param importForm An ImportForm object with the format and the records.
+     * @return the ImportJob, to follow its progress with getImport.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws BadRequestException when the data is empty or malformed.
+     * @throws TooManyRequestsException when the user sent too many writes.
+     */
+    @ApiMethod(name = "importConferences", path = "import", httpMethod = HttpMethod.POST)
+    public ImportJob importConferences(final User user, final ImportForm importForm)
+            throws UnauthorizedException, BadRequestException, TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        admit(user, null);
+        Profile profile = getProfileFromUser(user);
+        ofy().save().entity(profile).now();
+        try {
+            return BulkImport.start(profile, importForm);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the progress of a bulk import started by the user.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param importId the id of the ImportJob.
+     * @return the ImportJob.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when the user has no import with the given id.
+     */
+    @ApiMethod(name = "getImport", path = "import/{importId}", httpMethod = HttpMethod.GET)
+    public ImportJob getImport(final User user, @Named("importId") final long importId)
+            throws UnauthorizedException, NotFoundException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        ImportJob job = ofy().load().key(ImportJob.createKey(importId)).now();
+        if (job == null || !job.getOrganizerUserId().equals(user.getUserId())) {
+            throw new NotFoundException("No import found with id: " + importId);
+        }
+        return job;
+    }
+
+    /**
+     * Resumes a bulk import from its last checkpoint, for instance after its tasks gave up.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param importId the id of the ImportJob.
+     * @return the ImportJob.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when the user has no import with the given id.
+     * @throws TooManyRequestsException when the user sent too many writes.
+     */
+    @ApiMethod(
+            name = "resumeImport",
+            path = "import/{importId}/resume",
+            httpMethod = HttpMethod.POST
+    )
+    public ImportJob resumeImport(final User user, @Named("importId") final long importId)
+            throws UnauthorizedException, NotFoundException, TooManyRequestsException {
+        ImportJob job = getImport(user, importId);
+        admit(user, null);
+        BulkImport.resume(job);
+        return job;
+    }
+
+    /**
+     * Returns a page of the conferences matching the given query.
+     *
+     * @param conferenceQueryForm A ConferenceQueryForm object with the filters and the page.
+     * @return a page of conferences with the cursor of the next page.
+     * @throws BadRequestException when the cursor is invalid.
+     */
     @ApiMethod(
             name = "queryConferences",
             path = "queryConferences",
             httpMethod = HttpMethod.POST
     )
-    public List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm) {
-        Iterable<Conference> conferenceIterable = conferenceQueryForm.getQuery();
-        List<Conference> result = new ArrayList<>(0);
-        List<Key<Profile>> organizersKeyList = new ArrayList<>(0);
-        
-        for (Conference conference : conferenceIterable) {
-        	organizersKeyList.add(Key.create(Profile.class, conference.getOrganizerUserId()));
-        	result.add(conference);
-        }
-        ofy().load().keys(organizersKeyList);
-        
-        return result;
+    public CollectionResponse<Conference> queryConferences(
+            final ConferenceQueryForm conferenceQueryForm) throws BadRequestException {
+        CollectionResponse<Conference> page = QueryCache.page("Conference",
+                conferenceQueryForm.getNormalizedQuery(),
+                new QueryCache.PageQuery<Conference>() {
+            @Override
+            public CollectionResponse<Conference> run() throws BadRequestException {
+                return conferenceQueryForm.page();
+            }
+        });
+        SeatInventory.resolveSeatsAvailable(page.getItems());
+        Conference.loadOrganizerDisplayNames(page.getItems());
+        return page;
+    }
+
+    /**
+     * Returns the execution plan of the given conference query, for debugging.
+     *
+     * @param conferenceQueryForm A ConferenceQueryForm object with the filters.
+     * @return the QueryPlan.
+     */
+    @ApiMethod(
+            name = "explainQueryConferences",
+            path = "explainQueryConferences",
+            httpMethod = HttpMethod.POST
+    )
+    public QueryPlan explainQueryConferences(ConferenceQueryForm conferenceQueryForm) {
+        return conferenceQueryForm.getPlan();
     }
     
+    /**
+     * Returns a page of the conferences created by the user.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param limit The maximum number of conferences in the page.
+     * @param cursor The nextPageToken of the previous page, null for the first page.
+     * @return a page of conferences with the cursor of the next page.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws BadRequestException when the cursor is invalid.
+     */
     @ApiMethod(
             name = "getConferencesCreated",
             path = "getConferencesCreated",
             httpMethod = HttpMethod.POST
     )
-    public List<Conference> getConferencesCreated(final User user)
-        throws UnauthorizedException {
+    public CollectionResponse<Conference> getConferencesCreated(final User user,
+            @Nullable @Named("limit") final Integer limit,
+            @Nullable @Named("cursor") final String cursor)
+        throws UnauthorizedException, BadRequestException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
@@ -216,15 +661,24 @@ public class ConferenceApi {
         Key<Profile> userKey = Key.create(Profile.class, user.getUserId());
         Query<Conference> query = ofy().load().type(Conference.class).ancestor(userKey);
         
-        return query.list();
+        CollectionResponse<Conference> page = Paging.page(query, limit, cursor);
+        SeatInventory.resolveSeatsAvailable(page.getItems());
+        Conference.loadOrganizerDisplayNames(page.getItems());
+        return page;
     }
     
     /**
      * Returns a Conference object with the given conferenceId.
      *
+     * The ETag of the conference is checked from memcache first, and the conference is only
+     * loaded when the client doesn't have its current version.
+     *
      * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param request the HTTP request, whose If-None-Match header holds the ETag the client
+     *     has, if any.
      * @return a Conference object with the given conferenceId.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws NotModifiedException when the client has the current version.
      */
     @ApiMethod(
             name = "getConference",
@@ -232,7 +686,29 @@ public class ConferenceApi {
             httpMethod = HttpMethod.GET
     )
     public Conference getConference(
-            @Named("websafeConferenceKey") final String websafeConferenceKey)
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            final HttpServletRequest request)
+            throws NotFoundException, NotModifiedException {
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        checkNotModified(request, ETags.current(conferenceKey));
+        Conference conference = loadConference(websafeConferenceKey);
+        SeatInventory.resolveSeatsAvailable(conference);
+        return conference;
+    }
+
+    /**
+     * Throws a NotModifiedException when the If-None-Match header of the request matches the
+     * given ETag.
+     */
+    private static void checkNotModified(final HttpServletRequest request, final String etag)
+            throws NotModifiedException {
+        if (ETags.matches(request, etag)) {
+            Metrics.increment("etags.notModified");
+            throw new NotModifiedException(etag);
+        }
+    }
+
+    private static Conference loadConference(final String websafeConferenceKey)
             throws NotFoundException {
         Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
         Conference conference = ofy().load().key(conferenceKey).now();
@@ -254,14 +730,24 @@ public class ConferenceApi {
         private final Boolean result;
         private final String reason;
 
+        /**
+         * Whether the answer is about the waitlist of the conference rather than a
+         * registration, for instance because the user was put on it.
+         */
+        private final Boolean waitlisted;
+
         public WrappedBoolean(Boolean result) {
-            this.result = result;
-            this.reason = "";
+            this(result, "");
         }
 
         public WrappedBoolean(Boolean result, String reason) {
+            this(result, reason, false);
+        }
+
+        public WrappedBoolean(Boolean result, String reason, Boolean waitlisted) {
             this.result = result;
             this.reason = reason;
+            this.waitlisted = waitlisted;
         }
 
         public Boolean getResult() {
@@ -271,16 +757,25 @@ public class ConferenceApi {
         public String getReason() {
             return reason;
         }
+
+        public Boolean getWaitlisted() {
+            return waitlisted;
+        }
     }
 
     /**
      * Register to attend the specified Conference.
      *
+     * When the Conference is sold out, the user joins its waitlist instead, and is registered
+     * when a seat frees up.
+     *
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key.
-     * @return Boolean true when success, otherwise false
+     * @return Boolean true when success, false with the reason and waitlisted when the user is
+     *     on the waitlist
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws TooManyRequestsException when the user or the Conference sent too many writes.
      */
     @ApiMethod(
             name = "registerForConference",
@@ -290,16 +785,19 @@ public class ConferenceApi {
     public WrappedBoolean registerForConference(final User user,
             @Named("websafeConferenceKey") final String websafeConferenceKey)
             throws UnauthorizedException, NotFoundException,
-            ForbiddenException, ConflictException {
+            ForbiddenException, ConflictException, ServiceUnavailableException,
+            TooManyRequestsException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        admit(user, websafeConferenceKey);
 
+        TransactionRunner runner = new TransactionRunner("registerForConference");
+        final int[] seatsBooked = new int[1];
         // Start transaction
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
+        WrappedBoolean result = transact(runner, new Work<WrappedBoolean>() {
             @Override
         	public WrappedBoolean run() {
-                try {
 	            Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
 	            Conference conference = ofy().load().key(conferenceKey).now();
 
@@ -308,38 +806,52 @@ public class ConferenceApi {
 	                        "No Conference found with key: "
 	                                + websafeConferenceKey);
 	            }
+	            ProfileRelations.migrate(user.getUserId());
 	
-	            Profile profile = getProfileFromUser(user);
+	            Key<Registration> registrationKey =
+	                    Registration.createKey(user.getUserId(), websafeConferenceKey);
 	
-	            if (profile.getConferenceKeysToAttend().contains(
-	                    websafeConferenceKey)) {
+	            if (ofy().load().key(registrationKey).now() != null) {
 	                return new WrappedBoolean (false, "Already registered");
+	            } else if (conference.isSeatSharded()) {
+	                // Claim the seat from a shard, leaving the Conference entity alone.
+	                if (!SeatInventory.bookSeat(conference)) {
+	                    return joinWaitlist(user, conference);
+	                }
+	                saveProfileIfAbsent(user);
+	                Waitlists.leave(conference, user.getUserId());
+	                ofy().save().entity(
+	                        new Registration(user.getUserId(), websafeConferenceKey)).now();
+
+	                seatsBooked[0] = 1;
+	                return new WrappedBoolean(true, "Registration successful");
 	            } else if (conference.getSeatsAvailable() <= 0) {
-	                return new WrappedBoolean (false, "No seats available");
+	                return joinWaitlist(user, conference);
 	            } else {
-	                profile.addToConferenceKeysToAttend(websafeConferenceKey);
+	                saveProfileIfAbsent(user);
+	                Waitlists.leave(conference, user.getUserId());
 	                conference.bookSeats(1);
-	                ofy().save().entities(profile, conference).now();
+	                ofy().save().entities(
+	                        new Registration(user.getUserId(), websafeConferenceKey),
+	                        conference).now();
 	                
+	                seatsBooked[0] = 1;
 	                return new WrappedBoolean(true, "Registration successful");
 	            }
-	
-	            }
-	            catch (Exception e) {
-	                return new WrappedBoolean(false, "Unknown exception");
-	            }
             }
         });
+        onSeatsChanged(websafeConferenceKey, result, -seatsBooked[0], runner.getRetries());
+        if (result.getWaitlisted()) {
+            // Answered with a success, so that the clients stop retrying.
+            return result;
+        }
         if (!result.getResult()) {
             if (result.getReason().contains("No Conference found with key")) {
                 throw new NotFoundException (result.getReason());
             }
-            else if (result.getReason() == "Already registered") {
+            else if (result.getReason().equals("Already registered")) {
                 throw new ConflictException("You have already registered");
             }
-            else if (result.getReason() == "No seats available") {
-                throw new ConflictException("There are no seats available");
-            }
             else {
                 throw new ForbiddenException("Unknown exception");
             }
@@ -348,14 +860,30 @@ public class ConferenceApi {
     }
 
     /**
-     * Unregister from the specified Conference.
+     * Adds the user to the waitlist of a sold out Conference. Must be called in the
+     * registration transaction.
+     */
+    private static WrappedBoolean joinWaitlist(final User user, final Conference conference) {
+        saveProfileIfAbsent(user);
+        if (!Waitlists.join(conference, user.getUserId())) {
+            return new WrappedBoolean(false, "Already on the waitlist", true);
+        }
+        return new WrappedBoolean(false, "Added to the waitlist", true);
+    }
+
+    /**
+     * Unregister from the specified Conference, or leave its waitlist.
+     *
+     * The seat given back goes to the first user on the waitlist of the Conference, if any.
      *
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key to unregister
      *                             from.
-     * @return Boolean true when success, otherwise false.
+     * @return Boolean true when success, otherwise false, and waitlisted when the user left the
+     *     waitlist.
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws TooManyRequestsException when the user or the Conference sent too many writes.
      */
     @ApiMethod(
             name = "unregisterFromConference",
@@ -365,12 +893,16 @@ public class ConferenceApi {
     public WrappedBoolean unregisterFromConference(final User user,
                                             @Named("websafeConferenceKey")
                                             final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException, TooManyRequestsException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        admit(user, websafeConferenceKey);
 
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
+        TransactionRunner runner = new TransactionRunner("unregisterFromConference");
+        final int[] seatsFreed = new int[1];
+        WrappedBoolean result = transact(runner, new Work<WrappedBoolean>() {
             @Override
             public WrappedBoolean run() {
                 Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
@@ -379,18 +911,33 @@ public class ConferenceApi {
                     return new  WrappedBoolean(false,
                             "No Conference found with key: " + websafeConferenceKey);
                 }
+                ProfileRelations.migrate(user.getUserId());
 
-                Profile profile = getProfileFromUser(user);
-                if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
-                    profile.unregisterFromConference(websafeConferenceKey);
-                    conference.giveBackSeats(1);
-                    ofy().save().entities(profile, conference).now();
+                Key<Registration> registrationKey =
+                        Registration.createKey(user.getUserId(), websafeConferenceKey);
+                if (ofy().load().key(registrationKey).now() != null) {
+                    ofy().delete().key(registrationKey).now();
+                    if (conference.isSeatSharded()) {
+                        SeatInventory.giveBackSeat(conference);
+                        seatsFreed[0] = 1;
+                        if (Waitlists.hasWaiting(conference)) {
+                            Waitlists.schedule(conference);
+                        }
+                    } else {
+                        // The seat goes to the head of the waitlist, if anyone is waiting.
+                        conference.giveBackSeats(1);
+                        seatsFreed[0] = 1 - Waitlists.promote(conference, 1);
+                        ofy().save().entity(conference).now();
+                    }
                     return new WrappedBoolean(true);
+                } else if (Waitlists.leave(conference, user.getUserId())) {
+                    return new WrappedBoolean(true, "Left the waitlist", true);
                 } else {
                     return new WrappedBoolean(false, "You are not registered for this conference");
                 }
             }
         });
+        onSeatsChanged(websafeConferenceKey, result, seatsFreed[0], runner.getRetries());
         if (!result.getResult()) {
             if (result.getReason().contains("No Conference found with key")) {
                 throw new NotFoundException (result.getReason());
@@ -399,39 +946,274 @@ public class ConferenceApi {
                 throw new ForbiddenException(result.getReason());
             }
         }
-        return new WrappedBoolean(result.getResult());
+        return new WrappedBoolean(result.getResult(), "", result.getWaitlisted());
+    }
+
+    /**
+     * Tells whether the user has registered for the specified Conference.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the user has registered, otherwise false, and waitlisted when
+     *     the user is on the waitlist.
+     * @throws UnauthorizedException when the user is not signed in.
+     */
+    @ApiMethod(
+            name = "getRegistration",
+            path = "conference/{websafeConferenceKey}/registration",
+            httpMethod = HttpMethod.GET
+    )
+    public WrappedBoolean getRegistration(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Key<Registration> registrationKey =
+                Registration.createKey(user.getUserId(), websafeConferenceKey);
+        Profile legacy = ProfileRelations.loadLegacy(user.getUserId());
+        if (ofy().load().key(registrationKey).now() != null || (legacy != null
+                && legacy.getLegacyConferenceKeysToAttend().contains(websafeConferenceKey))) {
+            return new WrappedBoolean(true);
+        }
+        Key<WaitlistEntry> waitlistEntryKey = WaitlistEntry.createKey(user.getUserId(),
+                Key.<Conference>create(websafeConferenceKey));
+        return new WrappedBoolean(false, "",
+                ofy().load().key(waitlistEntryKey).now() != null);
+    }
+
+    /**
+     * Keeps the seat inventory bookkeeping, the query cache and the nearly sold out set up to
+     * date after a registration transaction.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param result the result of the transaction.
+     * @param delta the change in the number of seats available when the transaction succeeded.
+     * @param retries how many times the transaction was retried because of contention.
+     */
+    private static void onSeatsChanged(final String websafeConferenceKey,
+            final WrappedBoolean result, final int delta, final int retries) {
+        Conference conference = ofy().load().key(Key.<Conference>create(websafeConferenceKey)).now();
+        if (conference == null) {
+            return;
+        }
+        if (result.getResult()) {
+            if (conference.isSeatSharded()) {
+                SeatInventory.adjustCachedSeatsAvailable(websafeConferenceKey, delta);
+                SeatInventory.resolveSeatsAvailable(conference);
+            } else {
+                // The transaction saved the conference with its seats.
+                ETags.saved(conference);
+            }
+            // The cached conference queries don't filter on the seats, and their hits load the
+            // entities, so they stay valid and show the new seatsAvailable.
+            int seatsAvailable = conference.getSeatsAvailable();
+            NearlySoldOutTracker.onSeatsChanged(Key.create(conference),
+                    seatsAvailable - delta, seatsAvailable);
+            FacetCounters.onSeatsChanged(seatsAvailable - delta, seatsAvailable);
+        }
+        SeatInventory.recordContention(conference, retries);
+    }
+
+    /**
+     * Spreads the seat inventory of the specified Conference over the given number of shards,
+     * so that registrations stop competing for the Conference entity.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param seatShardCount The number of shards.
+     * @return Boolean true when success.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws BadRequestException when the number of shards is out of range.
+     * @throws TooManyRequestsException when the user or the Conference sent too many writes.
+     */
+    @ApiMethod(
+            name = "shardSeatInventory",
+            path = "conference/{websafeConferenceKey}/seatShards",
+            httpMethod = HttpMethod.POST
+    )
+    public WrappedBoolean shardSeatInventory(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            @Named("seatShardCount") final int seatShardCount)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            BadRequestException, TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        admit(user, websafeConferenceKey);
+        Conference conference = loadConference(websafeConferenceKey);
+        if (!user.getUserId().equals(conference.getOrganizerUserId())) {
+            throw new ForbiddenException("Only the organizer can shard the seat inventory");
+        }
+        if (seatShardCount <= 0 || seatShardCount > SeatInventory.MAX_SHARD_COUNT) {
+            throw new BadRequestException("The number of shards must be between 1 and "
+                    + SeatInventory.MAX_SHARD_COUNT);
+        }
+        SeatInventory.reshard(websafeConferenceKey, seatShardCount);
+        return new WrappedBoolean(true);
+    }
+
+    /**
+     * Deletes the specified Conference, which must have no sessions and no registrations.
+     *
+     * The deletion leaves a ConferenceTombstone, for the clients syncing the conferences.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when success.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ForbiddenException when the user is not the organizer of the Conference.
+     * @throws ConflictException when the Conference has sessions or registrations.
+     * @throws ServiceUnavailableException when the transaction can't commit in time.
+     * @throws TooManyRequestsException when the user or the Conference sent too many writes.
+     */
+    @ApiMethod(
+            name = "deleteConference",
+            path = "conference/{websafeConferenceKey}",
+            httpMethod = HttpMethod.DELETE
+    )
+    public WrappedBoolean deleteConference(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException, TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        admit(user, websafeConferenceKey);
+        final Conference conference = loadConference(websafeConferenceKey);
+        if (!user.getUserId().equals(conference.getOrganizerUserId())) {
+            throw new ForbiddenException("Only the organizer can delete the conference");
+        }
+        final Key<Conference> conferenceKey = Key.create(conference);
+        if (ofy().load().type(Registration.class).filter("conferenceKey", conferenceKey)
+                .keys().first().now() != null) {
+            throw new ConflictException("The conference has registrations");
+        }
+
+        WrappedBoolean result = transact(new TransactionRunner("deleteConference"),
+                new Work<WrappedBoolean>() {
+            @Override
+            public WrappedBoolean run() {
+                Conference current = ofy().load().key(conferenceKey).now();
+                if (current == null) {
+                    return new WrappedBoolean(false,
+                            "No Conference found with key: " + websafeConferenceKey);
+                }
+                // A sharded registration books from a shard and leaves the Conference alone,
+                // so its seat only shows up in the shards; their running total may lag behind.
+                int seatsAvailable = current.isSeatSharded()
+                        ? SeatInventory.countSeatsAvailable(current)
+                        : current.getSeatsAvailable();
+                if (seatsAvailable < current.getMaxAttendees()) {
+                    return new WrappedBoolean(false, "The conference has registrations");
+                }
+                if (ofy().load().type(Session.class).ancestor(conferenceKey).keys().first()
+                        .now() != null) {
+                    return new WrappedBoolean(false, "The conference has sessions");
+                }
+                ofy().delete().keys(ofy().load().type(WaitlistEntry.class)
+                        .ancestor(conferenceKey).keys()).now();
+                ofy().delete().key(conferenceKey).now();
+                ofy().save().entity(new ConferenceTombstone(current)).now();
+                SearchIndex.remove(current);
+                SeatInventory.resolveSeatsAvailable(current);
+                FacetCounters.remove(current);
+                QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                        Autocomplete.task(websafeConferenceKey, Autocomplete.valuesOf(current)));
+                return new WrappedBoolean(true);
+            }
+        });
+        if (!result.getResult()) {
+            if (result.getReason().contains("No Conference found with key")) {
+                throw new NotFoundException(result.getReason());
+            }
+            throw new ConflictException(result.getReason());
+        }
+
+        // Left over by the conference, outside of its entity group.
+        List<Key<?>> leftovers = new ArrayList<>();
+        for (int i = 0; i < conference.getSeatShardCount(); i++) {
+            leftovers.add(SeatShard.createKey(websafeConferenceKey, i));
+        }
+        Key<Agenda> agendaKey = Agenda.createKey(websafeConferenceKey);
+        leftovers.add(agendaKey);
+        ofy().delete().keys(leftovers).now();
+        ETags.forget(Arrays.asList(conferenceKey, agendaKey));
+        QueryCache.invalidate("Conference");
+        NearlySoldOutTracker.update(conferenceKey, false);
+        return new WrappedBoolean(true);
     }
 
     /**
      * Returns a collection of Conference Object that the user is going to attend.
      *
+     * The ETag combines the ETags of the conferences, read from memcache, so that the
+     * conferences are only loaded when one of them or the registrations changed.
+     *
      * @param user An user who invokes this method, null when the user is not signed in.
-     * @return a Collection of Conferences that the user is going to attend.
+     * @param request the HTTP request, whose If-None-Match header holds the ETag the client
+     *     has, if any.
+     * @return a Collection of Conferences that the user is going to attend, with their ETag.
      * @throws UnauthorizedException when the User object is null.
+     * @throws NotModifiedException when the client has the current version.
      */
     @ApiMethod(
             name = "getConferencesToAttend",
             path = "getConferencesToAttend",
             httpMethod = HttpMethod.GET
     )
-    public Collection<Conference> getConferencesToAttend(final User user)
-            throws UnauthorizedException, NotFoundException {
+    public ETaggedCollection<Conference> getConferencesToAttend(final User user,
+            final HttpServletRequest request)
+            throws UnauthorizedException, NotFoundException, NotModifiedException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
         
-        Profile profile = getProfileFromUser(user); 
-        if (profile == null) {
-            throw new NotFoundException("Profile doesn't exist.");
+        Key<Profile> profileKey = Key.create(Profile.class, user.getUserId());
+        List<Key<Registration>> registrationKeys = ofy().load().type(Registration.class)
+                .ancestor(profileKey).keys().list();
+        Set<Key<Conference>> keySet = new LinkedHashSet<>();
+        for (Key<Registration> registrationKey : registrationKeys) {
+            keySet.add(Registration.getConferenceKey(registrationKey));
+        }
+        Profile legacy = ProfileRelations.loadLegacy(user.getUserId());
+        if (legacy != null) {
+            for (String websafeConferenceKey : legacy.getLegacyConferenceKeysToAttend()) {
+                keySet.add(Key.<Conference>create(websafeConferenceKey));
+            }
         }
+        List<Key<Conference>> keysToAttend = new ArrayList<>(keySet);
 
-        List<String> keyStringsToAttend = profile.getConferenceKeysToAttend(); 
-        List<Key<Conference>> keysToAttend = new ArrayList<>();
-        for (String keyString : keyStringsToAttend) {
-            keysToAttend.add(Key.<Conference>create(keyString));
+        String etag = combineETags(keysToAttend, ETags.current(keysToAttend));
+        checkNotModified(request, etag);
+        Collection<Conference> conferences = ofy().load().keys(keysToAttend).values();
+        SeatInventory.resolveSeatsAvailable(conferences);
+        Conference.loadOrganizerDisplayNames(conferences);
+        Map<Key<Conference>, String> loaded = new HashMap<>();
+        for (Conference conference : conferences) {
+            loaded.put(Key.create(conference), conference.getEtag());
         }
-        
-        return ofy().load().keys(keysToAttend).values();
+        return new ETaggedCollection<>(conferences, null, combineETags(keysToAttend, loaded));
+    }
+
+    /**
+     * Combines the ETags of the given conferences, in their order, or returns null when one of
+     * them has none.
+     */
+    private static String combineETags(final List<Key<Conference>> conferenceKeys,
+                                       final Map<Key<Conference>, String> etags) {
+        List<String> parts = new ArrayList<>(conferenceKeys.size());
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            String etag = etags.get(conferenceKey);
+            if (etag == null) {
+                return null;
+            }
+            parts.add(conferenceKey.getString() + " " + etag);
+        }
+        return ETags.combine(parts.toArray());
     }
     
     @ApiMethod(
@@ -440,9 +1222,8 @@ public class ConferenceApi {
     		httpMethod = HttpMethod.GET
     )
     public Announcement getAnnouncement() {
-    	MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
     	String announcementKey = Constants.MEMCACHE_ANNOUNCEMENTS_KEY;
-    	Object message = memcacheService.get(announcementKey);
+    	Object message = ANNOUNCEMENTS.get(announcementKey);
     	if (message != null) {
     		return new Announcement(message.toString());
     	}
@@ -456,60 +1237,84 @@ public class ConferenceApi {
      * @param sessionForm A SessionForm object representing user's inputs.
      * @return A newly created Session Object.
      * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     * @throws ServiceUnavailableException when the transaction can't commit in time.
+     * @throws TooManyRequestsException when the user or the Conference sent too many writes.
      */
     @ApiMethod(name = "createSession", path = "createSession", httpMethod = HttpMethod.POST)
     public Session createSession(final User user, final SessionForm sessionForm, @Named("websafeConferenceKey") final String websafeConferenceKey)
-        throws UnauthorizedException {
+        throws UnauthorizedException, NotFoundException, ServiceUnavailableException,
+        TooManyRequestsException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        admit(user, websafeConferenceKey);
 
         Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Conference conference = loadConference(websafeConferenceKey);
         final Key<Session> sessionKey = factory().allocateId(conferenceKey, Session.class);
         final long sessionId = sessionKey.getId();
 
-        Session session = new Session(sessionId, websafeConferenceKey, sessionForm);
-        ofy().save().entity(session).now();
+        final Session session = new Session(sessionId, websafeConferenceKey, sessionForm);
+        session.updateConferenceName(conference.getName());
+        // The session goes into the agenda of the conference, the index of its speaker and the
+        // search index in the same transaction.
+        final Agenda[] agenda = new Agenda[1];
+        int speakerSessions = transact(new TransactionRunner("createSession"),
+                new Work<Integer>() {
+            @Override
+            public Integer run() {
+                ofy().save().entity(session).now();
+                agenda[0] = Agendas.putSession(session);
+                SearchIndex.put(session);
+                if (Speakers.isIndexed(session.getSpeaker())) {
+                    QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                            TaskOptions.Builder.withUrl("/tasks/update_autocomplete")
+                            .param("websafeKey", session.getWebsafeKey()));
+                }
+                return Speakers.putSession(session);
+            }
+        });
+        ETags.saved(agenda[0]);
 
-        // Setting featured speaker and sessions.
-        List<Session> sessionsBySpeaker = ofy().load().type(Session.class).ancestor(conferenceKey).filter("speaker =", session.getSpeaker()).list();
-        List<String> sessionNames = new ArrayList<>(0);
-        for (Session eachSession : sessionsBySpeaker) {
-            sessionNames.add(eachSession.getName());
+        // The featured speaker is recomputed by a task, only when the speaker may now be it.
+        if (speakerSessions > 1) {
+            FeaturedSpeakers.schedule(websafeConferenceKey);
         }
-        if (sessionNames.size() > 1) {
-            StringBuilder featuredSpeakerStringBuilder = new StringBuilder(
-                    session.getSpeaker() + ": ");
-            Joiner joiner = Joiner.on(", ").skipNulls();
-            featuredSpeakerStringBuilder.append(joiner.join(sessionNames));
 
-            MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-
-            String featuredSpeakerKey = Constants.MEMCACHE_FEATURED_SPEAKER_KEY;
-            String featuredSpeakerText = featuredSpeakerStringBuilder.toString();
-
-            memcacheService.put(featuredSpeakerKey, featuredSpeakerText);
-        }
-                
         return session;
     }
 
     /**
-     * Returns a list of Session objects with the given conference.
+     * Returns a page of Session objects with the given conference.
      *
      * @param conference a conference which helds the sessions.
-     * @return a Session object with the given conference.
+     * @param limit The maximum number of sessions in the page.
+     * @param cursor The nextPageToken of the previous page, null for the first page.
+     * @param request the HTTP request, whose If-None-Match header holds the ETag the client
+     *     has, if any.
+     * @return a page of Session objects with the given conference, ordered by date and start
+     *     time, with their ETag.
+     * @throws NotModifiedException when the client has the current version.
+     * @throws BadRequestException when the cursor is invalid.
      */
     @ApiMethod(
             name = "getConferenceSessions",
             path = "getConferenceSessions",
             httpMethod = HttpMethod.POST
     )
-    public List<Session> getConferenceSessions(@Named("websafeConferenceKey") final String websafeConferenceKey) {        
-        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Query<Session> query = ofy().load().type(Session.class).ancestor(conferenceKey).order("name");
-        
-        return query.list();
+    public ETaggedCollection<Session> getConferenceSessions(@Named("websafeConferenceKey") final String websafeConferenceKey,
+            @Nullable @Named("limit") final Integer limit,
+            @Nullable @Named("cursor") final String cursor,
+            final HttpServletRequest request) throws NotModifiedException, BadRequestException {
+        // The agenda tags all the sessions, and the page depends on the limit and the cursor.
+        String agendaETag = ETags.current(Agenda.createKey(websafeConferenceKey));
+        if (agendaETag != null) {
+            checkNotModified(request, ETags.combine(agendaETag, limit, cursor));
+        }
+        Agenda agenda = Agendas.load(websafeConferenceKey);
+        return ETaggedCollection.of(Paging.page(agenda.getSessions(), limit, cursor),
+                ETags.combine(agenda.getEtag(), limit, cursor));
     }
 
     /**
@@ -526,27 +1331,92 @@ public class ConferenceApi {
     )
     public List<Session> getConferenceSessionsByType(@Named("websafeConferenceKey") final String websafeConferenceKey,
             @Named("typeOfSession") final String typeOfSession) {
-        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Query<Session> sessionsByType = ofy().load().type(Session.class).ancestor(conferenceKey).filter("typeOfSession =", typeOfSession).order("name");
-
-        return sessionsByType.list();
+        return Agendas.load(websafeConferenceKey).getSessionsByType(typeOfSession);
     }
 
     /**
-     * Returns a list of Session objects with the given speaker.
+     * Returns a page of Session objects with the given speaker.
      *
      * @param speaker a name of the speaker for the session.
-     * @return a Session object with the given speaker.
+     * @param limit The maximum number of sessions in the page.
+     * @param cursor The nextPageToken of the previous page, null for the first page.
+     * @return a page of Session objects with the given speaker.
+     * @throws BadRequestException when the cursor is invalid.
      */
     @ApiMethod(
             name = "getSessionsBySpeaker",
             path = "getSessionsBySpeaker",
             httpMethod = HttpMethod.POST
     )
-    public List<Session> getSessionsBySpeaker(@Named("speaker") final String speaker) {
-        Query<Session> sessionsBySpeaker = ofy().load().type(Session.class).filter("speaker =", speaker);
+    public CollectionResponse<Session> getSessionsBySpeaker(@Named("speaker") final String speaker,
+            @Nullable @Named("limit") final Integer limit,
+            @Nullable @Named("cursor") final String cursor) throws BadRequestException {
+        Speaker indexed = Speakers.isIndexed(speaker)
+                ? ofy().load().key(Speaker.createKey(speaker)).now() : null;
+        if (indexed == null) {
+            // Sessions without a speaker, or of a speaker whose sessions all predate the
+            // speaker index, until /tasks/build_speaker_index has added them.
+            Query<Session> sessionsBySpeaker = ofy().load().type(Session.class).filter("speaker =", speaker);
+
+            CollectionResponse<Session> page = Paging.page(sessionsBySpeaker, limit, cursor);
+            Session.loadConferenceNames(page.getItems());
+            return page;
+        }
+        CollectionResponse<Key<Session>> keys =
+                Paging.page(indexed.getSessionKeys(), limit, cursor);
+        Map<Key<Session>, Session> sessions = ofy().load().keys(keys.getItems());
+        List<Session> items = new ArrayList<>(sessions.size());
+        for (Key<Session> sessionKey : keys.getItems()) {
+            Session session = sessions.get(sessionKey);
+            if (session != null) {
+                items.add(session);
+            }
+        }
+        Session.loadConferenceNames(items);
+        return CollectionResponse.<Session>builder()
+                .setItems(items)
+                .setNextPageToken(keys.getNextPageToken())
+                .build();
+    }
 
-        return sessionsBySpeaker.list();
+    /**
+     * Searches the names, descriptions and other text of the conferences and sessions.
+     *
+     * @param query the words searched for; the last letters of a word may be left out.
+     * @param kind "Conference" or "Session" to search only one kind, null to search both.
+     * @param limit The maximum number of results in the page.
+     * @param cursor The nextPageToken of the previous page, null for the first page.
+     * @return a page of the conferences and sessions containing all the words, best first.
+     * @throws BadRequestException when the kind or the cursor is invalid.
+     */
+    @ApiMethod(name = "search", path = "search", httpMethod = HttpMethod.POST)
+    public CollectionResponse<SearchResult> search(@Named("query") final String query,
+            @Nullable @Named("kind") final String kind,
+            @Nullable @Named("limit") final Integer limit,
+            @Nullable @Named("cursor") final String cursor) throws BadRequestException {
+        if (kind != null && !kind.equals("Conference") && !kind.equals("Session")) {
+            throw new BadRequestException("Invalid kind: " + kind);
+        }
+        return SearchIndex.search(query, kind, limit, cursor);
+    }
+
+    /**
+     * Suggests conference names, cities, topics and speakers starting with what the user typed.
+     *
+     * @param prefix the beginning of a value, or of one of its words.
+     * @param field "name", "city", "topic" or "speaker", null for all of them.
+     * @param limit The maximum number of suggestions, at most 10.
+     * @return the suggestions, by field then in alphabetical order.
+     * @throws BadRequestException when the field is invalid.
+     */
+    @ApiMethod(name = "autocomplete", path = "autocomplete", httpMethod = HttpMethod.GET)
+    public List<Suggestion> autocomplete(@Named("prefix") final String prefix,
+            @Nullable @Named("field") final String field,
+            @Nullable @Named("limit") final Integer limit) throws BadRequestException {
+        if (field != null && !Autocomplete.FIELDS.contains(field)) {
+            throw new BadRequestException("Invalid field: " + field);
+        }
+        return Autocomplete.suggest(prefix, field, limit);
     }
 
     /**
@@ -557,6 +1427,7 @@ public class ConferenceApi {
      * @return Boolean true when success, otherwise false
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Session with the given sessionId.
+     * @throws TooManyRequestsException when the user sent too many writes.
      */
     @ApiMethod(
             name = "addSessionToWishlist",
@@ -566,48 +1437,47 @@ public class ConferenceApi {
     public WrappedBoolean addSessionToWishlist(final User user,
             @Named("websafeSessionKey") final String websafeSessionKey)
             throws UnauthorizedException, NotFoundException,
-            ForbiddenException, ConflictException {
+            ForbiddenException, ConflictException, ServiceUnavailableException,
+            TooManyRequestsException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        admit(user, null);
 
         // Start transaction
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
+        WrappedBoolean result = transact(new TransactionRunner("addSessionToWishlist"),
+                new Work<WrappedBoolean>() {
             @Override
             public WrappedBoolean run() {
-                try {
                 Key<Session> sessionKey = Key.create(websafeSessionKey);
                 Session session = ofy().load().key(sessionKey).now();
 
                 if (session == null) {
                     return new WrappedBoolean (false,
-                            "No session found with key: "
+                            "No Session found with key: "
                                     + websafeSessionKey);
                 }
+                ProfileRelations.migrate(user.getUserId());
     
-                Profile profile = getProfileFromUser(user);
+                Key<WishlistEntry> wishlistEntryKey =
+                        WishlistEntry.createKey(user.getUserId(), websafeSessionKey);
     
-                if (profile.getSessionKeysInWishlist().contains(
-                        websafeSessionKey)) {
+                if (ofy().load().key(wishlistEntryKey).now() != null) {
                     return new WrappedBoolean (false, "Already in the wishlist");
                 } else {
-                    profile.addToSessionKeysInWishlist(websafeSessionKey);
-                    ofy().save().entity(profile).now();
+                    saveProfileIfAbsent(user);
+                    ofy().save().entity(
+                            new WishlistEntry(user.getUserId(), websafeSessionKey)).now();
                     
                     return new WrappedBoolean(true, "Successfully added to your wishlist");
                 }
-    
-                }
-                catch (Exception e) {
-                    return new WrappedBoolean(false, "Unknown exception");
-                }
             }
         });
         if (!result.getResult()) {
             if (result.getReason().contains("No Session found with key")) {
                 throw new NotFoundException (result.getReason());
             }
-            else if (result.getReason() == "Already in the wishlist") {
+            else if (result.getReason().equals("Already in the wishlist")) {
                 throw new ConflictException("You have already added to your wishlist");
             }
             else {
@@ -626,6 +1496,7 @@ public class ConferenceApi {
      * @return Boolean true when success, otherwise false.
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Session with the given sessionId.
+     * @throws TooManyRequestsException when the user sent too many writes.
      */
     @ApiMethod(
             name = "RemoveSessionFromWishlist",
@@ -635,12 +1506,15 @@ public class ConferenceApi {
     public WrappedBoolean RemoveSessionFromWishlist(final User user,
                                             @Named("websafeSessionKey")
                                             final String websafeSessionKey)
-            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException, TooManyRequestsException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        admit(user, null);
 
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
+        WrappedBoolean result = transact(new TransactionRunner("removeSessionFromWishlist"),
+                new Work<WrappedBoolean>() {
             @Override
             public WrappedBoolean run() {
                 Key<Session> sessionKey = Key.create(websafeSessionKey);
@@ -649,11 +1523,12 @@ public class ConferenceApi {
                     return new  WrappedBoolean(false,
                             "No Session found with key: " + websafeSessionKey);
                 }
+                ProfileRelations.migrate(user.getUserId());
 
-                Profile profile = getProfileFromUser(user);
-                if (profile.getSessionKeysInWishlist().contains(websafeSessionKey)) {
-                    profile.removeFromSessionKeysInWishlist(websafeSessionKey);
-                    ofy().save().entity(profile).now();
+                Key<WishlistEntry> wishlistEntryKey =
+                        WishlistEntry.createKey(user.getUserId(), websafeSessionKey);
+                if (ofy().load().key(wishlistEntryKey).now() != null) {
+                    ofy().delete().key(wishlistEntryKey).now();
                     return new WrappedBoolean(true);
                 } else {
                     return new WrappedBoolean(false, "You've not added this session in your wishlist");
@@ -688,23 +1563,54 @@ public class ConferenceApi {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        
-        Profile profile = getProfileFromUser(user); 
-        if (profile == null) {
-            throw new NotFoundException("Profile doesn't exist.");
-        }
+        return Session.loadConferenceNames(loadWishlist(user.getUserId()));
+    }
 
-        List<String> keyStringsInWishlist = profile.getSessionKeysInWishlist(); 
-        List<Key<Session>> keysInWishlist = new ArrayList<>();
-        for (String keyString : keyStringsInWishlist) {
-            keysInWishlist.add(Key.<Session>create(keyString));
+    /**
+     * Loads the sessions in the wishlist of the given user with one batch get.
+     */
+    private static Collection<Session> loadWishlist(final String userId) {
+        Key<Profile> profileKey = Key.create(Profile.class, userId);
+        List<Key<WishlistEntry>> wishlistEntryKeys = ofy().load().type(WishlistEntry.class)
+                .ancestor(profileKey).keys().list();
+        Set<Key<Session>> keysInWishlist = new LinkedHashSet<>();
+        for (Key<WishlistEntry> wishlistEntryKey : wishlistEntryKeys) {
+            keysInWishlist.add(WishlistEntry.getSessionKey(wishlistEntryKey));
+        }
+        Profile legacy = ProfileRelations.loadLegacy(userId);
+        if (legacy != null) {
+            for (String websafeSessionKey : legacy.getLegacySessionKeysInWishlist()) {
+                keysInWishlist.add(Key.<Session>create(websafeSessionKey));
+            }
         }
-        
         return ofy().load().keys(keysInWishlist).values();
     }
 
+    /**
+     * Returns the overlapping groups of sessions in the user's wishlist, and the schedule with
+     * the most minutes of sessions that don't overlap.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @return the WishlistSchedule.
+     * @throws UnauthorizedException when the User object is null.
+     */
+    @ApiMethod(
+            name = "getWishlistSchedule",
+            path = "wishlist/schedule",
+            httpMethod = HttpMethod.GET
+    )
+    public WishlistSchedule getWishlistSchedule(final User user) throws UnauthorizedException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        return WishlistSchedules.build(
+                Session.loadConferenceNames(loadWishlist(user.getUserId())));
+    }
+
     /**
      * Returns Announcement for featured speaker and sessions.
+     * @param websafeConferenceKey The String representation of the Conference Key, null for the
+     *     latest featured speaker of any conference.
      * @return Announcement for featured speaker and sessions.
      */
     @ApiMethod(
@@ -712,10 +1618,15 @@ public class ConferenceApi {
             path = "getFeaturedSpeaker",
             httpMethod = HttpMethod.GET
     )
-    public Announcement getFeaturedSpeaker() {
-        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+    public Announcement getFeaturedSpeaker(
+            @Nullable @Named("websafeConferenceKey") final String websafeConferenceKey) {
+        if (websafeConferenceKey != null) {
+            FeaturedSpeaker featuredSpeaker =
+                    ofy().load().key(FeaturedSpeaker.createKey(websafeConferenceKey)).now();
+            return featuredSpeaker == null ? null : new Announcement(featuredSpeaker.getMessage());
+        }
         String featuredSpeakerKey = Constants.MEMCACHE_FEATURED_SPEAKER_KEY;
-        Object message = memcacheService.get(featuredSpeakerKey);
+        Object message = ANNOUNCEMENTS.get(featuredSpeakerKey);
         if (message != null) {
             return new Announcement(message.toString());
         }
@@ -723,26 +1634,38 @@ public class ConferenceApi {
     }
 
     /**
-     * Returns sessions queried by user.
+     * Returns a page of sessions queried by user.
      *
      * @param sessionQueryForm A SessionQueryForm object representing user's inputs.
-     * @return sessions queried by user.
+     * @return a page of sessions queried by user, with the cursor of the next page.
+     * @throws BadRequestException when the cursor is invalid.
      */
     @ApiMethod(
             name = "querySessions",
             path = "querySessions",
             httpMethod = HttpMethod.POST
     )
-    public List<Session> querySessions(SessionQueryForm sessionQueryForm) {
-        Iterable<Session> sessionIterable = sessionQueryForm.getQuery();
-        List<Session> result = new ArrayList<>(0);
+    public CollectionResponse<Session> querySessions(SessionQueryForm sessionQueryForm)
+            throws BadRequestException {
+        CollectionResponse<Session> page = sessionQueryForm.page();
+        Session.loadConferenceNames(page.getItems());
+        return page;
+    }
 
-        for (Session session : sessionIterable) {
-            result.add(session);
-        }
-        
-        return result;
-    }    
+    /**
+     * Returns the execution plan of the given session query, for debugging.
+     *
+     * @param sessionQueryForm A SessionQueryForm object with the filters.
+     * @return the QueryPlan.
+     */
+    @ApiMethod(
+            name = "explainQuerySessions",
+            path = "explainQuerySessions",
+            httpMethod = HttpMethod.POST
+    )
+    public QueryPlan explainQuerySessions(SessionQueryForm sessionQueryForm) {
+        return sessionQueryForm.getPlan();
+    }
 
     /**
      * A method for query problem in final project rublic.
@@ -750,22 +1673,27 @@ public class ConferenceApi {
      * 
      * @param startTime start time of the session.
      * @param typeOfSession type of the session.
-     * @return list of sessions which starts before the startTime parameter, and excludes typeOfSession parameter.
+     * @param limit The maximum number of sessions in the page.
+     * @param cursor The nextPageToken of the previous page, null for the first page.
+     * @return a page of sessions which starts before the startTime parameter, and excludes typeOfSession parameter.
+     * @throws BadRequestException when the cursor is invalid.
      */
     @ApiMethod(
             name = "queryProblem",
             path = "queryProblem",
             httpMethod = HttpMethod.GET
     )
-    public List<Session> queryProblem(@Named("startTime") final int startTime, 
-        @Named("typeOfSession") final String typeOfSession) {
-        List<Session> sessionsByStartTime = ofy().load().type(Session.class).filter("startTime <", startTime).list();
-        List<Session> sessionsByTypeOfSession = ofy().load().type(Session.class).filter("typeOfSession =", typeOfSession).list();
-        for (Session session : sessionsByTypeOfSession) {
-            if (sessionsByStartTime.contains(session)) {
-                sessionsByStartTime.remove(session);
-            }
-        }
-        return sessionsByStartTime;
+    public CollectionResponse<Session> queryProblem(@Named("startTime") final int startTime, 
+        @Named("typeOfSession") final String typeOfSession,
+        @Nullable @Named("limit") final Integer limit,
+        @Nullable @Named("cursor") final String cursor) throws BadRequestException {
+        SessionQueryForm sessionQueryForm = new SessionQueryForm()
+                .filter(new SessionQueryForm.Filter(SessionQueryForm.Field.START_TIME,
+                        SessionQueryForm.Operator.LT, String.valueOf(startTime)))
+                .filter(new SessionQueryForm.Filter(SessionQueryForm.Field.TYPE_OF_SESSION,
+                        SessionQueryForm.Operator.NE, typeOfSession))
+                .limit(limit == null ? 0 : limit)
+                .cursor(cursor);
+        return querySessions(sessionQueryForm);
     }
 }
@@ -0,0 +1,26 @@
+package com.google.devrel.training.conference.spi;
+
+import com.google.api.server.spi.ServiceException;
+
+/**
+ * Answers a conditional read when the client already has the current version.
+ *
+ * The API front end of Endpoints only passes some status codes through, and turns a 304 into a
+ * 404, nor does it let an exception set an ETag header. So this is a 412 Precondition Failed,
+ * which it passes, with the ETag in the message. The client has the body of that version
+ * already.
+ */
+@SuppressWarnings("serial")
+public class NotModifiedException extends ServiceException {
+
+    private final String etag;
+
+    public NotModifiedException(final String etag) {
+        super(412, "Not modified: " + etag);
+        this.etag = etag;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+}
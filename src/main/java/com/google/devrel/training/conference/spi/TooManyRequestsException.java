@@ -0,0 +1,30 @@
+package com.google.devrel.training.conference.spi;
+
+import com.google.api.server.spi.response.ServiceUnavailableException;
+
+/**
+ * Turns a request away when its user or conference sent too many of them.
+ *
+ * The API front end of Endpoints only passes some status codes through, and turns a 429 into a
+ * 404, nor does it let an exception set a Retry-After header. So this is a 503, which clients
+ * retry, with the seconds to wait in the message.
+ */
+@SuppressWarnings("serial")
+public class TooManyRequestsException extends ServiceUnavailableException {
+
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(final long retryAfterMillis) {
+        super("Too many requests, please retry after " + toSeconds(retryAfterMillis)
+                + " seconds");
+        this.retryAfterSeconds = toSeconds(retryAfterMillis);
+    }
+
+    private static long toSeconds(final long millis) {
+        return (millis + 999) / 1000;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -72,7 +72,63 @@ app.filter('startFrom', function () {
  *
  */
 app.constant('HTTP_ERRORS', {
-    'UNAUTHORIZED': 401
+    'UNAUTHORIZED': 401,
+    'NOT_MODIFIED': 412
+});
+
+
+/**
+ * @ngdoc service
+ * @name etagCache
+ *
+ * @description
+ * Keeps the last copy and ETag of the resources read from the API, and sends the ETag with
+ * If-None-Match, so that the API answers NOT_MODIFIED instead of the same copy again.
+ *
+ */
+app.factory('etagCache', function (HTTP_ERRORS) {
+    var etagCache = {
+        API_PATH: '/_ah/api/conference/v1/'
+    };
+
+    var copies = {};
+
+    /**
+     * GETs a resource of the API, or gives its cached copy when it didn't change.
+     *
+     * The callback gets a response like the ones of the gapi.client.conference methods, with
+     * the resource in result, or the error and its code.
+     *
+     * @param {String} path the path of the resource, after the API_PATH.
+     * @param {Function} callback
+     */
+    etagCache.get = function (path, callback) {
+        var cached = copies[path];
+        gapi.client.request({
+            root: '//' + window.location.host,
+            path: etagCache.API_PATH + path,
+            method: 'GET',
+            headers: cached ? {'If-None-Match': cached.etag} : {}
+        }).execute(function (resp) {
+            if (resp && resp.error) {
+                if (cached && resp.error.code == HTTP_ERRORS.NOT_MODIFIED) {
+                    // The controllers change the copy they get, so they get a fresh one.
+                    callback({result: angular.copy(cached.result)});
+                } else {
+                    callback({error: resp.error, code: resp.error.code});
+                }
+                return;
+            }
+            if (resp && resp.etag) {
+                copies[path] = {etag: resp.etag, result: angular.copy(resp)};
+            } else {
+                delete copies[path];
+            }
+            callback({result: resp});
+        });
+    };
+
+    return etagCache;
 });
 
 
@@ -243,7 +243,7 @@ conferenceApp.controllers.controller('CreateConferenceCtrl',
  * @description
  * A controller used for the Show conferences page.
  */
-conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $log, oauth2Provider, HTTP_ERRORS) {
+conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $log, oauth2Provider, etagCache, HTTP_ERRORS) {
 
     /**
      * Holds the status if the query is being executed.
@@ -418,7 +418,45 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
     };
 
     /**
-     * Invokes the conference.queryConferences API.
+     * Holds the nextPageToken of the last page loaded, null when there are no more pages.
+     * @type {string}
+     */
+    $scope.nextPageToken = null;
+
+    /**
+     * Holds the function loading the page after the last one loaded, for the current tab.
+     * @type {function}
+     */
+    var loadNextPage = null;
+
+    /**
+     * Loads the next page of the conferences currently displayed, and appends them.
+     */
+    $scope.loadMore = function () {
+        if ($scope.nextPageToken && loadNextPage) {
+            loadNextPage($scope.nextPageToken);
+        }
+    };
+
+    /**
+     * Shows a page of conferences, replacing the conferences displayed for the first page and
+     * appending to them for the next ones.
+     *
+     * @param resp the response of the page.
+     * @param cursor the cursor the page was requested with, null for the first page.
+     */
+    var showPage = function (resp, cursor) {
+        var items = resp.result.items || [];
+        $scope.conferences = cursor ? $scope.conferences.concat(items) : items;
+        if (!cursor) {
+            $scope.pagination.currentPage = 0;
+        }
+        $scope.nextPageToken = resp.result.nextPageToken || null;
+    };
+
+    /**
+     * Invokes the conference.queryConferences API for the first page of the matching
+     * conferences. The next pages are loaded by loadMore.
      */
     $scope.queryConferencesAll = function () {
         var sendFilters = {
@@ -434,79 +472,84 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                 });
             }
         }
-        $scope.loading = true;
-        gapi.client.conference.queryConferences(sendFilters).
-            execute(function (resp) {
-                $scope.$apply(function () {
-                    $scope.loading = false;
-                    if (resp.error) {
-                        // The request has failed.
-                        var errorMessage = resp.error.message || '';
-                        $scope.messages = 'Failed to query conferences : ' + errorMessage;
-                        $scope.alertStatus = 'warning';
-                        $log.error($scope.messages + ' filters : ' + JSON.stringify(sendFilters));
-                    } else {
-                        // The request has succeeded.
-                        $scope.submitted = false;
-                        $scope.messages = 'Query succeeded : ' + JSON.stringify(sendFilters);
-                        $scope.alertStatus = 'success';
-                        $log.info($scope.messages);
+        // The next pages keep the filters of the first one, even if they are edited meanwhile.
+        loadNextPage = function (cursor) {
+            var request = cursor ? angular.extend({cursor: cursor}, sendFilters) : sendFilters;
+            $scope.loading = true;
+            gapi.client.conference.queryConferences(request).
+                execute(function (resp) {
+                    $scope.$apply(function () {
+                        $scope.loading = false;
+                        if (resp.error) {
+                            // The request has failed.
+                            var errorMessage = resp.error.message || '';
+                            $scope.messages = 'Failed to query conferences : ' + errorMessage;
+                            $scope.alertStatus = 'warning';
+                            $log.error($scope.messages + ' filters : ' + JSON.stringify(sendFilters));
+                        } else {
+                            // The request has succeeded.
+                            $scope.submitted = false;
+                            $scope.messages = 'Query succeeded : ' + JSON.stringify(sendFilters);
+                            $scope.alertStatus = 'success';
+                            $log.info($scope.messages);
 
-                        $scope.conferences = [];
-                        angular.forEach(resp.items, function (conference) {
-                            $scope.conferences.push(conference);
-                        });
-                    }
-                    $scope.submitted = true;
+                            showPage(resp, cursor);
+                        }
+                        $scope.submitted = true;
+                    });
                 });
-            });
+        };
+        loadNextPage(null);
     }
 
     /**
-     * Invokes the conference.getConferencesCreated method.
+     * Invokes the conference.getConferencesCreated method for the first page of the conferences
+     * created. The next pages are loaded by loadMore.
      */
     $scope.getConferencesCreated = function () {
-        $scope.loading = true;
-        gapi.client.conference.getConferencesCreated().
-            execute(function (resp) {
-                $scope.$apply(function () {
-                    $scope.loading = false;
-                    if (resp.error) {
-                        // The request has failed.
-                        var errorMessage = resp.error.message || '';
-                        $scope.messages = 'Failed to query the conferences created : ' + errorMessage;
-                        $scope.alertStatus = 'warning';
-                        $log.error($scope.messages);
+        loadNextPage = function (cursor) {
+            $scope.loading = true;
+            gapi.client.conference.getConferencesCreated(cursor ? {cursor: cursor} : {}).
+                execute(function (resp) {
+                    $scope.$apply(function () {
+                        $scope.loading = false;
+                        if (resp.error) {
+                            // The request has failed.
+                            var errorMessage = resp.error.message || '';
+                            $scope.messages = 'Failed to query the conferences created : ' + errorMessage;
+                            $scope.alertStatus = 'warning';
+                            $log.error($scope.messages);
 
-                        if (resp.code && resp.code == HTTP_ERRORS.UNAUTHORIZED) {
-                            oauth2Provider.showLoginModal();
-                            return;
-                        }
-                    } else {
-                        // The request has succeeded.
-                        $scope.submitted = false;
-                        $scope.messages = 'Query succeeded : Conferences you have created';
-                        $scope.alertStatus = 'success';
-                        $log.info($scope.messages);
+                            if (resp.code && resp.code == HTTP_ERRORS.UNAUTHORIZED) {
+                                oauth2Provider.showLoginModal();
+                                return;
+                            }
+                        } else {
+                            // The request has succeeded.
+                            $scope.submitted = false;
+                            $scope.messages = 'Query succeeded : Conferences you have created';
+                            $scope.alertStatus = 'success';
+                            $log.info($scope.messages);
 
-                        $scope.conferences = [];
-                        angular.forEach(resp.items, function (conference) {
-                            $scope.conferences.push(conference);
-                        });
-                    }
-                    $scope.submitted = true;
+                            showPage(resp, cursor);
+                        }
+                        $scope.submitted = true;
+                    });
                 });
-            });
+        };
+        loadNextPage(null);
     };
 
     /**
-     * Retrieves the conferences to attend by calling the conference.getProfile method and
-     * invokes the conference.getConference method n times where n == the number of the conferences to attend.
+     * Invokes the conference.getConferencesToAttend method, through the etagCache so that an
+     * unchanged list isn't sent again.
      */
     $scope.getConferencesAttend = function () {
+        $scope.nextPageToken = null;
+        loadNextPage = null;
         $scope.loading = true;
-        gapi.client.conference.getConferencesToAttend().
-            execute(function (resp) {
+        etagCache.get('getConferencesToAttend',
+            function (resp) {
                 $scope.$apply(function () {
                     if (resp.error) {
                         // The request has failed.
@@ -520,8 +563,9 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                             return;
                         }
                     } else {
-                        // The request has succeeded.
-                        $scope.conferences = resp.result.items;
+                        // The request has succeeded, with all the conferences at once.
+                        $scope.conferences = resp.result.items || [];
+                        $scope.pagination.currentPage = 0;
                         $scope.loading = false;
                         $scope.messages = 'Query succeeded : Conferences you will attend (or you have attended)';
                         $scope.alertStatus = 'success';
@@ -541,21 +585,23 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
  * @description
  * A controller used for the conference detail page.
  */
-conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $log, $routeParams, HTTP_ERRORS) {
+conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $log, $routeParams, etagCache, HTTP_ERRORS) {
     $scope.conference = {};
 
     $scope.isUserAttending = false;
 
+    $scope.isUserWaitlisted = false;
+
     /**
      * Initializes the conference detail page.
-     * Invokes the conference.getConference method and sets the returned conference in the $scope.
+     * Invokes the conference.getConference method, through the etagCache so that an unchanged
+     * conference isn't sent again, and sets the returned conference in the $scope.
      *
      */
     $scope.init = function () {
         $scope.loading = true;
-        gapi.client.conference.getConference({
-            websafeConferenceKey: $routeParams.websafeConferenceKey
-        }).execute(function (resp) {
+        var path = 'conference/' + encodeURIComponent($routeParams.websafeConferenceKey);
+        etagCache.get(path, function (resp) {
             $scope.$apply(function () {
                 $scope.loading = false;
                 if (resp.error) {
@@ -575,21 +621,23 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
 
         $scope.loading = true;
         // If the user is attending the conference, updates the status message and available function.
-        gapi.client.conference.getProfile().execute(function (resp) {
+        gapi.client.conference.getRegistration({
+            websafeConferenceKey: $routeParams.websafeConferenceKey
+        }).execute(function (resp) {
             $scope.$apply(function () {
                 $scope.loading = false;
                 if (resp.error) {
-                    // Failed to get a user profile.
-                } else {
-                    var profile = resp.result;
-                    for (var i = 0; i < profile.conferenceKeysToAttend.length; i++) {
-                        if ($routeParams.websafeConferenceKey == profile.conferenceKeysToAttend[i]) {
-                            // The user is attending the conference.
-                            $scope.alertStatus = 'info';
-                            $scope.messages = 'You are attending this conference';
-                            $scope.isUserAttending = true;
-                        }
-                    }
+                    // Failed to get the registration status.
+                } else if (resp.result.result) {
+                    // The user is attending the conference.
+                    $scope.alertStatus = 'info';
+                    $scope.messages = 'You are attending this conference';
+                    $scope.isUserAttending = true;
+                } else if (resp.result.waitlisted) {
+                    // The user waits for a seat.
+                    $scope.alertStatus = 'info';
+                    $scope.messages = 'You are on the waitlist of this conference';
+                    $scope.isUserWaitlisted = true;
                 }
             });
         });
@@ -618,12 +666,18 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
                         return;
                     }
                 } else {
-                    if (resp.result) {
+                    if (resp.result.result) {
                         // Register succeeded.
                         $scope.messages = 'Registered for the conference';
                         $scope.alertStatus = 'success';
                         $scope.isUserAttending = true;
                         $scope.conference.seatsAvailable = $scope.conference.seatsAvailable - 1;
+                    } else if (resp.result.waitlisted) {
+                        // The conference is sold out, and the user waits for a seat.
+                        $scope.messages = resp.result.reason
+                            + ', you will be registered when a seat frees up';
+                        $scope.alertStatus = 'info';
+                        $scope.isUserWaitlisted = true;
                     } else {
                         $scope.messages = 'Failed to register for the conference';
                         $scope.alertStatus = 'warning';
@@ -654,7 +708,13 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
                         return;
                     }
                 } else {
-                    if (resp.result) {
+                    if (resp.result.result && resp.result.waitlisted) {
+                        // The user left the waitlist, which frees no seat.
+                        $scope.messages = 'Left the waitlist of the conference';
+                        $scope.alertStatus = 'success';
+                        $scope.isUserWaitlisted = false;
+                        $log.info($scope.messages);
+                    } else if (resp.result.result) {
                         // Unregister succeeded.
                         $scope.messages = 'Unregistered from the conference';
                         $scope.alertStatus = 'success';
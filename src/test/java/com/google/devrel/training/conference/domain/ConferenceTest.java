@@ -101,6 +101,37 @@ public class ConferenceTest {
         assertEquals(displayName, conference.getOrganizerDisplayName());
     }
 
+    @Test
+    public void testDenormalizedOrganizerDisplayName() throws Exception {
+        // The copied name is used without looking at the Profile.
+        Profile profile = new Profile(ORGANIZER_USER_ID, "Old Name", "", null);
+        ofy().save().entity(profile).now();
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
+        conference.updateOrganizerDisplayName("New Name");
+        assertEquals("New Name", conference.getOrganizerDisplayName());
+    }
+
+    @Test
+    public void testLoadOrganizerDisplayNames() throws Exception {
+        Profile profile = new Profile(ORGANIZER_USER_ID, "Udacity Student", "", null);
+        ofy().save().entity(profile).now();
+        List<Conference> conferences = new ArrayList<>();
+        for (long id = ID; id < ID + 3; id++) {
+            conferences.add(new Conference(id, ORGANIZER_USER_ID, conferenceForm));
+        }
+        Conference orphan = new Conference(ID + 3, "nobody", conferenceForm);
+        conferences.add(orphan);
+        Conference.loadOrganizerDisplayNames(conferences);
+
+        // The names come from the batch get, without reading the Profile again.
+        ofy().delete().entity(profile).now();
+        ofy().clear();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Udacity Student", conferences.get(i).getOrganizerDisplayName());
+        }
+        assertEquals("nobody", orphan.getOrganizerDisplayName());
+    }
+
     @Test
     public void testBookSeats() throws Exception {
         Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
@@ -0,0 +1,159 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceNotification;
+import com.google.devrel.training.conference.domain.Outbox;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for the notification of the attendees of a changed conference.
+ */
+public class AttendeeNotificationsTest {
+
+    private static final String USER_ID = "123456789";
+
+    private ConferenceApi conferenceApi;
+
+    private User organizer;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(SearchIndexTest.ConsistentJobPolicy.class),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath(MailerTest.QUEUE_XML));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+        organizer = new User("example@gmail.com", "gmail.com", USER_ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    /**
+     * Returns the userIds carried by each enqueued shard task.
+     */
+    private static List<List<String>> shardTasks() throws Exception {
+        QueueStateInfo queue = LocalTaskQueueTestConfig.getLocalTaskQueue()
+                .getQueueStateInfo().get(QueueFactory.getDefaultQueue().getQueueName());
+        List<List<String>> shards = new ArrayList<>();
+        for (QueueStateInfo.TaskStateInfo task : queue.getTaskInfo()) {
+            if (!task.getUrl().equals("/tasks/notify_attendees")) {
+                continue;
+            }
+            List<String> userIds = new ArrayList<>();
+            for (String param : task.getBody().split("&")) {
+                if (param.startsWith("userId=")) {
+                    userIds.add(URLDecoder.decode(param.substring(7), "UTF-8"));
+                }
+            }
+            if (!userIds.isEmpty()) {
+                shards.add(userIds);
+            }
+        }
+        return shards;
+    }
+
+    @Test
+    public void testChangedCityNotifiesAttendeesInShards() throws Exception {
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                "Cloud Summit", null, null, "London", null, null, 10));
+        String key = conference.getWebsafeKey();
+        for (int i = 0; i < 3; i++) {
+            conferenceApi.registerForConference(
+                    new User("user" + i + "@gmail.com", "gmail.com", "user" + i), key);
+        }
+
+        // Changing only the name notifies nobody.
+        conferenceApi.updateConference(organizer, new ConferenceForm(
+                "Cloud Summit 2015", null, null, "London", null, null, 10), key);
+        assertNull(AttendeeNotifications.load(key));
+
+        conference = conferenceApi.updateConference(organizer, new ConferenceForm(
+                "Cloud Summit 2015", null, null, "Paris", null, null, 10), key);
+        assertEquals("Paris", conference.getCity());
+        assertEquals(7, conference.getSeatsAvailable());
+        ConferenceNotification notification =
+                conferenceApi.getConferenceNotification(organizer, key);
+        assertEquals(ConferenceNotification.Status.PLANNING, notification.getStatus());
+        long generation = notification.getGeneration();
+
+        // Two attendees per shard and one shard per planner task.
+        AttendeeNotifications.plan(key, generation, 0, 2, 1);
+        AttendeeNotifications.plan(key, generation, 0, 2, 1);
+        assertEquals(1, AttendeeNotifications.load(key).getShards());
+        AttendeeNotifications.plan(key, generation, 1, 2, 1);
+        notification = AttendeeNotifications.load(key);
+        assertTrue(notification.isPlanned());
+        assertEquals(2, notification.getShards());
+        assertEquals(3, notification.getRecipients());
+        assertEquals(ConferenceNotification.Status.SENDING, notification.getStatus());
+
+        List<List<String>> shards = shardTasks();
+        assertEquals(2, shards.size());
+        Set<String> userIds = new HashSet<>();
+        for (int i = 0; i < shards.size(); i++) {
+            AttendeeNotifications.notifyShard(key, generation, i, shards.get(i));
+            // Running a shard again does nothing.
+            AttendeeNotifications.notifyShard(key, generation, i, shards.get(i));
+            userIds.addAll(shards.get(i));
+        }
+        assertEquals(3, userIds.size());
+        for (String userId : userIds) {
+            assertEquals(1, ofy().load().key(Outbox.createKey(userId)).now().size());
+        }
+
+        notification = conferenceApi.getConferenceNotification(organizer, key);
+        assertEquals(ConferenceNotification.Status.DONE, notification.getStatus());
+        assertEquals(3, notification.getRecipientsNotified());
+    }
+
+    @Test
+    public void testNewChangeStopsThePreviousNotification() throws Exception {
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                "Cloud Summit", null, null, "London", null, null, 10));
+        String key = conference.getWebsafeKey();
+        conferenceApi.registerForConference(new User("a@gmail.com", "gmail.com", "a"), key);
+
+        conferenceApi.updateConference(organizer, new ConferenceForm(
+                "Cloud Summit", null, null, "Paris", null, null, 10), key);
+        long generation = AttendeeNotifications.load(key).getGeneration();
+        conferenceApi.updateConference(organizer, new ConferenceForm(
+                "Cloud Summit", null, null, "Berlin", null, null, 10), key);
+
+        AttendeeNotifications.plan(key, generation, 0);
+        AttendeeNotifications.notifyShard(key, generation, 0, Arrays.asList("a"));
+        ConferenceNotification notification = AttendeeNotifications.load(key);
+        assertEquals(generation + 1, notification.getGeneration());
+        assertEquals(0, notification.getShards());
+        assertNull(ofy().load().key(Outbox.createKey("a")).now());
+    }
+}
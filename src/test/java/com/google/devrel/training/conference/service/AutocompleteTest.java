@@ -0,0 +1,130 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.AutocompletePrefix;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.Suggestion;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.SessionForm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the autocomplete prefixes.
+ */
+public class AutocompleteTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static List<String> values(List<Suggestion> suggestions) {
+        List<String> values = new ArrayList<>();
+        for (Suggestion suggestion : suggestions) {
+            values.add(suggestion.getField() + "=" + suggestion.getValue());
+        }
+        return values;
+    }
+
+    @Test
+    public void testSuggestsPrefixesOfValuesAndWords() throws Exception {
+        Conference conference = new Conference(1001L, "organizer", new ConferenceForm(
+                "San Diego Summit", null, ImmutableList.of("Cloud"), "San Francisco",
+                null, null, 10));
+        Autocomplete.put(conference);
+        Autocomplete.put(new Session(1L, conference.getWebsafeKey(), new SessionForm(
+                "Keynote", null, "Sandra  Smith", null, 9, null, 60)));
+        // Adding a value again changes nothing.
+        Autocomplete.put(conference);
+
+        assertEquals(ImmutableList.of("name=San Diego Summit", "speaker=Sandra  Smith",
+                "city=San Francisco"), values(Autocomplete.suggest("SAN", null, null)));
+        assertEquals(ImmutableList.of("city=San Francisco"),
+                values(Autocomplete.suggest(" san  fr", null, null)));
+        assertEquals(ImmutableList.of("city=San Francisco"),
+                values(Autocomplete.suggest("fran", Autocomplete.CITY, null)));
+        assertEquals(ImmutableList.of("speaker=Sandra  Smith"),
+                values(Autocomplete.suggest("smi", null, null)));
+        // Longer than the stored prefixes.
+        assertEquals(ImmutableList.of("name=San Diego Summit"),
+                values(Autocomplete.suggest("san diego sum", null, null)));
+        assertTrue(Autocomplete.suggest("san diego sun", null, null).isEmpty());
+        assertEquals(1, Autocomplete.suggest("san", null, 1).size());
+        assertTrue(Autocomplete.suggest("  ", null, null).isEmpty());
+    }
+
+    @Test
+    public void testRemovesValuesNoConferenceHas() throws Exception {
+        Conference renamed = new Conference(1001L, "organizer", new ConferenceForm(
+                "Old Summit", null, ImmutableList.of("Cloud"), "Tokyo", null, null, 10));
+        Conference other = new Conference(1002L, "organizer", new ConferenceForm(
+                "Other Summit", null, ImmutableList.of("Cloud"), "Tokyo", null, null, 10));
+        ofy().save().entity(other).now();
+        // A get applies the write, so the queries see it.
+        ofy().clear();
+        ofy().cache(false).load().entity(other).now();
+        Autocomplete.putAll(ImmutableList.of(renamed, other), ImmutableList.<Session>of());
+
+        // The renamed conference isn't saved, as if it had lost its values.
+        Autocomplete.removeUnused(Autocomplete.valuesOf(renamed));
+        assertTrue(Autocomplete.suggest("old", null, null).isEmpty());
+        assertEquals(ImmutableList.of("name=Other Summit"),
+                values(Autocomplete.suggest("summ", Autocomplete.NAME, null)));
+        // The other conference still has the city and the topic.
+        assertEquals(ImmutableList.of("city=Tokyo"),
+                values(Autocomplete.suggest("tok", null, null)));
+        assertEquals(ImmutableList.of("topic=Cloud"),
+                values(Autocomplete.suggest("clo", null, null)));
+    }
+
+    @Test
+    public void testKeepsFirstValuesInOrder() throws Exception {
+        AutocompletePrefix prefix = new AutocompletePrefix(Autocomplete.CITY, "b");
+        for (int i = AutocompletePrefix.MAX_VALUES; i >= 0; i--) {
+            assertTrue(prefix.add("B" + (char) ('a' + i)));
+        }
+        assertFalse(prefix.add("BA"));
+        assertFalse(prefix.add("Bz"));
+        assertEquals(AutocompletePrefix.MAX_VALUES, prefix.getValues().size());
+        assertEquals("Ba", prefix.getValues().get(0));
+        assertEquals("B" + (char) ('a' + AutocompletePrefix.MAX_VALUES - 1),
+                prefix.getValues().get(AutocompletePrefix.MAX_VALUES - 1));
+    }
+
+    @Test
+    public void testRemoveFreesTheSlotOfAValue() throws Exception {
+        AutocompletePrefix prefix = new AutocompletePrefix(Autocomplete.CITY, "b");
+        for (int i = 0; i < AutocompletePrefix.MAX_VALUES; i++) {
+            assertTrue(prefix.add("B" + (char) ('a' + i)));
+        }
+        assertFalse(prefix.add("Bz"));
+        assertTrue(prefix.remove("BA"));
+        assertFalse(prefix.remove("BA"));
+        assertTrue(prefix.add("Bz"));
+        assertEquals("Bz", prefix.getValues().get(AutocompletePrefix.MAX_VALUES - 1));
+    }
+}
@@ -0,0 +1,188 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ImportJob;
+import com.google.devrel.training.conference.domain.ImportRef;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.Speaker;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ImportForm;
+import com.google.devrel.training.conference.form.ImportForm.Format;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.Key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the bulk import.
+ */
+public class BulkImportTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final String EMAIL = "example@gmail.com";
+
+    private ConferenceApi conferenceApi;
+
+    private Profile profile;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(SearchIndexTest.ConsistentJobPolicy.class),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath(MailerTest.QUEUE_XML));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+        profile = new Profile(USER_ID, "Organizer", EMAIL, TeeShirtSize.NOT_SPECIFIED);
+        ofy().save().entity(profile).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static int countTasks(String url) {
+        return countTasks(QueueFactory.getDefaultQueue().getQueueName(), url);
+    }
+
+    private static int countTasks(String queueName, String url) {
+        QueueStateInfo queue = LocalTaskQueueTestConfig.getLocalTaskQueue()
+                .getQueueStateInfo().get(queueName);
+        int count = 0;
+        for (QueueStateInfo.TaskStateInfo task : queue.getTaskInfo()) {
+            if (task.getUrl().equals(url)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static ImportJob reload(ImportJob job) {
+        ofy().clear();
+        return ofy().load().key(ImportJob.createKey(job.getId())).now();
+    }
+
+    @Test
+    public void testImportJsonLinesInChunks() throws Exception {
+        String data = Joiner.on('\n').join(
+                "{\"type\": \"conference\", \"ref\": \"c1\", \"name\": \"Cloud Summit\", "
+                        + "\"city\": \"London\", \"topics\": [\"Cloud\"], \"maxAttendees\": 3}",
+                "{\"type\": \"session\", \"conference\": \"c1\", \"name\": \"Keynote\", "
+                        + "\"speaker\": \"Larry\", \"startTime\": 9, \"duration\": 60}",
+                "{\"type\": \"session\", \"conference\": \"c1\", \"name\": \"Closing\", "
+                        + "\"speaker\": \"Larry\", \"startTime\": 17}",
+                "{\"type\": \"session\", \"conference\": \"nope\", \"name\": \"Lost\"}",
+                "not json",
+                "{\"type\": \"conference\", \"name\": \"Web \\\"Week\\\"\", \"city\": \"Berlin\", "
+                        + "\"maxAttendees\": 10, \"startDate\": \"2014-06-02\"}");
+        ImportJob job = BulkImport.start(profile, new ImportForm(Format.JSONL, data), 2);
+        assertEquals(3, job.getChunkCount());
+        assertEquals(1, countTasks("/tasks/import"));
+
+        // Each chunk is imported once, however many times its task runs.
+        BulkImport.importChunk(job.getId(), 0);
+        BulkImport.importChunk(job.getId(), 0);
+        BulkImport.importChunk(job.getId(), 2);
+        job = reload(job);
+        assertEquals(1, job.getNextChunk());
+        assertEquals(2, job.getProcessedLines());
+        assertEquals(1, job.getSessionsImported());
+        BulkImport.importChunk(job.getId(), 1);
+        BulkImport.importChunk(job.getId(), 2);
+        job = reload(job);
+        assertEquals(ImportJob.Status.FINISHING, job.getStatus());
+        assertEquals(6, job.getProcessedLines());
+        assertEquals(2, job.getConferencesImported());
+        assertEquals(2, job.getSessionsImported());
+        assertEquals(ImmutableList.of("Line 4: Unknown conference nope",
+                "Line 5: Expected '{' at column 1"), job.getErrors());
+        assertEquals(ImmutableMap.of("Berlin", 1, "London", 1),
+                FacetCounters.load().getCities());
+
+        // The derived data is updated one chunk per task, with the same checkpoints.
+        BulkImport.finish(job.getId(), 0);
+        BulkImport.finish(job.getId(), 0);
+        BulkImport.finish(job.getId(), 2);
+        job = reload(job);
+        assertEquals(ImportJob.Status.FINISHING, job.getStatus());
+        assertEquals(1, job.getNextFinishChunk());
+        BulkImport.finish(job.getId(), 1);
+        BulkImport.finish(job.getId(), 2);
+        BulkImport.finish(job.getId(), 2);
+        job = reload(job);
+        assertEquals(ImportJob.Status.DONE, job.getStatus());
+        assertEquals(1, countTasks(Mailer.QUEUE_NAME, "/tasks/send_mail"));
+
+        String websafeConferenceKey = ofy().load().key(
+                ImportRef.createKey(Key.create(job), "c1")).now().getWebsafeConferenceKey();
+        Conference conference = ofy().load().key(
+                Key.<Conference>create(websafeConferenceKey)).now();
+        assertEquals("Cloud Summit", conference.getName());
+        assertEquals("Organizer", conference.getOrganizerDisplayName());
+        List<String> names = new ArrayList<>();
+        for (Session session : conferenceApi.getConferenceSessions(
+                websafeConferenceKey, null, null, null).getItems()) {
+            names.add(session.getName());
+            assertEquals("Cloud Summit", session.getConferenceName());
+        }
+        assertEquals(ImmutableList.of("Keynote", "Closing"), names);
+        assertEquals(2, ofy().load().key(Speaker.createKey("larry")).now()
+                .getSessionCount(websafeConferenceKey));
+        assertEquals(1, conferenceApi.search("keynote", null, null, null).getItems().size());
+        assertEquals(ImmutableList.of(Key.create(conference)),
+                ofy().load().key(NearlySoldOut.createKey()).now().getConferenceKeys());
+        assertEquals(1, Autocomplete.suggest("web", Autocomplete.NAME, null).size());
+    }
+
+    @Test
+    public void testImportCsvIntoExistingConference() throws Exception {
+        Conference existing = conferenceApi.createConference(
+                new User(EMAIL, "gmail.com", USER_ID), new ConferenceForm(
+                        "Existing", null, null, "Paris", null, null, 10));
+        String data = Joiner.on('\n').join(
+                "type,conference,name,speaker,date,topics",
+                "session," + existing.getWebsafeKey() + ",\"Hello, world\",Sergey,2014-03-25,",
+                "",
+                "session," + existing.getWebsafeKey() + ",Broken,Sergey,25/03/2014,");
+        ImportJob job = conferenceApi.importConferences(new User(EMAIL, "gmail.com", USER_ID),
+                new ImportForm(Format.CSV, data));
+        BulkImport.importChunk(job.getId(), 0);
+        BulkImport.finish(job.getId(), 0);
+        job = reload(job);
+        assertEquals(ImportJob.Status.DONE, job.getStatus());
+        assertEquals(1, job.getSessionsImported());
+        assertEquals(ImmutableList.of("Line 4: date must be a yyyy-MM-dd date: 25/03/2014"),
+                job.getErrors());
+        Session session = conferenceApi.getConferenceSessions(existing.getWebsafeKey(), null,
+                null, null).getItems().iterator().next();
+        assertEquals("Hello, world", session.getName());
+        assertEquals("Existing", session.getConferenceName());
+    }
+}
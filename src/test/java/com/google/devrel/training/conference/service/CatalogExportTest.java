@@ -0,0 +1,153 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ExportBlob;
+import com.google.devrel.training.conference.domain.ExportJob;
+import com.google.devrel.training.conference.domain.ExportJob.Status;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.form.SessionForm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for the export of the conferences, sessions and profiles.
+ */
+public class CatalogExportTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(SearchIndexTest.ConsistentJobPolicy.class),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath(MailerTest.QUEUE_XML));
+
+    private List<Conference> conferences;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        Profile profile = new Profile(USER_ID, "Organizer", "example@gmail.com",
+                TeeShirtSize.NOT_SPECIFIED);
+        conferences = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            conferences.add(new Conference(i + 1, USER_ID, new ConferenceForm(
+                    "Conference \"" + i + "\"", "Line one\nline two", Arrays.asList("Cloud"),
+                    "London", null, null, 10)));
+        }
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sessions.add(new Session(i + 1, conferences.get(0).getWebsafeKey(),
+                    new SessionForm("Session " + i, null, "Speaker", null, 10, null, 60)));
+        }
+        ofy().save().entity(profile).now();
+        ofy().save().entities(conferences).now();
+        ofy().save().entities(sessions).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CatalogExport.setStore(new DatastoreExportStore());
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static ExportJob reload(ExportJob job) {
+        ofy().clear();
+        return ofy().load().key(ExportJob.createKey(job.getId())).now();
+    }
+
+    /**
+     * Runs the parts of the export as the chained tasks would, and returns its lines.
+     */
+    private static List<String> run(ExportJob job, int chunkSize, int chunksPerTask)
+            throws Exception {
+        for (int i = 0; i < 20 && job.getStatus() != Status.DONE; i++) {
+            CatalogExport.exportPart(job.getId(), job.getParts().size(), chunkSize,
+                    chunksPerTask);
+            job = reload(job);
+        }
+        assertEquals(Status.DONE, job.getStatus());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CatalogExport.copyTo(job, out);
+        String text = out.toString("UTF-8");
+        // Every line ends with a newline.
+        return text.isEmpty() ? new ArrayList<String>()
+                : Arrays.asList(text.substring(0, text.length() - 1).split("\n"));
+    }
+
+    @Test
+    public void testExportsAllKindsInParts() throws Exception {
+        ExportJob job = CatalogExport.start(null);
+        List<String> lines = run(job, 2, 2);
+
+        assertEquals(9, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"kind\":\"Conference\",\"key\":\""
+                + conferences.get(0).getWebsafeKey() + "\",\"name\":\"Conference \\\"0\\\"\","
+                + "\"description\":\"Line one\\nline two\""));
+        assertTrue(lines.get(5).startsWith("{\"kind\":\"Session\""));
+        assertTrue(lines.get(8).startsWith("{\"kind\":\"Profile\""));
+        assertTrue(lines.get(8).contains("\"mainEmail\":\"example@gmail.com\""));
+
+        job = reload(job);
+        // 5 conferences take 3 chunks of 2, 3 sessions 2 chunks and the profile 1 chunk.
+        assertEquals(3, job.getParts().size());
+        assertEquals(5, job.getCount("Conference"));
+        assertEquals(3, job.getCount("Session"));
+        assertEquals(1, job.getCount("Profile"));
+
+        // Running a part again does nothing.
+        CatalogExport.exportPart(job.getId(), 0, 2, 2);
+        assertEquals(3, reload(job).getParts().size());
+    }
+
+    @Test
+    public void testPartsSpanSeveralBlobs() throws Exception {
+        CatalogExport.setStore(new DatastoreExportStore(100));
+        ExportJob job = CatalogExport.start(null);
+        List<String> lines = run(job, CatalogExport.CHUNK_SIZE, CatalogExport.CHUNKS_PER_TASK);
+
+        assertEquals(9, lines.size());
+        String part = reload(job).getParts().get(0);
+        assertNotNull(ofy().load().key(ExportBlob.createKey(part, 1)).now());
+
+        CatalogExport.getStore().delete(part);
+        ofy().clear();
+        assertNull(ofy().load().key(ExportBlob.createKey(part, 0)).now());
+        assertNull(ofy().load().key(ExportBlob.createKey(part, 1)).now());
+    }
+
+    @Test
+    public void testExportsOnlyEntitiesSavedSince() throws Exception {
+        Thread.sleep(5);
+        Date since = new Date();
+        Thread.sleep(5);
+        Conference conference = ofy().load().entity(conferences.get(2)).now();
+        ofy().save().entity(conference).now();
+
+        List<String> lines = run(CatalogExport.start(since), CatalogExport.CHUNK_SIZE,
+                CatalogExport.CHUNKS_PER_TASK);
+
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains(conference.getWebsafeKey()));
+    }
+}
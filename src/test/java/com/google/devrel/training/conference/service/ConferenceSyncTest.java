@@ -0,0 +1,173 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceChanges;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.SessionForm;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the sync of the conferences.
+ */
+public class ConferenceSyncTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final String EMAIL = "example@gmail.com";
+
+    /**
+     * Far enough ahead for every change to be past the lag.
+     */
+    private static final long LATER = Long.MAX_VALUE / 2;
+
+    private ConferenceApi conferenceApi;
+
+    private User user;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(SearchIndexTest.ConsistentJobPolicy.class),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath(MailerTest.QUEUE_XML));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+        user = new User(EMAIL, "gmail.com", USER_ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private Conference create(String name) throws Exception {
+        // Keeps the stamps of the conferences apart.
+        Thread.sleep(2);
+        return conferenceApi.createConference(user, new ConferenceForm(
+                name, null, null, "London", null, null, 10));
+    }
+
+    private static List<String> keys(ConferenceChanges changes) {
+        List<String> keys = new ArrayList<>();
+        for (Conference conference : changes.getChanged()) {
+            keys.add(conference.getWebsafeKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void testSyncsChangesAndDeletions() throws Exception {
+        Conference first = create("First");
+        Conference second = create("Second");
+        Conference third = create("Third");
+
+        ConferenceChanges changes = ConferenceSync.since(null, 2, LATER);
+        assertEquals(ImmutableList.of(first.getWebsafeKey(), second.getWebsafeKey()),
+                keys(changes));
+        assertTrue(changes.isMore());
+        assertEquals(ofy().load().entity(second).now().getVersion(), changes.getWatermark());
+
+        changes = ConferenceSync.since(changes.getWatermark(), 2, LATER);
+        assertEquals(ImmutableList.of(third.getWebsafeKey()), keys(changes));
+        assertFalse(changes.isMore());
+        long watermark = changes.getWatermark();
+        assertTrue(ConferenceSync.since(watermark, null, LATER).getChanged().isEmpty());
+
+        Thread.sleep(2);
+        conferenceApi.registerForConference(user, first.getWebsafeKey());
+        Thread.sleep(2);
+        conferenceApi.deleteConference(user, second.getWebsafeKey());
+        ofy().clear();
+
+        changes = ConferenceSync.since(watermark, null, LATER);
+        assertEquals(ImmutableList.of(first.getWebsafeKey()), keys(changes));
+        assertEquals(9, changes.getChanged().get(0).getSeatsAvailable());
+        assertEquals(ImmutableList.of(second.getWebsafeKey()), changes.getDeleted());
+        assertFalse(changes.isMore());
+        // A full sync skips the deletions.
+        assertTrue(ConferenceSync.since(null, null, LATER).getDeleted().isEmpty());
+    }
+
+    @Test
+    public void testSyncsOnlyTheShardedConferencesWhoseSeatsChanged() throws Exception {
+        List<Conference> sharded = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Conference conference = create("Sharded " + i);
+            conferenceApi.shardSeatInventory(user, conference.getWebsafeKey(), 2);
+            sharded.add(conference);
+        }
+        Thread.sleep(2);
+        long watermark = ConferenceSync.since(null, null, LATER).getWatermark();
+        Thread.sleep(2);
+        assertTrue(ConferenceSync.since(watermark, null, LATER).getChanged().isEmpty());
+
+        conferenceApi.registerForConference(user, sharded.get(2).getWebsafeKey());
+        Thread.sleep(2);
+        conferenceApi.registerForConference(user, sharded.get(0).getWebsafeKey());
+        ofy().clear();
+
+        // The seat changes are paged with the limit, in the order of their stamp.
+        ConferenceChanges changes = ConferenceSync.since(watermark, 1, LATER);
+        assertEquals(ImmutableList.of(sharded.get(2).getWebsafeKey()), keys(changes));
+        assertEquals(9, changes.getChanged().get(0).getSeatsAvailable());
+        assertTrue(changes.isMore());
+        changes = ConferenceSync.since(changes.getWatermark(), 1, LATER);
+        assertEquals(ImmutableList.of(sharded.get(0).getWebsafeKey()), keys(changes));
+        assertTrue(ConferenceSync.since(changes.getWatermark(), 1, LATER).getChanged()
+                .isEmpty());
+    }
+
+    @Test
+    public void testWatermarkStaysBehindRecentChanges() throws Exception {
+        Conference conference = create("First");
+        long version = ofy().load().entity(conference).now().getVersion();
+
+        ConferenceChanges changes = ConferenceSync.since(version - 1, null);
+        assertEquals(ImmutableList.of(conference.getWebsafeKey()), keys(changes));
+        // The change is too recent for the watermark to move past it.
+        assertEquals(version - 1, changes.getWatermark());
+        assertFalse(changes.isMore());
+    }
+
+    @Test
+    public void testDeleteOnlyEmptyConferences() throws Exception {
+        Conference conference = create("First");
+        try {
+            conferenceApi.deleteConference(new User("other@gmail.com", "gmail.com", "other"),
+                    conference.getWebsafeKey());
+            fail();
+        } catch (ForbiddenException expected) {
+        }
+        conferenceApi.createSession(user, new SessionForm("Keynote", null, "Larry", null, 9,
+                null, 60), conference.getWebsafeKey());
+        try {
+            conferenceApi.deleteConference(user, conference.getWebsafeKey());
+            fail();
+        } catch (ConflictException expected) {
+        }
+        assertNotNull(ofy().load().entity(conference).now());
+        assertEquals(1, FacetCounters.load().getCities().get("London").intValue());
+    }
+}
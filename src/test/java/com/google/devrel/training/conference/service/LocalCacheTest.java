@@ -0,0 +1,123 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.base.Ticker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for LocalCache.
+ */
+public class LocalCacheTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+    /**
+     * A Ticker moved forward by hand.
+     */
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    private FakeTicker ticker;
+
+    private MemcacheService memcache;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ticker = new FakeTicker();
+        memcache = MemcacheServiceFactory.getMemcacheService();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    @Test
+    public void testServesFromInstanceUntilExpiry() throws Exception {
+        LocalCache cache = new LocalCache("testExpiry", 16, 1000, ticker);
+        long misses = Metrics.get("localCache.testExpiry.misses");
+        long hits = Metrics.get("localCache.testExpiry.hits");
+        memcache.put("key", "first");
+        assertEquals("first", cache.get("key"));
+
+        memcache.put("key", "second");
+        ticker.advance(500);
+        assertEquals("first", cache.get("key"));
+
+        ticker.advance(1000);
+        assertEquals("second", cache.get("key"));
+        assertEquals(misses + 2, Metrics.get("localCache.testExpiry.misses"));
+        assertEquals(hits + 1, Metrics.get("localCache.testExpiry.hits"));
+    }
+
+    @Test
+    public void testRefreshesBeforeExpiry() throws Exception {
+        LocalCache cache = new LocalCache("testRefresh", 16, 1000, ticker);
+        memcache.put("key", "first");
+        assertEquals("first", cache.get("key"));
+
+        memcache.put("key", "second");
+        ticker.advance(800);
+        // Starts the refresh and serves the current value meanwhile.
+        assertEquals("first", cache.get("key"));
+        assertEquals(1, Metrics.get("localCache.testRefresh.refreshes"));
+
+        long misses = Metrics.get("localCache.testRefresh.misses");
+        Object value = cache.get("key");
+        for (int i = 0; i < 100 && !"second".equals(value); i++) {
+            Thread.sleep(10);
+            value = cache.get("key");
+        }
+        assertEquals("second", value);
+        assertEquals(misses, Metrics.get("localCache.testRefresh.misses"));
+    }
+
+    @Test
+    public void testCachesAbsentValues() throws Exception {
+        LocalCache cache = new LocalCache("testAbsent", 16, 1000, ticker);
+        long misses = Metrics.get("localCache.testAbsent.misses");
+        assertNull(cache.get("key"));
+        memcache.put("key", "written");
+        assertNull(cache.get("key"));
+        assertEquals(misses + 1, Metrics.get("localCache.testAbsent.misses"));
+    }
+
+    @Test
+    public void testEvictsOldestBeyondBound() throws Exception {
+        LocalCache cache = new LocalCache("testBound", 2, 1000, ticker);
+        memcache.put("a", "1");
+        memcache.put("b", "2");
+        memcache.put("c", "3");
+        assertEquals("1", cache.get("a"));
+        ticker.advance(1);
+        assertEquals("2", cache.get("b"));
+        ticker.advance(1);
+        assertEquals("3", cache.get("c"));
+        memcache.put("a", "from memcache");
+        memcache.put("c", "changed");
+        assertEquals("from memcache", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+    }
+}
@@ -0,0 +1,172 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.collect.ImmutableMap;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Outbox;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.VoidWork;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for the mail pipeline.
+ */
+public class MailerTest {
+
+    /**
+     * The queue.xml of the app, so that the tests send the mails through the mail queue.
+     */
+    public static final String QUEUE_XML = "src/main/webapp/WEB-INF/queue.xml";
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(SearchIndexTest.ConsistentJobPolicy.class),
+                    new LocalTaskQueueTestConfig().setQueueXmlPath(QUEUE_XML));
+
+    private MailTransport transport;
+
+    private CapturingMailTransport capture;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        transport = Mailer.getTransport();
+        capture = new CapturingMailTransport();
+        Mailer.setTransport(capture);
+        ofy().save().entity(new Profile(USER_ID, "Organizer", "example@gmail.com",
+                TeeShirtSize.NOT_SPECIFIED)).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Mailer.setTransport(transport);
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static int countTasks() {
+        QueueStateInfo queue = LocalTaskQueueTestConfig.getLocalTaskQueue()
+                .getQueueStateInfo().get(Mailer.QUEUE_NAME);
+        return queue.getTaskInfo().size();
+    }
+
+    private static Conference conference(long id, String name) {
+        Conference conference = new Conference(id, USER_ID, new ConferenceForm(
+                name, null, Arrays.asList("Cloud", "Mobile"), "London", null, null, 10));
+        ofy().save().entity(conference).now();
+        return conference;
+    }
+
+    private static void enqueue(final Conference conference) {
+        new TransactionRunner("test").run(new VoidWork() {
+            @Override
+            public void vrun() {
+                Mailer.enqueue(USER_ID, MailKind.CONFERENCE_CREATED, conference.getWebsafeKey());
+            }
+        });
+    }
+
+    @Test
+    public void testTemplate() throws Exception {
+        MailTemplate template = MailTemplate.compile("Hi {name}, {count} new{missing}!");
+        assertEquals("Hi Ann, 3 new!",
+                template.render(ImmutableMap.of("name", "Ann", "count", 3)));
+        assertEquals("No fields", MailTemplate.compile("No fields").render(
+                ImmutableMap.<String, Object>of()));
+        try {
+            MailTemplate.compile("Hi {name");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testSingleMail() throws Exception {
+        enqueue(conference(1, "Cloud Summit"));
+        Mailer.deliver(USER_ID);
+
+        List<CapturingMailTransport.Mail> mails = capture.drain();
+        assertEquals(1, mails.size());
+        assertEquals("example@gmail.com", mails.get(0).getTo());
+        assertEquals("You created a new Conference!", mails.get(0).getSubject());
+        assertTrue(mails.get(0).getBody().contains("Name: Cloud Summit\nCity: London\n"
+                + "Topics: Cloud, Mobile\n"));
+        assertNull(ofy().load().key(Outbox.createKey(USER_ID)).now());
+    }
+
+    @Test
+    public void testBurstIsCoalescedIntoDigests() throws Exception {
+        List<Conference> conferences = new ArrayList<>();
+        for (int i = 1; i <= Mailer.MAX_DIGEST_SIZE + 2; i++) {
+            conferences.add(conference(i, "Conference " + i));
+            enqueue(conferences.get(i - 1));
+        }
+        // Only the first mail of the burst enqueued a task.
+        assertEquals(1, countTasks());
+        // A mail about a conference deleted since is skipped.
+        ofy().delete().entity(conferences.get(1)).now();
+
+        Mailer.deliver(USER_ID);
+        List<CapturingMailTransport.Mail> mails = capture.drain();
+        assertEquals(1, mails.size());
+        assertEquals("You have " + (Mailer.MAX_DIGEST_SIZE - 1)
+                + " updates from Conference Central", mails.get(0).getSubject());
+        assertTrue(mails.get(0).getBody().contains("Name: Conference 1\n"));
+        assertFalse(mails.get(0).getBody().contains("Name: Conference 2\n"));
+        // The rest goes in the next digest, at once.
+        assertEquals(2, ofy().load().key(Outbox.createKey(USER_ID)).now().size());
+        assertEquals(2, countTasks());
+
+        Mailer.deliver(USER_ID);
+        mails = capture.drain();
+        assertEquals(1, mails.size());
+        assertEquals("You have 2 updates from Conference Central", mails.get(0).getSubject());
+        assertNull(ofy().load().key(Outbox.createKey(USER_ID)).now());
+
+        // Nothing left to send.
+        Mailer.deliver(USER_ID);
+        assertTrue(capture.drain().isEmpty());
+    }
+
+    @Test
+    public void testStaleTaskIsEnqueuedAgain() throws Exception {
+        enqueue(conference(1, "Cloud Summit"));
+        assertEquals(1, countTasks());
+        // Nothing is stale yet.
+        assertEquals(0, Mailer.rescheduleStale());
+
+        // The queue dropped the task after its age limit, and no new mail comes.
+        LocalTaskQueueTestConfig.getLocalTaskQueue().flushQueue(Mailer.QUEUE_NAME);
+        Outbox outbox = ofy().load().key(Outbox.createKey(USER_ID)).now();
+        outbox.setScheduled(new Date(System.currentTimeMillis() - Mailer.STALE_MILLIS - 1000));
+        ofy().save().entity(outbox).now();
+        ofy().clear();
+
+        assertEquals(1, Mailer.rescheduleStale());
+        assertEquals(1, countTasks());
+        // The new task is recorded, so the next run leaves it alone.
+        assertEquals(0, Mailer.rescheduleStale());
+
+        Mailer.deliver(USER_ID);
+        assertEquals(1, capture.drain().size());
+        assertNull(ofy().load().key(Outbox.createKey(USER_ID)).now());
+    }
+}
@@ -0,0 +1,110 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.base.Ticker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for RateLimiter.
+ */
+public class RateLimiterTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+    /**
+     * A Ticker moved forward by hand.
+     */
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    private FakeTicker ticker;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ticker = new FakeTicker();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    @Test
+    public void testTurnsAwayBurstsLocally() throws Exception {
+        RateLimiter limiter = new RateLimiter("testLocal", 3, 3000, 16, ticker);
+        long rejected = Metrics.get("rateLimit.testLocal.rejectedLocally");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire("a"));
+        }
+        assertEquals(1000, limiter.acquire("a"));
+        assertEquals(rejected + 1, Metrics.get("rateLimit.testLocal.rejectedLocally"));
+        // Other ids have their own bucket.
+        assertEquals(0, limiter.acquire("b"));
+
+        // A token is back locally after a third of the window, but the window is used up.
+        ticker.advance(1000);
+        assertEquals(2000, limiter.acquire("a"));
+        ticker.advance(2000);
+        assertEquals(0, limiter.acquire("a"));
+    }
+
+    @Test
+    public void testInstancesShareTheBucketInMemcache() throws Exception {
+        RateLimiter first = new RateLimiter("testShared", 4, 1000, 16, ticker);
+        RateLimiter second = new RateLimiter("testShared", 4, 1000, 16, ticker);
+        long rejected = Metrics.get("rateLimit.testShared.rejected");
+        assertEquals(0, first.acquire("a"));
+        assertEquals(0, first.acquire("a"));
+        assertEquals(0, second.acquire("a"));
+        assertEquals(0, second.acquire("a"));
+        ticker.advance(250);
+        assertEquals(750, first.acquire("a"));
+        assertEquals(rejected + 1, Metrics.get("rateLimit.testShared.rejected"));
+
+        // Turned away locally until the end of the window, then admitted again.
+        long rejectedLocally = Metrics.get("rateLimit.testShared.rejectedLocally");
+        assertEquals(750, first.acquire("a"));
+        assertEquals(rejectedLocally + 1,
+                Metrics.get("rateLimit.testShared.rejectedLocally"));
+        ticker.advance(750);
+        assertEquals(0, second.acquire("a"));
+    }
+
+    @Test
+    public void testReleaseGivesTheTokenBack() throws Exception {
+        RateLimiter first = new RateLimiter("testRelease", 2, 1000, 16, ticker);
+        RateLimiter second = new RateLimiter("testRelease", 2, 1000, 16, ticker);
+        assertEquals(0, first.acquire("a"));
+        assertEquals(0, first.acquire("a"));
+        first.release("a");
+        assertEquals(0, first.acquire("a"));
+        assertEquals(500, first.acquire("a"));
+
+        // The shared counter is given back too.
+        assertEquals(0, second.acquire("b"));
+        assertEquals(0, first.acquire("b"));
+        second.release("b");
+        assertEquals(0, second.acquire("b"));
+        assertTrue(first.acquire("b") > 0);
+    }
+}
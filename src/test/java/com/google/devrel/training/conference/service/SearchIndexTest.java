@@ -0,0 +1,164 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.dev.HighRepJobPolicy;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SearchDocument;
+import com.google.devrel.training.conference.domain.SearchResult;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.SessionForm;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the full-text search.
+ */
+public class SearchIndexTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final String EMAIL = "example@gmail.com";
+
+    private ConferenceApi conferenceApi;
+
+    private User user;
+
+    /**
+     * Applies all the writes at once, so that the search sees them, while still allowing
+     * transactions on multiple entity groups.
+     */
+    public static class ConsistentJobPolicy implements HighRepJobPolicy {
+        @Override
+        public boolean shouldApplyNewJob(Key entityGroup) {
+            return true;
+        }
+
+        @Override
+        public boolean shouldRollForwardExistingJob(Key entityGroup) {
+            return true;
+        }
+    }
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(ConsistentJobPolicy.class),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath(MailerTest.QUEUE_XML));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+        user = new User(EMAIL, "gmail.com", USER_ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        OfyService.ofy().clear();
+        helper.tearDown();
+    }
+
+    private static List<String> keys(CollectionResponse<SearchResult> page) {
+        List<String> keys = new ArrayList<>();
+        for (SearchResult result : page.getItems()) {
+            keys.add(result.getWebsafeKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void testTokenize() throws Exception {
+        assertEquals(ImmutableList.of("app", "engine", "2014", "zürich"),
+                SearchIndex.tokenize("  App-Engine, 2014 (Zürich)!"));
+        assertTrue(SearchIndex.tokenize(null).isEmpty());
+    }
+
+    @Test
+    public void testSearchRanksAndPages() throws Exception {
+        Conference cloud = conferenceApi.createConference(user, new ConferenceForm(
+                "Cloud Summit", "Talks about cloud computing", null, "London", null, null, 10));
+        Conference mobile = conferenceApi.createConference(user, new ConferenceForm(
+                "Mobile Days", "Apps in the cloud", null, "Paris", null, null, 10));
+        Conference web = conferenceApi.createConference(user, new ConferenceForm(
+                "Web Week", "Browsers and standards", null, "Berlin", null, null, 10));
+
+        // A match in the name ranks above a match in the description.
+        CollectionResponse<SearchResult> page = conferenceApi.search("cloud", null, null, null);
+        assertEquals(ImmutableList.of(cloud.getWebsafeKey(), mobile.getWebsafeKey()),
+                keys(page));
+        assertEquals("Cloud Summit", page.getItems().iterator().next().getTitle());
+
+        // All the words must match, the last one as a prefix.
+        assertEquals(ImmutableList.of(mobile.getWebsafeKey()),
+                keys(conferenceApi.search("Cloud PAR", null, null, null)));
+        assertEquals(ImmutableList.of(web.getWebsafeKey()),
+                keys(conferenceApi.search("standa", null, null, null)));
+        assertTrue(conferenceApi.search("cloud tokyo", null, null, null).getItems().isEmpty());
+        assertTrue(conferenceApi.search(" - ", null, null, null).getItems().isEmpty());
+
+        page = conferenceApi.search("cloud", null, 1, null);
+        assertEquals(ImmutableList.of(cloud.getWebsafeKey()), keys(page));
+        page = conferenceApi.search("cloud", null, 1, page.getNextPageToken());
+        assertEquals(ImmutableList.of(mobile.getWebsafeKey()), keys(page));
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test
+    public void testSearchSessionsAndLongTerms() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                "Cloud Summit", null, null, "London", null, null, 10));
+        Session session = conferenceApi.createSession(user, new SessionForm("Containerization",
+                "Running containers in the cloud", "Larry", "Workshop", 9, null, 60),
+                conference.getWebsafeKey());
+
+        assertEquals(ImmutableList.of(session.getWebsafeKey()),
+                keys(conferenceApi.search("cloud", "Session", null, null)));
+        assertEquals(ImmutableList.of(conference.getWebsafeKey()),
+                keys(conferenceApi.search("cloud", "Conference", null, null)));
+        // Terms longer than the indexed prefixes are checked on the tokens.
+        assertEquals(ImmutableList.of(session.getWebsafeKey()),
+                keys(conferenceApi.search("containeriz", null, null, null)));
+        assertTrue(conferenceApi.search("containership", null, null, null)
+                .getItems().isEmpty());
+        assertEquals(ImmutableList.of(session.getWebsafeKey()),
+                keys(conferenceApi.search("larry workshop", null, null, null)));
+    }
+
+    @Test
+    public void testLongDescriptionIsCapped() throws Exception {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 6000; i++) {
+            description.append(String.format("a%07d ", i));
+        }
+        long dropped = Metrics.get("search.tokensDropped");
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                "Cloud Summit", description.toString(), null, "London", null, null, 10));
+
+        SearchDocument document = OfyService.ofy().load()
+                .key(SearchDocument.createKey(conference.getWebsafeKey())).now();
+        assertTrue(document.getTerms().size() <= SearchIndex.MAX_TERMS);
+        assertTrue(Metrics.get("search.tokensDropped") > dropped);
+        // The name and the city outweigh the description.
+        assertEquals(ImmutableList.of(conference.getWebsafeKey()),
+                keys(conferenceApi.search("cloud london", null, null, null)));
+        assertEquals(ImmutableList.of(conference.getWebsafeKey()),
+                keys(conferenceApi.search("a0000000", null, null, null)));
+    }
+}
@@ -0,0 +1,234 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the sharded seat inventory.
+ */
+public class SeatInventoryTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final String EMAIL = "example@gmail.com";
+
+    private static final int CAP = 10;
+
+    private Conference conference;
+
+    private ConferenceApi conferenceApi;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath(MailerTest.QUEUE_XML));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+        conference = new Conference(1001L, USER_ID,
+                new ConferenceForm("GCP Live", null, null, null, null, null, CAP));
+        ofy().save().entity(conference).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private Conference reload() {
+        Conference reloaded = load();
+        SeatInventory.resolveSeatsAvailable(reloaded);
+        return reloaded;
+    }
+
+    private Conference load() {
+        ofy().clear();
+        return ofy().load().key(Key.<Conference>create(conference.getWebsafeKey())).now();
+    }
+
+    @Test
+    public void testReshardKeepsSeats() throws Exception {
+        SeatInventory.reshard(conference.getWebsafeKey(), 3);
+        Conference sharded = reload();
+        assertEquals(3, sharded.getSeatShardCount());
+        int total = 0;
+        for (int i = 0; i < 3; i++) {
+            total += ofy().load().key(SeatShard.createKey(conference.getWebsafeKey(), i))
+                    .now().getSeatsAvailable();
+        }
+        assertEquals(CAP, total);
+        assertEquals(CAP, sharded.getSeatsAvailable());
+
+        // Growing the shards keeps the inventory as well, up to more shards than a transaction
+        // could hold.
+        for (int shardCount : new int[] {4, 8, SeatInventory.MAX_SHARD_COUNT}) {
+            SeatInventory.reshard(conference.getWebsafeKey(), shardCount);
+            sharded = reload();
+            assertEquals(shardCount, sharded.getSeatShardCount());
+            assertEquals(CAP, sharded.getSeatsAvailable());
+            total = 0;
+            for (int i = 0; i < shardCount; i++) {
+                total += ofy().load().key(SeatShard.createKey(conference.getWebsafeKey(), i))
+                        .now().getSeatsAvailable();
+            }
+            assertEquals(CAP, total);
+        }
+    }
+
+    @Test
+    public void testShardedRegistration() throws Exception {
+        SeatInventory.reshard(conference.getWebsafeKey(), 4);
+        User user = new User(EMAIL, "gmail.com", USER_ID);
+        // Warm up the cached aggregate.
+        assertEquals(CAP, reload().getSeatsAvailable());
+
+        assertTrue(conferenceApi.registerForConference(user, conference.getWebsafeKey())
+                .getResult());
+        assertEquals(CAP - 1, reload().getSeatsAvailable());
+
+        assertTrue(conferenceApi.unregisterFromConference(user, conference.getWebsafeKey())
+                .getResult());
+        assertEquals(CAP, reload().getSeatsAvailable());
+    }
+
+    @Test
+    public void testSeatsAvailableIsTheSnapshotUntilResolved() throws Exception {
+        SeatInventory.reshard(conference.getWebsafeKey(), 4);
+        User user = new User(EMAIL, "gmail.com", USER_ID);
+        assertTrue(conferenceApi.registerForConference(user, conference.getWebsafeKey())
+                .getResult());
+
+        Conference sharded = load();
+        assertEquals(CAP, sharded.getSeatsAvailable());
+        SeatInventory.resolveSeatsAvailable(sharded);
+        assertEquals(CAP - 1, sharded.getSeatsAvailable());
+        assertEquals(CAP - 1, conferenceApi.getConference(conference.getWebsafeKey(), null)
+                .getSeatsAvailable());
+    }
+
+    @Test
+    public void testRegistrationWhenSoldOut() throws Exception {
+        SeatInventory.reshard(conference.getWebsafeKey(), 8);
+        // Each registration holds the Conference, a Profile and the shard it books from.
+        for (int i = 0; i < CAP; i++) {
+            User user = new User("user" + i + "@gmail.com", "gmail.com", "user" + i);
+            assertTrue(conferenceApi.registerForConference(user, conference.getWebsafeKey())
+                    .getResult());
+        }
+        assertEquals(0, reload().getSeatsAvailable());
+        User late = new User("late@gmail.com", "gmail.com", "late");
+        assertTrue(conferenceApi.registerForConference(late, conference.getWebsafeKey())
+                .getWaitlisted());
+
+        // A wrong running total doesn't waitlist while a shard has seats left.
+        conferenceApi.unregisterFromConference(new User("user0@gmail.com", "gmail.com",
+                "user0"), conference.getWebsafeKey());
+        final Conference sharded = reload();
+        SeatInventory.adjustCachedSeatsAvailable(conference.getWebsafeKey(), 5);
+        assertTrue(ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                return SeatInventory.bookSeat(sharded);
+            }
+        }));
+        assertFalse(ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                return SeatInventory.bookSeat(sharded);
+            }
+        }));
+    }
+
+    @Test
+    public void testStaleSoldOutTotalDoesNotWaitlist() throws Exception {
+        SeatInventory.reshard(conference.getWebsafeKey(), 4);
+        // A total rebuilt while a seat was given back missed it.
+        String aggregateKey =
+                Constants.MEMCACHE_SEATS_AVAILABLE_PREFIX + conference.getWebsafeKey();
+        MemcacheServiceFactory.getMemcacheService().put(aggregateKey, 0L);
+
+        User user = new User(EMAIL, "gmail.com", USER_ID);
+        assertTrue(conferenceApi.registerForConference(user, conference.getWebsafeKey())
+                .getResult());
+        assertEquals(CAP - 1, reload().getSeatsAvailable());
+    }
+
+    @Test
+    public void testDeleteShardedConferenceWithRegistrations() throws Exception {
+        SeatInventory.reshard(conference.getWebsafeKey(), 4);
+        // A seat booked from a shard, which the running total and the query missed.
+        assertEquals(CAP, reload().getSeatsAvailable());
+        final Conference sharded = load();
+        assertTrue(ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                return SeatInventory.bookSeat(sharded);
+            }
+        }));
+        SeatInventory.adjustCachedSeatsAvailable(conference.getWebsafeKey(), 1);
+
+        User organizer = new User(EMAIL, "gmail.com", USER_ID);
+        try {
+            conferenceApi.deleteConference(organizer, conference.getWebsafeKey());
+            fail();
+        } catch (ConflictException expected) {
+        }
+        assertNotNull(load());
+    }
+
+    @Test
+    public void testGiveBackSeatToMissingShard() throws Exception {
+        SeatInventory.reshard(conference.getWebsafeKey(), 4);
+        // Only the first shard is left, with all the seats.
+        SeatShard first = ofy().load().key(SeatShard.createKey(conference.getWebsafeKey(), 0))
+                .now();
+        for (int i = 1; i < 4; i++) {
+            ofy().delete().key(SeatShard.createKey(conference.getWebsafeKey(), i)).now();
+        }
+        first.giveBackSeats(CAP - first.getSeatsAvailable());
+        ofy().save().entity(first).now();
+
+        final Conference sharded = reload();
+        for (int i = 0; i < 20; i++) {
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    SeatInventory.giveBackSeat(sharded);
+                }
+            });
+        }
+        ofy().clear();
+        int total = 0;
+        for (int i = 0; i < 4; i++) {
+            SeatShard shard = ofy().load()
+                    .key(SeatShard.createKey(conference.getWebsafeKey(), i)).now();
+            total += shard == null ? 0 : shard.getSeatsAvailable();
+        }
+        assertEquals(CAP + 20, total);
+    }
+}
@@ -0,0 +1,113 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.googlecode.objectify.Work;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+
+/**
+ * Tests for TransactionRunner.
+ */
+public class TransactionRunnerTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    /**
+     * A Work failing with contention for the given number of times before succeeding.
+     */
+    private static class ContendedWork implements Work<String> {
+        private int failures;
+
+        ContendedWork(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public String run() {
+            if (failures-- > 0) {
+                throw new ConcurrentModificationException("contention");
+            }
+            return "done";
+        }
+    }
+
+    @Test
+    public void testRetriesOnContention() throws Exception {
+        long retries = Metrics.get("transaction.testRetries.retries");
+        TransactionRunner runner = new TransactionRunner("testRetries");
+        assertEquals("done", runner.run(new ContendedWork(2)));
+        assertEquals(3, runner.getAttempts());
+        assertEquals(2, runner.getRetries());
+        assertEquals(retries + 2, Metrics.get("transaction.testRetries.retries"));
+    }
+
+    @Test
+    public void testGivesUpAfterDeadline() throws Exception {
+        long aborts = Metrics.get("transaction.testDeadline.aborts");
+        TransactionRunner runner = new TransactionRunner("testDeadline", 0);
+        try {
+            runner.run(new ContendedWork(1));
+            fail("The transaction should have given up.");
+        } catch (ConcurrentModificationException e) {
+            assertEquals(1, runner.getAttempts());
+        }
+        assertEquals(aborts + 1, Metrics.get("transaction.testDeadline.aborts"));
+    }
+
+    @Test
+    public void testBusinessFailureIsNotRetried() throws Exception {
+        TransactionRunner runner = new TransactionRunner("testFailure");
+        try {
+            runner.run(new Work<String>() {
+                @Override
+                public String run() {
+                    throw new IllegalArgumentException("There are no seats available.");
+                }
+            });
+            fail("The failure should have been thrown.");
+        } catch (IllegalArgumentException e) {
+            assertEquals(1, runner.getAttempts());
+        }
+        assertEquals(0, Metrics.get("transaction.testFailure.retries"));
+    }
+
+    @Test
+    public void testTimeoutIsNotRetried() throws Exception {
+        long timeouts = Metrics.get("transaction.testTimeout.timeouts");
+        TransactionRunner runner = new TransactionRunner("testTimeout");
+        try {
+            runner.run(new Work<String>() {
+                @Override
+                public String run() {
+                    // The commit may have been applied.
+                    throw new DatastoreTimeoutException("timeout");
+                }
+            });
+            fail("The timeout should have been thrown.");
+        } catch (DatastoreTimeoutException e) {
+            assertEquals(1, runner.getAttempts());
+        }
+        assertEquals(timeouts + 1, Metrics.get("transaction.testTimeout.timeouts"));
+        assertEquals(0, Metrics.get("transaction.testTimeout.retries"));
+    }
+}
@@ -0,0 +1,160 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Outbox;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.google.devrel.training.conference.spi.ConferenceApi.WrappedBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the waitlists of the sold out conferences.
+ */
+public class WaitlistsTest {
+
+    private static final String USER_ID = "123456789";
+
+    private ConferenceApi conferenceApi;
+
+    private User organizer;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(SearchIndexTest.ConsistentJobPolicy.class),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath(MailerTest.QUEUE_XML));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+        organizer = new User("example@gmail.com", "gmail.com", USER_ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static User user(int i) {
+        return new User("user" + i + "@gmail.com", "gmail.com", "user" + i);
+    }
+
+    private boolean isRegistered(int i, String key) throws Exception {
+        return conferenceApi.getRegistration(user(i), key).getResult();
+    }
+
+    @Test
+    public void testFreedSeatGoesToTheHeadOfTheWaitlist() throws Exception {
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                "Cloud Summit", null, null, "London", null, null, 1));
+        String key = conference.getWebsafeKey();
+        assertTrue(conferenceApi.registerForConference(user(0), key).getResult());
+
+        for (int i = 1; i <= 2; i++) {
+            WrappedBoolean result = conferenceApi.registerForConference(user(i), key);
+            assertFalse(result.getResult());
+            assertTrue(result.getWaitlisted());
+            assertEquals("Added to the waitlist", result.getReason());
+        }
+        assertEquals("Already on the waitlist",
+                conferenceApi.registerForConference(user(1), key).getReason());
+
+        assertTrue(conferenceApi.getRegistration(user(2), key).getWaitlisted());
+        assertTrue(conferenceApi.unregisterFromConference(user(0), key).getResult());
+        assertTrue(isRegistered(1, key));
+        assertFalse(conferenceApi.getRegistration(user(1), key).getWaitlisted());
+        assertFalse(isRegistered(2, key));
+        assertEquals(0, conferenceApi.getConference(key, null).getSeatsAvailable());
+        Outbox outbox = ofy().load().key(Outbox.createKey("user1")).now();
+        assertEquals(MailKind.WAITLIST_PROMOTED.name(), outbox.getKind(0));
+
+        // Leaving the waitlist frees no seat.
+        WrappedBoolean left = conferenceApi.unregisterFromConference(user(2), key);
+        assertTrue(left.getResult());
+        assertTrue(left.getWaitlisted());
+        assertFalse(conferenceApi.unregisterFromConference(user(1), key).getWaitlisted());
+        assertFalse(isRegistered(2, key));
+        assertEquals(1, conferenceApi.getConference(key, null).getSeatsAvailable());
+    }
+
+    @Test
+    public void testFreedShardedSeatGoesToTheHeadOfTheWaitlist() throws Exception {
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                "Cloud Summit", null, null, "London", null, null, 2));
+        String key = conference.getWebsafeKey();
+        conferenceApi.shardSeatInventory(organizer, key, 8);
+        for (int i = 0; i < 4; i++) {
+            conferenceApi.registerForConference(user(i), key);
+        }
+        assertTrue(isRegistered(1, key));
+        assertTrue(conferenceApi.getRegistration(user(2), key).getWaitlisted());
+
+        // The freed seat goes back to a shard, and a task promotes the head of the waitlist.
+        assertTrue(conferenceApi.unregisterFromConference(user(0), key).getResult());
+        assertFalse(isRegistered(2, key));
+        Waitlists.promoteAll(key, 0);
+        assertTrue(isRegistered(2, key));
+        assertFalse(isRegistered(3, key));
+        conference = conferenceApi.getConference(key, null);
+        assertEquals(0, conference.getSeatsAvailable());
+        assertTrue(Waitlists.hasWaiting(conference));
+        // user3 is still waiting, so the task comes back later, a bounded number of times.
+        assertEquals(1, countRetries(1));
+        Waitlists.promoteAll(key, Waitlists.MAX_RETRIES);
+        assertEquals(0, countRetries(Waitlists.MAX_RETRIES + 1));
+    }
+
+    private static int countRetries(int retry) {
+        QueueStateInfo queue = LocalTaskQueueTestConfig.getLocalTaskQueue()
+                .getQueueStateInfo().get(QueueFactory.getDefaultQueue().getQueueName());
+        int count = 0;
+        for (QueueStateInfo.TaskStateInfo task : queue.getTaskInfo()) {
+            if (task.getUrl().equals("/tasks/promote_waitlist")
+                    && task.getBody().contains("retry=" + retry)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testNewSeatsArePromotedInBatches() throws Exception {
+        Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                "Cloud Summit", null, null, "London", null, null, 1));
+        String key = conference.getWebsafeKey();
+        conferenceApi.registerForConference(user(0), key);
+        int waiting = Waitlists.PROMOTIONS_PER_TRANSACTION * 2 + 1;
+        for (int i = 1; i <= waiting; i++) {
+            conferenceApi.registerForConference(user(i), key);
+        }
+
+        // Seats for all but the last user waiting.
+        conferenceApi.updateConference(organizer, new ConferenceForm(
+                "Cloud Summit", null, null, "London", null, null, waiting), key);
+        Waitlists.promoteAll(key, 0);
+
+        for (int i = 1; i < waiting; i++) {
+            assertTrue(isRegistered(i, key));
+        }
+        assertFalse(isRegistered(waiting, key));
+        conference = conferenceApi.getConference(key, null);
+        assertEquals(0, conference.getSeatsAvailable());
+        assertTrue(Waitlists.hasWaiting(conference));
+    }
+}
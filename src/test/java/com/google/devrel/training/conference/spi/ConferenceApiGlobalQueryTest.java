@@ -3,18 +3,33 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.QueryPlan;
+import com.google.devrel.training.conference.domain.Session;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.SessionForm;
+import com.google.devrel.training.conference.form.SessionQueryForm;
+import com.google.devrel.training.conference.service.MailerTest;
+import com.google.devrel.training.conference.service.Metrics;
+import com.google.devrel.training.conference.service.Paging;
+import com.google.devrel.training.conference.service.QueryCache;
+import com.googlecode.objectify.cmd.Query;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -74,7 +89,9 @@ public class ConferenceApiGlobalQueryTest {
      */
     private final LocalServiceTestHelper helper =
             new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
-                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(0));
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath(MailerTest.QUEUE_XML));
 
     private Conference conference1;
 
@@ -115,11 +132,31 @@ public class ConferenceApiGlobalQueryTest {
         helper.tearDown();
     }
 
+    private List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm)
+            throws Exception {
+        return new ArrayList<>(conferenceApi.queryConferences(conferenceQueryForm).getItems());
+    }
+
+    private static User user(int i) {
+        return new User("user" + i + "@gmail.com", "gmail.com", "user" + i);
+    }
+
+    private int seatsAvailable(ConferenceQueryForm conferenceQueryForm, Conference conference)
+            throws Exception {
+        ofy().clear();
+        for (Conference item : queryConferences(conferenceQueryForm)) {
+            if (item.getWebsafeKey().equals(conference.getWebsafeKey())) {
+                return item.getSeatsAvailable();
+            }
+        }
+        throw new AssertionError("No " + conference.getName() + " in the results");
+    }
+
     @Test
     public void testEmptyQuery() throws Exception {
         // Empty query.
         ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm();
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = queryConferences(conferenceQueryForm);
         assertEquals(3, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -138,7 +175,7 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "Tokyo"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = queryConferences(conferenceQueryForm);
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
     }
@@ -152,7 +189,7 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "Japan"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = queryConferences(conferenceQueryForm);
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
     }
@@ -176,7 +213,7 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "6"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = queryConferences(conferenceQueryForm);
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
     }
@@ -190,7 +227,7 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.GT,
                         "999"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = queryConferences(conferenceQueryForm);
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -207,7 +244,7 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.LT,
                         "1001"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = queryConferences(conferenceQueryForm);
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -224,7 +261,7 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.GTEQ,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = queryConferences(conferenceQueryForm);
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -241,7 +278,7 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.LTEQ,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = queryConferences(conferenceQueryForm);
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -258,7 +295,7 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.NE,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = queryConferences(conferenceQueryForm);
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -266,7 +303,77 @@ public class ConferenceApiGlobalQueryTest {
         assertEquals(conference3, conferences.get(1));
     }
 
-    @Test(expected = IllegalArgumentException.class)
+    @Test
+    public void testPagination() throws Exception {
+        // Walk through the empty query two conferences at a time.
+        CollectionResponse<Conference> page = conferenceApi.queryConferences(
+                new ConferenceQueryForm().limit(2));
+        assertEquals(ImmutableList.of(conference1, conference3),
+                new ArrayList<>(page.getItems()));
+        assertNotNull(page.getNextPageToken());
+        page = conferenceApi.queryConferences(
+                new ConferenceQueryForm().limit(2).cursor(page.getNextPageToken()));
+        assertEquals(ImmutableList.of(conference2), new ArrayList<>(page.getItems()));
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test
+    public void testPaginationWithoutCursor() throws Exception {
+        // The datastore runs != as several queries, which have no cursor.
+        Query<Conference> query = ofy().load().type(Conference.class)
+                .filter("maxAttendees !=", 1000).order("maxAttendees").order("name");
+        CollectionResponse<Conference> page = Paging.page(query, 1, null);
+        assertEquals(ImmutableList.of(conference1), new ArrayList<>(page.getItems()));
+        page = Paging.page(query, 1, page.getNextPageToken());
+        assertEquals(ImmutableList.of(conference3), new ArrayList<>(page.getItems()));
+        page = Paging.page(query, 1, page.getNextPageToken());
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNextPageToken());
+    }
+
+    private static List<String> names(CollectionResponse<Session> page) {
+        List<String> names = new ArrayList<>();
+        for (Session session : page.getItems()) {
+            names.add(session.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testSessionPaginationWithNotEqualFilter() throws Exception {
+        String[][] sessions = {{"A", "Keynote", "9"}, {"B", "Talk", "10"},
+                {"C", "Workshop", "11"}, {"D", "Talk", "12"}, {"E", "Lightning", "13"},
+                {"F", "Talk", "20"}};
+        for (int i = 0; i < sessions.length; i++) {
+            ofy().save().entity(new Session(i + 1, conference1.getWebsafeKey(), new SessionForm(
+                    sessions[i][0], null, "Larry", sessions[i][1],
+                    Integer.parseInt(sessions[i][2]), startDate1, 60))).now();
+        }
+
+        // The != alone is applied in memory, over the sessions ordered by name.
+        SessionQueryForm form = new SessionQueryForm().filter(new SessionQueryForm.Filter(
+                SessionQueryForm.Field.TYPE_OF_SESSION, SessionQueryForm.Operator.NE,
+                "Workshop")).limit(2);
+        assertNull(conferenceApi.explainQuerySessions(form).getDrivingField());
+        CollectionResponse<Session> page = conferenceApi.querySessions(form);
+        assertEquals(ImmutableList.of("A", "B"), names(page));
+        page = conferenceApi.querySessions(form.cursor(page.getNextPageToken()));
+        assertEquals(ImmutableList.of("D", "E"), names(page));
+        page = conferenceApi.querySessions(form.cursor(page.getNextPageToken()));
+        assertEquals(ImmutableList.of("F"), names(page));
+        assertNull(page.getNextPageToken());
+
+        // With a range, the range runs in the datastore.
+        page = conferenceApi.queryProblem(19, "Workshop", 2, null);
+        assertEquals(ImmutableList.of("A", "B"), names(page));
+        page = conferenceApi.queryProblem(19, "Workshop", 2, page.getNextPageToken());
+        assertEquals(ImmutableList.of("D", "E"), names(page));
+        page = conferenceApi.queryProblem(19, "Workshop", 2, page.getNextPageToken());
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test
     public void testMultipleInequalityFilter() throws Exception {
         // A query specifies the maxAttendees <= 1000 and month != 6.
         ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
@@ -280,5 +387,203 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.NE,
                         "6"
                 ));
+        List<Conference> conferences = queryConferences(conferenceQueryForm);
+        assertEquals(1, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+
+        // The != is applied in memory, so maxAttendees runs in the datastore.
+        QueryPlan plan = conferenceApi.explainQueryConferences(conferenceQueryForm);
+        assertEquals("maxAttendees", plan.getDrivingField());
+        assertEquals(ImmutableList.of("maxAttendees <= 1000"), plan.getIndexFilters());
+        assertEquals(ImmutableList.of("month != 6"), plan.getMemoryFilters());
+        assertEquals(ImmutableList.of("maxAttendees", "name"), plan.getOrder());
+    }
+
+    @Test
+    public void testPlanPicksMostSelectiveInequality() throws Exception {
+        // A query specifies the city == Tokyo, maxAttendees >= 500 and month > 6.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        CITY3
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.GTEQ,
+                        "500"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MONTH,
+                        ConferenceQueryForm.Operator.GT,
+                        "6"
+                ));
+        QueryPlan plan = conferenceApi.explainQueryConferences(conferenceQueryForm);
+        assertEquals("maxAttendees", plan.getDrivingField());
+
+        // Without the city, month > 6 matches fewer conferences than maxAttendees >= 500.
+        conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.GTEQ,
+                        "500"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MONTH,
+                        ConferenceQueryForm.Operator.GT,
+                        "6"
+                ));
+        plan = conferenceApi.explainQueryConferences(conferenceQueryForm);
+        assertEquals("month", plan.getDrivingField());
+        assertEquals(ImmutableList.of("maxAttendees >= 500"), plan.getMemoryFilters());
+        assertEquals(ImmutableList.of("maxAttendees: 3", "month: 1"), plan.getEstimates());
+        assertEquals(ImmutableList.of(conference3), queryConferences(conferenceQueryForm));
+    }
+
+    @Test
+    public void testPaginationKeepsPlanWhenEstimatesChange() throws Exception {
+        // month > 3 matches fewer conferences than maxAttendees >= 500, so month drives.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.GTEQ,
+                        "500"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MONTH,
+                        ConferenceQueryForm.Operator.GT,
+                        "3"
+                ))
+                .limit(1);
+        CollectionResponse<Conference> page = conferenceApi.queryConferences(conferenceQueryForm);
+        assertEquals(ImmutableList.of(conference2), new ArrayList<>(page.getItems()));
+        assertTrue(page.getNextPageToken().startsWith("month|"));
+
+        // Small conferences late in the year make maxAttendees the better pick for a new query.
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        for (long id = 1004L; id <= 1006L; id++) {
+            ConferenceForm conferenceForm = new ConferenceForm("Meetup " + id, DESCRIPTION1,
+                    TOPICS1, CITY1, dateFormat.parse("10/25/2014"),
+                    dateFormat.parse("10/26/2014"), 100);
+            ofy().save().entity(new Conference(id, USER_ID, conferenceForm)).now();
+        }
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        ConferenceQueryForm unplanned = new ConferenceQueryForm()
+                .filter(conferenceQueryForm.getFilters().get(0))
+                .filter(conferenceQueryForm.getFilters().get(1));
+        assertEquals("maxAttendees",
+                conferenceApi.explainQueryConferences(unplanned).getDrivingField());
+
+        // The next pages still run ordered by month, where the first page left off.
+        conferenceQueryForm.cursor(page.getNextPageToken());
+        assertEquals("month",
+                conferenceApi.explainQueryConferences(conferenceQueryForm).getDrivingField());
+        page = conferenceApi.queryConferences(conferenceQueryForm);
+        assertEquals(ImmutableList.of(conference3), new ArrayList<>(page.getItems()));
+        assertTrue(page.getNextPageToken().startsWith("month|"));
+        page = conferenceApi.queryConferences(conferenceQueryForm.cursor(page.getNextPageToken()));
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNextPageToken());
+
+        // A token naming a field the query has no range on is rejected.
+        try {
+            conferenceApi.queryConferences(conferenceQueryForm.cursor("city|abc"));
+            fail();
+        } catch (BadRequestException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testPaginationWithMemoryFilter() throws Exception {
+        // maxAttendees <= 1000 runs in the datastore and drops conference1 on month > 3.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.LTEQ,
+                        "1000"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MONTH,
+                        ConferenceQueryForm.Operator.GT,
+                        "3"
+                ))
+                .limit(1);
+        CollectionResponse<Conference> page = conferenceApi.queryConferences(conferenceQueryForm);
+        assertEquals(ImmutableList.of(conference2), new ArrayList<>(page.getItems()));
+        assertNotNull(page.getNextPageToken());
+        page = conferenceApi.queryConferences(conferenceQueryForm.cursor(page.getNextPageToken()));
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test
+    public void testQueryCache() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Cloud"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MONTH,
+                        ConferenceQueryForm.Operator.EQ,
+                        "9"
+                ));
+        assertEquals(ImmutableList.of(conference3), queryConferences(conferenceQueryForm));
+
+        // A conference saved behind the back of the cache doesn't show up...
+        ConferenceForm conferenceForm = new ConferenceForm(
+                "Cloud Summit", DESCRIPTION3, TOPICS3, CITY3, startDate3, endDate3, CAP3);
+        Conference conference4 = new Conference(1004L, USER_ID, conferenceForm);
+        ofy().save().entity(conference4).now();
+        long hits = Metrics.get("queryCache.Conference.hits");
+        ConferenceQueryForm reordered = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MONTH,
+                        ConferenceQueryForm.Operator.EQ,
+                        "09"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Cloud"
+                ));
+        assertEquals(ImmutableList.of(conference3), queryConferences(reordered));
+        assertEquals(hits + 1, Metrics.get("queryCache.Conference.hits"));
+
+        // ...until the Conference queries are invalidated.
+        QueryCache.invalidate("Conference");
+        assertEquals(ImmutableList.of(conference4, conference3), queryConferences(reordered));
+    }
+
+    @Test
+    public void testSeatChangesKeepTheCachedQueries() throws Exception {
+        Conference conference4 = new Conference(1004L, USER_ID, new ConferenceForm(
+                "Cloud Summit", DESCRIPTION3, TOPICS3, CITY3, startDate3, endDate3, 1));
+        ofy().save().entity(conference4).now();
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm();
+        long hits = Metrics.get("queryCache.Conference.hits");
+        long misses = Metrics.get("queryCache.Conference.misses");
+        assertEquals(CAP1, seatsAvailable(conferenceQueryForm, conference1));
+        assertEquals(hits, Metrics.get("queryCache.Conference.hits"));
+        assertEquals(++misses, Metrics.get("queryCache.Conference.misses"));
+
+        // A registration changes the seats, not the results, and the cached page shows it.
+        assertTrue(conferenceApi.registerForConference(user(0), conference1.getWebsafeKey())
+                .getResult());
+        assertEquals(CAP1 - 1, seatsAvailable(conferenceQueryForm, conference1));
+        assertEquals(hits + 1, Metrics.get("queryCache.Conference.hits"));
+        assertEquals(misses, Metrics.get("queryCache.Conference.misses"));
+
+        // So does a seat freed for the head of a waitlist.
+        assertTrue(conferenceApi.registerForConference(user(0), conference4.getWebsafeKey())
+                .getResult());
+        assertTrue(conferenceApi.registerForConference(user(1), conference4.getWebsafeKey())
+                .getWaitlisted());
+        conferenceApi.unregisterFromConference(user(0), conference4.getWebsafeKey());
+        assertEquals(0, seatsAvailable(conferenceQueryForm, conference4));
+        assertEquals(hits + 2, Metrics.get("queryCache.Conference.hits"));
+        assertEquals(misses, Metrics.get("queryCache.Conference.misses"));
     }
 }
@@ -3,26 +3,64 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
-// import com.google.devrel.training.conference.domain.Conference;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.Constants;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devrel.training.conference.domain.Agenda;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
 import com.google.devrel.training.conference.domain.Profile;
-// import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.ScheduleConflict;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.Speaker;
+import com.google.devrel.training.conference.domain.WishlistSchedule;
+import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.form.SessionForm;
+import com.google.devrel.training.conference.form.SessionQueryForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.ConferenceRenames;
+import com.google.devrel.training.conference.service.FeaturedSpeakers;
+import com.google.devrel.training.conference.service.MailerTest;
+import com.google.devrel.training.conference.service.Metrics;
+import com.google.devrel.training.conference.servlet.UpdateOrganizerDisplayNameServlet;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Tests for ConferenceApi API methods.
@@ -53,7 +91,9 @@ public class ConferenceApiTest {
 
     private final LocalServiceTestHelper helper =
             new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
-                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath(MailerTest.QUEUE_XML));
 
     @Before
     public void setUp() throws Exception {
@@ -68,6 +108,30 @@ public class ConferenceApiTest {
         helper.tearDown();
     }
 
+    @Test
+    public void testWritesOverTheRateLimitAreTurnedAway() throws Exception {
+        User writer = new User("writer@gmail.com", "gmail.com", "writer");
+        ConferenceApi.setRateLimited(true);
+        try {
+            // A user gets 10 writes every 10 seconds.
+            for (int i = 0; i < 10; i++) {
+                conferenceApi.saveProfile(writer, new ProfileForm("Writer " + i, null));
+            }
+            try {
+                conferenceApi.saveProfile(writer, new ProfileForm("Writer", null));
+                fail();
+            } catch (TooManyRequestsException expected) {
+                assertEquals(503, expected.getStatusCode());
+                assertTrue(expected.getRetryAfterSeconds() > 0);
+                assertTrue(expected.getMessage().contains(
+                        "retry after " + expected.getRetryAfterSeconds() + " seconds"));
+            }
+            assertEquals("Writer 9", conferenceApi.getProfile(writer).getDisplayName());
+        } finally {
+            ConferenceApi.setRateLimited(false);
+        }
+    }
+
     @Test(expected = UnauthorizedException.class)
     public void testGetProfileWithoutUser() throws Exception {
         conferenceApi.getProfile(null);
@@ -168,6 +232,509 @@ public class ConferenceApiTest {
         assertEquals(DISPLAY_NAME, profile.getDisplayName());
     }
 
+    @Test
+    public void testRegistrationChildren() throws Exception {
+        Conference conference = new Conference(1001L, "organizer",
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        ofy().save().entity(conference).now();
+        String websafeConferenceKey = conference.getWebsafeKey();
+
+        assertTrue(conferenceApi.registerForConference(user, websafeConferenceKey).getResult());
+        assertTrue(conferenceApi.getRegistration(user, websafeConferenceKey).getResult());
+        assertNotNull(ofy().load().key(
+                Registration.createKey(USER_ID, websafeConferenceKey)).now());
+        // The Profile is created on the first registration.
+        assertNotNull(ofy().load().key(Key.create(Profile.class, USER_ID)).now());
+        Collection<Conference> conferencesToAttend =
+                conferenceApi.getConferencesToAttend(user, null).getItems();
+        assertEquals(1, conferencesToAttend.size());
+        assertEquals(CAP - 1, conferencesToAttend.iterator().next().getSeatsAvailable());
+
+        assertTrue(conferenceApi.unregisterFromConference(user, websafeConferenceKey)
+                .getResult());
+        assertFalse(conferenceApi.getRegistration(user, websafeConferenceKey).getResult());
+        assertTrue(conferenceApi.getConferencesToAttend(user, null).getItems().isEmpty());
+    }
+
+    @Test
+    public void testNearlySoldOutAnnouncement() throws Exception {
+        Conference conference = new Conference(1001L, "organizer",
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, 5));
+        ofy().save().entity(conference).now();
+        String websafeConferenceKey = conference.getWebsafeKey();
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+
+        // Going from 5 to 4 seats left crosses the threshold.
+        assertTrue(conferenceApi.registerForConference(user, websafeConferenceKey).getResult());
+        NearlySoldOut nearlySoldOut = ofy().load().key(NearlySoldOut.createKey()).now();
+        assertEquals(1, nearlySoldOut.getConferenceKeys().size());
+        assertEquals("Last chance to attend! The following conferences are nearly sold out: "
+                + NAME, memcacheService.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY));
+
+        assertTrue(conferenceApi.unregisterFromConference(user, websafeConferenceKey)
+                .getResult());
+        nearlySoldOut = ofy().load().key(NearlySoldOut.createKey()).now();
+        assertTrue(nearlySoldOut.getConferenceKeys().isEmpty());
+        assertNull(memcacheService.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY));
+    }
+
+    @Test
+    public void testLegacyRegistrationBeforeTheMigration() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        String key = conference.getWebsafeKey();
+        // Registered through the list of the Profile, as before the Registration children.
+        conference = ofy().load().entity(conference).now();
+        conference.bookSeats(1);
+        ofy().save().entity(conference).now();
+        Entity profile = new Entity("Profile", USER_ID);
+        profile.setProperty("mainEmail", EMAIL);
+        profile.setProperty("conferenceKeysToAttend", ImmutableList.of(key));
+        DatastoreServiceFactory.getDatastoreService().put(profile);
+        ofy().clear();
+
+        assertTrue(conferenceApi.getRegistration(user, key).getResult());
+        assertEquals(1, conferenceApi.getConferencesToAttend(user, null).getItems().size());
+        try {
+            conferenceApi.registerForConference(user, key);
+            fail("Registered twice");
+        } catch (ConflictException e) {
+            // The legacy registration was moved first.
+        }
+        assertFalse(ofy().load().key(Key.create(Profile.class, USER_ID)).now()
+                .hasLegacyRelations());
+
+        assertTrue(conferenceApi.unregisterFromConference(user, key).getResult());
+        assertFalse(conferenceApi.getRegistration(user, key).getResult());
+        assertEquals(CAP, conferenceApi.getConference(key, null).getSeatsAvailable());
+    }
+
+    @Test
+    public void testConferenceFacets() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, ImmutableList.of("Cloud", "Mobile"), CITY,
+                dateFormat.parse("03/25/2014"), dateFormat.parse("03/26/2014"), 1));
+        conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, ImmutableList.of("Cloud"), "London", null, null, CAP));
+
+        ConferenceFacets facets = conferenceApi.getConferenceFacets();
+        assertEquals(ImmutableMap.of("London", 1, CITY, 1), facets.getCities());
+        assertEquals(ImmutableMap.of("Cloud", 2, "Mobile", 1), facets.getTopics());
+        assertEquals(ImmutableMap.of("3", 1), facets.getMonths());
+        assertEquals(2, facets.getWithSeatsAvailable());
+        assertEquals(0, facets.getSoldOut());
+
+        // Taking the last seat sells the conference out.
+        assertTrue(conferenceApi.registerForConference(user, conference.getWebsafeKey())
+                .getResult());
+        facets = conferenceApi.getConferenceFacets();
+        assertEquals(1, facets.getWithSeatsAvailable());
+        assertEquals(1, facets.getSoldOut());
+
+        assertTrue(conferenceApi.unregisterFromConference(user, conference.getWebsafeKey())
+                .getResult());
+        facets = conferenceApi.getConferenceFacets();
+        assertEquals(2, facets.getWithSeatsAvailable());
+        assertEquals(0, facets.getSoldOut());
+    }
+
+    @Test
+    public void testConferenceFacetsAddUpTheShards() throws Exception {
+        Conference conference = new Conference(1, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, ImmutableList.of("Cloud"), "London", null, null, CAP));
+        // Counted by one shard, and no longer counted by another.
+        ConferenceFacets counted = new ConferenceFacets(0);
+        counted.add(conference, 1);
+        counted.add(conference, 1);
+        ConferenceFacets removed = new ConferenceFacets(7);
+        removed.add(conference, -1);
+        ofy().save().entities(counted, removed).now();
+
+        ConferenceFacets facets = conferenceApi.getConferenceFacets();
+        assertEquals(ImmutableMap.of("London", 1), facets.getCities());
+        assertEquals(1, facets.getWithSeatsAvailable());
+
+        removed.add(conference, -1);
+        ofy().save().entity(removed).now();
+        facets = conferenceApi.getConferenceFacets();
+        assertTrue(facets.getCities().isEmpty());
+        assertEquals(0, facets.getWithSeatsAvailable());
+    }
+
+    @Test
+    public void testFeaturedSpeakerIsComputedByOneTask() throws Exception {
+        Conference conference = new Conference(1001L, "organizer",
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        ofy().save().entity(conference).now();
+        String websafeConferenceKey = conference.getWebsafeKey();
+
+        conferenceApi.createSession(user, new SessionForm(
+                "Keynote", null, "Larry", null, 900, null, 60), websafeConferenceKey);
+        // The same speaker, spelled otherwise.
+        conferenceApi.createSession(user, new SessionForm(
+                "Closing", null, " larry ", null, 1700, null, 30), websafeConferenceKey);
+        // The tasks are added asynchronously.
+        for (int i = 0; i < 200 && countTasks("/tasks/set_featured_speaker") == 0; i++) {
+            Thread.sleep(10);
+        }
+        // Only the second session can make Larry featured, so only it schedules a task.
+        assertEquals(1, countTasks("/tasks/set_featured_speaker"));
+        assertNull(conferenceApi.getFeaturedSpeaker(websafeConferenceKey));
+
+        // Run the task.
+        FeaturedSpeakers.recompute(websafeConferenceKey);
+        assertEquals("Larry: Keynote, Closing",
+                conferenceApi.getFeaturedSpeaker(websafeConferenceKey).getMessage());
+    }
+
+    @Test
+    public void testAgenda() throws Exception {
+        Conference conference = new Conference(1001L, "organizer",
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        ofy().save().entity(conference).now();
+        String websafeConferenceKey = conference.getWebsafeKey();
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date day1 = dateFormat.parse("03/25/2014");
+        Date day2 = dateFormat.parse("03/26/2014");
+
+        Session closing = conferenceApi.createSession(user, new SessionForm(
+                "Closing", null, "Larry", "Keynote", 17, day2, 30), websafeConferenceKey);
+        Session workshop = conferenceApi.createSession(user, new SessionForm(
+                "Workshop", null, "Sergey", "Workshop", 13, day1, 120), websafeConferenceKey);
+        Session keynote = conferenceApi.createSession(user, new SessionForm(
+                "Keynote", null, "Larry", "Keynote", 9, day1, 60), websafeConferenceKey);
+
+        CollectionResponse<Session> page =
+                conferenceApi.getConferenceSessions(websafeConferenceKey, 2, null, null);
+        assertEquals(ImmutableList.of(keynote.getId(), workshop.getId()), ids(page.getItems()));
+        page = conferenceApi.getConferenceSessions(websafeConferenceKey, 2,
+                page.getNextPageToken(), null);
+        assertEquals(ImmutableList.of(closing.getId()), ids(page.getItems()));
+        assertNull(page.getNextPageToken());
+        assertEquals(ImmutableList.of(keynote.getId(), closing.getId()), ids(
+                conferenceApi.getConferenceSessionsByType(websafeConferenceKey, "Keynote")));
+        assertEquals(NAME, conferenceApi.getConferenceSessionsByType(websafeConferenceKey,
+                "Workshop").get(0).getConferenceName());
+
+        // An agenda lost or never built is rebuilt from the sessions.
+        ofy().delete().key(Agenda.createKey(websafeConferenceKey)).now();
+        ofy().clear();
+        page = conferenceApi.getConferenceSessions(websafeConferenceKey, null, null, null);
+        assertEquals(ImmutableList.of(keynote.getId(), workshop.getId(), closing.getId()),
+                ids(page.getItems()));
+    }
+
+    @Test
+    public void testNoAgendaWithoutConference() throws Exception {
+        String websafeConferenceKey = Key.create(Key.create(Profile.class, USER_ID),
+                Conference.class, 1001L).getString();
+        assertTrue(conferenceApi.getConferenceSessions(websafeConferenceKey, null, null, null)
+                .getItems().isEmpty());
+        assertNull(ofy().load().key(Agenda.createKey(websafeConferenceKey)).now());
+    }
+
+    @Test
+    public void testSessionsBySpeaker() throws Exception {
+        Conference conference = new Conference(1001L, "organizer",
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        ofy().save().entity(conference).now();
+        String websafeConferenceKey = conference.getWebsafeKey();
+
+        Session keynote = conferenceApi.createSession(user, new SessionForm(
+                "Keynote", null, "Larry Page", null, 9, null, 60), websafeConferenceKey);
+        conferenceApi.createSession(user, new SessionForm(
+                "Workshop", null, "Sergey", null, 13, null, 120), websafeConferenceKey);
+        Session closing = conferenceApi.createSession(user, new SessionForm(
+                "Closing", null, " larry  PAGE", null, 17, null, 30), websafeConferenceKey);
+
+        Speaker speaker = ofy().load().key(Speaker.createKey("Larry Page")).now();
+        assertEquals("Larry Page", speaker.getName());
+        assertEquals(2, speaker.getSessionCount(websafeConferenceKey));
+
+        CollectionResponse<Session> page =
+                conferenceApi.getSessionsBySpeaker("LARRY page ", 1, null);
+        assertEquals(ImmutableList.of(keynote.getId()), ids(page.getItems()));
+        assertEquals(NAME, page.getItems().iterator().next().getConferenceName());
+        page = conferenceApi.getSessionsBySpeaker("LARRY page ", 1, page.getNextPageToken());
+        assertEquals(ImmutableList.of(closing.getId()), ids(page.getItems()));
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test
+    public void testSaveProfileCopiesTheNewNameOntoTheConferences() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference conference = conferenceApi.createConference(user,
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        assertEquals(DISPLAY_NAME, conference.getOrganizerDisplayName());
+
+        conferenceApi.saveProfile(user, new ProfileForm("New Name", TEE_SHIRT_SIZE));
+        assertEquals(1, countTasks("/tasks/update_organizer_display_name"));
+        // Saving the same name again copies nothing.
+        conferenceApi.saveProfile(user, new ProfileForm("New Name", TEE_SHIRT_SIZE));
+        assertEquals(1, countTasks("/tasks/update_organizer_display_name"));
+
+        new UpdateOrganizerDisplayNameServlet().service(
+                taskRequest(ImmutableMap.of("userId", USER_ID)), response());
+        ofy().clear();
+        assertEquals("New Name", ofy().load().entity(conference).now()
+                .getOrganizerDisplayName());
+        assertEquals("New Name", conferenceApi.getConference(conference.getWebsafeKey(), null)
+                .getOrganizerDisplayName());
+    }
+
+    @Test
+    public void testRenameConferenceUpdatesItsSessions() throws Exception {
+        Conference conference = conferenceApi.createConference(user,
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        String websafeConferenceKey = conference.getWebsafeKey();
+        Session keynote = conferenceApi.createSession(user, new SessionForm(
+                "Keynote", null, "Larry Page", null, 9, null, 60), websafeConferenceKey);
+        assertEquals(NAME, conferenceApi.getConferenceSessions(websafeConferenceKey, null, null,
+                null).getItems().iterator().next().getConferenceName());
+
+        conferenceApi.updateConference(user, new ConferenceForm(
+                "GCP Next", DESCRIPTION, null, CITY, null, null, CAP), websafeConferenceKey);
+        assertEquals(1, countTasks("/tasks/rename_conference"));
+        // A change that keeps the name doesn't rewrite the sessions.
+        conferenceApi.updateConference(user, new ConferenceForm(
+                "GCP Next", DESCRIPTION, null, "Tokyo", null, null, CAP), websafeConferenceKey);
+        assertEquals(1, countTasks("/tasks/rename_conference"));
+
+        ConferenceRenames.update(websafeConferenceKey, null);
+        ofy().clear();
+        assertEquals("GCP Next", ofy().load().entity(keynote).now().getConferenceName());
+        assertEquals("GCP Next", conferenceApi.getConferenceSessions(websafeConferenceKey, null,
+                null, null).getItems().iterator().next().getConferenceName());
+    }
+
+    @Test
+    public void testGarbageCursorIsABadRequest() throws Exception {
+        Conference conference = conferenceApi.createConference(user,
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        try {
+            conferenceApi.getConferencesCreated(user, null, "not a cursor");
+            fail();
+        } catch (BadRequestException e) {
+            assertEquals("Invalid cursor: not a cursor", e.getMessage());
+        }
+        try {
+            conferenceApi.querySessions(new SessionQueryForm().cursor("%%%"));
+            fail();
+        } catch (BadRequestException e) {
+            // Expected.
+        }
+        try {
+            conferenceApi.getConferenceSessions(conference.getWebsafeKey(), null, "ten", null);
+            fail();
+        } catch (BadRequestException e) {
+            // Expected.
+        }
+        assertEquals(1, conferenceApi.getConferencesCreated(user, null, "").getItems().size());
+    }
+
+    @Test
+    public void testWishlistAnswersMissingAndDuplicateSessions() throws Exception {
+        Conference conference = conferenceApi.createConference(user,
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        Session missing = new Session(1L, conference.getWebsafeKey(),
+                new SessionForm("Keynote", null, null, null, 9, null, 60));
+        try {
+            conferenceApi.addSessionToWishlist(user, missing.getWebsafeKey());
+            fail();
+        } catch (NotFoundException e) {
+            assertTrue(e.getMessage().startsWith("No Session found with key"));
+        }
+
+        Session session = conferenceApi.createSession(user, new SessionForm(
+                "Keynote", null, null, null, 9, null, 60), conference.getWebsafeKey());
+        assertTrue(conferenceApi.addSessionToWishlist(user, session.getWebsafeKey())
+                .getResult());
+        try {
+            conferenceApi.addSessionToWishlist(user, session.getWebsafeKey());
+            fail();
+        } catch (ConflictException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testWishlistSchedule() throws Exception {
+        Conference conference = new Conference(1001L, "organizer",
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        ofy().save().entity(conference).now();
+        String websafeConferenceKey = conference.getWebsafeKey();
+        Date day = new SimpleDateFormat("yyyy-MM-dd").parse("2015-03-02");
+
+        List<Session> sessions = new ArrayList<>();
+        for (SessionForm sessionForm : ImmutableList.of(
+                new SessionForm("Keynote", null, null, null, 9, day, 60),
+                new SessionForm("Hackathon", null, null, null, 9, day, 180),
+                new SessionForm("Workshop", null, null, null, 10, day, 60),
+                new SessionForm("Panel", null, null, null, 11, day, 60),
+                new SessionForm("Closing", null, null, null, 14, day, 60),
+                new SessionForm("Office hours", null, null, null, 0, null, 60))) {
+            Session session = conferenceApi.createSession(user, sessionForm,
+                    websafeConferenceKey);
+            conferenceApi.addSessionToWishlist(user, session.getWebsafeKey());
+            sessions.add(session);
+        }
+
+        WishlistSchedule schedule = conferenceApi.getWishlistSchedule(user);
+        assertEquals(1, schedule.getConflicts().size());
+        ScheduleConflict conflict = schedule.getConflicts().get(0);
+        assertEquals(ImmutableList.of(sessions.get(0).getId(), sessions.get(1).getId(),
+                sessions.get(2).getId(), sessions.get(3).getId()), ids(conflict.getSessions()));
+        assertEquals(sessions.get(0).getDate(), conflict.getStart());
+        // The hackathon is as long as the three sessions it overlaps, which win the tie.
+        assertEquals(ImmutableList.of(sessions.get(0).getId(), sessions.get(2).getId(),
+                sessions.get(3).getId(), sessions.get(4).getId()), ids(schedule.getSchedule()));
+        assertEquals(240, schedule.getScheduledMinutes());
+        assertEquals(ImmutableList.of(sessions.get(5).getId()), ids(schedule.getUnscheduled()));
+        assertEquals(NAME, schedule.getSchedule().get(0).getConferenceName());
+    }
+
+    @Test
+    public void testConditionalReads() throws Exception {
+        Conference conference = new Conference(1001L, "organizer",
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        ofy().save().entity(conference).now();
+        String websafeConferenceKey = conference.getWebsafeKey();
+        String etag = conferenceApi.getConference(websafeConferenceKey, null).getEtag();
+        assertNotNull(etag);
+
+        long loads = Metrics.get("etags.misses");
+        try {
+            conferenceApi.getConference(websafeConferenceKey, ifNoneMatch(etag));
+            fail("The conference didn't change");
+        } catch (NotModifiedException e) {
+            assertEquals(412, e.getStatusCode());
+            assertEquals(etag, e.getEtag());
+            assertEquals("Not modified: " + etag, e.getMessage());
+        }
+        assertEquals(loads, Metrics.get("etags.misses"));
+
+        // A save rolled back leaves the ETag the clients have.
+        final Key<Conference> conferenceKey = Key.create(conference);
+        try {
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    ofy().save().entity(ofy().load().key(conferenceKey).now()).now();
+                    throw new IllegalStateException("Rolled back");
+                }
+            });
+            fail("The transaction should have rolled back");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            conferenceApi.getConference(websafeConferenceKey, ifNoneMatch(etag));
+            fail("The conference didn't change");
+        } catch (NotModifiedException expected) {
+        }
+
+        conferenceApi.registerForConference(user, websafeConferenceKey);
+        Conference changed = conferenceApi.getConference(websafeConferenceKey,
+                ifNoneMatch(etag));
+        assertEquals(CAP - 1, changed.getSeatsAvailable());
+        assertFalse(etag.equals(changed.getEtag()));
+
+        String attendEtag = conferenceApi.getConferencesToAttend(user, null).getEtag();
+        try {
+            conferenceApi.getConferencesToAttend(user, ifNoneMatch(attendEtag));
+            fail("The conferences to attend didn't change");
+        } catch (NotModifiedException expected) {
+        }
+
+        conferenceApi.createSession(user, new SessionForm(
+                "Keynote", null, null, null, 9, null, 60), websafeConferenceKey);
+        String sessionsEtag =
+                conferenceApi.getConferenceSessions(websafeConferenceKey, null, null, null)
+                .getEtag();
+        try {
+            conferenceApi.getConferenceSessions(websafeConferenceKey, null, null,
+                    ifNoneMatch(sessionsEtag));
+            fail("The sessions didn't change");
+        } catch (NotModifiedException expected) {
+        }
+        // Another page has another ETag.
+        assertEquals(1, conferenceApi.getConferenceSessions(websafeConferenceKey, 1, null,
+                ifNoneMatch(sessionsEtag)).getItems().size());
+        conferenceApi.createSession(user, new SessionForm(
+                "Closing", null, null, null, 17, null, 30), websafeConferenceKey);
+        assertEquals(2, conferenceApi.getConferenceSessions(websafeConferenceKey, null, null,
+                ifNoneMatch(sessionsEtag)).getItems().size());
+    }
+
+    /**
+     * Returns a request with the given If-None-Match header.
+     */
+    private static HttpServletRequest ifNoneMatch(final String etag) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                HttpServletRequest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getHeader") && "If-None-Match".equals(args[0])) {
+                    return etag;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Returns a POST request of a task with the given parameters.
+     */
+    private static HttpServletRequest taskRequest(final Map<String, String> parameters) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                HttpServletRequest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getMethod")) {
+                    return "POST";
+                } else if (method.getName().equals("getParameter")) {
+                    return parameters.get(args[0]);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Returns a response that ignores what is written to it.
+     */
+    private static HttpServletResponse response() {
+        return (HttpServletResponse) Proxy.newProxyInstance(
+                HttpServletResponse.class.getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+    }
+
+    private static int countTasks(String url) {
+        QueueStateInfo queue = LocalTaskQueueTestConfig.getLocalTaskQueue()
+                .getQueueStateInfo().get(QueueFactory.getDefaultQueue().getQueueName());
+        int count = 0;
+        for (QueueStateInfo.TaskStateInfo task : queue.getTaskInfo()) {
+            if (task.getUrl().equals(url)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<Long> ids(Collection<Session> sessions) {
+        List<Long> ids = new ArrayList<>();
+        for (Session session : sessions) {
+            ids.add(session.getId());
+        }
+        return ids;
+    }
 
     /*
     @Test
@@ -237,7 +804,7 @@ public class ConferenceApiTest {
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
         Conference conference = conferenceApi.createConference(user, conferenceForm);
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
@@ -270,7 +837,7 @@ public class ConferenceApiTest {
         // Registration
         Boolean result = conferenceApi.registerForConference(
                 user, conference.getWebsafeKey()).getResult();
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("registerForConference should succeed.", result);
         assertEquals(CAP - 1, conference.getSeatsAvailable());
@@ -280,7 +847,7 @@ public class ConferenceApiTest {
         // Unregister
         result = conferenceApi.unregisterFromConference(
                 user, conference.getWebsafeKey()).getResult();
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("unregisterFromConference should succeed.", result);
         assertEquals(CAP, conference.getSeatsAvailable());